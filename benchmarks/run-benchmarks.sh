@@ -0,0 +1,21 @@
+#!/bin/sh
+##############################################################################
+# Script to run the cyclehunter JMH benchmarks.
+#
+# Notes: Make sure you have installed the application and packaged the
+# benchmarks first:
+#
+#     (cd .. && mvn install)
+#     mvn package
+#
+# Results are written as JSON to jmh-result-<date>-<time>.json, unless
+# -rf or -rff options say otherwise.  Any JMH options can be passed, for example
+# a regular expression to run only some benchmarks:
+#
+#     ./run-benchmarks.sh CsvLoad -p numBars=1000000
+#
+##############################################################################
+
+java -jar target/benchmarks.jar "$@"
+
+##############################################################################
@@ -0,0 +1,31 @@
+package com.ryanluu.cyclehunter.benchmarks;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar.  Runs JMH with the given options,
+ * adding options to write the results as JSON if none were given, so
+ * that every run leaves a file that can be compared with other runs.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+
+        if (!options.contains("-rf")) {
+            options.add(0, "-rf");
+            options.add(1, "json");
+        }
+        if (!options.contains("-rff")) {
+            String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            options.add(0, "-rff");
+            options.add(1, "jmh-result-" + timestamp + ".json");
+        }
+
+        org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+    }
+}
@@ -0,0 +1,75 @@
+package com.ryanluu.cyclehunter.benchmarks;
+
+import com.ryanluu.cyclehunter.model.ColumnStorage;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Price bars kept on the heap against off it: appending, reading every
+ * bar, and a range query through the pyramid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnStorageBenchmark {
+
+    @Param({"1000000"})
+    public int numBars;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public String storage;
+
+    private ColumnStorage columnStorage;
+    private double[] jd;
+    private long[][] bars;
+    private PriceBarSeries series;
+
+    @Setup
+    public void setup() {
+        columnStorage = storage.equals("OFF_HEAP") ?
+                ColumnStorage.OFF_HEAP : ColumnStorage.HEAP;
+        jd = SyntheticData.dailyTimestamps(numBars);
+        bars = SyntheticData.randomWalk(numBars, 1L);
+        series = appendUnscaled();
+        series.getPyramid();
+    }
+
+    @Benchmark
+    public PriceBarSeries appendUnscaled() {
+        PriceBarSeries rv = new PriceBarSeries(2, 1024, columnStorage);
+        for (int i = 0; i < numBars; i++) {
+            rv.append(jd[i], bars[0][i], bars[1][i], bars[2][i], bars[3][i],
+                    bars[4][i], bars[5][i]);
+        }
+        return rv;
+    }
+
+    @Benchmark
+    public long scanHighsAndLows() {
+        long rv = 0;
+        for (int i = 0; i < numBars; i++) {
+            rv += series.getHighPriceUnscaled(i) - series.getLowPriceUnscaled(i);
+        }
+        return rv;
+    }
+
+    @Benchmark
+    public long pyramidRangeHigh() {
+        return series.getPyramid().getHighestHighUnscaled(numBars / 7, numBars - 3);
+    }
+}
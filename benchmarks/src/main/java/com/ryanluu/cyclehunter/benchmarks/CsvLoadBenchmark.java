@@ -0,0 +1,71 @@
+package com.ryanluu.cyclehunter.benchmarks;
+
+import com.ryanluu.cyclehunter.data.PriceBarCsvLoader;
+import com.ryanluu.cyclehunter.data.ProgressListener;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a CSV file of price bars from disk with PriceBarCsvLoader,
+ * on one thread and on all of them.  The file is written once per
+ * trial, so after the first load it comes from the page cache, and
+ * this measures parsing rather than the disk.  Divide the file size
+ * (about 56 bytes per bar) by the time for the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvLoadBenchmark {
+
+    @Param({"DAILY", "MINUTE"})
+    public String format;
+
+    @Param({"1000000"})
+    public int numBars;
+
+    /**
+     * Threads to parse with, 0 meaning all processors.
+     */
+    @Param({"1", "0"})
+    public int parallelism;
+
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] csv = "MINUTE".equals(format) ?
+                SyntheticData.minuteCsv(numBars, 1L) :
+                SyntheticData.dailyCsv(numBars, 1L);
+        file = Files.createTempFile("cyclehunter-benchmark", ".csv");
+        Files.write(file, csv);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public PriceBarSeries load() throws IOException {
+        return new PriceBarCsvLoader(parallelism).load(file, ProgressListener.NONE);
+    }
+}
@@ -0,0 +1,117 @@
+package com.ryanluu.cyclehunter.benchmarks;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTable;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableService;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import swisseph.SweConst;
+import swisseph.SwissEph;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Planet longitudes: for every bar of a daily history from the shared
+ * EphemerisTables, one at a time straight from the Swiss Ephemeris
+ * for comparison, and building a table from nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EphemerisBenchmark {
+
+    @Param({"Moon", "Jupiter", "TrueNorthNode"})
+    public String planetName;
+
+    /**
+     * Number of daily bars, 17000 being about 65 years.
+     */
+    @Param({"17000"})
+    public int numBars;
+
+    private PlanetSelection planetSelection;
+    private int planetId;
+    private double[] jd;
+    private double[] longitude;
+
+    private SwissEph swissEph;
+    private final double[] xx = new double[6];
+    private final StringBuffer serr = new StringBuffer();
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        planetSelection = new PlanetSelection(planetName,
+                PlanetSelection.Centricity.GEOCENTRIC, true);
+        planetId = Ephemeris.getPlanetIdForName(planetName);
+        jd = SyntheticData.dailyTimestamps(numBars);
+        longitude = new double[numBars];
+
+        // Build the shared table outside the measurements.
+        Ephemeris.calculateLongitudes(planetSelection, jd, longitude, null);
+
+        swissEph = new SwissEph();
+    }
+
+    @TearDown
+    public void tearDown() {
+        swissEph.swe_close();
+    }
+
+    /**
+     * Longitudes of every bar from the shared table.
+     */
+    @Benchmark
+    public double[] longitudesFromTable() {
+        Ephemeris.calculateLongitudes(planetSelection, jd, longitude, null);
+        return longitude;
+    }
+
+    /**
+     * One longitude straight from the Swiss Ephemeris.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double longitudeFromSwissEph() {
+        double t = jd[next];
+        next = (next + 1 == jd.length) ? 0 : next + 1;
+        serr.setLength(0);
+        swissEph.swe_calc_ut(t, planetId,
+                SweConst.SEFLG_SWIEPH | SweConst.SEFLG_SPEED, xx, serr);
+        return xx[0];
+    }
+
+    /**
+     * Building the table for the bars' date range with a new service,
+     * including the margins the service adds.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public EphemerisTable buildTable() {
+        EphemerisTableService service = new EphemerisTableService();
+        try {
+            return service.getTable(planetId, PlanetSelection.Centricity.GEOCENTRIC,
+                    jd[0], jd[jd.length - 1]);
+        }
+        finally {
+            service.getSwissEphPool().close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.ryanluu.cyclehunter.benchmarks;
+
+import com.ryanluu.cyclehunter.engine.LookbackEngine;
+import com.ryanluu.cyclehunter.engine.LookbackResult;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping lookback times to bar indexes, which every lookback does for
+ * every bar, and whole lookbacks of a synthetic body, which exercise
+ * the engine without the Swiss Ephemeris.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookbackMappingBenchmark {
+
+    /**
+     * Number of one minute bars, 1000000 being about ten years.
+     */
+    @Param({"1000000"})
+    public int numBars;
+
+    private double[] barJd;
+    private double[] lookbackJd;
+    private int[] barIndex;
+
+    private LookbackEngine engine;
+    private PriceBarSeries series;
+    private PlanetSelection calendarDay;
+    private List<LookbackMultiple> multiples;
+
+    @Setup
+    public void setup() {
+        barJd = SyntheticData.minuteTimestamps(numBars);
+        barIndex = new int[numBars];
+
+        // Look back about three years, wobbling the way a planet
+        // with a retrograde loop would.
+        lookbackJd = new double[numBars];
+        for (int i = 0; i < numBars; i++) {
+            double t = barJd[i];
+            lookbackJd[i] = t - 1095.0 - 20.0 * Math.sin(2.0 * Math.PI * t / 365.25);
+        }
+
+        series = new PriceBarSeries(2, numBars);
+        long[][] bars = SyntheticData.randomWalk(numBars, 1L);
+        for (int i = 0; i < numBars; i++) {
+            series.append(barJd[i], bars[0][i], bars[1][i], bars[2][i], bars[3][i],
+                    bars[4][i], bars[5][i]);
+        }
+
+        engine = new LookbackEngine();
+        calendarDay = new PlanetSelection("CalendarDay",
+                PlanetSelection.Centricity.GEOCENTRIC, true);
+        multiples = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            multiples.add(new LookbackMultiple(String.valueOf(i),
+                    BigDecimal.valueOf(i), Color.GRAY, true));
+        }
+    }
+
+    @Benchmark
+    public int[] mapToBarIndexes() {
+        LookbackEngine.mapToBarIndexes(barJd, lookbackJd, 0, numBars, barIndex);
+        return barIndex;
+    }
+
+    @Benchmark
+    public List<LookbackResult> calendarDayLookbacks() {
+        return engine.computeAll(series, calendarDay, multiples);
+    }
+}
@@ -0,0 +1,64 @@
+package com.ryanluu.cyclehunter.benchmarks;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting between planet names and Swiss Ephemeris IDs, which is
+ * done for every PlanetSelection whenever lookbacks are computed.
+ * Each operation converts all the names in
+ * SyntheticData.PLANET_NAMES, plus two that are not planets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlanetLookupBenchmark {
+
+    private String[] names;
+    private int[] ids;
+
+    @Setup
+    public void setup() {
+        names = new String[SyntheticData.PLANET_NAMES.length + 2];
+        System.arraycopy(SyntheticData.PLANET_NAMES, 0, names, 0,
+                SyntheticData.PLANET_NAMES.length);
+        names[names.length - 2] = "Ascendant";
+        names[names.length - 1] = "CalendarDay";
+
+        ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = Ephemeris.getPlanetIdForName(names[i]);
+        }
+    }
+
+    @Benchmark
+    public int planetIdForName() {
+        int sum = 0;
+        for (String name : names) {
+            sum += Ephemeris.getPlanetIdForName(name);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void planetNameForId(Blackhole blackhole) {
+        for (int id : ids) {
+            blackhole.consume(Ephemeris.getPlanetNameForId(id));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.ryanluu.cyclehunter.benchmarks;
+
+import com.ryanluu.cyclehunter.data.PriceBarCsvParser;
+import com.ryanluu.cyclehunter.model.PriceBar;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Making price bars: PriceBar objects with BigDecimal prices, appending
+ * to a PriceBarSeries in fixed point or from PriceBar objects, and
+ * parsing CSV text already in memory, which is the part of a CSV load
+ * that does not depend on the disk or the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriceBarBenchmark {
+
+    @Param({"100000"})
+    public int numBars;
+
+    private double[] jd;
+    private long[][] bars;
+    private List<PriceBar> priceBars;
+    private ByteBuffer csv;
+
+    @Setup
+    public void setup() {
+        jd = SyntheticData.dailyTimestamps(numBars);
+        bars = SyntheticData.randomWalk(numBars, 1L);
+        priceBars = SyntheticData.priceBars(numBars, 1L);
+        csv = ByteBuffer.wrap(SyntheticData.dailyCsv(numBars, 1L));
+    }
+
+    @Benchmark
+    public List<PriceBar> constructPriceBars() {
+        List<PriceBar> rv = new ArrayList<>(numBars);
+        for (int i = 0; i < numBars; i++) {
+            rv.add(new PriceBar(jd[i],
+                    BigDecimal.valueOf(bars[0][i], 2),
+                    BigDecimal.valueOf(bars[1][i], 2),
+                    BigDecimal.valueOf(bars[2][i], 2),
+                    BigDecimal.valueOf(bars[3][i], 2),
+                    (int) bars[5][i],
+                    (int) bars[4][i]));
+        }
+        return rv;
+    }
+
+    @Benchmark
+    public PriceBarSeries appendUnscaled() {
+        PriceBarSeries rv = new PriceBarSeries(2, numBars);
+        for (int i = 0; i < numBars; i++) {
+            rv.append(jd[i], bars[0][i], bars[1][i], bars[2][i], bars[3][i],
+                    bars[4][i], bars[5][i]);
+        }
+        return rv;
+    }
+
+    @Benchmark
+    public PriceBarSeries appendPriceBars() {
+        PriceBarSeries rv = new PriceBarSeries(2, numBars);
+        for (PriceBar priceBar : priceBars) {
+            rv.append(priceBar);
+        }
+        return rv;
+    }
+
+    @Benchmark
+    public PriceBarSeries parseCsvInMemory() {
+        PriceBarSeries rv = new PriceBarSeries(2, numBars);
+        new PriceBarCsvParser(2).parse(csv, 0, csv.limit(), rv);
+        return rv;
+    }
+}
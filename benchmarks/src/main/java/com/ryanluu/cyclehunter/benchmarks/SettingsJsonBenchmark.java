@@ -0,0 +1,69 @@
+package com.ryanluu.cyclehunter.benchmarks;
+
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading the settings as JSON, the way
+ * CycleHunterSettings.saveSettings() and loadSettings() do it: with a
+ * new ObjectMapper each time, to and from a file.  The file is in the
+ * temporary directory rather than the settings directory, so running
+ * the benchmark does not touch the user's settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SettingsJsonBenchmark {
+
+    /**
+     * Number of custom lookback multiples: the default 14, and a
+     * heavily customised list.
+     */
+    @Param({"14", "500"})
+    public int numCustomMultiples;
+
+    private CycleHunterSettings settings;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        settings = SyntheticData.settings(numCustomMultiples);
+        file = File.createTempFile("cyclehunter-benchmark", ".json");
+        new ObjectMapper().writeValue(file, settings);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public File save() throws IOException {
+        new ObjectMapper().writeValue(file, settings);
+        return file;
+    }
+
+    @Benchmark
+    public CycleHunterSettings load() throws IOException {
+        return new ObjectMapper().readValue(file, CycleHunterSettings.class);
+    }
+}
@@ -0,0 +1,256 @@
+package com.ryanluu.cyclehunter.benchmarks;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBar;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import javafx.scene.paint.Color;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generators of synthetic but realistic inputs for the benchmarks:
+ * price histories shaped like exchange data (trading days only,
+ * random walk prices with a tick size, volumes and open interest),
+ * the CSV files they would come in, and settings like a user's.
+ *
+ * The generators are seeded, so every run benchmarks the same data.
+ */
+public final class SyntheticData {
+
+    /**
+     * Planets that can be selected, as in the default settings.
+     */
+    public static final String[] PLANET_NAMES = {
+            "Sun", "Moon", "Mercury", "Venus", "Earth", "Mars", "Jupiter",
+            "Saturn", "Uranus", "Neptune", "Pluto", "TrueNorthNode",
+            "MeanNorthNode", "Chiron", "Ceres", "Pallas", "Juno", "Vesta",
+    };
+
+    /**
+     * Number of one minute bars in a trading session (09:30 to 16:00).
+     */
+    public static final int MINUTES_PER_SESSION = 390;
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(1950, 1, 3);
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Returns the trading days (Monday to Friday) from 1950 onwards.
+     */
+    public static LocalDate[] tradingDays(int numDays) {
+        LocalDate[] rv = new LocalDate[numDays];
+        LocalDate date = FIRST_DATE;
+        for (int i = 0; i < numDays; i++) {
+            while (date.getDayOfWeek() == DayOfWeek.SATURDAY ||
+                    date.getDayOfWeek() == DayOfWeek.SUNDAY) {
+                date = date.plusDays(1);
+            }
+            rv[i] = date;
+            date = date.plusDays(1);
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the timestamps of daily bars, one per trading day.
+     */
+    public static double[] dailyTimestamps(int numBars) {
+        LocalDate[] days = tradingDays(numBars);
+        double[] rv = new double[numBars];
+        for (int i = 0; i < numBars; i++) {
+            rv[i] = Ephemeris.julianDay(days[i].getYear(),
+                    days[i].getMonthValue(), days[i].getDayOfMonth(), 0.0);
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the timestamps of one minute bars, MINUTES_PER_SESSION
+     * per trading day.
+     */
+    public static double[] minuteTimestamps(int numBars) {
+        int numDays = (numBars - 1) / MINUTES_PER_SESSION + 1;
+        double[] days = dailyTimestamps(numDays);
+        double[] rv = new double[numBars];
+        for (int i = 0; i < numBars; i++) {
+            int minute = i % MINUTES_PER_SESSION;
+            rv[i] = days[i / MINUTES_PER_SESSION] + (9.5 * 60.0 + minute) / 1440.0;
+        }
+        return rv;
+    }
+
+    /**
+     * Fills arrays with random walk bars, prices in unscaled fixed
+     * point with a tick of 25 (0.25 at a price scale of 2).
+     *
+     * @return long[][] open, high, low, close, volume, open interest.
+     */
+    public static long[][] randomWalk(int numBars, long seed) {
+        Random random = new Random(seed);
+        long[][] rv = new long[6][numBars];
+        long tick = 25;
+        long close = 100000;
+
+        for (int i = 0; i < numBars; i++) {
+            long open = close + tick * (random.nextInt(5) - 2);
+            close = Math.max(tick, open + tick * Math.round(random.nextGaussian() * 8.0));
+            long high = Math.max(open, close) + tick * random.nextInt(6);
+            long low = Math.max(tick, Math.min(open, close) - tick * random.nextInt(6));
+
+            rv[0][i] = open;
+            rv[1][i] = high;
+            rv[2][i] = low;
+            rv[3][i] = close;
+            rv[4][i] = 50000 + random.nextInt(200000);
+            rv[5][i] = 250000 + random.nextInt(50000);
+        }
+
+        return rv;
+    }
+
+    /**
+     * Returns a daily price series with a price scale of 2.
+     */
+    public static PriceBarSeries dailySeries(int numBars, long seed) {
+        double[] jd = dailyTimestamps(numBars);
+        long[][] bars = randomWalk(numBars, seed);
+
+        PriceBarSeries rv = new PriceBarSeries(2, numBars);
+        for (int i = 0; i < numBars; i++) {
+            rv.append(jd[i], bars[0][i], bars[1][i], bars[2][i], bars[3][i],
+                    bars[4][i], bars[5][i]);
+        }
+        return rv;
+    }
+
+    /**
+     * Returns PriceBar objects for random walk bars, as the older
+     * object-per-bar code made them.
+     */
+    public static List<PriceBar> priceBars(int numBars, long seed) {
+        double[] jd = dailyTimestamps(numBars);
+        long[][] bars = randomWalk(numBars, seed);
+
+        List<PriceBar> rv = new ArrayList<>(numBars);
+        for (int i = 0; i < numBars; i++) {
+            rv.add(new PriceBar(jd[i],
+                    BigDecimal.valueOf(bars[0][i], 2),
+                    BigDecimal.valueOf(bars[1][i], 2),
+                    BigDecimal.valueOf(bars[2][i], 2),
+                    BigDecimal.valueOf(bars[3][i], 2),
+                    (int) bars[5][i],
+                    (int) bars[4][i]));
+        }
+        return rv;
+    }
+
+    /**
+     * Returns a daily CSV file in the format of the usual data vendors:
+     * a header, then "MM/dd/yyyy,open,high,low,close,volume,openInt"
+     * lines ending in CR LF.
+     */
+    public static byte[] dailyCsv(int numBars, long seed) {
+        LocalDate[] days = tradingDays(numBars);
+        long[][] bars = randomWalk(numBars, seed);
+
+        StringBuilder sb = new StringBuilder(numBars * 56);
+        sb.append("\"Date\",\"Open\",\"High\",\"Low\",\"Close\",\"Volume\",\"OpenInt\"\r\n");
+        for (int i = 0; i < numBars; i++) {
+            LocalDate day = days[i];
+            pad2(sb, day.getMonthValue()).append('/');
+            pad2(sb, day.getDayOfMonth()).append('/');
+            sb.append(day.getYear()).append(',');
+            appendPrices(sb, bars, i);
+            sb.append(',').append(bars[4][i]).append(',').append(bars[5][i]).append("\r\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns a one minute CSV file with "yyyy-MM-dd HH:mm" timestamps
+     * and no open interest, lines ending in LF.
+     */
+    public static byte[] minuteCsv(int numBars, long seed) {
+        int numDays = (numBars - 1) / MINUTES_PER_SESSION + 1;
+        LocalDate[] days = tradingDays(numDays);
+        long[][] bars = randomWalk(numBars, seed);
+
+        StringBuilder sb = new StringBuilder(numBars * 56);
+        for (int i = 0; i < numBars; i++) {
+            LocalDate day = days[i / MINUTES_PER_SESSION];
+            int minuteOfDay = 9 * 60 + 30 + i % MINUTES_PER_SESSION;
+            sb.append(day.getYear()).append('-');
+            pad2(sb, day.getMonthValue()).append('-');
+            pad2(sb, day.getDayOfMonth()).append(' ');
+            pad2(sb, minuteOfDay / 60).append(':');
+            pad2(sb, minuteOfDay % 60).append(',');
+            appendPrices(sb, bars, i);
+            sb.append(',').append(bars[4][i]).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns settings with both centricities of every planet and the
+     * given number of custom lookback multiples, some enabled.
+     */
+    public static CycleHunterSettings settings(int numCustomMultiples) {
+        CycleHunterSettings rv = new CycleHunterSettings();
+        rv.setLastOpenedCsvFilename("/home/user/data/ES-daily.csv");
+
+        List<PlanetSelection> planets = new LinkedList<>();
+        for (PlanetSelection.Centricity centricity : PlanetSelection.Centricity.values()) {
+            for (int i = 0; i < PLANET_NAMES.length; i++) {
+                planets.add(new PlanetSelection(PLANET_NAMES[i], centricity, i % 3 == 0));
+            }
+        }
+        rv.setPlanetSelectionList(planets);
+
+        List<LookbackMultiple> custom = new LinkedList<>();
+        for (int i = 1; i <= numCustomMultiples; i++) {
+            custom.add(new LookbackMultiple(String.valueOf(i),
+                    BigDecimal.valueOf(i * 25, 2), Color.GRAY, i % 4 == 0));
+        }
+        rv.setCustomLookbackMultiplesList(custom);
+
+        List<LookbackMultiple> fixed = new LinkedList<>();
+        double phi = (1.0 + Math.sqrt(5.0)) / 2.0;
+        for (int i = 1; i <= 8; i++) {
+            fixed.add(new LookbackMultiple(String.format("sqrt(phi) ^ %d", i),
+                    new BigDecimal(Math.pow(Math.sqrt(phi), i)), Color.GRAY, false));
+        }
+        rv.setFixedLookbackMultiplesList(fixed);
+
+        return rv;
+    }
+
+    private static void appendPrices(StringBuilder sb, long[][] bars, int i) {
+        for (int field = 0; field < 4; field++) {
+            if (field > 0) {
+                sb.append(',');
+            }
+            long price = bars[field][i];
+            sb.append(price / 100).append('.');
+            pad2(sb, (int) (price % 100));
+        }
+    }
+
+    private static StringBuilder pad2(StringBuilder sb, int value) {
+        if (value < 10) {
+            sb.append('0');
+        }
+        return sb.append(value);
+    }
+}
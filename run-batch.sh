@@ -0,0 +1,31 @@
+#!/bin/sh
+##############################################################################
+# Script to run cyclehunter's batch mode, which analyses CSV files without
+# a display and writes the results to files.  For example:
+#
+#     ./run-batch.sh --settings cycleHunterSettings.json --out results data/
+#
+# Run it with --help for the options.
+#
+# Notes: Make sure you have compiled and packaged the application first:
+# 
+#     mvn compile
+#     mvn package
+#
+# The classpath of the dependencies is worked out with maven the first
+# time, and kept in target/classpath.txt, so that later runs start the
+# JVM directly instead of through maven.
+#
+##############################################################################
+
+cd "$(dirname "$0")"
+
+if [ ! -f target/classpath.txt ]; then
+    mvn -q dependency:build-classpath -Dmdep.outputFile=target/classpath.txt || exit 1
+fi
+
+# Run cyclehunter's batch main.
+java -cp "target/classes:$(cat target/classpath.txt)" \
+    com.ryanluu.cyclehunter.BatchRunner "$@"
+
+##############################################################################
@@ -1,15 +1,53 @@
 package com.ryanluu.cyclehunter;
 
+import com.ryanluu.cyclehunter.data.PriceBarCache;
+import com.ryanluu.cyclehunter.data.PriceBarCsvLoader;
+import com.ryanluu.cyclehunter.data.PriceBarCsvTailer;
+import com.ryanluu.cyclehunter.engine.LookbackRecomputer;
+import com.ryanluu.cyclehunter.engine.MultipleSweep;
+import com.ryanluu.cyclehunter.engine.OverlayDiff;
+import com.ryanluu.cyclehunter.engine.OverlaySpec;
+import com.ryanluu.cyclehunter.engine.SweepCurve;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableCache;
+import com.ryanluu.cyclehunter.ephemeris.SwissEphPool;
+import com.ryanluu.cyclehunter.ephemeris.SyntheticBodies;
 import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import com.ryanluu.cyclehunter.spectral.SpectralAnalysis;
+import com.ryanluu.cyclehunter.spectral.SpectralAnalyzer;
+import com.ryanluu.cyclehunter.task.TaskScheduler;
+import com.ryanluu.cyclehunter.ui.PriceChart;
 import com.ryanluu.cyclehunter.ui.SettingsPane;
+import com.ryanluu.cyclehunter.ui.SweepChart;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.TextArea;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
 import javafx.stage.Stage;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 
 public class App extends Application {
 
@@ -24,10 +62,98 @@ public class App extends Application {
 
     /**
      * Holds the absolute canonical path of the CSV file
-     * containing the price bar OHLC information.
+     * containing the price bar OHLC information that is shown,
+     * or is to be shown once it has loaded.
      */
     private String priceBarCsvFilename = "";
 
+    /**
+     * Price bars of the instrument shown in the chart.
+     * This is null until a file has been loaded.
+     */
+    private PriceBarSeries priceBarSeries = null;
+
+    /**
+     * Instruments that are open, which share their planet data.
+     */
+    private Workspace workspace;
+
+    /**
+     * Instrument shown in the chart, or null if there is none.
+     */
+    private Workspace.Instrument currentInstrument = null;
+
+    /**
+     * Chooses the instrument shown in the chart.
+     */
+    private ChoiceBox<String> symbolChoiceBox;
+
+    /**
+     * Followers of the files of the instruments, by symbol, while
+     * live updates are on.
+     */
+    private final Map<String, PriceBarCsvTailer> tailers = new HashMap<>();
+
+    /**
+     * Bars read from the followed files that have not been appended
+     * yet, because a background job was reading the price bars.
+     * Only touched on the JavaFX Application Thread.
+     */
+    private final Map<Workspace.Instrument, List<PriceBarSeries>> pendingBars =
+            new LinkedHashMap<>();
+
+    /**
+     * Chart of the price bars, in the center of the window.
+     */
+    private PriceChart priceChart;
+
+    private SettingsPane settingsPane;
+
+    /**
+     * Key of the job that loads a price bar CSV file.  The name of the
+     * file is added, so that several files can load at once.
+     */
+    private static final String LOAD_JOB = "load:";
+
+    /**
+     * Key of the job that recomputes the lookback overlays.
+     */
+    private static final String RECOMPUTE_JOB = "recompute";
+
+    /**
+     * Key of the job that sweeps lookback multiples.
+     */
+    private static final String SWEEP_JOB = "sweep";
+
+    /**
+     * Key of the job that works out the spectrum of the prices.
+     */
+    private static final String SPECTRUM_JOB = "spectrum";
+
+    /**
+     * Color of lookback multiples added from a sweep.
+     */
+    private static final Color SWEPT_MULTIPLE_COLOR = Color.ORANGE;
+
+    /**
+     * How long to wait after settings are applied before recomputing,
+     * so that several quick changes are recomputed only once.
+     */
+    private static final long RECOMPUTE_DELAY_MILLIS = 150;
+
+    /**
+     * Runs loading and computation off the JavaFX Application Thread.
+     */
+    private TaskScheduler taskScheduler;
+
+    private MultipleSweep multipleSweep;
+
+    private SpectralAnalyzer spectralAnalyzer;
+
+    // Status bar widgets.
+    private Label statusLabel;
+    private ProgressBar progressBar;
+
 
 
     @Override
@@ -39,6 +165,13 @@ public class App extends Application {
         // Upon failure of loading settings,
         // settings will be null and we should quit.
         settings = CycleHunterSettings.loadSettings();
+
+        // Keep planet tables built in this session for the next one.
+        if (settings != null) {
+            Ephemeris.getTableService().setTableCache(
+                    EphemerisTableCache.inSettingsDirectory());
+            Ephemeris.setSyntheticBodies(SyntheticBodies.forSettings(settings));
+        }
     }
 
     @Override
@@ -55,22 +188,511 @@ public class App extends Application {
 
             BorderPane root = new BorderPane();
 
-            SettingsPane settingsPane = new SettingsPane(settings);
+            settingsPane = new SettingsPane(settings);
+            settingsPane.setOnCsvFileSelected(filename -> {
+                priceBarCsvFilename = filename;
+                loadPriceBarCsvFile(filename);
+            });
+            settingsPane.setOnSettingsApplied(this::handleSettingsApplied);
+            settingsPane.setOnSweepRequested(this::handleSweepRequested);
+            settingsPane.setOnSpectrumRequested(this::handleSpectrumRequested);
+
+            workspace = new Workspace(settings);
+            multipleSweep = new MultipleSweep(workspace.getEngine());
+            spectralAnalyzer = new SpectralAnalyzer();
+            taskScheduler = new TaskScheduler();
+
+            // Bars held back while a job was reading the series are
+            // appended once it has stopped.
+            taskScheduler.setOnIdle(key -> appendPendingBars());
 
+            statusLabel = new Label("");
+            progressBar = new ProgressBar(0);
+            progressBar.setVisible(false);
+            HBox statusBar = new HBox(10);
+            statusBar.getChildren().add(progressBar);
+            statusBar.getChildren().add(statusLabel);
+
+            priceChart = new PriceChart();
+            priceChart.setPrefSize(900, 600);
+
+            symbolChoiceBox = new ChoiceBox<>();
+            symbolChoiceBox.valueProperty().addListener((obs, oldSymbol, newSymbol) -> {
+                if (newSymbol != null &&
+                        (currentInstrument == null ||
+                         !newSymbol.equals(currentInstrument.getSymbol()))) {
+                    showInstrument(newSymbol);
+                }
+            });
+            Button closeButton = new Button("Close");
+            closeButton.setOnAction(e -> closeCurrentInstrument());
+            CheckBox liveCheckBox = new CheckBox("Live");
+            liveCheckBox.setSelected(settings.isLiveUpdatesEnabled());
+            liveCheckBox.selectedProperty().addListener((obs, wasLive, live) ->
+                    setLiveUpdatesEnabled(live));
+            HBox instrumentBar = new HBox(10);
+            instrumentBar.getChildren().add(new Label("Instrument:"));
+            instrumentBar.getChildren().add(symbolChoiceBox);
+            instrumentBar.getChildren().add(closeButton);
+            instrumentBar.getChildren().add(liveCheckBox);
+
+            root.setTop(instrumentBar);
             root.setLeft(settingsPane);
-            // TODO:  add right pane, top pane, bottom pane and center pane.
+            root.setCenter(priceChart);
+            root.setBottom(statusBar);
+            // TODO:  add right pane.
 
             Scene scene = new Scene(root);
 
             primaryStage.setScene(scene);
             primaryStage.show();
 
+            // Load the files that were open last time, if there were any.
+            // The one that was shown is shown again once it has loaded.
+            List<String> openCsvFilenames = new ArrayList<>(settings.getOpenCsvFilenameList());
+            String lastOpenedCsvFilename = settings.getLastOpenedCsvFilename();
+            if (lastOpenedCsvFilename != null && !lastOpenedCsvFilename.isEmpty() &&
+                    !openCsvFilenames.contains(lastOpenedCsvFilename)) {
+                openCsvFilenames.add(lastOpenedCsvFilename);
+            }
+            if (lastOpenedCsvFilename != null) {
+                priceBarCsvFilename = lastOpenedCsvFilename;
+            }
+            for (String filename : openCsvFilenames) {
+                loadPriceBarCsvFile(filename);
+            }
+        }
+    }
+
+    /**
+     * Loads price bars from the given CSV file on a background thread,
+     * and adds them to the workspace.  Progress is shown in the status
+     * bar.  If the file is still loading from before, that load is
+     * cancelled.  The new instrument is shown if it is the file last
+     * chosen, or if nothing is shown yet.
+     *
+     * @param filename Path of the CSV file to load.
+     */
+    private void loadPriceBarCsvFile(String filename) {
+        final int parallelism = settings.getCsvLoadParallelism();
+        final PriceBarCache cache = PriceBarCache.forSettings(settings);
+
+        taskScheduler.<Workspace.Instrument>submit(LOAD_JOB + filename,
+                job -> {
+                    Workspace.Instrument instrument = workspace.load(
+                            Paths.get(filename),
+                            new PriceBarCsvLoader(parallelism), cache, job);
+
+                    // Build the pyramid here rather than on the first
+                    // frame the chart draws.
+                    instrument.getSeries().getPyramid();
+                    return instrument;
+                },
+                instrument -> {
+                    progressBar.setVisible(false);
+                    statusLabel.setText("Loaded " + instrument.getSeries().size() +
+                            " price bars from " + filename);
+
+                    if (!settings.getOpenCsvFilenameList().contains(filename)) {
+                        settings.getOpenCsvFilenameList().add(filename);
+                    }
+                    if (settings.isLiveUpdatesEnabled()) {
+                        follow(instrument);
+                    }
+                    symbolChoiceBox.getItems().setAll(workspace.getSymbols());
+
+                    boolean replacesCurrent = currentInstrument != null &&
+                            currentInstrument.getSymbol().equals(instrument.getSymbol());
+                    if (currentInstrument == null || replacesCurrent ||
+                            filename.equals(priceBarCsvFilename)) {
+                        showInstrument(instrument.getSymbol());
+                    }
+                })
+                .setOnFailed(t -> {
+                    logger.error("Failed to load price bars from file: " + filename, t);
+                    progressBar.setVisible(false);
+                    statusLabel.setText("Failed to load " + filename);
+                })
+                .setOnProgress(progressBar::setProgress);
+
+        progressBar.setProgress(0);
+        progressBar.setVisible(true);
+        statusLabel.setText("Loading " + filename + " ...");
+    }
+
+    /**
+     * Shows an instrument of the workspace in the chart.  Its overlays
+     * are brought up to date with the settings, which computes nothing
+     * if they have not changed since it was last shown.
+     *
+     * @param symbol Symbol of the instrument.
+     */
+    private void showInstrument(String symbol) {
+        Workspace.Instrument instrument = workspace.getInstrument(symbol);
+        if (instrument == null) {
+            return;
+        }
+
+        currentInstrument = instrument;
+        priceBarSeries = instrument.getSeries();
+        if (instrument.getSourcePath() != null) {
+            priceBarCsvFilename = instrument.getSourcePath().toString();
+            settings.setLastOpenedCsvFilename(priceBarCsvFilename);
+        }
+        symbolChoiceBox.setValue(symbol);
+
+        priceChart.setPriceBarSeries(priceBarSeries);
+        recomputeLookbacks(instrument.getRecomputer(),
+                OverlaySpec.fromSettings(settings), 0);
+    }
+
+    /**
+     * Closes the instrument shown in the chart, and shows the first of
+     * the others, if there are any.
+     */
+    private void closeCurrentInstrument() {
+        if (currentInstrument == null) {
+            return;
+        }
+
+        workspace.remove(currentInstrument.getSymbol());
+        unfollow(currentInstrument.getSymbol());
+        pendingBars.remove(currentInstrument);
+        if (currentInstrument.getSourcePath() != null) {
+            settings.getOpenCsvFilenameList().remove(
+                    currentInstrument.getSourcePath().toString());
+        }
+        taskScheduler.cancel(RECOMPUTE_JOB);
+        currentInstrument = null;
+        priceBarSeries = null;
+
+        List<String> symbols = workspace.getSymbols();
+        symbolChoiceBox.getItems().setAll(symbols);
+        if (!symbols.isEmpty()) {
+            showInstrument(symbols.get(0));
+        }
+        else {
+            priceBarCsvFilename = "";
+            settings.setLastOpenedCsvFilename("");
+            priceChart.setPriceBarSeries(null);
+        }
+    }
+
+    /**
+     * Method that is called when the user applies new settings.
+     * Only the lookbacks whose planet or multiple changed are computed,
+     * for the instrument shown.  The others are brought up to date
+     * when they are shown.
+     *
+     * @param s Settings that were applied.
+     */
+    private void handleSettingsApplied(CycleHunterSettings s) {
+        if (currentInstrument == null) {
+            return;
+        }
+
+        // Snapshot the settings here, on the thread that edits them.
+        recomputeLookbacks(currentInstrument.getRecomputer(),
+                OverlaySpec.fromSettings(s), RECOMPUTE_DELAY_MILLIS);
+    }
+
+    /**
+     * Recomputes the lookback overlays of an instrument in the
+     * background, replacing any recomputation still in progress.
+     *
+     * @param recomputer Recomputer of the instrument.
+     * @param specs Overlays wanted.
+     * @param delayMillis How long to wait before starting.
+     */
+    private void recomputeLookbacks(LookbackRecomputer recomputer,
+                                    List<OverlaySpec> specs,
+                                    long delayMillis) {
+        taskScheduler.<OverlayDiff>submit(RECOMPUTE_JOB, delayMillis,
+                job -> recomputer.apply(specs),
+                diff -> {
+                    logger.debug("Lookback overlays updated: " + diff);
+
+                    // The instrument may have been closed meanwhile.
+                    if (currentInstrument == null ||
+                            currentInstrument.getRecomputer() != recomputer) {
+                        return;
+                    }
+
+                    // The chart works out which layers need drawing again.
+                    priceChart.setOverlays(recomputer.getOverlaySpecs(),
+                            recomputer::getResult);
+                })
+                .setOnFailed(t -> {
+                    logger.error("Failed to compute lookbacks.", t);
+                    statusLabel.setText("Failed to compute lookbacks: " +
+                            t.getMessage());
+                });
+    }
+
+    /**
+     * Turns following the files of the instruments on or off.
+     *
+     * @param enabled true to follow the files.
+     */
+    private void setLiveUpdatesEnabled(boolean enabled) {
+        settings.setLiveUpdatesEnabled(enabled);
+        for (Workspace.Instrument instrument : workspace.getInstruments()) {
+            if (enabled) {
+                follow(instrument);
+            }
+            else {
+                unfollow(instrument.getSymbol());
+            }
+        }
+        if (!enabled) {
+            pendingBars.clear();
+        }
+    }
+
+    /**
+     * Starts following the file of an instrument, from where it was
+     * loaded up to.  Any earlier follower of the symbol is stopped.
+     *
+     * @param instrument Instrument to follow the file of.
+     */
+    private void follow(Workspace.Instrument instrument) {
+        unfollow(instrument.getSymbol());
+        if (instrument.getSourcePath() == null) {
+            return;
+        }
+
+        PriceBarSeries series = instrument.getSeries();
+        try {
+            PriceBarCsvTailer tailer = new PriceBarCsvTailer(
+                    instrument.getSourcePath(), series.getPriceScale(),
+                    instrument.getSourceLength(),
+                    series.isEmpty() ? Double.NaN : series.getLastTimestampJd());
+            tailer.start(new PriceBarCsvTailer.Listener() {
+                @Override
+                public void barsAppended(PriceBarSeries bars) {
+                    Platform.runLater(() -> handleBarsAppended(instrument, bars));
+                }
+
+                @Override
+                public void fileRewritten() {
+                    Platform.runLater(() -> {
+                        if (workspace.getInstrument(instrument.getSymbol()) == instrument) {
+                            loadPriceBarCsvFile(instrument.getSourcePath().toString());
+                        }
+                    });
+                }
+
+                @Override
+                public void followFailed(RuntimeException e) {
+                    Platform.runLater(() -> statusLabel.setText(
+                            "Stopped following " + instrument.getSourcePath() +
+                            ": " + e.getMessage()));
+                }
+            });
+            tailers.put(instrument.getSymbol(), tailer);
+        } catch (IOException e) {
+            logger.error("Failed to follow " + instrument.getSourcePath(), e);
+            statusLabel.setText("Failed to follow " + instrument.getSourcePath() +
+                    ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops following the file of an instrument, if it is followed.
+     *
+     * @param symbol Symbol of the instrument.
+     */
+    private void unfollow(String symbol) {
+        PriceBarCsvTailer tailer = tailers.remove(symbol);
+        if (tailer != null) {
+            try {
+                tailer.close();
+            } catch (IOException e) {
+                logger.warn("Failed to stop following " + tailer.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Method that is called when bars have been appended to the file
+     * of an instrument.  They are appended to its series here, on the
+     * thread that draws it, once no background job is reading it.
+     */
+    private void handleBarsAppended(Workspace.Instrument instrument,
+                                    PriceBarSeries bars) {
+        // The instrument may have been closed or loaded again meanwhile.
+        if (workspace.getInstrument(instrument.getSymbol()) != instrument) {
+            return;
+        }
+
+        pendingBars.computeIfAbsent(instrument, k -> new ArrayList<>()).add(bars);
+        appendPendingBars();
+    }
+
+    /**
+     * Appends the bars read from the followed files, unless a
+     * background job is reading price bars, in which case this is
+     * called again by the scheduler once the job has stopped running.
+     */
+    private void appendPendingBars() {
+        if (pendingBars.isEmpty() ||
+                taskScheduler.isBusy(RECOMPUTE_JOB) ||
+                taskScheduler.isBusy(SWEEP_JOB) ||
+                taskScheduler.isBusy(SPECTRUM_JOB)) {
+            return;
+        }
+
+        for (Map.Entry<Workspace.Instrument, List<PriceBarSeries>> entry :
+                pendingBars.entrySet()) {
+            Workspace.Instrument instrument = entry.getKey();
+            int oldSize = instrument.getSeries().size();
+            for (PriceBarSeries bars : entry.getValue()) {
+                instrument.appendBars(bars);
+            }
+
+            if (instrument == currentInstrument) {
+                priceChart.barsAppended(oldSize);
+                LookbackRecomputer recomputer = instrument.getRecomputer();
+                priceChart.setOverlays(recomputer.getOverlaySpecs(),
+                        recomputer::getResult);
+                statusLabel.setText("Appended " +
+                        (instrument.getSeries().size() - oldSize) +
+                        " price bars to " + instrument.getSymbol());
+            }
+        }
+        pendingBars.clear();
+
+        // Lookbacks that need their tables grown are extended in
+        // the background.
+        if (currentInstrument != null &&
+                !currentInstrument.getRecomputer().isUpToDate()) {
+            LookbackRecomputer recomputer = currentInstrument.getRecomputer();
+            recomputeLookbacks(recomputer, recomputer.getOverlaySpecs(), 0);
         }
     }
 
+    /**
+     * Sweeps a range of lookback multiples for a planet in the
+     * background, and shows the resulting curve in its own window.
+     */
+    private void handleSweepRequested(PlanetSelection planetSelection,
+                                      BigDecimal min,
+                                      BigDecimal max,
+                                      BigDecimal step) {
+        final PriceBarSeries series = priceBarSeries;
+        if (series == null || series.isEmpty()) {
+            statusLabel.setText("Load price bars before sweeping.");
+            return;
+        }
+
+        taskScheduler.<SweepCurve>submit(SWEEP_JOB,
+                job -> multipleSweep.sweep(series, planetSelection,
+                        min, max, step, job),
+                curve -> {
+                    progressBar.setVisible(false);
+                    statusLabel.setText("Swept " + curve.size() +
+                            " lookback multiples of " +
+                            planetSelection.getDisplayName() + ".");
+                    showSweepCurve(curve);
+                })
+                .setOnFailed(t -> {
+                    logger.error("Failed to sweep lookback multiples.", t);
+                    progressBar.setVisible(false);
+                    statusLabel.setText("Failed to sweep: " + t.getMessage());
+                })
+                .setOnProgress(progressBar::setProgress);
+
+        progressBar.setProgress(0);
+        progressBar.setVisible(true);
+        statusLabel.setText("Sweeping lookback multiples of " +
+                planetSelection.getDisplayName() + " ...");
+    }
+
+    /**
+     * Shows a sweep curve in a new window.  Clicking a multiple on the
+     * curve adds it to the custom lookback multiples.
+     */
+    private void showSweepCurve(SweepCurve curve) {
+        SweepChart sweepChart = new SweepChart(curve);
+        sweepChart.setPrefSize(800, 400);
+        sweepChart.setOnMultipleSelected(index -> {
+            LookbackMultiple lm = curve.createLookbackMultiple(index,
+                    SWEPT_MULTIPLE_COLOR);
+            settingsPane.addCustomLookbackMultiple(lm);
+            statusLabel.setText("Added lookback multiple " + lm.getName() +
+                    ".  Press Apply to show it.");
+        });
+
+        Stage sweepStage = new Stage();
+        sweepStage.setTitle("Sweep: " + curve.getPlanetSelection().getDisplayName());
+        sweepStage.setScene(new Scene(sweepChart));
+        sweepStage.show();
+    }
+
+    /**
+     * Works out the spectrum of the price bars in the background,
+     * and shows its peaks in their own window.
+     */
+    private void handleSpectrumRequested() {
+        final PriceBarSeries series = priceBarSeries;
+        if (series == null || series.isEmpty()) {
+            statusLabel.setText("Load price bars before a spectral analysis.");
+            return;
+        }
+
+        taskScheduler.<SpectralAnalysis>submit(SPECTRUM_JOB,
+                job -> spectralAnalyzer.analyze(series, job),
+                analysis -> {
+                    progressBar.setVisible(false);
+                    statusLabel.setText("Found " + analysis.getPeaks().size() +
+                            " spectral peaks.");
+                    showSpectralAnalysis(analysis);
+                })
+                .setOnFailed(t -> {
+                    logger.error("Failed to work out the spectrum.", t);
+                    progressBar.setVisible(false);
+                    statusLabel.setText("Failed to work out the spectrum: " +
+                            t.getMessage());
+                })
+                .setOnProgress(progressBar::setProgress);
+
+        progressBar.setProgress(0);
+        progressBar.setVisible(true);
+        statusLabel.setText("Working out the spectrum of the prices ...");
+    }
+
+    /**
+     * Shows the peaks of a spectral analysis in a new window.
+     */
+    private void showSpectralAnalysis(SpectralAnalysis analysis) {
+        TextArea textArea = new TextArea(analysis.formatReport());
+        textArea.setEditable(false);
+        textArea.setFont(Font.font("Monospaced", 12));
+        textArea.setPrefSize(900, 400);
+
+        Stage spectrumStage = new Stage();
+        spectrumStage.setTitle("Spectral analysis");
+        spectrumStage.setScene(new Scene(textArea));
+        spectrumStage.show();
+    }
+
     @Override
     public void stop() {
 
+        for (String symbol : new ArrayList<>(tailers.keySet())) {
+            unfollow(symbol);
+        }
+
+        if (taskScheduler != null) {
+            taskScheduler.shutdown();
+        }
+
+        // Close the ephemeris files of every worker thread's SwissEph.
+        SwissEphPool swissEphPool = Ephemeris.getTableService().getSwissEphPool();
+        if (swissEphPool != null) {
+            swissEphPool.close();
+        }
+
         if (settings != null) {
             // Save settings.
             settings.saveSettings();
@@ -80,8 +702,18 @@ public class App extends Application {
     }
 
 
+    /**
+     * Starts the application, or with --batch as the first argument,
+     * runs BatchRunner with the rest of the arguments instead, without
+     * a display.
+     */
     public static void main( String[] args )
     {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         Application.launch(args);
     }
 }
@@ -0,0 +1,684 @@
+package com.ryanluu.cyclehunter;
+
+import com.ryanluu.cyclehunter.data.PriceBarCache;
+import com.ryanluu.cyclehunter.data.PriceBarCsvLoader;
+import com.ryanluu.cyclehunter.data.ProgressListener;
+import com.ryanluu.cyclehunter.engine.CycleScanner;
+import com.ryanluu.cyclehunter.engine.CycleScore;
+import com.ryanluu.cyclehunter.engine.LookbackEngine;
+import com.ryanluu.cyclehunter.engine.LookbackRecomputer;
+import com.ryanluu.cyclehunter.engine.LookbackResult;
+import com.ryanluu.cyclehunter.engine.OverlaySpec;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableCache;
+import com.ryanluu.cyclehunter.ephemeris.SwissEphPool;
+import com.ryanluu.cyclehunter.ephemeris.SyntheticBodies;
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs cycle analyses without the user interface, for machines that
+ * have no display.  The price bars of one or many CSV files are loaded,
+ * the lookback overlays the settings ask for are computed, every planet
+ * is scanned against every lookback multiple, and the results are
+ * written to files in an output directory:
+ *
+ *     NAME-overlays.csv  For each bar, its timestamp and close, and the
+ *                        close of the bar each overlay looks back to.
+ *     NAME-scan.csv      Scan scores, best correlation first
+ *                        (see CycleScanner.writeCsv).
+ *     summary.csv        One line per file, with the best score.
+ *
+ * where NAME is the CSV file name without its extension.
+ *
+ * The LookbackEngine and CycleScanner are those of a Workspace, as in
+ * the application, so planet tables are built once and shared by every
+ * file through the shared EphemerisTableService.  Each file is a task on one ForkJoinPool.
+ * The engines split their own work with parallel streams, which run in
+ * the pool of the thread that starts them, so all the work of all the
+ * files is balanced over the pool's threads by work stealing.  When
+ * there is more than one file, each is parsed on one thread, since the
+ * files are already loaded in parallel.
+ *
+ * Nothing from JavaFX is started, and the settings are not saved.
+ *
+ * Usage:
+ *
+ *     BatchRunner [options] CSV_FILE_OR_DIRECTORY...
+ *
+ * See printUsage() for the options.
+ */
+public class BatchRunner {
+
+    private static final Logger logger = Logger.getLogger(BatchRunner.class);
+
+    public static final String OVERLAYS_FILE_SUFFIX = "-overlays.csv";
+    public static final String SCAN_FILE_SUFFIX = "-scan.csv";
+    public static final String SUMMARY_FILENAME = "summary.csv";
+
+    /**
+     * Default directory the results are written to.
+     */
+    public static final String DEFAULT_OUTPUT_DIRECTORY = "cyclehunter-results";
+
+    /**
+     * Exit status when some files could not be analysed.
+     */
+    private static final int EXIT_FAILED = 1;
+
+    /**
+     * Exit status when the command line is wrong.
+     */
+    private static final int EXIT_USAGE = 2;
+
+    private final CycleHunterSettings settings;
+    private final Path outputDirectory;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private boolean writeOverlays = true;
+
+    private boolean scan = true;
+
+    /**
+     * Cache of parsed CSV files, or null to always parse them.
+     */
+    private PriceBarCache priceBarCache = null;
+
+    /**
+     * Workspace whose engine and scanner are used, or null if it has
+     * not been created yet.  Files are not added to it, so their bars
+     * are not kept once they have been analysed.
+     */
+    private Workspace workspace;
+
+    /**
+     * Creates a runner.
+     *
+     * @param settings Settings with the planets and lookback multiples
+     *                 to use.
+     * @param outputDirectory Directory the results are written to.
+     *                        It is created if needed.
+     */
+    public BatchRunner(CycleHunterSettings settings, Path outputDirectory) {
+        this.settings = settings;
+        this.outputDirectory = outputDirectory;
+    }
+
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Sets the number of threads of the pool the work is done on.
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException(
+                    "Number of threads must be at least 1, but was " +
+                    numThreads + ".");
+        }
+        this.numThreads = numThreads;
+    }
+
+    public boolean isWriteOverlays() {
+        return writeOverlays;
+    }
+
+    public void setWriteOverlays(boolean writeOverlays) {
+        this.writeOverlays = writeOverlays;
+    }
+
+    public boolean isScan() {
+        return scan;
+    }
+
+    public void setScan(boolean scan) {
+        this.scan = scan;
+    }
+
+    public PriceBarCache getPriceBarCache() {
+        return priceBarCache;
+    }
+
+    /**
+     * Sets the cache parsed CSV files are kept in.
+     *
+     * @param priceBarCache Cache, or null to always parse the files.
+     */
+    public void setPriceBarCache(PriceBarCache priceBarCache) {
+        this.priceBarCache = priceBarCache;
+    }
+
+    /**
+     * Returns the workspace whose engine and scanner are used.  It is
+     * created on first use, with the synthetic bodies for the
+     * exchange location in the settings.
+     */
+    public synchronized Workspace getWorkspace() {
+        if (workspace == null) {
+            workspace = new Workspace(settings);
+        }
+        return workspace;
+    }
+
+    /**
+     * Returns the engine the lookbacks are computed with.  Files with
+     * the same bar timestamps share their lookback times through
+     * its cache.
+     */
+    public LookbackEngine getEngine() {
+        return getWorkspace().getEngine();
+    }
+
+    /**
+     * Analyses each of the given CSV files and writes the results,
+     * including the summary file.  A file that fails is logged and
+     * listed in the summary, and the others carry on.
+     *
+     * @param csvFiles CSV files to analyse.
+     * @return List<FileResult> One result per file, in the same order.
+     * @throws IOException If the output directory or the summary
+     *                     cannot be written.
+     */
+    public List<FileResult> run(List<Path> csvFiles) throws IOException {
+        long startTime = System.nanoTime();
+
+        Files.createDirectories(outputDirectory);
+
+        final List<OverlaySpec> specs = writeOverlays ?
+                OverlaySpec.fromSettings(settings) : new ArrayList<>();
+        final CycleScanner scanner = getWorkspace().getScanner();
+        final int parallelism = (csvFiles.size() > 1) ?
+                1 : settings.getCsvLoadParallelism();
+
+        // Give files with the same name different output names.
+        List<String> names = new ArrayList<>();
+        Set<String> usedNames = new HashSet<>();
+        for (Path csvFile : csvFiles) {
+            String name = getBaseName(csvFile);
+            String unique = name;
+            for (int n = 2; !usedNames.add(unique); n++) {
+                unique = name + "-" + n;
+            }
+            names.add(unique);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        List<FileResult> rv = new ArrayList<>();
+        try {
+            List<ForkJoinTask<FileResult>> tasks = new ArrayList<>();
+            for (int i = 0; i < csvFiles.size(); i++) {
+                final Path csvFile = csvFiles.get(i);
+                final String name = names.get(i);
+                tasks.add(pool.submit(() ->
+                        analyse(csvFile, name, specs, scanner, parallelism)));
+            }
+
+            for (ForkJoinTask<FileResult> task : tasks) {
+                try {
+                    rv.add(task.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while analysing files.", e);
+                } catch (ExecutionException e) {
+                    // analyse() catches its own failures.
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        writeSummary(rv, outputDirectory.resolve(SUMMARY_FILENAME));
+
+        logger.info("Analysed " + csvFiles.size() + " files in " +
+                (System.nanoTime() - startTime) / 1000000 + " ms.");
+
+        return rv;
+    }
+
+    /**
+     * Analyses one CSV file and writes its results.
+     *
+     * @return FileResult Result, holding the failure if there was one.
+     */
+    private FileResult analyse(Path csvFile,
+                               String name,
+                               List<OverlaySpec> specs,
+                               CycleScanner scanner,
+                               int parallelism) {
+        long startTime = System.nanoTime();
+
+        try {
+            PriceBarCsvLoader loader = new PriceBarCsvLoader(parallelism);
+            loader.setColumnStorage(getWorkspace().getColumnStorage());
+            PriceBarSeries series = (priceBarCache != null) ?
+                    priceBarCache.loadOrParse(csvFile, loader, ProgressListener.NONE) :
+                    loader.load(csvFile, ProgressListener.NONE);
+
+            if (writeOverlays && !series.isEmpty()) {
+                LookbackRecomputer recomputer = new LookbackRecomputer(getEngine());
+                recomputer.setPriceBarSeries(series);
+                recomputer.apply(specs);
+
+                try (Writer writer = Files.newBufferedWriter(
+                        outputDirectory.resolve(name + OVERLAYS_FILE_SUFFIX),
+                        StandardCharsets.UTF_8)) {
+                    writeOverlays(series, specs, recomputer, writer);
+                }
+            }
+
+            CycleScore best = null;
+            if (scan && !series.isEmpty()) {
+                List<CycleScore> scores = scanner.scan(series, settings,
+                        ProgressListener.NONE);
+                if (!scores.isEmpty()) {
+                    best = scores.get(0);
+                }
+
+                try (Writer writer = Files.newBufferedWriter(
+                        outputDirectory.resolve(name + SCAN_FILE_SUFFIX),
+                        StandardCharsets.UTF_8)) {
+                    CycleScanner.writeCsv(scores, writer);
+                }
+            }
+
+            return new FileResult(csvFile, name, series.size(), best, null,
+                    (System.nanoTime() - startTime) / 1000000);
+
+        } catch (Exception e) {
+            logger.error("Failed to analyse price bars in file: " + csvFile, e);
+            return new FileResult(csvFile, name, 0, null, e,
+                    (System.nanoTime() - startTime) / 1000000);
+        }
+    }
+
+    /**
+     * Writes the overlays as CSV, with a header line.  Each row is one
+     * bar: its Julian Day, its close, and for each overlay the close
+     * of the bar it looks back to, or nothing if that is before the
+     * first bar.
+     *
+     * @param series Price bars.
+     * @param specs Overlays, in column order.
+     * @param recomputer Recomputer holding the results of the overlays.
+     * @param writer Where to write.
+     * @throws IOException If writing fails.
+     */
+    static void writeOverlays(PriceBarSeries series,
+                              List<OverlaySpec> specs,
+                              LookbackRecomputer recomputer,
+                              Writer writer) throws IOException {
+        LookbackResult[] results = new LookbackResult[specs.size()];
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("jd,close");
+        for (int s = 0; s < results.length; s++) {
+            OverlaySpec spec = specs.get(s);
+            results[s] = recomputer.getResult(spec);
+            String column = spec.getPlanetSelection().getDisplayName() + " " +
+                    spec.getLookbackMultiple().getName();
+            sb.append(",\"").append(column.replace("\"", "\"\"")).append('"');
+        }
+        sb.append('\n');
+        writer.write(sb.toString());
+
+        int scale = series.getPriceScale();
+        int numBars = series.size();
+        for (int i = 0; i < numBars; i++) {
+            sb.setLength(0);
+            sb.append(series.getTimestampJd(i)).append(',');
+            appendPrice(sb, series.getClosePriceUnscaled(i), scale);
+            for (LookbackResult result : results) {
+                sb.append(',');
+                int j = (result != null) ? result.getLookbackBarIndex(i) : -1;
+                if (j >= 0) {
+                    appendPrice(sb, series.getClosePriceUnscaled(j), scale);
+                }
+            }
+            sb.append('\n');
+            writer.write(sb.toString());
+        }
+        writer.flush();
+    }
+
+    /**
+     * Appends an unscaled price as a decimal number, without making
+     * a BigDecimal for it.
+     */
+    static void appendPrice(StringBuilder sb, long unscaledPrice, int scale) {
+        if (scale == 0) {
+            sb.append(unscaledPrice);
+            return;
+        }
+        if (unscaledPrice < 0) {
+            sb.append('-');
+            unscaledPrice = -unscaledPrice;
+        }
+        long factor = PriceBarSeries.powerOfTen(scale);
+        sb.append(unscaledPrice / factor).append('.');
+        String fraction = Long.toString(unscaledPrice % factor);
+        for (int k = fraction.length(); k < scale; k++) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+
+    /**
+     * Writes one line per file, with its best scan score.
+     */
+    static void writeSummary(List<FileResult> results, Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("file,name,numBars,bestPlanet,bestMultiple," +
+                    "bestCorrelation,bestHitRateLift,millis,error\n");
+            for (FileResult r : results) {
+                CycleScore best = r.getBestScore();
+                writer.write(quote(r.getCsvFile().toString()) + "," +
+                        quote(r.getName()) + "," +
+                        r.getNumBars() + "," +
+                        (best != null ? best.getPlanetSelection().getDisplayName() : "") + "," +
+                        (best != null ? quote(best.getLookbackMultiple().getName()) : "") + "," +
+                        (best != null ? best.getCorrelation() : "") + "," +
+                        (best != null ? best.getHitRateLift() : "") + "," +
+                        r.getMillis() + "," +
+                        (r.getFailure() != null ? quote(r.getFailure().toString()) : "") + "\n");
+            }
+        }
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Returns the file name without its extension.
+     */
+    static String getBaseName(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0) ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Expands the given paths into CSV files.  Directories are replaced
+     * by the .csv files in them (not in their subdirectories), sorted
+     * by name.
+     *
+     * @param paths Paths of files and directories.
+     * @return List<Path> CSV files.
+     * @throws IOException If a path does not exist or a directory
+     *                     cannot be listed.
+     */
+    static List<Path> findCsvFiles(List<String> paths) throws IOException {
+        List<Path> rv = new ArrayList<>();
+        for (String p : paths) {
+            Path path = Paths.get(p);
+            if (Files.isDirectory(path)) {
+                List<Path> inDirectory = new ArrayList<>();
+                try (DirectoryStream<Path> stream =
+                             Files.newDirectoryStream(path, "*.{csv,CSV}")) {
+                    for (Path file : stream) {
+                        if (Files.isRegularFile(file)) {
+                            inDirectory.add(file);
+                        }
+                    }
+                }
+                inDirectory.sort(null);
+                rv.addAll(inDirectory);
+            }
+            else if (Files.isRegularFile(path)) {
+                rv.add(path);
+            }
+            else {
+                throw new IOException("No such file or directory: " + p);
+            }
+        }
+        return rv;
+    }
+
+    private static void printUsage(PrintStream out) {
+        out.println("Usage: BatchRunner [options] CSV_FILE_OR_DIRECTORY...");
+        out.println();
+        out.println("Options:");
+        out.println("  --settings FILE   Settings JSON file.  Default: the saved settings.");
+        out.println("  --out DIRECTORY   Directory for the results.  Default: " +
+                DEFAULT_OUTPUT_DIRECTORY + ".");
+        out.println("  --threads N       Number of worker threads.  Default: all processors.");
+        out.println("  --no-overlays     Do not write the lookback overlays.");
+        out.println("  --no-scan         Do not scan for the best lookbacks.");
+        out.println("  --no-cache        Do not use the price bar and ephemeris caches.");
+        out.println("  --verbose         Log everything, not just warnings.");
+    }
+
+    public static void main(String[] args) {
+        System.exit(runCommandLine(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the command line.
+     *
+     * @return int Exit status: 0 on success, EXIT_FAILED if some files
+     *             could not be analysed, EXIT_USAGE if the command
+     *             line is wrong.
+     */
+    static int runCommandLine(String[] args, PrintStream out, PrintStream err) {
+        String settingsFilename = null;
+        String outputDirectoryName = DEFAULT_OUTPUT_DIRECTORY;
+        int threads = 0;
+        boolean overlays = true;
+        boolean scanning = true;
+        boolean caches = true;
+        boolean verbose = false;
+        List<String> paths = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--settings".equals(arg) && i + 1 < args.length) {
+                    settingsFilename = args[++i];
+                }
+                else if ("--out".equals(arg) && i + 1 < args.length) {
+                    outputDirectoryName = args[++i];
+                }
+                else if ("--threads".equals(arg) && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                }
+                else if ("--no-overlays".equals(arg)) {
+                    overlays = false;
+                }
+                else if ("--no-scan".equals(arg)) {
+                    scanning = false;
+                }
+                else if ("--no-cache".equals(arg)) {
+                    caches = false;
+                }
+                else if ("--verbose".equals(arg)) {
+                    verbose = true;
+                }
+                else if ("--help".equals(arg)) {
+                    printUsage(out);
+                    return 0;
+                }
+                else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+                else {
+                    paths.add(arg);
+                }
+            }
+            if (paths.isEmpty()) {
+                throw new IllegalArgumentException("No CSV files given.");
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            printUsage(err);
+            return EXIT_USAGE;
+        }
+
+        if (!Logger.getRootLogger().getAllAppenders().hasMoreElements()) {
+            BasicConfigurator.configure();
+        }
+        if (!verbose) {
+            Logger.getRootLogger().setLevel(Level.WARN);
+        }
+
+        try {
+            CycleHunterSettings settings;
+            if (settingsFilename != null) {
+                settings = CycleHunterSettings.loadSettings(new File(settingsFilename));
+            }
+            else {
+                settings = CycleHunterSettings.loadSettings();
+            }
+
+            List<Path> csvFiles = findCsvFiles(paths);
+
+            Ephemeris.setSyntheticBodies(SyntheticBodies.forSettings(settings));
+            BatchRunner runner = new BatchRunner(settings, Paths.get(outputDirectoryName));
+            if (threads > 0) {
+                runner.setNumThreads(threads);
+            }
+            runner.setWriteOverlays(overlays);
+            runner.setScan(scanning);
+            if (caches) {
+                runner.setPriceBarCache(PriceBarCache.forSettings(settings));
+                Ephemeris.getTableService().setTableCache(
+                        EphemerisTableCache.inSettingsDirectory());
+            }
+
+            List<FileResult> results = runner.run(csvFiles);
+
+            int numFailed = 0;
+            for (FileResult r : results) {
+                if (r.getFailure() != null) {
+                    numFailed++;
+                    out.println(r.getName() + ": failed: " + r.getFailure());
+                }
+                else {
+                    CycleScore best = r.getBestScore();
+                    out.println(r.getName() + ": " + r.getNumBars() + " bars in " +
+                            r.getMillis() + " ms" +
+                            (best == null ? "" : ", best " +
+                                    best.getPlanetSelection().getDisplayName() + " " +
+                                    best.getLookbackMultiple().getName() +
+                                    " (correlation " +
+                                    String.format("%.4f", best.getCorrelation()) + ")"));
+                }
+            }
+            out.println("Results written to " +
+                    runner.getOutputDirectory().toAbsolutePath() + ".");
+
+            return (numFailed > 0) ? EXIT_FAILED : 0;
+
+        } catch (IOException e) {
+            logger.error("Batch run failed.", e);
+            err.println(e.getMessage());
+            return EXIT_FAILED;
+
+        } finally {
+            // Close the ephemeris files of every worker thread's SwissEph.
+            SwissEphPool swissEphPool = Ephemeris.getTableService().getSwissEphPool();
+            if (swissEphPool != null) {
+                swissEphPool.close();
+            }
+        }
+    }
+
+    /**
+     * Outcome of analysing one CSV file.
+     */
+    public static final class FileResult {
+
+        private final Path csvFile;
+        private final String name;
+        private final int numBars;
+        private final CycleScore bestScore;
+        private final Exception failure;
+        private final long millis;
+
+        FileResult(Path csvFile,
+                   String name,
+                   int numBars,
+                   CycleScore bestScore,
+                   Exception failure,
+                   long millis) {
+            this.csvFile = csvFile;
+            this.name = name;
+            this.numBars = numBars;
+            this.bestScore = bestScore;
+            this.failure = failure;
+            this.millis = millis;
+        }
+
+        public Path getCsvFile() {
+            return csvFile;
+        }
+
+        /**
+         * Returns the name the file's results are written under.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public int getNumBars() {
+            return numBars;
+        }
+
+        /**
+         * Returns the best scan score, or null if there was no scan.
+         */
+        public CycleScore getBestScore() {
+            return bestScore;
+        }
+
+        /**
+         * Returns what went wrong, or null if the file was analysed.
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        /**
+         * Returns how long the file took, in milliseconds.
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return "FileResult{" +
+                    "name='" + name + '\'' +
+                    ", numBars=" + numBars +
+                    ", millis=" + millis +
+                    (failure != null ? ", failure=" + failure : "") +
+                    '}';
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package com.ryanluu.cyclehunter;
 
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTable;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableService;
+import com.ryanluu.cyclehunter.ephemeris.SyntheticBodies;
+import com.ryanluu.cyclehunter.ephemeris.SyntheticBody;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
 import org.apache.log4j.Logger;
 
+import java.util.stream.IntStream;
+
 /**
  * This class basically provides various utility functions for
  * operating with the Swiss Ephemeris library.
@@ -10,9 +17,320 @@ public class Ephemeris {
 
     private static final Logger logger = Logger.getLogger(Ephemeris.class);
 
+    /**
+     * Number of timestamps above which the batch calculations are
+     * split over the common ForkJoinPool.  Below this the overhead of
+     * handing out the work costs more than it saves.
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    /**
+     * Number of timestamps in each piece of a parallel batch calculation.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Half the interval, in days, over which the speed of a synthetic
+     * body is worked out from its longitudes.  (One minute.)
+     */
+    private static final double SYNTHETIC_SPEED_HALF_STEP_DAYS = 1.0 / 1440.0;
+
+    /**
+     * Service holding the planet tables that the batch calculations
+     * use.  Created on first use.
+     */
+    private static EphemerisTableService tableService;
+
+    /**
+     * Synthetic bodies (CalendarDay and the Ascendant) that the batch
+     * calculations use for PlanetSelections naming them.
+     */
+    private static volatile SyntheticBodies syntheticBodies = SyntheticBodies.DEFAULT;
+
+    /**
+     * Returns the EphemerisTableService that the batch calculations use,
+     * creating it if needed.
+     *
+     * @return EphemerisTableService Shared table service.
+     */
+    public static synchronized EphemerisTableService getTableService() {
+        if (tableService == null) {
+            tableService = new EphemerisTableService();
+        }
+        return tableService;
+    }
+
+    /**
+     * Sets the EphemerisTableService that the batch calculations use.
+     * This lets the application give it an on-disk table cache, and
+     * lets tests substitute their own.
+     *
+     * @param service Table service.
+     */
+    public static synchronized void setTableService(EphemerisTableService service) {
+        tableService = service;
+    }
+
+    public static SyntheticBodies getSyntheticBodies() {
+        return syntheticBodies;
+    }
+
+    /**
+     * Sets the synthetic bodies that the batch calculations use, for
+     * example ones for the exchange location in the settings.
+     *
+     * @param bodies Synthetic bodies.
+     */
+    public static void setSyntheticBodies(SyntheticBodies bodies) {
+        syntheticBodies = bodies;
+    }
+
+    /**
+     * Calculates the longitude of a planet at many times at once.
+     * This is the way to get planet positions for price bars: it looks
+     * up the planet's table once and then interpolates every timestamp
+     * in one tight loop, instead of paying for a Swiss Ephemeris call
+     * per timestamp.
+     *
+     * Synthetic bodies (see SyntheticBodies) have no table, and are
+     * calculated directly.  Their speeds are worked out from the
+     * longitudes a minute either side.
+     *
+     * @param planetSelection Planet and centricity.
+     * @param jd Julian Days to calculate for.  They need not be sorted.
+     * @param longitudeOut Array to put the longitudes in, in the range
+     *                     [0, 360), at the same indexes as jd.
+     * @param speedOut Array to put the longitude speeds in, in degrees
+     *                 per day, or null if speeds are not needed.
+     * @throws IllegalArgumentException If the planet name is neither a
+     *                                  Swiss Ephemeris planet nor a
+     *                                  synthetic body.
+     */
+    public static void calculateLongitudes(PlanetSelection planetSelection,
+                                           double[] jd,
+                                           double[] longitudeOut,
+                                           double[] speedOut) {
+        String planetName = planetSelection.getPlanetName();
+
+        SyntheticBody synthetic = syntheticBodies.get(planetName);
+        if (synthetic != null) {
+            calculateSyntheticLongitudes(synthetic, jd, longitudeOut, speedOut);
+            return;
+        }
+
+        int planetId = getPlanetIdForName(planetName);
+        if (planetId == -9999) {
+            throw new IllegalArgumentException(
+                    "Unknown planet name: '" + planetName + "'.");
+        }
+        calculateLongitudes(planetId, planetSelection.getPlanetCentricity(),
+                jd, 0, jd.length, longitudeOut, speedOut);
+    }
+
+    /**
+     * Calculates the longitudes of a synthetic body, wrapped into
+     * [0, 360), and its speeds.
+     */
+    private static void calculateSyntheticLongitudes(SyntheticBody body,
+                                                     double[] jd,
+                                                     double[] longitudeOut,
+                                                     double[] speedOut) {
+        int n = jd.length;
+        body.fillUnwrappedLongitudes(jd, 0, n, longitudeOut);
+
+        if (speedOut != null) {
+            double h = SYNTHETIC_SPEED_HALF_STEP_DAYS;
+            for (int i = 0; i < n; i++) {
+                speedOut[i] = (body.getUnwrappedLongitude(jd[i] + h) -
+                        body.getUnwrappedLongitude(jd[i] - h)) / (2.0 * h);
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            longitudeOut[i] = EphemerisTable.wrap(longitudeOut[i]);
+        }
+    }
+
+    /**
+     * Calculates the longitude of a planet at many times at once.
+     *
+     * @param planetId Swiss Ephemeris planet ID.
+     * @param centricity Geocentric or heliocentric.
+     * @param jd Julian Days to calculate for.  They need not be sorted.
+     * @param from First index of jd to calculate (inclusive).
+     * @param to Last index of jd to calculate (exclusive).
+     * @param longitudeOut Array to put the longitudes in, in the range
+     *                     [0, 360), at the same indexes as jd.
+     * @param speedOut Array to put the longitude speeds in, in degrees
+     *                 per day, or null if speeds are not needed.
+     */
+    public static void calculateLongitudes(int planetId,
+                                           PlanetSelection.Centricity centricity,
+                                           double[] jd,
+                                           int from,
+                                           int to,
+                                           double[] longitudeOut,
+                                           double[] speedOut) {
+        if (from >= to) {
+            return;
+        }
+        EphemerisTable table = getTableFor(planetId, centricity, jd, from, to);
+        calculateLongitudes(table, jd, from, to, longitudeOut, speedOut, false);
+    }
+
+    /**
+     * Calculates the unwrapped longitude of a planet at many times at
+     * once.  Unwrapped longitudes keep increasing (or decreasing) past
+     * 360 degrees, which is what is needed to count whole cycles.
+     *
+     * @param planetId Swiss Ephemeris planet ID.
+     * @param centricity Geocentric or heliocentric.
+     * @param jd Julian Days to calculate for.  They need not be sorted.
+     * @param from First index of jd to calculate (inclusive).
+     * @param to Last index of jd to calculate (exclusive).
+     * @param longitudeOut Array to put the unwrapped longitudes in,
+     *                     at the same indexes as jd.
+     * @param speedOut Array to put the longitude speeds in, in degrees
+     *                 per day, or null if speeds are not needed.
+     */
+    public static void calculateUnwrappedLongitudes(int planetId,
+                                                    PlanetSelection.Centricity centricity,
+                                                    double[] jd,
+                                                    int from,
+                                                    int to,
+                                                    double[] longitudeOut,
+                                                    double[] speedOut) {
+        if (from >= to) {
+            return;
+        }
+        EphemerisTable table = getTableFor(planetId, centricity, jd, from, to);
+        calculateLongitudes(table, jd, from, to, longitudeOut, speedOut, true);
+    }
+
+    /**
+     * Calculates longitudes from a table the caller already has.
+     * The unwrapped longitudes of one table are consistent with each
+     * other, so code that compares them, such as the lookback search,
+     * should fill them from the same table it searches.
+     *
+     * @param table Planet table.  It should cover all the times.
+     * @param jd Julian Days to calculate for.
+     * @param from First index of jd to calculate (inclusive).
+     * @param to Last index of jd to calculate (exclusive).
+     * @param longitudeOut Array to put the longitudes in,
+     *                     at the same indexes as jd.
+     * @param speedOut Array to put the longitude speeds in, in degrees
+     *                 per day, or null if speeds are not needed.
+     * @param unwrapped true for unwrapped longitudes, false for
+     *                  longitudes in the range [0, 360).
+     */
+    public static void calculateLongitudes(final EphemerisTable table,
+                                           final double[] jd,
+                                           final int from,
+                                           final int to,
+                                           final double[] longitudeOut,
+                                           final double[] speedOut,
+                                           final boolean unwrapped) {
+        int count = to - from;
+
+        if (count < PARALLEL_THRESHOLD) {
+            fillFromTable(table, jd, from, to, longitudeOut, speedOut, unwrapped);
+            return;
+        }
+
+        int numChunks = (count - 1) / PARALLEL_CHUNK_SIZE + 1;
+        IntStream.range(0, numChunks).parallel().forEach(chunk -> {
+            int chunkFrom = from + chunk * PARALLEL_CHUNK_SIZE;
+            int chunkTo = Math.min(chunkFrom + PARALLEL_CHUNK_SIZE, to);
+            fillFromTable(table, jd, chunkFrom, chunkTo,
+                    longitudeOut, speedOut, unwrapped);
+        });
+    }
+
+    private static void fillFromTable(EphemerisTable table,
+                                      double[] jd,
+                                      int from,
+                                      int to,
+                                      double[] longitudeOut,
+                                      double[] speedOut,
+                                      boolean unwrapped) {
+        table.fillUnwrappedLongitudes(jd, from, to, longitudeOut);
+
+        if (!unwrapped) {
+            for (int i = from; i < to; i++) {
+                longitudeOut[i] = EphemerisTable.wrap(longitudeOut[i]);
+            }
+        }
+
+        if (speedOut != null) {
+            table.fillSpeeds(jd, from, to, speedOut);
+        }
+    }
+
+    /**
+     * Gets a table from the shared service covering all the
+     * given times.
+     */
+    private static EphemerisTable getTableFor(int planetId,
+                                              PlanetSelection.Centricity centricity,
+                                              double[] jd,
+                                              int from,
+                                              int to) {
+        double minJd = jd[from];
+        double maxJd = jd[from];
+        for (int i = from + 1; i < to; i++) {
+            double t = jd[i];
+            if (t < minJd) {
+                minJd = t;
+            }
+            if (t > maxJd) {
+                maxJd = t;
+            }
+        }
+
+        return getTableService().getTable(planetId, centricity, minJd, maxJd);
+    }
+
+    /**
+     * Returns the Julian Day for the given Gregorian calendar date and
+     * time of day in UT.  This is a closed-form calculation
+     * (Fliegel and Van Flandern), so it does not need a SwissEph
+     * instance and does not allocate, which makes it suitable for
+     * converting every timestamp of a large price history.
+     *
+     * @param year Year (e.g. 2014).
+     * @param month Month of the year, 1 to 12.
+     * @param day Day of the month, 1 to 31.
+     * @param hours Hours since midnight UT, including the fraction
+     *              for minutes and seconds.
+     * @return double Julian Day.
+     */
+    public static double julianDay(int year, int month, int day, double hours) {
+        return julianDayNumber(year, month, day) - 0.5 + (hours / 24.0);
+    }
+
+    /**
+     * Returns the Julian Day Number (the Julian Day at noon UT) for
+     * the given Gregorian calendar date.
+     *
+     * @param year Year (e.g. 2014).
+     * @param month Month of the year, 1 to 12.
+     * @param day Day of the month, 1 to 31.
+     * @return long Julian Day Number.
+     */
+    public static long julianDayNumber(int year, int month, int day) {
+        long a = (month - 14) / 12;
+        return (1461L * (year + 4800 + a)) / 4
+                + (367L * (month - 2 - 12 * a)) / 12
+                - (3L * ((year + 4900 + a) / 100)) / 4
+                + day - 32075;
+    }
+
     /**
      * Returns the Swiss Ephemeris library ID for the given
      * string planet name that we use in our application.
+     * The synthetic bodies "CalendarDay" and "Ascendant" have no
+     * Swiss Ephemeris ID; see SyntheticBodies for those.
      *
      * @param planetName String that describes the planet.
      * @return int ID that maps to the constants in swisseph.SweConst.SE_*.
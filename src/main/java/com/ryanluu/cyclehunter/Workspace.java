@@ -0,0 +1,460 @@
+package com.ryanluu.cyclehunter;
+
+import com.ryanluu.cyclehunter.data.PriceBarCache;
+import com.ryanluu.cyclehunter.data.PriceBarCsvLoader;
+import com.ryanluu.cyclehunter.data.ProgressListener;
+import com.ryanluu.cyclehunter.engine.CycleScanner;
+import com.ryanluu.cyclehunter.engine.LookbackEngine;
+import com.ryanluu.cyclehunter.engine.LookbackRecomputer;
+import com.ryanluu.cyclehunter.engine.LookbackTimesCache;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableService;
+import com.ryanluu.cyclehunter.ephemeris.PlanetaryEventIndex;
+import com.ryanluu.cyclehunter.ephemeris.SyntheticBodies;
+import com.ryanluu.cyclehunter.model.ColumnStorage;
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The instruments that are open at the same time, and the planet data
+ * they all share.
+ *
+ * Where the planets were does not depend on what was traded, so the
+ * instruments of a workspace share one LookbackEngine, and through it
+ * one EphemerisTableService, whose tables are extended to cover the
+ * dates of every instrument rather than copied per instrument.  The
+ * engine keeps the lookback times it works out in a LookbackTimesCache,
+ * so an instrument with the same bar timestamps as another (such as
+ * daily bars of another market on the same exchange) only has the
+ * times mapped to its own bars.  There is also one PlanetaryEventIndex,
+ * over the dates of all the instruments.  The memory used per
+ * instrument is its price bars and its lookback bar indexes.
+ *
+ * Each instrument has its own LookbackRecomputer, so its overlays are
+ * kept while another instrument is shown, and switching back to it
+ * computes nothing.  The CycleScanner is shared as well.
+ *
+ * Bars appended to an instrument's file as it is written (see
+ * PriceBarCsvTailer) are added with Instrument.appendBars(), which
+ * extends its pyramid and its lookbacks by the new bars only.
+ *
+ * The price bars of the instruments a workspace loads are kept in its
+ * ColumnStorage, which is off the heap if the settings say so.  Very
+ * long histories can then be held with a small heap, and with the
+ * PriceBarCache they are mapped from its files rather than read.
+ *
+ * The workspace is thread-safe.  Instruments are listed in the order
+ * they were added, and are known by their symbol, which is the name of
+ * their CSV file without the extension unless given otherwise.
+ */
+public class Workspace {
+
+    private static final Logger logger = Logger.getLogger(Workspace.class);
+
+    /**
+     * Extra days the event index covers on each side of the dates of
+     * the instruments, so that a few more bars do not rebuild it.
+     */
+    private static final double EVENT_INDEX_MARGIN_DAYS = 366.0;
+
+    private final CycleHunterSettings settings;
+
+    private final LookbackEngine engine;
+
+    private final CycleScanner scanner;
+
+    /**
+     * Instruments by symbol, in the order they were added.
+     */
+    private final Map<String, Instrument> instruments = new LinkedHashMap<>();
+
+    /**
+     * Held while the event index is checked and built, instead of
+     * the workspace's own lock.
+     */
+    private final Object eventIndexLock = new Object();
+
+    /**
+     * Index of planetary events, or null if it has not been
+     * built yet.
+     */
+    private PlanetaryEventIndex eventIndex = null;
+
+    /**
+     * Where the price bars of the instruments loaded are kept.
+     */
+    private ColumnStorage columnStorage;
+
+    /**
+     * Creates a workspace that gets its planet positions from the
+     * service shared through Ephemeris.getTableService().
+     *
+     * @param settings Settings, for the planets and the exchange location.
+     */
+    public Workspace(CycleHunterSettings settings) {
+        this(settings, Ephemeris.getTableService());
+    }
+
+    /**
+     * Creates a workspace.
+     *
+     * @param settings Settings, for the planets and the exchange location.
+     * @param tableService Service that provides the EphemerisTables.
+     */
+    public Workspace(CycleHunterSettings settings, EphemerisTableService tableService) {
+        this.settings = settings;
+        this.engine = new LookbackEngine(tableService);
+        this.engine.setSyntheticBodies(SyntheticBodies.forSettings(settings));
+        this.engine.setLookbackTimesCache(new LookbackTimesCache());
+        this.scanner = new CycleScanner(engine);
+        this.columnStorage = settings.isOffHeapPriceBarsEnabled() ?
+                ColumnStorage.OFF_HEAP : ColumnStorage.HEAP;
+    }
+
+    public CycleHunterSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the engine every instrument's lookbacks are computed with.
+     */
+    public LookbackEngine getEngine() {
+        return engine;
+    }
+
+    public CycleScanner getScanner() {
+        return scanner;
+    }
+
+    public EphemerisTableService getTableService() {
+        return engine.getTableService();
+    }
+
+    public synchronized ColumnStorage getColumnStorage() {
+        return columnStorage;
+    }
+
+    /**
+     * Sets where the price bars of instruments loaded from now on are
+     * kept.  Instruments already loaded are not moved.
+     *
+     * @param columnStorage ColumnStorage.HEAP or ColumnStorage.OFF_HEAP.
+     */
+    public synchronized void setColumnStorage(ColumnStorage columnStorage) {
+        this.columnStorage = columnStorage;
+    }
+
+    /**
+     * Loads the price bars in a CSV file and adds them as an
+     * instrument, replacing any instrument with the same symbol.
+     * The size of the file before it is loaded is kept, for following
+     * the file from there.  The price bars are kept in the workspace's
+     * ColumnStorage, whatever the loader was set to.
+     *
+     * @param csvPath Path of the CSV file.
+     * @param loader Loader used to parse the CSV file.
+     * @param priceBarCache Cache the file is looked for in first,
+     *                      or null to always parse it.
+     * @param progressListener Listener for progress updates.
+     * @return Instrument The new instrument.
+     * @throws IOException if the CSV file cannot be read.
+     */
+    public Instrument load(Path csvPath,
+                           PriceBarCsvLoader loader,
+                           PriceBarCache priceBarCache,
+                           ProgressListener progressListener)
+            throws IOException {
+        long sourceLength = Files.size(csvPath);
+        loader.setColumnStorage(getColumnStorage());
+        PriceBarSeries series = (priceBarCache != null) ?
+                priceBarCache.loadOrParse(csvPath, loader, progressListener) :
+                loader.load(csvPath, progressListener);
+
+        return add(BatchRunner.getBaseName(csvPath), csvPath, sourceLength, series);
+    }
+
+    /**
+     * Adds price bars as an instrument, replacing any instrument with
+     * the same symbol.
+     *
+     * @param symbol Symbol to know the instrument by.
+     * @param sourcePath File the price bars came from, or null.
+     * @param series Price bars.
+     * @return Instrument The new instrument.
+     */
+    public Instrument add(String symbol,
+                          Path sourcePath,
+                          PriceBarSeries series) {
+        return add(symbol, sourcePath, 0, series);
+    }
+
+    /**
+     * Adds price bars as an instrument, replacing any instrument with
+     * the same symbol.
+     *
+     * @param symbol Symbol to know the instrument by.
+     * @param sourcePath File the price bars came from, or null.
+     * @param sourceLength Number of bytes of the file that are known
+     *                     to be in the price bars.
+     * @param series Price bars.
+     * @return Instrument The new instrument.
+     */
+    public synchronized Instrument add(String symbol,
+                                       Path sourcePath,
+                                       long sourceLength,
+                                       PriceBarSeries series) {
+        LookbackRecomputer recomputer = new LookbackRecomputer(engine);
+        recomputer.setPriceBarSeries(series);
+
+        Instrument rv = new Instrument(symbol, sourcePath, sourceLength,
+                series, recomputer);
+        instruments.put(symbol, rv);
+
+        logger.info("Added " + symbol + " (" + series.size() + " bars) to " +
+                "the workspace, which now has " + instruments.size() +
+                " instruments.");
+
+        return rv;
+    }
+
+    /**
+     * Removes an instrument.
+     *
+     * @param symbol Symbol of the instrument.
+     * @return Instrument The instrument removed, or null if there was
+     *         none with the symbol.
+     */
+    public synchronized Instrument remove(String symbol) {
+        return instruments.remove(symbol);
+    }
+
+    /**
+     * Returns the instrument with the given symbol, or null if there
+     * is none.
+     */
+    public synchronized Instrument getInstrument(String symbol) {
+        return instruments.get(symbol);
+    }
+
+    /**
+     * Returns the symbols of the instruments, in the order they were
+     * added.
+     */
+    public synchronized List<String> getSymbols() {
+        return new ArrayList<>(instruments.keySet());
+    }
+
+    /**
+     * Returns the instruments, in the order they were added.
+     */
+    public synchronized List<Instrument> getInstruments() {
+        return new ArrayList<>(instruments.values());
+    }
+
+    public synchronized int size() {
+        return instruments.size();
+    }
+
+    /**
+     * Returns the earliest bar timestamp of all the instruments,
+     * or NaN if they have no bars.
+     */
+    public synchronized double getFirstJd() {
+        double rv = Double.NaN;
+        for (Instrument instrument : instruments.values()) {
+            PriceBarSeries series = instrument.getSeries();
+            if (!series.isEmpty() && !(series.getFirstTimestampJd() >= rv)) {
+                rv = series.getFirstTimestampJd();
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the latest bar timestamp of all the instruments,
+     * or NaN if they have no bars.
+     */
+    public synchronized double getLastJd() {
+        double rv = Double.NaN;
+        for (Instrument instrument : instruments.values()) {
+            PriceBarSeries series = instrument.getSeries();
+            if (!series.isEmpty() && !(series.getLastTimestampJd() <= rv)) {
+                rv = series.getLastTimestampJd();
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the index of planetary events of the planets in the
+     * settings, over the dates of all the instruments.  It is built on
+     * first use, and built again when an instrument reaches outside
+     * its dates or a planet has been added to the settings.  It is
+     * built without holding the workspace's lock, so only other calls
+     * of this method wait while it is being built.
+     *
+     * @return PlanetaryEventIndex Index, or null if there are no bars.
+     */
+    public PlanetaryEventIndex getEventIndex() {
+        synchronized (eventIndexLock) {
+            double firstJd = getFirstJd();
+            double lastJd = getLastJd();
+            if (Double.isNaN(firstJd)) {
+                return null;
+            }
+
+            List<PlanetSelection> planets = settings.getPlanetSelectionList();
+            if (eventIndex == null ||
+                    eventIndex.getStartJd() > firstJd ||
+                    eventIndex.getEndJd() < lastJd ||
+                    !containsAll(eventIndex, planets)) {
+                eventIndex = PlanetaryEventIndex.build(getTableService(), planets,
+                        firstJd - EVENT_INDEX_MARGIN_DAYS,
+                        lastJd + EVENT_INDEX_MARGIN_DAYS);
+            }
+            return eventIndex;
+        }
+    }
+
+    /**
+     * Returns true if the index has every planet that it can have.
+     */
+    private static boolean containsAll(PlanetaryEventIndex index,
+                                       List<PlanetSelection> planets) {
+        for (PlanetSelection ps : planets) {
+            if (Ephemeris.getPlanetIdForName(ps.getPlanetName()) != -9999 &&
+                    !index.contains(ps)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the bytes used by the price bars of all the instruments.
+     */
+    public synchronized long getBarMemoryUsageBytes() {
+        long rv = 0;
+        for (Instrument instrument : instruments.values()) {
+            rv += instrument.getSeries().getMemoryUsageBytes();
+        }
+        return rv;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Workspace{" +
+                "symbols=" + instruments.keySet() +
+                ", lookbackTimesCache=" + engine.getLookbackTimesCache() +
+                '}';
+    }
+
+    /**
+     * One instrument of a workspace: its price bars, and the lookbacks
+     * of its overlays.
+     */
+    public static final class Instrument {
+
+        private final String symbol;
+        private final Path sourcePath;
+        private final long sourceLength;
+        private final PriceBarSeries series;
+        private final LookbackRecomputer recomputer;
+
+        Instrument(String symbol,
+                   Path sourcePath,
+                   long sourceLength,
+                   PriceBarSeries series,
+                   LookbackRecomputer recomputer) {
+            this.symbol = symbol;
+            this.sourcePath = sourcePath;
+            this.sourceLength = sourceLength;
+            this.series = series;
+            this.recomputer = recomputer;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * Returns the file the price bars came from, or null.
+         */
+        public Path getSourcePath() {
+            return sourcePath;
+        }
+
+        /**
+         * Returns the number of bytes at the start of the source file
+         * that are known to be in the price bars.  Bars written after
+         * that are found by following the file from there.
+         */
+        public long getSourceLength() {
+            return sourceLength;
+        }
+
+        public PriceBarSeries getSeries() {
+            return series;
+        }
+
+        /**
+         * Appends bars to the end of the instrument's series, and
+         * extends its pyramid and the lookbacks of its overlays to
+         * them.  Only the new bars are worked out, so this takes time
+         * in proportion to the number of new bars, not the length of
+         * the history.
+         *
+         * The series is not thread-safe for writes, so this must be
+         * called on the thread that reads it (the JavaFX Application
+         * Thread in the application), while nothing reads it in the
+         * background.
+         *
+         * No ephemeris table is grown here.  If the bars have run past
+         * the tables of the overlays, the recomputer is left not up to
+         * date, and its apply() should be run in the background.
+         *
+         * @param bars Bars to append.  They must be later than the
+         *             last bar, and in the series' price scale.
+         * @return int Number of bars appended.
+         */
+        public int appendBars(PriceBarSeries bars) {
+            if (!series.isEmpty() && !bars.isEmpty() &&
+                    !(bars.getFirstTimestampJd() > series.getLastTimestampJd())) {
+                throw new IllegalArgumentException("Bars from " +
+                        bars.getFirstTimestampJd() + " cannot be appended " +
+                        "after the last bar, at " +
+                        series.getLastTimestampJd() + ".");
+            }
+
+            series.appendAll(bars);
+            series.getPyramid();
+            recomputer.appendBars();
+            return bars.size();
+        }
+
+        /**
+         * Returns the recomputer that keeps this instrument's overlays
+         * up to date.
+         */
+        public LookbackRecomputer getRecomputer() {
+            return recomputer;
+        }
+
+        @Override
+        public String toString() {
+            return "Instrument{" +
+                    "symbol='" + symbol + '\'' +
+                    ", size=" + series.size() +
+                    '}';
+        }
+    }
+}
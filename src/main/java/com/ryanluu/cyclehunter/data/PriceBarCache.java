@@ -0,0 +1,686 @@
+package com.ryanluu.cyclehunter.data;
+
+import com.ryanluu.cyclehunter.model.ColumnStorage;
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.OffHeapColumnStorage;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cache of parsed price bar histories, stored as binary files in the
+ * application settings directory, so that opening the same CSV file
+ * again is a memory-mapped read instead of a full parse.
+ *
+ * Each CSV file gets its own cache file, named after a hash of the
+ * CSV file's canonical path.  A cache file is laid out as a header
+ * followed by the series columns, each one a fixed-width block of
+ * little-endian values:
+ *
+ *     int     magic number ('CHPB')
+ *     int     format version
+ *     int     header size in bytes (a multiple of 8)
+ *     int     price scale
+ *     long    number of bars
+ *     long    size of the CSV file in bytes
+ *     long    last modified time of the CSV file (milliseconds)
+ *     long    content fingerprint of the CSV file
+ *     int     length of the CSV file path in bytes
+ *     byte[]  CSV file path (UTF-8), padded to a multiple of 8
+ *
+ *     double[numBars]  timestampJd
+ *     long[numBars]    open price (unscaled)
+ *     long[numBars]    high price (unscaled)
+ *     long[numBars]    low price (unscaled)
+ *     long[numBars]    close price (unscaled)
+ *     long[numBars]    volume
+ *     long[numBars]    open interest
+ *
+ * A cache file is only used if the path, size, last modified time and
+ * content fingerprint all still match the CSV file.  Otherwise the CSV
+ * file is parsed again and the cache file is rewritten.
+ *
+ * The content fingerprint is a hash of the file size and of three
+ * sample blocks (start, middle and end of the file), so checking it is
+ * cheap even for multi-gigabyte files.
+ *
+ * The total size of the cache directory is kept under a limit by
+ * deleting the least recently used cache files.  The last modified
+ * time of a cache file is updated each time it is used, and serves as
+ * its last used time.
+ *
+ * Columns are written and read in segments of at most 1 GiB, each
+ * mapped on its own, since a single MappedByteBuffer cannot address
+ * more than 2 GB and a column of a long history can be bigger than
+ * that.
+ *
+ * If the loader keeps its series in off-heap storage, the columns of
+ * an up to date cache file are not read at all: the series is a
+ * read-only view of the mapped file, and the operating system pages
+ * the bars in as they are used.  The mapping stays valid if the cache
+ * file is later replaced or deleted, on platforms that allow that
+ * while a file is mapped.
+ */
+public class PriceBarCache {
+
+    private static final Logger logger =
+            Logger.getLogger(PriceBarCache.class);
+
+    /**
+     * Name of the directory, under the settings directory,
+     * where the cache files are kept.
+     */
+    public static final String CACHE_DIRECTORY = "priceBarCache";
+
+    /**
+     * Filename extension of cache files.
+     */
+    public static final String CACHE_FILE_EXTENSION = ".pbc";
+
+    /**
+     * 'CHPB' in ASCII.
+     */
+    private static final int MAGIC = 0x43485042;
+
+    /**
+     * Version of the file format.  Bump this when the layout changes,
+     * so that old cache files are rebuilt.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Size of the fixed part of the header, before the path bytes.
+     */
+    private static final int FIXED_HEADER_SIZE = 4 * 4 + 4 * 8 + 4;
+
+    /**
+     * Number of columns stored per bar.
+     */
+    private static final int NUM_COLUMNS = 7;
+
+    /**
+     * Size of each block of the CSV file sampled for the
+     * content fingerprint.
+     */
+    private static final int FINGERPRINT_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Default number of values in each mapped segment of a column:
+     * 1 GiB of doubles or longs.
+     */
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 27;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Directory holding the cache files.
+     */
+    private final Path cacheDirectory;
+
+    /**
+     * Maximum total size of the cache files, in bytes.
+     */
+    private final long maxCacheBytes;
+
+    /**
+     * Number of values in each mapped segment of a column.
+     */
+    private final int segmentSize;
+
+    /**
+     * Creates a cache that keeps its files in the given directory.
+     *
+     * @param cacheDirectory Directory for the cache files.  It is created
+     *                       when the first cache file is written.
+     * @param maxCacheBytes Maximum total size of the cache files.
+     */
+    public PriceBarCache(Path cacheDirectory, long maxCacheBytes) {
+        this(cacheDirectory, maxCacheBytes, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a cache that maps its columns in segments of the given
+     * number of values.  Tests use small segments to exercise the
+     * segmented path without gigabytes of bars.
+     */
+    PriceBarCache(Path cacheDirectory, long maxCacheBytes, int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException(
+                    "segmentSize must be positive: " + segmentSize);
+        }
+        this.cacheDirectory = cacheDirectory;
+        this.maxCacheBytes = maxCacheBytes;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Creates a cache in the application settings directory,
+     * with the size limit from the given settings.
+     *
+     * @param settings Application settings.
+     * @return PriceBarCache Cache object.
+     */
+    public static PriceBarCache forSettings(CycleHunterSettings settings) {
+        Path dir = Paths.get(CycleHunterSettings.getSettingsDirectoryPath(),
+                CACHE_DIRECTORY);
+        return new PriceBarCache(dir,
+                settings.getPriceBarCacheMaxMegabytes() * 1024L * 1024L);
+    }
+
+    public Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public long getMaxCacheBytes() {
+        return maxCacheBytes;
+    }
+
+    /**
+     * Returns the price bars in the given CSV file, from the cache if
+     * there is an up to date cache file for it, or else by parsing the
+     * CSV file with the given loader and then writing a cache file.
+     *
+     * Problems with the cache itself are logged and otherwise ignored,
+     * since the CSV file can always be parsed instead.
+     *
+     * @param csvPath Path of the CSV file.
+     * @param loader Loader used to parse the CSV file if needed.
+     * @param progressListener Listener for progress updates.
+     * @return PriceBarSeries Price bars from the file.
+     * @throws IOException if the CSV file cannot be read.
+     */
+    public PriceBarSeries loadOrParse(Path csvPath,
+                                      PriceBarCsvLoader loader,
+                                      ProgressListener progressListener)
+            throws IOException {
+
+        Path canonicalPath = csvPath.toRealPath();
+        Path cacheFile = getCacheFile(canonicalPath);
+
+        SourceInfo source = SourceInfo.of(canonicalPath);
+
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                PriceBarSeries series = read(cacheFile, source,
+                        loader.getColumnStorage());
+                if (series != null) {
+                    touch(cacheFile);
+                    progressListener.progress(1, 1);
+                    return series;
+                }
+                logger.info("Cache file '" + cacheFile + "' is stale.  " +
+                        "Re-parsing '" + canonicalPath + "'.");
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to read price bar cache file '" +
+                        cacheFile + "'.  Re-parsing '" + canonicalPath + "'.", e);
+            }
+        }
+
+        PriceBarSeries series = loader.load(canonicalPath, progressListener);
+
+        // The CSV file may have been changed while we were parsing it.
+        // In that case do not cache what we read.
+        if (source.equals(SourceInfo.of(canonicalPath))) {
+            try {
+                write(cacheFile, source, series);
+                enforceSizeLimit(cacheFile);
+            } catch (IOException | RuntimeException e) {
+                // The series is good whether or not it could be cached.
+                logger.warn("Failed to write price bar cache file '" +
+                        cacheFile + "'.", e);
+            }
+        }
+
+        return series;
+    }
+
+    /**
+     * Returns the path of the cache file for the given CSV file.
+     *
+     * @param canonicalCsvPath Canonical path of the CSV file.
+     * @return Path of the cache file.
+     */
+    public Path getCacheFile(Path canonicalCsvPath) {
+        byte[] pathBytes =
+                canonicalCsvPath.toString().getBytes(StandardCharsets.UTF_8);
+        long hash = fnv1a(FNV_OFFSET_BASIS, pathBytes, 0, pathBytes.length);
+        return cacheDirectory.resolve(
+                String.format("%016x", hash) + CACHE_FILE_EXTENSION);
+    }
+
+    /**
+     * Reads a cache file.
+     *
+     * @param cacheFile Cache file to read.
+     * @param source Information about the CSV file as it is now.
+     * @return PriceBarSeries Series read from the cache file, or null if
+     *         the cache file does not match the CSV file.
+     */
+    PriceBarSeries read(Path cacheFile, SourceInfo source) throws IOException {
+        return read(cacheFile, source, ColumnStorage.HEAP);
+    }
+
+    /**
+     * Reads a cache file into a series kept in the given storage.
+     * With off-heap storage, the columns are mapped from the file
+     * rather than read.
+     *
+     * @param cacheFile Cache file to read.
+     * @param source Information about the CSV file as it is now.
+     * @param storage Where to keep the columns of the series.
+     * @return PriceBarSeries Series read from the cache file, or null if
+     *         the cache file does not match the CSV file.
+     */
+    PriceBarSeries read(Path cacheFile, SourceInfo source, ColumnStorage storage)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < FIXED_HEADER_SIZE) {
+                return null;
+            }
+
+            ByteBuffer fixedHeader = readFully(channel, 0, FIXED_HEADER_SIZE);
+
+            if (fixedHeader.getInt(0) != MAGIC ||
+                    fixedHeader.getInt(4) != FORMAT_VERSION) {
+                return null;
+            }
+
+            int headerSize = fixedHeader.getInt(8);
+            int priceScale = fixedHeader.getInt(12);
+            long numBars = fixedHeader.getLong(16);
+            long sourceSize = fixedHeader.getLong(24);
+            long sourceLastModified = fixedHeader.getLong(32);
+            long sourceFingerprint = fixedHeader.getLong(40);
+            int pathLength = fixedHeader.getInt(48);
+
+            if (pathLength < 0 || FIXED_HEADER_SIZE + pathLength > headerSize ||
+                    numBars < 0 || numBars > Integer.MAX_VALUE - 8 ||
+                    priceScale < 0 || priceScale > PriceBarSeries.MAX_PRICE_SCALE ||
+                    headerSize + numBars * NUM_COLUMNS * 8 != fileSize) {
+                logger.warn("Cache file '" + cacheFile + "' is corrupt.");
+                return null;
+            }
+
+            ByteBuffer pathBuf = readFully(channel, FIXED_HEADER_SIZE, pathLength);
+            String path = new String(pathBuf.array(), 0, pathLength,
+                    StandardCharsets.UTF_8);
+
+            SourceInfo cached = new SourceInfo(path, sourceSize,
+                    sourceLastModified, sourceFingerprint);
+            if (!cached.equals(source)) {
+                return null;
+            }
+
+            int n = (int) numBars;
+
+            if (storage.isOffHeap()) {
+                long columnBytes = (long) n * 8;
+                PriceBarSeries rv = PriceBarSeries.wrap(priceScale, n,
+                        OffHeapColumnStorage.mapDoubleColumn(channel, headerSize, n),
+                        OffHeapColumnStorage.mapLongColumn(channel, headerSize + columnBytes, n),
+                        OffHeapColumnStorage.mapLongColumn(channel, headerSize + 2 * columnBytes, n),
+                        OffHeapColumnStorage.mapLongColumn(channel, headerSize + 3 * columnBytes, n),
+                        OffHeapColumnStorage.mapLongColumn(channel, headerSize + 4 * columnBytes, n),
+                        OffHeapColumnStorage.mapLongColumn(channel, headerSize + 5 * columnBytes, n),
+                        OffHeapColumnStorage.mapLongColumn(channel, headerSize + 6 * columnBytes, n));
+
+                logger.info("Mapped " + n + " price bars for '" + path +
+                        "' from cache file '" + cacheFile + "'.");
+                return rv;
+            }
+
+            // Map each segment of each column and copy it into a heap
+            // array in bulk.
+            double[] timestampJd = new double[n];
+            long[][] columns = new long[NUM_COLUMNS - 1][n];
+
+            for (int from = 0; from < n; from += segmentSize) {
+                int length = Math.min(segmentSize, n - from);
+                mapSegment(channel, FileChannel.MapMode.READ_ONLY, headerSize, n, 0,
+                        from, length).asDoubleBuffer().get(timestampJd, from, length);
+                for (int c = 1; c < NUM_COLUMNS; c++) {
+                    mapSegment(channel, FileChannel.MapMode.READ_ONLY, headerSize, n, c,
+                            from, length).asLongBuffer().get(columns[c - 1], from, length);
+                }
+            }
+
+            logger.info("Loaded " + n + " price bars for '" + path +
+                    "' from cache file '" + cacheFile + "'.");
+
+            return PriceBarSeries.wrap(priceScale, n, timestampJd,
+                    columns[0], columns[1], columns[2], columns[3],
+                    columns[4], columns[5]);
+        }
+    }
+
+    /**
+     * Memory-maps the values [from, from + length) of one column of a
+     * cache file.
+     */
+    private static MappedByteBuffer mapSegment(FileChannel channel,
+                                               FileChannel.MapMode mode,
+                                               int headerSize,
+                                               int numBars,
+                                               int columnIndex,
+                                               int from,
+                                               int length)
+            throws IOException {
+
+        long offset = headerSize + ((long) columnIndex * numBars + from) * 8;
+        MappedByteBuffer rv = channel.map(mode, offset, (long) length * 8);
+        rv.order(ByteOrder.LITTLE_ENDIAN);
+        return rv;
+    }
+
+    /**
+     * Reads a range of bytes from a file into a little-endian heap buffer.
+     */
+    private static ByteBuffer readFully(FileChannel channel, long offset, int length)
+            throws IOException {
+
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Writes a cache file.  The file is written under a temporary name
+     * and then moved into place, so that a half-written file is never
+     * picked up.
+     *
+     * @param cacheFile Cache file to write.
+     * @param source Information about the CSV file the series came from.
+     * @param series Series to write.
+     */
+    void write(Path cacheFile, SourceInfo source, PriceBarSeries series)
+            throws IOException {
+
+        Files.createDirectories(cacheFile.getParent());
+
+        byte[] pathBytes = source.path.getBytes(StandardCharsets.UTF_8);
+        int headerSize = align8(FIXED_HEADER_SIZE + pathBytes.length);
+        int n = series.size();
+        long fileSize = headerSize + (long) n * NUM_COLUMNS * 8;
+
+        Path tempFile = Files.createTempFile(cacheFile.getParent(),
+                cacheFile.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                ByteBuffer header = ByteBuffer.allocate(headerSize)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC);
+                header.putInt(FORMAT_VERSION);
+                header.putInt(headerSize);
+                header.putInt(series.getPriceScale());
+                header.putLong(n);
+                header.putLong(source.size);
+                header.putLong(source.lastModified);
+                header.putLong(source.fingerprint);
+                header.putInt(pathBytes.length);
+                header.put(pathBytes);
+                header.position(0);
+                channel.write(header, 0);
+
+                for (int c = 0; c < NUM_COLUMNS; c++) {
+                    for (int from = 0; from < n; from += segmentSize) {
+                        int length = Math.min(segmentSize, n - from);
+                        MappedByteBuffer segment = mapSegment(channel,
+                                FileChannel.MapMode.READ_WRITE, headerSize, n, c,
+                                from, length);
+                        writeColumn(series, c, from, from + length, segment);
+                        segment.force();
+                    }
+                }
+
+                if (channel.size() != fileSize) {
+                    throw new IOException("Unexpected cache file size " +
+                            channel.size() + ", expected " + fileSize + ".");
+                }
+            }
+
+            Files.move(tempFile, cacheFile,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            logger.info("Wrote price bar cache file '" + cacheFile +
+                    "' (" + fileSize + " bytes).");
+
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Writes the values [from, to) of one column of a series.
+     */
+    private static void writeColumn(PriceBarSeries series, int column,
+                                    int from, int to, ByteBuffer dest) {
+        if (column == 0) {
+            DoubleBuffer doubles = dest.asDoubleBuffer();
+            for (int i = from; i < to; i++) {
+                doubles.put(series.getTimestampJd(i));
+            }
+            return;
+        }
+
+        LongBuffer longs = dest.asLongBuffer();
+        switch (column) {
+            case 1:
+                for (int i = from; i < to; i++) {
+                    longs.put(series.getOpenPriceUnscaled(i));
+                }
+                break;
+            case 2:
+                for (int i = from; i < to; i++) {
+                    longs.put(series.getHighPriceUnscaled(i));
+                }
+                break;
+            case 3:
+                for (int i = from; i < to; i++) {
+                    longs.put(series.getLowPriceUnscaled(i));
+                }
+                break;
+            case 4:
+                for (int i = from; i < to; i++) {
+                    longs.put(series.getClosePriceUnscaled(i));
+                }
+                break;
+            case 5:
+                for (int i = from; i < to; i++) {
+                    longs.put(series.getVolume(i));
+                }
+                break;
+            case 6:
+                for (int i = from; i < to; i++) {
+                    longs.put(series.getOpenInterest(i));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown column: " + column);
+        }
+    }
+
+    /**
+     * Deletes the least recently used cache files until the total size
+     * of the cache directory is within the limit.  The given file is
+     * never deleted.
+     *
+     * @param keep Cache file that must not be deleted.
+     */
+    void enforceSizeLimit(Path keep) throws IOException {
+        File[] files = cacheDirectory.toFile().listFiles(
+                (dir, name) -> name.endsWith(CACHE_FILE_EXTENSION));
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxCacheBytes) {
+            return;
+        }
+
+        // Oldest (least recently used) first.
+        List<File> byLastUsed = new ArrayList<>(Arrays.asList(files));
+        byLastUsed.sort(Comparator.comparingLong(File::lastModified));
+
+        for (File file : byLastUsed) {
+            if (total <= maxCacheBytes) {
+                break;
+            }
+            if (file.toPath().equals(keep)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                logger.info("Deleted least recently used price bar cache file '" +
+                        file + "'.");
+            }
+        }
+    }
+
+    /**
+     * Marks a cache file as just used.
+     */
+    private static void touch(Path cacheFile) {
+        try {
+            Files.setLastModifiedTime(cacheFile,
+                    FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            logger.debug("Could not update last used time of '" + cacheFile + "'.", e);
+        }
+    }
+
+    private static int align8(int value) {
+        return (value + 7) & ~7;
+    }
+
+    private static long fnv1a(long hash, byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hash ^= (bytes[i] & 0xff);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the content fingerprint of a file: an FNV-1a hash of the
+     * file size and of blocks sampled from the start, middle and end.
+     *
+     * @param path File to fingerprint.
+     * @return long Fingerprint.
+     */
+    static long contentFingerprint(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            long hash = FNV_OFFSET_BASIS;
+            for (int i = 0; i < 8; i++) {
+                hash ^= (size >>> (i * 8)) & 0xff;
+                hash *= FNV_PRIME;
+            }
+
+            long[] offsets = {
+                    0,
+                    Math.max(0, size / 2 - FINGERPRINT_BLOCK_SIZE / 2),
+                    Math.max(0, size - FINGERPRINT_BLOCK_SIZE) };
+
+            byte[] block = new byte[FINGERPRINT_BLOCK_SIZE];
+            for (long offset : offsets) {
+                ByteBuffer buf = ByteBuffer.wrap(block);
+                int len = (int) Math.min(FINGERPRINT_BLOCK_SIZE, size - offset);
+                buf.limit(Math.max(0, len));
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, offset + buf.position()) < 0) {
+                        break;
+                    }
+                }
+                hash = fnv1a(hash, block, 0, buf.position());
+            }
+
+            return hash;
+        }
+    }
+
+    /**
+     * Identifying information about a CSV file, used to tell whether
+     * a cache file is up to date.
+     */
+    static class SourceInfo {
+        final String path;
+        final long size;
+        final long lastModified;
+        final long fingerprint;
+
+        SourceInfo(String path, long size, long lastModified, long fingerprint) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+        }
+
+        static SourceInfo of(Path canonicalPath) throws IOException {
+            return new SourceInfo(canonicalPath.toString(),
+                    Files.size(canonicalPath),
+                    Files.getLastModifiedTime(canonicalPath).toMillis(),
+                    contentFingerprint(canonicalPath));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            SourceInfo that = (SourceInfo) o;
+
+            if (size != that.size) return false;
+            if (lastModified != that.lastModified) return false;
+            if (fingerprint != that.fingerprint) return false;
+            if (!path.equals(that.path)) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int) (size ^ (size >>> 32));
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = 31 * result + (int) (fingerprint ^ (fingerprint >>> 32));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,588 @@
+package com.ryanluu.cyclehunter.data;
+
+import com.ryanluu.cyclehunter.model.ColumnStorage;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a price bar CSV file into a PriceBarSeries.
+ *
+ * The file is memory-mapped through NIO and handed to a
+ * PriceBarCsvParser a window at a time, so the text is parsed
+ * straight from the page cache without being copied into Java
+ * heap buffers or decoded into Strings.  Files larger than what a
+ * single MappedByteBuffer can address (2 GB) are handled by mapping
+ * successive windows, each one ending on a line boundary.
+ *
+ * Large files are split into newline-aligned chunks of a few megabytes
+ * that are parsed in parallel on a ForkJoinPool, each chunk into its
+ * own small series.  The lines of the file are counted first, so the
+ * series is made big enough for every bar up front, and the loading
+ * thread appends the chunks to it in file order as they are done.
+ * Only a few chunks are parsed ahead of the one being appended, so the
+ * bars are not held twice over.  Progress is reported by the loading
+ * thread as the chunks are appended, so it only ever goes forwards.
+ * Then the timestamps are checked to be in ascending order.  If they
+ * are not, the bars are sorted by timestamp.  The number of threads
+ * used can be capped with setParallelism().
+ *
+ * The series, and the chunks it is joined from, are kept in the
+ * ColumnStorage given with setColumnStorage(), so that with off-heap
+ * storage a file too big for the heap can be loaded without the
+ * parsed bars ever being on it.
+ *
+ * Loading is synchronous.  Callers on the JavaFX Application Thread
+ * should run it on a background thread and use the ProgressListener
+ * to update the user interface.  If the loading thread is
+ * interrupted, loading stops with an InterruptedIOException.
+ */
+public class PriceBarCsvLoader {
+
+    private static final Logger logger =
+            Logger.getLogger(PriceBarCsvLoader.class);
+
+    /**
+     * Value for the price scale that means it should be
+     * worked out from the contents of the file.
+     */
+    public static final int AUTO_DETECT_PRICE_SCALE = -1;
+
+    /**
+     * Size of each memory-mapped window.
+     */
+    private static final int MAP_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * Number of bytes looked at when detecting the price scale.
+     */
+    private static final int PRICE_SCALE_SAMPLE_SIZE = 64 * 1024;
+
+    /**
+     * Number of bytes parsed between progress updates.
+     */
+    private static final int PROGRESS_INTERVAL = 8 * 1024 * 1024;
+
+    /**
+     * Rough guess of the number of bytes per line, used to size
+     * the series columns before parsing.
+     */
+    private static final int ESTIMATED_BYTES_PER_LINE = 48;
+
+    /**
+     * Files smaller than this are always parsed on a single thread,
+     * since splitting them up costs more than it saves.
+     */
+    private static final long MIN_PARALLEL_FILE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Smallest chunk size handed to a thread when parsing in parallel.
+     */
+    private static final long MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Number of chunks per thread that may be parsed ahead of the one
+     * being appended to the series.
+     */
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2;
+
+    /**
+     * Columns with more room than this fraction of their bars to spare
+     * are shrunk after loading.  Less is not worth copying them for.
+     */
+    private static final int TRIM_SLACK_DIVISOR = 64;
+
+    private static final byte NEWLINE = '\n';
+
+    private int priceScale = AUTO_DETECT_PRICE_SCALE;
+
+    /**
+     * Maximum number of threads used for parsing.
+     * 0 means use all available processors.
+     */
+    private int parallelism = 0;
+
+    /**
+     * Where the columns of the loaded series are kept.
+     */
+    private ColumnStorage columnStorage = ColumnStorage.HEAP;
+
+    public PriceBarCsvLoader() {
+    }
+
+    /**
+     * Creates a loader that uses at most the given number of threads.
+     *
+     * @param parallelism Maximum number of parsing threads.
+     *                    0 means use all available processors.
+     */
+    public PriceBarCsvLoader(int parallelism) {
+        setParallelism(parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of threads used for parsing.
+     *
+     * @param parallelism Maximum number of parsing threads.
+     *                    0 means use all available processors.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException(
+                    "parallelism cannot be negative: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the number of threads that would be used to
+     * parse a file of the given size.
+     */
+    int getEffectiveParallelism(long fileSize) {
+        int threads = parallelism;
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (fileSize < MIN_PARALLEL_FILE_SIZE) {
+            return 1;
+        }
+        long maxChunks = Math.max(1, fileSize / MIN_CHUNK_SIZE);
+        return (int) Math.max(1, Math.min(threads, maxChunks));
+    }
+
+    public ColumnStorage getColumnStorage() {
+        return columnStorage;
+    }
+
+    /**
+     * Sets where the columns of the loaded series are kept.  A
+     * PriceBarCache maps its files into a series kept off the heap
+     * instead of reading them.
+     *
+     * @param columnStorage ColumnStorage.HEAP or ColumnStorage.OFF_HEAP.
+     */
+    public void setColumnStorage(ColumnStorage columnStorage) {
+        this.columnStorage = columnStorage;
+    }
+
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    /**
+     * Sets the number of decimal places prices are stored with.
+     *
+     * @param priceScale Number of decimal places, or
+     *                   AUTO_DETECT_PRICE_SCALE to work it out from
+     *                   the file.
+     */
+    public void setPriceScale(int priceScale) {
+        this.priceScale = priceScale;
+    }
+
+    /**
+     * Loads the given CSV file.
+     *
+     * @param path Path of the CSV file.
+     * @param progressListener Listener that is told how many bytes
+     *                         have been parsed so far.
+     * @return PriceBarSeries Series holding the bars in the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public PriceBarSeries load(Path path, ProgressListener progressListener)
+            throws IOException {
+
+        long startTime = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            logger.info("Loading price bars from '" + path + "' (" +
+                    fileSize + " bytes) ...");
+
+            int scale = resolvePriceScale(channel);
+            int threads = getEffectiveParallelism(fileSize);
+
+            PriceBarSeries series;
+            List<PriceBarCsvParser> parsers = new ArrayList<>();
+
+            if (threads <= 1) {
+                PriceBarCsvParser parser = new PriceBarCsvParser(scale);
+                parsers.add(parser);
+                series = new PriceBarSeries(scale, estimateBarCount(fileSize),
+                        columnStorage);
+
+                parseRange(channel, 0, fileSize, parser, series,
+                        progressListener, 0, fileSize);
+            }
+            else {
+                series = parseInParallel(channel, scale, threads,
+                        MIN_CHUNK_SIZE, progressListener, parsers);
+            }
+
+            long malformedLineCount = 0;
+            for (PriceBarCsvParser parser : parsers) {
+                malformedLineCount += parser.getMalformedLineCount();
+            }
+
+            // Validate that the timestamps are in ascending order.
+            int inversions = series.countTimestampInversions();
+            if (inversions > 0) {
+                logger.warn("Price bars in '" + path + "' are not in " +
+                        "timestamp order (" + inversions + " bars are " +
+                        "earlier than the bar before them).  " +
+                        "Sorting them by timestamp.");
+                series.sortByTimestamp();
+            }
+
+            // Shrinking copies the columns, so only do it if there
+            // is much room to spare, as with a bad estimate.
+            long usedBytes = (long) series.size() * PriceBarSeries.BYTES_PER_BAR;
+            if (series.getMemoryUsageBytes() - usedBytes > usedBytes / TRIM_SLACK_DIVISOR) {
+                series.trimToSize();
+            }
+
+            double seconds = (System.nanoTime() - startTime) / 1.0e9;
+            logger.info("Loaded " + series.size() + " price bars from '" +
+                    path + "' in " + String.format("%.3f", seconds) +
+                    " seconds (" +
+                    String.format("%.1f", fileSize / 1.0e6 / Math.max(seconds, 1e-9)) +
+                    " MB/s) using " + threads + " thread(s).  " +
+                    "Price scale is " + scale + "." +
+                    (malformedLineCount > 0 ?
+                            "  Skipped " + malformedLineCount +
+                            " malformed lines." : ""));
+
+            return series;
+        }
+    }
+
+    /**
+     * Splits the file into newline-aligned chunks, parses them on a
+     * ForkJoinPool, and appends them in file order to one series made
+     * big enough for every line of the file.  At most
+     * CHUNKS_AHEAD_PER_THREAD chunks per thread are parsed ahead of the
+     * one being appended, and progress is reported from the calling
+     * thread only, as the chunks are appended.
+     *
+     * @param channel File to parse.
+     * @param scale Price scale.
+     * @param threads Number of threads to use.
+     * @param chunkSize Rough size of each chunk, in bytes.
+     * @param progressListener Listener for progress updates.
+     * @param parsers List that the parser of each chunk is added to,
+     *                for counting the malformed lines.
+     * @return PriceBarSeries Bars of the file, in file order.
+     */
+    PriceBarSeries parseInParallel(FileChannel channel,
+                                   int scale,
+                                   int threads,
+                                   long chunkSize,
+                                   ProgressListener progressListener,
+                                   List<PriceBarCsvParser> parsers)
+            throws IOException {
+
+        long fileSize = channel.size();
+        int wantedChunks = (int) Math.min(Integer.MAX_VALUE - 1,
+                Math.max(threads, fileSize / Math.max(1, chunkSize)));
+        final long[] boundaries = findChunkBoundaries(channel, wantedChunks);
+        final int numChunks = boundaries.length - 1;
+
+        logger.debug("Parsing in " + numChunks + " chunks on " +
+                threads + " threads.");
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // Count the lines of each chunk, so that neither the chunks
+            // nor the series have to guess their size.
+            List<Future<Integer>> counts = new ArrayList<>();
+            for (int i = 0; i < numChunks; i++) {
+                final long start = boundaries[i];
+                final long end = boundaries[i + 1];
+                counts.add(pool.submit(() -> countLines(channel, start, end)));
+            }
+            final int[] lineCounts = new int[numChunks];
+            long totalLines = 0;
+            for (int i = 0; i < numChunks; i++) {
+                lineCounts[i] = counts.get(i).get();
+                totalLines += lineCounts[i];
+            }
+            if (totalLines > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException(
+                        "Too many price bars to hold in one series: " + totalLines);
+            }
+
+            // Return value.
+            PriceBarSeries rv = new PriceBarSeries(scale, (int) totalLines,
+                    columnStorage);
+
+            Deque<Future<PriceBarSeries>> ahead = new ArrayDeque<>();
+            int maxAhead = threads * CHUNKS_AHEAD_PER_THREAD;
+            int next = 0;
+            for (int i = 0; i < numChunks; i++) {
+                while (next < numChunks && ahead.size() < maxAhead) {
+                    final long start = boundaries[next];
+                    final long end = boundaries[next + 1];
+                    final int numLines = lineCounts[next];
+                    final PriceBarCsvParser parser = new PriceBarCsvParser(scale);
+                    parsers.add(parser);
+
+                    ahead.add(pool.submit(() -> {
+                        PriceBarSeries chunk = new PriceBarSeries(scale,
+                                numLines, columnStorage);
+                        parseRange(channel, start, end, parser, chunk,
+                                ProgressListener.NONE, 0, end - start);
+                        return chunk;
+                    }));
+                    next++;
+                }
+
+                rv.appendAll(ahead.poll().get());
+                progressListener.progress(boundaries[i + 1], fileSize);
+            }
+
+            return rv;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Loading of price bars was interrupted.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to parse price bar chunk.", cause);
+        } finally {
+            // Interrupts any chunks still running if we are bailing out.
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Counts the lines in the byte range [start, end) of the file,
+     * including a last line with no newline at the end.  No more bars
+     * than this can be parsed from the range.
+     */
+    static int countLines(FileChannel channel, long start, long end)
+            throws IOException {
+        long rv = 0;
+        byte last = NEWLINE;
+
+        long windowStart = start;
+        while (windowStart < end) {
+            int windowSize = (int) Math.min(MAP_WINDOW_SIZE, end - windowStart);
+            MappedByteBuffer window = channel.map(
+                    FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                if (window.get(i) == NEWLINE) {
+                    rv++;
+                }
+            }
+            last = window.get(windowSize - 1);
+            windowStart += windowSize;
+        }
+        if (last != NEWLINE) {
+            rv++;
+        }
+
+        if (rv > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException(
+                    "Too many lines in one chunk: " + rv);
+        }
+        return (int) rv;
+    }
+
+    /**
+     * Works out where to split the file so that each chunk starts at
+     * the beginning of a line.
+     *
+     * @param channel File to split.
+     * @param numChunks Number of chunks wanted.
+     * @return long[] Chunk boundary offsets.  Chunk i is the byte range
+     *                [boundaries[i], boundaries[i + 1]).
+     */
+    static long[] findChunkBoundaries(FileChannel channel, int numChunks)
+            throws IOException {
+
+        long fileSize = channel.size();
+        long chunkSize = fileSize / numChunks;
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+
+        // Scan forward from each approximate split point to the
+        // next newline.  Lines are short, so a small window is plenty;
+        // keep looking further if a line happens to be longer.
+        final int searchWindow = 64 * 1024;
+
+        for (int i = 1; i < numChunks; i++) {
+            long approx = Math.max(i * chunkSize,
+                    boundaries.get(boundaries.size() - 1));
+            long boundary = -1;
+
+            long searchStart = approx;
+            while (boundary < 0 && searchStart < fileSize) {
+                int len = (int) Math.min(searchWindow, fileSize - searchStart);
+                MappedByteBuffer window = channel.map(
+                        FileChannel.MapMode.READ_ONLY, searchStart, len);
+                for (int j = 0; j < len; j++) {
+                    if (window.get(j) == '\n') {
+                        boundary = searchStart + j + 1;
+                        break;
+                    }
+                }
+                searchStart += len;
+            }
+
+            if (boundary < 0 || boundary >= fileSize) {
+                break;
+            }
+            if (boundary > boundaries.get(boundaries.size() - 1)) {
+                boundaries.add(boundary);
+            }
+        }
+
+        boundaries.add(fileSize);
+
+        long[] rv = new long[boundaries.size()];
+        for (int i = 0; i < rv.length; i++) {
+            rv[i] = boundaries.get(i);
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the price scale to use for the file, detecting it from
+     * the start of the file if needed.
+     */
+    int resolvePriceScale(FileChannel channel) throws IOException {
+        if (priceScale != AUTO_DETECT_PRICE_SCALE) {
+            return priceScale;
+        }
+
+        int sampleSize = (int) Math.min(channel.size(), PRICE_SCALE_SAMPLE_SIZE);
+        if (sampleSize == 0) {
+            return PriceBarSeries.DEFAULT_PRICE_SCALE;
+        }
+
+        MappedByteBuffer sample =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, sampleSize);
+        int scale = PriceBarCsvParser.detectPriceScale(sample, 0, sampleSize);
+        logger.debug("Detected price scale: " + scale);
+        return scale;
+    }
+
+    /**
+     * Returns a guess of the number of bars in a file of the given size.
+     */
+    static int estimateBarCount(long numBytes) {
+        return (int) Math.min(Integer.MAX_VALUE - 8,
+                Math.max(16, numBytes / ESTIMATED_BYTES_PER_LINE));
+    }
+
+    /**
+     * Parses the lines in the byte range [start, end) of the file.
+     * The range must start at the beginning of a line.  It should end
+     * at the end of a line or at the end of the file.
+     *
+     * @param channel File to parse.
+     * @param start Byte offset to start at.
+     * @param end Byte offset to stop at.
+     * @param parser Parser to use.
+     * @param series Series to append the bars to.
+     * @param progressListener Listener for progress updates.
+     * @param progressBase Amount of work already done before this range,
+     *                     added to the progress reported.
+     * @param progressTotal Total amount of work to report.
+     */
+    static void parseRange(FileChannel channel, long start, long end,
+                           PriceBarCsvParser parser,
+                           PriceBarSeries series,
+                           ProgressListener progressListener,
+                           long progressBase,
+                           long progressTotal) throws IOException {
+
+        long windowStart = start;
+
+        while (windowStart < end) {
+            long windowSize = Math.min(MAP_WINDOW_SIZE, end - windowStart);
+            MappedByteBuffer window = channel.map(
+                    FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+
+            // Only parse up to the last complete line in the window,
+            // unless this window reaches the end of the range.
+            int parseEnd = (int) windowSize;
+            if (windowStart + windowSize < end) {
+                parseEnd = lastLineEnd(window, (int) windowSize);
+                if (parseEnd <= 0) {
+                    throw new IOException("Line starting at byte offset " +
+                            windowStart + " is longer than " +
+                            MAP_WINDOW_SIZE + " bytes.");
+                }
+            }
+
+            // Parse in slices so that progress can be reported and
+            // interruption noticed.
+            int sliceStart = 0;
+            while (sliceStart < parseEnd) {
+                int sliceEnd = parseEnd;
+                if (sliceEnd - sliceStart > PROGRESS_INTERVAL) {
+                    sliceEnd = lastLineEnd(window, sliceStart + PROGRESS_INTERVAL);
+                    if (sliceEnd <= sliceStart) {
+                        sliceEnd = parseEnd;
+                    }
+                }
+
+                parser.parse(window, sliceStart, sliceEnd, series);
+                sliceStart = sliceEnd;
+
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException(
+                            "Loading of price bars was interrupted.");
+                }
+                progressListener.progress(
+                        progressBase + (windowStart - start) + sliceStart,
+                        progressTotal);
+            }
+
+            windowStart += parseEnd;
+        }
+    }
+
+    /**
+     * Returns the position just after the last newline before
+     * the given limit, or 0 if there is no newline.
+     */
+    static int lastLineEnd(ByteBuffer buf, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (buf.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+}
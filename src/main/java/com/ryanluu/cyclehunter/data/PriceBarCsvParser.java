@@ -0,0 +1,589 @@
+package com.ryanluu.cyclehunter.data;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses price bar CSV text directly out of a ByteBuffer and appends
+ * the bars into a PriceBarSeries.
+ *
+ * The parser works on the raw bytes.  It does not decode the text
+ * into Strings, and it does not allocate anything per line, so it can
+ * be pointed at a memory-mapped file of any size.
+ *
+ * Each line is expected to be in the form:
+ *
+ *     Date[ Time],[Time,]Open,High,Low,Close[,Volume[,OpenInterest]]
+ *
+ * Supported date formats are:
+ *
+ *     MM/DD/YYYY
+ *     YYYY-MM-DD  (or YYYY/MM/DD)
+ *     YYYYMMDD
+ *
+ * The optional time is HH:MM or HH:MM:SS, and is taken to be in UT.
+ * If there is no time, the bar is timestamped at 00:00 UT.
+ *
+ * Lines that do not start with a digit (e.g. a header line) are
+ * skipped.  Values may be surrounded by double quotes.  Lines that
+ * cannot be parsed are counted and skipped.
+ *
+ * A parser instance keeps some scratch state, so it is not thread-safe.
+ * Each thread should use its own parser.
+ */
+public class PriceBarCsvParser {
+
+    private static final Logger logger =
+            Logger.getLogger(PriceBarCsvParser.class);
+
+    /**
+     * Maximum number of malformed lines that get logged individually.
+     * After that we only count them.
+     */
+    private static final int MAX_LOGGED_MALFORMED_LINES = 10;
+
+    private static final byte NEWLINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte COMMA = ',';
+    private static final byte QUOTE = '"';
+    private static final byte SPACE = ' ';
+    private static final byte TAB = '\t';
+
+    /**
+     * Number of decimal places prices are stored with.
+     */
+    private final int priceScale;
+
+    /**
+     * Current read position in the buffer.
+     */
+    private int pos;
+
+    /**
+     * End (exclusive) of the line currently being parsed.
+     */
+    private int lineEnd;
+
+    /**
+     * Number of digits read by the last call to readUnsigned().
+     */
+    private int digitCount;
+
+    /**
+     * Set to false when a field cannot be parsed.
+     */
+    private boolean ok;
+
+    // Date fields filled in by parseDate().
+    private int year;
+    private int month;
+    private int day;
+
+    // Cache of the last converted date.  Intraday files have many
+    // lines in a row with the same date, so this saves redoing the
+    // Julian Day calculation for each one.
+    private int cachedYear = Integer.MIN_VALUE;
+    private int cachedMonth;
+    private int cachedDay;
+    private double cachedMidnightJd;
+
+    /**
+     * Number of lines that had data but could not be parsed.
+     */
+    private long malformedLineCount = 0;
+
+    /**
+     * Creates a parser.
+     *
+     * @param priceScale Number of decimal places to store prices with.
+     *                   This must match the price scale of the
+     *                   PriceBarSeries the bars are appended to.
+     */
+    public PriceBarCsvParser(int priceScale) {
+        if (priceScale < 0 || priceScale > PriceBarSeries.MAX_PRICE_SCALE) {
+            throw new IllegalArgumentException(
+                    "Invalid priceScale: " + priceScale);
+        }
+        this.priceScale = priceScale;
+    }
+
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    public long getMalformedLineCount() {
+        return malformedLineCount;
+    }
+
+    /**
+     * Parses all the lines between the start and end positions of the
+     * buffer and appends the bars to the given series.  The text is
+     * assumed to end at the end position, so the caller should only
+     * pass ranges that end on a line boundary (or at the end of the
+     * input).
+     *
+     * Absolute gets are used, so the buffer's position and limit
+     * are not changed.
+     *
+     * @param buf Buffer holding the CSV text.
+     * @param start Position of the first byte to parse.
+     * @param end Position after the last byte to parse.
+     * @param series Series to append the parsed bars to.
+     * @return int Number of bars appended.
+     */
+    public int parse(ByteBuffer buf, int start, int end, PriceBarSeries series) {
+        if (series.getPriceScale() != priceScale) {
+            throw new IllegalArgumentException(
+                    "Series price scale " + series.getPriceScale() +
+                    " does not match parser price scale " + priceScale + ".");
+        }
+
+        int numBars = 0;
+        int lineStart = start;
+
+        while (lineStart < end) {
+            // Find the end of this line.
+            int nl = lineStart;
+            while (nl < end && buf.get(nl) != NEWLINE) {
+                nl++;
+            }
+
+            lineEnd = nl;
+            // Do not count a trailing carriage return as part of the line.
+            if (lineEnd > lineStart && buf.get(lineEnd - 1) == CARRIAGE_RETURN) {
+                lineEnd--;
+            }
+
+            if (parseLine(buf, lineStart, series)) {
+                numBars++;
+            }
+
+            lineStart = nl + 1;
+        }
+
+        return numBars;
+    }
+
+    /**
+     * Parses one line, [lineStart, lineEnd).
+     *
+     * @return true if a bar was appended.
+     */
+    private boolean parseLine(ByteBuffer buf, int lineStart, PriceBarSeries series) {
+        pos = lineStart;
+        skipWhitespaceAndQuotes(buf);
+
+        // Blank lines, header lines and comments are skipped.
+        if (pos >= lineEnd || !isDigit(buf.get(pos))) {
+            return false;
+        }
+
+        ok = true;
+
+        // Date, with an optional time after it in the same field.
+        parseDate(buf);
+        double dayFraction = 0.0;
+        if (ok && pos < lineEnd) {
+            byte b = buf.get(pos);
+            if ((b == SPACE || b == 'T') && pos + 1 < lineEnd &&
+                    isDigit(buf.get(pos + 1))) {
+                pos++;
+                dayFraction = parseTime(buf);
+            }
+        }
+        endField(buf);
+
+        // Optional separate time column.
+        if (ok && fieldContainsColon(buf)) {
+            skipWhitespaceAndQuotes(buf);
+            dayFraction = parseTime(buf);
+            endField(buf);
+        }
+
+        long open = parseFixedPoint(buf);
+        endField(buf);
+        long high = parseFixedPoint(buf);
+        endField(buf);
+        long low = parseFixedPoint(buf);
+        endField(buf);
+        long close = parseFixedPoint(buf);
+        endField(buf);
+
+        // Volume and open interest are optional.
+        long volume = parseOptionalLong(buf);
+        endField(buf);
+        long openInterest = parseOptionalLong(buf);
+
+        if (!ok) {
+            malformedLineCount++;
+            if (malformedLineCount <= MAX_LOGGED_MALFORMED_LINES) {
+                logger.warn("Skipping malformed price bar line at byte offset " +
+                        lineStart + ".");
+            }
+            return false;
+        }
+
+        double jd = midnightJulianDay() + dayFraction;
+        series.append(jd, open, high, low, close, volume, openInterest);
+        return true;
+    }
+
+    /**
+     * Parses the date at the current position into the
+     * year, month and day fields.
+     */
+    private void parseDate(ByteBuffer buf) {
+        int a = readUnsigned(buf);
+        int digitsA = digitCount;
+
+        if (digitsA == 8) {
+            // YYYYMMDD
+            year = a / 10000;
+            month = (a / 100) % 100;
+            day = a % 100;
+        }
+        else {
+            if (!skipDateSeparator(buf)) {
+                ok = false;
+                return;
+            }
+            int b = readUnsigned(buf);
+            if (!skipDateSeparator(buf)) {
+                ok = false;
+                return;
+            }
+            int c = readUnsigned(buf);
+            int digitsC = digitCount;
+
+            if (digitsA == 4) {
+                // YYYY-MM-DD
+                year = a;
+                month = b;
+                day = c;
+            }
+            else {
+                // MM/DD/YYYY
+                month = a;
+                day = b;
+                year = c;
+                if (digitsC == 2) {
+                    year += (year < 50) ? 2000 : 1900;
+                }
+            }
+        }
+
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            ok = false;
+        }
+    }
+
+    private boolean skipDateSeparator(ByteBuffer buf) {
+        if (pos < lineEnd) {
+            byte b = buf.get(pos);
+            if (b == '/' || b == '-' || b == '.') {
+                pos++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a time of day in the form HH:MM[:SS[.fff]].
+     *
+     * @return double Fraction of a day.
+     */
+    private double parseTime(ByteBuffer buf) {
+        int hours = readUnsigned(buf);
+        if (digitCount == 0 || pos >= lineEnd || buf.get(pos) != ':') {
+            ok = false;
+            return 0.0;
+        }
+        pos++;
+        int minutes = readUnsigned(buf);
+        if (digitCount == 0) {
+            ok = false;
+            return 0.0;
+        }
+
+        double seconds = 0.0;
+        if (pos < lineEnd && buf.get(pos) == ':') {
+            pos++;
+            seconds = readUnsigned(buf);
+            if (pos < lineEnd && buf.get(pos) == '.') {
+                pos++;
+                double scale = 0.1;
+                while (pos < lineEnd && isDigit(buf.get(pos))) {
+                    seconds += (buf.get(pos) - '0') * scale;
+                    scale *= 0.1;
+                    pos++;
+                }
+            }
+        }
+
+        return (hours * 3600.0 + minutes * 60.0 + seconds) / 86400.0;
+    }
+
+    /**
+     * Parses a decimal number at the current position into an
+     * unscaled fixed-point long with this parser's price scale.
+     * Extra decimal places are rounded half up.
+     */
+    private long parseFixedPoint(ByteBuffer buf) {
+        skipWhitespaceAndQuotes(buf);
+
+        boolean negative = false;
+        if (pos < lineEnd) {
+            byte b = buf.get(pos);
+            if (b == '-') {
+                negative = true;
+                pos++;
+            }
+            else if (b == '+') {
+                pos++;
+            }
+        }
+
+        long value = 0;
+        int digits = 0;
+        while (pos < lineEnd) {
+            byte b = buf.get(pos);
+            if (!isDigit(b)) {
+                break;
+            }
+            value = value * 10 + (b - '0');
+            digits++;
+            pos++;
+        }
+
+        int fractionDigits = 0;
+        if (pos < lineEnd && buf.get(pos) == '.') {
+            pos++;
+            while (pos < lineEnd) {
+                byte b = buf.get(pos);
+                if (!isDigit(b)) {
+                    break;
+                }
+                if (fractionDigits < priceScale) {
+                    value = value * 10 + (b - '0');
+                    fractionDigits++;
+                }
+                else if (fractionDigits == priceScale) {
+                    // First digit beyond what we store.  Round on it.
+                    if (b >= '5') {
+                        value++;
+                    }
+                    fractionDigits++;
+                }
+                digits++;
+                pos++;
+            }
+        }
+
+        if (digits == 0) {
+            ok = false;
+            return 0;
+        }
+
+        if (fractionDigits < priceScale) {
+            value *= PriceBarSeries.powerOfTen(priceScale - fractionDigits);
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a whole number such as a volume.  A missing or empty
+     * field gives 0.  Any decimal places are dropped.
+     */
+    private long parseOptionalLong(ByteBuffer buf) {
+        skipWhitespaceAndQuotes(buf);
+
+        long value = 0;
+        while (pos < lineEnd) {
+            byte b = buf.get(pos);
+            if (!isDigit(b)) {
+                break;
+            }
+            value = value * 10 + (b - '0');
+            pos++;
+        }
+
+        // Drop any fraction.
+        if (pos < lineEnd && buf.get(pos) == '.') {
+            pos++;
+            while (pos < lineEnd && isDigit(buf.get(pos))) {
+                pos++;
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Reads an unsigned integer at the current position.
+     * The number of digits read is left in digitCount.
+     */
+    private int readUnsigned(ByteBuffer buf) {
+        int value = 0;
+        int digits = 0;
+        while (pos < lineEnd) {
+            byte b = buf.get(pos);
+            if (!isDigit(b)) {
+                break;
+            }
+            value = value * 10 + (b - '0');
+            digits++;
+            pos++;
+        }
+        digitCount = digits;
+        return value;
+    }
+
+    /**
+     * Moves past the end of the current field, including the comma.
+     * If there is anything other than whitespace or quotes left
+     * in the field, the line is marked as malformed.
+     */
+    private void endField(ByteBuffer buf) {
+        skipWhitespaceAndQuotes(buf);
+        if (pos < lineEnd) {
+            if (buf.get(pos) == COMMA) {
+                pos++;
+            }
+            else {
+                ok = false;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the field starting at the current position
+     * contains a ':' (i.e. it is a time field).
+     */
+    private boolean fieldContainsColon(ByteBuffer buf) {
+        for (int i = pos; i < lineEnd; i++) {
+            byte b = buf.get(i);
+            if (b == ':') {
+                return true;
+            }
+            if (b == COMMA) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void skipWhitespaceAndQuotes(ByteBuffer buf) {
+        while (pos < lineEnd) {
+            byte b = buf.get(pos);
+            if (b != SPACE && b != TAB && b != QUOTE) {
+                break;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Returns the Julian Day at 00:00 UT of the date most recently
+     * parsed.
+     */
+    private double midnightJulianDay() {
+        if (year != cachedYear || month != cachedMonth || day != cachedDay) {
+            cachedYear = year;
+            cachedMonth = month;
+            cachedDay = day;
+            cachedMidnightJd = Ephemeris.julianDay(year, month, day, 0.0);
+        }
+        return cachedMidnightJd;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Looks at the start of some CSV text and works out how many decimal
+     * places the prices are given with.  This is the largest number of
+     * digits seen after a '.' in the open, high, low and close fields
+     * of the data lines that were looked at.  Volume and open interest
+     * are not prices, so they are not looked at.
+     *
+     * @param buf Buffer holding the CSV text.
+     * @param start Position of the first byte to look at.
+     * @param end Position after the last byte to look at.
+     * @return int Number of decimal places, capped at
+     *             PriceBarSeries.MAX_PRICE_SCALE.
+     */
+    public static int detectPriceScale(ByteBuffer buf, int start, int end) {
+        int maxFractionDigits = 0;
+        boolean dataLine = false;
+        boolean atLineStart = true;
+
+        // The date and time fields are not looked at, since
+        // they can contain '.' characters too.
+        int fieldIndex = 0;
+        boolean fieldHasColon = false;
+        int fractionDigits = -1;
+
+        // Index of the open field.  It is 2 on lines with a separate
+        // time column, which is found by its ':'.
+        int openFieldIndex = 1;
+
+        for (int i = start; i < end; i++) {
+            byte b = buf.get(i);
+
+            if (atLineStart) {
+                if (b == SPACE || b == TAB || b == QUOTE) {
+                    continue;
+                }
+                dataLine = isDigit(b);
+                atLineStart = false;
+                fieldIndex = 0;
+                fieldHasColon = false;
+                openFieldIndex = 1;
+            }
+
+            if (b == NEWLINE) {
+                atLineStart = true;
+                fractionDigits = -1;
+            }
+            else if (!dataLine) {
+                continue;
+            }
+            else if (b == COMMA) {
+                fieldIndex++;
+                fieldHasColon = false;
+                fractionDigits = -1;
+            }
+            else if (b == ':') {
+                fieldHasColon = true;
+                fractionDigits = -1;
+                if (fieldIndex == 1) {
+                    openFieldIndex = 2;
+                }
+            }
+            else if (b == '.') {
+                fractionDigits = 0;
+            }
+            else if (isDigit(b)) {
+                if (fractionDigits >= 0 && !fieldHasColon &&
+                        fieldIndex >= openFieldIndex &&
+                        fieldIndex < openFieldIndex + 4) {
+                    fractionDigits++;
+                    if (fractionDigits > maxFractionDigits) {
+                        maxFractionDigits = fractionDigits;
+                    }
+                }
+            }
+            else {
+                fractionDigits = -1;
+            }
+        }
+
+        return Math.min(maxFractionDigits, PriceBarSeries.MAX_PRICE_SCALE);
+    }
+}
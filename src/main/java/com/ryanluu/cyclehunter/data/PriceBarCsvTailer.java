@@ -0,0 +1,360 @@
+package com.ryanluu.cyclehunter.data;
+
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Follows a price bar CSV file that is being appended to, such as a
+ * file a data feed writes to through the trading day, and reads the
+ * bars that are added to it without loading the file again.
+ *
+ * The tailer remembers the byte offset of the first line it has not
+ * read.  Each poll() reads the file from there to the end, parses the
+ * complete lines with a PriceBarCsvParser, and moves the offset past
+ * them.  A line without its newline yet is left for the next poll(),
+ * as the writer may be halfway through it.  Bars that are not later
+ * than the last bar already read are dropped, so lines that were
+ * loaded already are not added twice.
+ *
+ * start() polls the file each time an NIO WatchService reports that it
+ * was modified, on a daemon thread, and hands the new bars to a
+ * Listener.  On some platforms the WatchService polls the file system
+ * itself, so changes can take a few seconds to be noticed.
+ *
+ * Lines that cannot be parsed are skipped and logged, the same as when
+ * the file is loaded.
+ *
+ * If the file becomes shorter than the offset, it has been rewritten
+ * rather than appended to, and has to be loaded again from the start.
+ *
+ * poll() is synchronized, so it may be called from any thread.
+ */
+public class PriceBarCsvTailer implements Closeable {
+
+    private static final Logger logger =
+            Logger.getLogger(PriceBarCsvTailer.class);
+
+    /**
+     * Number of bytes read from the file at a time.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Told about what happens to the file being followed.  Called on
+     * the tailer's thread.
+     */
+    public interface Listener {
+        /**
+         * Called with the bars appended to the file.
+         *
+         * @param bars New bars, in the price scale of the tailer.
+         *             Never empty.
+         */
+        void barsAppended(PriceBarSeries bars);
+
+        /**
+         * Called when the file has been rewritten, and has to be
+         * loaded again.  The tailer stops.
+         */
+        void fileRewritten();
+
+        /**
+         * Called when the new bars cannot be read for a reason that
+         * trying again will not fix.  The tailer stops.
+         *
+         * @param e What went wrong.
+         */
+        void followFailed(RuntimeException e);
+    }
+
+    private final Path path;
+
+    private final int priceScale;
+
+    private final PriceBarCsvParser parser;
+
+    /**
+     * Byte offset of the first line not read yet.
+     */
+    private long offset;
+
+    /**
+     * Timestamp of the last bar read, or loaded before.
+     */
+    private double lastJd;
+
+    /**
+     * Number of bars dropped for not being later than the bar
+     * before them.
+     */
+    private long droppedBarCount = 0;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * Bars parsed by poll(), before the ones that are too early
+     * are dropped.  Kept to save allocating it on every poll().
+     */
+    private final PriceBarSeries parsed;
+
+    private WatchService watchService = null;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a tailer that reads the file from the line that the
+     * given offset is in.
+     *
+     * @param path Path of the CSV file.
+     * @param priceScale Price scale of the series the bars are
+     *                   appended to.
+     * @param startOffset Offset to start reading at, such as the size
+     *                    of the file before it was loaded.  If it is
+     *                    in the middle of a line, that whole line is
+     *                    read.
+     * @param lastJd Timestamp of the last bar already loaded.  Bars
+     *               that are not later are dropped.  NaN if there
+     *               are none.
+     * @throws IOException if the file cannot be read.
+     */
+    public PriceBarCsvTailer(Path path, int priceScale, long startOffset,
+                             double lastJd)
+            throws IOException {
+        this.path = path;
+        this.priceScale = priceScale;
+        this.parser = new PriceBarCsvParser(priceScale);
+        this.parsed = new PriceBarSeries(priceScale, 16);
+        this.lastJd = lastJd;
+        this.offset = findLineStart(startOffset);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    public synchronized long getOffset() {
+        return offset;
+    }
+
+    public synchronized long getDroppedBarCount() {
+        return droppedBarCount;
+    }
+
+    /**
+     * Returns the offset of the start of the line the given offset is
+     * in, by looking back for the newline before it.
+     */
+    private long findLineStart(long startOffset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long pos = Math.min(startOffset, channel.size());
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (pos > 0) {
+                one.clear();
+                if (channel.read(one, pos - 1) < 1 || one.get(0) == '\n') {
+                    break;
+                }
+                pos--;
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Reads the complete lines appended to the file since the last
+     * poll().
+     *
+     * @return PriceBarSeries New bars, which may be none, or null if
+     *         the file is shorter than what has been read already.
+     * @throws IOException if the file cannot be read.
+     */
+    public synchronized PriceBarSeries poll() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                logger.info("'" + path + "' is now " + size + " bytes, " +
+                        "shorter than the " + offset + " bytes read.");
+                return null;
+            }
+
+            parsed.clear();
+            long malformedBefore = parser.getMalformedLineCount();
+            while (offset < size) {
+                int len = (int) Math.min(buffer.capacity(), size - offset);
+                buffer.clear();
+                buffer.limit(len);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+
+                int end = PriceBarCsvLoader.lastLineEnd(buffer, buffer.position());
+                if (end == 0) {
+                    if (len < buffer.capacity()) {
+                        // Only part of a line so far.
+                        break;
+                    }
+                    // A line longer than the buffer.
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    continue;
+                }
+
+                parser.parse(buffer, 0, end, parsed);
+                offset += end;
+            }
+
+            long numMalformed = parser.getMalformedLineCount() - malformedBefore;
+            if (numMalformed > 0) {
+                logger.warn("Skipped " + numMalformed + " malformed lines " +
+                        "appended to '" + path + "'.");
+            }
+        }
+
+        int numKept = 0;
+        double jd = lastJd;
+        for (int i = 0; i < parsed.size(); i++) {
+            if (!(parsed.getTimestampJd(i) <= jd)) {
+                jd = parsed.getTimestampJd(i);
+                numKept++;
+            }
+        }
+
+        // Return value.
+        PriceBarSeries rv = new PriceBarSeries(priceScale, numKept);
+        for (int i = 0; i < parsed.size(); i++) {
+            double t = parsed.getTimestampJd(i);
+            if (!(t <= lastJd)) {
+                rv.append(t,
+                        parsed.getOpenPriceUnscaled(i),
+                        parsed.getHighPriceUnscaled(i),
+                        parsed.getLowPriceUnscaled(i),
+                        parsed.getClosePriceUnscaled(i),
+                        parsed.getVolume(i),
+                        parsed.getOpenInterest(i));
+                lastJd = t;
+            }
+        }
+
+        int numDropped = parsed.size() - numKept;
+        if (numDropped > 0) {
+            droppedBarCount += numDropped;
+            logger.debug("Dropped " + numDropped + " bars from '" + path +
+                    "' that were not later than the bars before them.");
+        }
+
+        return rv;
+    }
+
+    /**
+     * Starts following the file on a daemon thread.  Anything already
+     * appended since the start offset is handed to the listener first.
+     *
+     * @param listener Listener to hand the new bars to.
+     * @throws IOException if the directory of the file cannot be watched.
+     */
+    public synchronized void start(Listener listener) throws IOException {
+        if (watchService != null) {
+            throw new IllegalStateException("Already following '" + path + "'.");
+        }
+
+        watchService = path.getFileSystem().newWatchService();
+        Path directory = path.toAbsolutePath().getParent();
+        directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        Thread thread = new Thread(() -> watch(listener),
+                "PriceBarCsvTailer-" + path.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+
+        logger.info("Following '" + path + "' from byte offset " + offset + ".");
+    }
+
+    /**
+     * Waits for the file to change, and polls it each time it does,
+     * until the tailer is closed.
+     */
+    private void watch(Listener listener) {
+        Path fileName = path.getFileName();
+        try {
+            boolean following = deliver(listener);
+            while (following && !closed) {
+                WatchKey key = watchService.take();
+
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW ||
+                            fileName.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (!key.reset()) {
+                    logger.warn("Stopped following '" + path + "', since " +
+                            "its directory can no longer be watched.");
+                    break;
+                }
+
+                if (changed) {
+                    following = deliver(listener);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed.
+        }
+    }
+
+    /**
+     * Polls the file and tells the listener what happened.
+     *
+     * @return boolean false if the tailer should stop.
+     */
+    private boolean deliver(Listener listener) {
+        try {
+            PriceBarSeries bars = poll();
+            if (bars == null) {
+                listener.fileRewritten();
+                return false;
+            }
+            if (!bars.isEmpty()) {
+                listener.barsAppended(bars);
+            }
+        } catch (IOException e) {
+            // The writer may have the file locked or be replacing it,
+            // so try again on the next change.
+            logger.warn("Failed to read new price bars from '" + path + "'.", e);
+        } catch (RuntimeException e) {
+            logger.error("Stopped following '" + path + "'.", e);
+            listener.followFailed(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops following the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
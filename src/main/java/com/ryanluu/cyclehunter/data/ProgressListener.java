@@ -0,0 +1,27 @@
+package com.ryanluu.cyclehunter.data;
+
+/**
+ * Callback interface for reporting the progress of a long running
+ * operation, such as loading a large price bar file.
+ *
+ * Implementations are called on the thread doing the work,
+ * so a listener that updates the user interface must hand the
+ * values over to the JavaFX Application Thread itself.
+ * When work is split over several threads, the listener may be
+ * called from more than one thread at the same time.
+ */
+public interface ProgressListener {
+
+    /**
+     * A listener that ignores all progress updates.
+     */
+    ProgressListener NONE = (workDone, totalWork) -> { };
+
+    /**
+     * Called periodically while the work is being done.
+     *
+     * @param workDone Amount of work completed so far.
+     * @param totalWork Total amount of work.
+     */
+    void progress(long workDone, long totalWork);
+}
@@ -0,0 +1,448 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.data.ProgressListener;
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Scores every planet against every candidate LookbackMultiple, to
+ * find the lookbacks that have fit the price history best, without
+ * having to try them one at a time in the settings.
+ *
+ * Each lookback is scored two ways:
+ *
+ *   - Return correlation: the Pearson correlation between each bar's
+ *     log return (from the bar returnPeriod bars before) and the log
+ *     return between the bars those two look back to.  Close to 1.0
+ *     means the price moved the same way it did N cycles earlier.
+ *
+ *   - Turning point hit rate: the fraction of the swing highs and lows
+ *     whose looked-back bar is within a few bars of a swing high or low
+ *     of the same kind.  This is compared with the rate expected by
+ *     chance, from how common turning points are.
+ *
+ * The returns and turning points of the series are worked out once.
+ * Planets are scanned in parallel, and within a planet all the
+ * multiples are computed in one LookbackEngine call and scored in
+ * parallel.  If the calling thread is interrupted, the scan stops with
+ * a CancellationException.
+ */
+public class CycleScanner {
+
+    private static final Logger logger = Logger.getLogger(CycleScanner.class);
+
+    /**
+     * Default number of bars on each side a close must be higher (or
+     * lower) than to be a swing high (or low).
+     */
+    public static final int DEFAULT_TURNING_POINT_WINDOW = 5;
+
+    /**
+     * Default number of bars a looked-back bar may be from a turning
+     * point and still count as a hit.
+     */
+    public static final int DEFAULT_HIT_TOLERANCE = 3;
+
+    /**
+     * Least number of returns needed for a correlation.
+     */
+    private static final int MIN_RETURNS = 30;
+
+    private static final byte SWING_HIGH = 1;
+    private static final byte SWING_LOW = -1;
+
+    private final LookbackEngine engine;
+
+    private int turningPointWindow = DEFAULT_TURNING_POINT_WINDOW;
+
+    private int hitTolerance = DEFAULT_HIT_TOLERANCE;
+
+    private int returnPeriod = 1;
+
+    private boolean parallel = true;
+
+    public CycleScanner(LookbackEngine engine) {
+        this.engine = engine;
+    }
+
+    public LookbackEngine getEngine() {
+        return engine;
+    }
+
+    public int getTurningPointWindow() {
+        return turningPointWindow;
+    }
+
+    public void setTurningPointWindow(int turningPointWindow) {
+        if (turningPointWindow < 1) {
+            throw new IllegalArgumentException(
+                    "Turning point window must be at least 1, but was " +
+                    turningPointWindow + ".");
+        }
+        this.turningPointWindow = turningPointWindow;
+    }
+
+    public int getHitTolerance() {
+        return hitTolerance;
+    }
+
+    public void setHitTolerance(int hitTolerance) {
+        if (hitTolerance < 0) {
+            throw new IllegalArgumentException(
+                    "Hit tolerance cannot be negative, but was " +
+                    hitTolerance + ".");
+        }
+        this.hitTolerance = hitTolerance;
+    }
+
+    public int getReturnPeriod() {
+        return returnPeriod;
+    }
+
+    /**
+     * Sets the number of bars the correlated returns are taken over.
+     * Returns over more bars make the correlation change more slowly
+     * as the lookback changes, which is what a sweep over multiples
+     * wants (see MultipleSweep).
+     */
+    public void setReturnPeriod(int returnPeriod) {
+        if (returnPeriod < 1) {
+            throw new IllegalArgumentException(
+                    "Return period must be at least 1, but was " +
+                    returnPeriod + ".");
+        }
+        this.returnPeriod = returnPeriod;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Sets whether planets are scanned, and lookbacks scored,
+     * in parallel.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Scans every planet in the settings against every custom and
+     * fixed LookbackMultiple in the settings, enabled or not.
+     *
+     * @return List<CycleScore> Scores, best correlation first.
+     */
+    public List<CycleScore> scan(PriceBarSeries series,
+                                 CycleHunterSettings settings,
+                                 ProgressListener progressListener) {
+        List<LookbackMultiple> multiples = new ArrayList<>();
+        multiples.addAll(settings.getCustomLookbackMultiplesList());
+        multiples.addAll(settings.getFixedLookbackMultiplesList());
+
+        return scan(series, settings.getPlanetSelectionList(), multiples,
+                progressListener);
+    }
+
+    /**
+     * Scans the given planets against the given multiples.  Multiples
+     * that are not positive are skipped.
+     *
+     * @param series Price bars.
+     * @param planetSelections Planets to scan.
+     * @param lookbackMultiples Multiples to try with each planet.
+     * @param progressListener Told after each planet.  May be null.
+     * @return List<CycleScore> Scores, best correlation first.
+     */
+    public List<CycleScore> scan(PriceBarSeries series,
+                                 List<PlanetSelection> planetSelections,
+                                 List<LookbackMultiple> lookbackMultiples,
+                                 ProgressListener progressListener) {
+        long startTime = System.nanoTime();
+
+        final List<LookbackMultiple> multiples = new ArrayList<>();
+        for (LookbackMultiple lm : lookbackMultiples) {
+            if (lm.getLookbackMultiple() != null &&
+                    lm.getLookbackMultiple().compareTo(BigDecimal.ZERO) > 0) {
+                multiples.add(lm);
+            }
+        }
+
+        engine.getTableService().registerPlanets(planetSelections);
+
+        final SeriesFeatures features = new SeriesFeatures(series, turningPointWindow);
+        final int numPlanets = planetSelections.size();
+        final List<List<CycleScore>> scoresByPlanet =
+                new ArrayList<>(Collections.nCopies(numPlanets, null));
+        final AtomicLong planetsDone = new AtomicLong(0);
+        final ProgressListener listener =
+                (progressListener != null) ? progressListener : ProgressListener.NONE;
+        final Thread caller = Thread.currentThread();
+
+        IntStream planets = IntStream.range(0, numPlanets);
+        if (parallel) {
+            planets = planets.parallel();
+        }
+        planets.forEach(p -> {
+            if (caller.isInterrupted()) {
+                throw new CancellationException("Cycle scan interrupted.");
+            }
+            PlanetSelection ps = planetSelections.get(p);
+            List<LookbackResult> results = engine.computeAll(series, ps, multiples);
+
+            CycleScore[] scores = new CycleScore[results.size()];
+            IntStream multipleIndexes = IntStream.range(0, scores.length);
+            if (parallel) {
+                multipleIndexes = multipleIndexes.parallel();
+            }
+            multipleIndexes.forEach(m -> scores[m] = score(features, results.get(m)));
+
+            List<CycleScore> planetScores = new ArrayList<>(scores.length);
+            Collections.addAll(planetScores, scores);
+            synchronized (scoresByPlanet) {
+                scoresByPlanet.set(p, planetScores);
+            }
+            listener.progress(planetsDone.incrementAndGet(), numPlanets);
+        });
+
+        List<CycleScore> rv = new ArrayList<>();
+        for (List<CycleScore> planetScores : scoresByPlanet) {
+            rv.addAll(planetScores);
+        }
+        rv.sort(CycleScore.BY_CORRELATION);
+
+        logger.info("Scanned " + numPlanets + " planets x " + multiples.size() +
+                " multiples over " + series.size() + " bars in " +
+                (System.nanoTime() - startTime) / 1000000 + " ms.");
+
+        return rv;
+    }
+
+    /**
+     * Scores one lookback with this scanner's return period and
+     * hit tolerance.
+     */
+    CycleScore score(SeriesFeatures features, LookbackResult result) {
+        return score(features, result, returnPeriod, hitTolerance);
+    }
+
+    /**
+     * Scores one lookback.  This needs no engine, for callers that
+     * compute the lookbacks themselves, such as MultipleSweep.
+     *
+     * @param features Features of the series the lookback is for.
+     * @param result Lookback.
+     * @param returnPeriod Number of bars each return is taken over.
+     * @param hitTolerance Most bars a looked-back turning point may be
+     *                     from one of the same kind to count as a hit.
+     * @return CycleScore Score.
+     */
+    static CycleScore score(SeriesFeatures features,
+                            LookbackResult result,
+                            int returnPeriod,
+                            int hitTolerance) {
+        int numBars = features.logClose.length;
+
+        // Correlation of the returns.
+        double sumX = 0.0;
+        double sumY = 0.0;
+        double sumXX = 0.0;
+        double sumYY = 0.0;
+        double sumXY = 0.0;
+        int numReturns = 0;
+
+        int period = returnPeriod;
+        for (int i = period; i < numBars; i++) {
+            int previous = result.getLookbackBarIndex(i - period);
+            int current = result.getLookbackBarIndex(i);
+            if (previous < 0 || current < 0) {
+                continue;
+            }
+            double x = features.logClose[i] - features.logClose[i - period];
+            double y = features.logClose[current] - features.logClose[previous];
+            if (!Double.isFinite(x) || !Double.isFinite(y)) {
+                continue;
+            }
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumYY += y * y;
+            sumXY += x * y;
+            numReturns++;
+        }
+
+        double correlation = Double.NaN;
+        if (numReturns >= MIN_RETURNS) {
+            double n = numReturns;
+            double covariance = sumXY - sumX * sumY / n;
+            double varianceX = sumXX - sumX * sumX / n;
+            double varianceY = sumYY - sumY * sumY / n;
+            if (varianceX > 0.0 && varianceY > 0.0) {
+                correlation = covariance / Math.sqrt(varianceX * varianceY);
+            }
+        }
+
+        // Turning point hits.
+        byte[] turn = features.turningPoint;
+        int numTurningPoints = 0;
+        int hits = 0;
+        for (int i = 0; i < numBars; i++) {
+            if (turn[i] == 0) {
+                continue;
+            }
+            int j = result.getLookbackBarIndex(i);
+            if (j < 0) {
+                continue;
+            }
+            numTurningPoints++;
+            int from = Math.max(0, j - hitTolerance);
+            int to = Math.min(numBars - 1, j + hitTolerance);
+            for (int k = from; k <= to; k++) {
+                if (turn[k] == turn[i]) {
+                    hits++;
+                    break;
+                }
+            }
+        }
+
+        double hitRate = (numTurningPoints > 0) ?
+                (double) hits / numTurningPoints : Double.NaN;
+
+        // Chance of a bar being within the tolerance of a turning
+        // point of a given kind, if they were spread evenly.
+        double density = (numBars > 0) ?
+                (double) features.numTurningPoints / 2.0 / numBars : 0.0;
+        double chanceHitRate = Math.min(1.0, density * (2 * hitTolerance + 1));
+
+        return new CycleScore(result.getPlanetSelection(),
+                result.getLookbackMultiple(), correlation, numReturns,
+                hitRate, chanceHitRate, numTurningPoints);
+    }
+
+    /**
+     * Formats scores as a table of fixed width columns, for printing.
+     *
+     * @param scores Scores, in the order they should be listed.
+     * @param maxRows Largest number of scores listed.
+     * @return String Table, with a header line.
+     */
+    public static String formatTable(List<CycleScore> scores, int maxRows) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%4s  %-14s %-18s %10s %8s %8s %8s %8s%n",
+                "Rank", "Planet", "Multiple", "Corr", "Returns",
+                "HitRate", "Lift", "Turns"));
+
+        int numRows = Math.min(maxRows, scores.size());
+        for (int r = 0; r < numRows; r++) {
+            CycleScore s = scores.get(r);
+            sb.append(String.format("%4d  %-14s %-18s %10.4f %8d %8.3f %8.2f %8d%n",
+                    r + 1,
+                    s.getPlanetSelection().getDisplayName(),
+                    s.getLookbackMultiple().getName(),
+                    s.getCorrelation(),
+                    s.getNumReturns(),
+                    s.getHitRate(),
+                    s.getHitRateLift(),
+                    s.getNumTurningPoints()));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Writes scores as CSV, with a header line.
+     *
+     * @param scores Scores, in the order they should be written.
+     * @param writer Where to write.
+     * @throws IOException If writing fails.
+     */
+    public static void writeCsv(List<CycleScore> scores, Writer writer)
+            throws IOException {
+        writer.write("rank,planet,multipleName,multiple,correlation,numReturns," +
+                "hitRate,chanceHitRate,hitRateLift,numTurningPoints\n");
+        int rank = 1;
+        for (CycleScore s : scores) {
+            writer.write(rank++ + "," +
+                    s.getPlanetSelection().getDisplayName() + "," +
+                    "\"" + s.getLookbackMultiple().getName().replace("\"", "\"\"") + "\"," +
+                    s.getLookbackMultiple().getLookbackMultiple().toPlainString() + "," +
+                    s.getCorrelation() + "," +
+                    s.getNumReturns() + "," +
+                    s.getHitRate() + "," +
+                    s.getChanceHitRate() + "," +
+                    s.getHitRateLift() + "," +
+                    s.getNumTurningPoints() + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * Things about the price series that do not depend on the
+     * lookback, worked out once per scan.
+     */
+    static final class SeriesFeatures {
+
+        /**
+         * Natural log of each close.
+         */
+        final double[] logClose;
+
+        /**
+         * SWING_HIGH, SWING_LOW or 0 for each bar.
+         */
+        final byte[] turningPoint;
+
+        final int numTurningPoints;
+
+        SeriesFeatures(PriceBarSeries series, int window) {
+            int numBars = series.size();
+            logClose = new double[numBars];
+            for (int i = 0; i < numBars; i++) {
+                logClose[i] = Math.log(series.getClosePriceUnscaled(i));
+            }
+
+            turningPoint = new byte[numBars];
+            int count = 0;
+            for (int i = window; i < numBars - window; i++) {
+                long close = series.getClosePriceUnscaled(i);
+                boolean high = true;
+                boolean low = true;
+                for (int k = i - window; k <= i + window && (high || low); k++) {
+                    if (k == i) {
+                        continue;
+                    }
+                    long other = series.getClosePriceUnscaled(k);
+
+                    // Ties count for the earlier bar only.
+                    if (k < i ? other >= close : other > close) {
+                        high = false;
+                    }
+                    if (k < i ? other <= close : other < close) {
+                        low = false;
+                    }
+                }
+                if (high) {
+                    turningPoint[i] = SWING_HIGH;
+                    count++;
+                }
+                else if (low) {
+                    turningPoint[i] = SWING_LOW;
+                    count++;
+                }
+            }
+            numTurningPoints = count;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+
+import java.util.Comparator;
+
+/**
+ * How well one planet and LookbackMultiple fit a price history, as
+ * scored by the CycleScanner.
+ */
+public class CycleScore {
+
+    /**
+     * Orders scores by return correlation, best first.
+     * Scores without a correlation come last.
+     */
+    public static final Comparator<CycleScore> BY_CORRELATION =
+            Comparator.comparingDouble(CycleScore::getCorrelationOrWorst).reversed();
+
+    /**
+     * Orders scores by turning point hit rate relative to chance,
+     * best first.  Scores without a hit rate come last.
+     */
+    public static final Comparator<CycleScore> BY_HIT_RATE_LIFT =
+            Comparator.comparingDouble(CycleScore::getHitRateLiftOrWorst).reversed();
+
+    private final PlanetSelection planetSelection;
+    private final LookbackMultiple lookbackMultiple;
+
+    /**
+     * Pearson correlation between the bars' log returns and the log
+     * returns of the bars they look back to.  NaN if there were too
+     * few bars to tell.
+     */
+    private final double correlation;
+
+    /**
+     * Number of returns the correlation was taken over.
+     */
+    private final int numReturns;
+
+    /**
+     * Fraction of the turning points whose looked-back bar is near a
+     * turning point of the same kind.  NaN if there were none.
+     */
+    private final double hitRate;
+
+    /**
+     * Hit rate that would be expected by chance, from how common
+     * turning points are.
+     */
+    private final double chanceHitRate;
+
+    /**
+     * Number of turning points that could be looked back from.
+     */
+    private final int numTurningPoints;
+
+    public CycleScore(PlanetSelection planetSelection,
+                      LookbackMultiple lookbackMultiple,
+                      double correlation,
+                      int numReturns,
+                      double hitRate,
+                      double chanceHitRate,
+                      int numTurningPoints) {
+        this.planetSelection = planetSelection;
+        this.lookbackMultiple = lookbackMultiple;
+        this.correlation = correlation;
+        this.numReturns = numReturns;
+        this.hitRate = hitRate;
+        this.chanceHitRate = chanceHitRate;
+        this.numTurningPoints = numTurningPoints;
+    }
+
+    public PlanetSelection getPlanetSelection() {
+        return planetSelection;
+    }
+
+    public LookbackMultiple getLookbackMultiple() {
+        return lookbackMultiple;
+    }
+
+    public double getCorrelation() {
+        return correlation;
+    }
+
+    public int getNumReturns() {
+        return numReturns;
+    }
+
+    public double getHitRate() {
+        return hitRate;
+    }
+
+    public double getChanceHitRate() {
+        return chanceHitRate;
+    }
+
+    /**
+     * Returns the hit rate divided by the hit rate expected by chance.
+     * Above 1.0 means the lookback lands near turning points more often
+     * than a random shift would.
+     */
+    public double getHitRateLift() {
+        return (chanceHitRate > 0.0) ? hitRate / chanceHitRate : Double.NaN;
+    }
+
+    public int getNumTurningPoints() {
+        return numTurningPoints;
+    }
+
+    private double getCorrelationOrWorst() {
+        return Double.isNaN(correlation) ? Double.NEGATIVE_INFINITY : correlation;
+    }
+
+    private double getHitRateLiftOrWorst() {
+        double lift = getHitRateLift();
+        return Double.isNaN(lift) ? Double.NEGATIVE_INFINITY : lift;
+    }
+
+    @Override
+    public String toString() {
+        return "CycleScore{" +
+                "planet=" + planetSelection.getDisplayName() +
+                ", multiple=" + lookbackMultiple.getLookbackMultiple() +
+                ", correlation=" + correlation +
+                ", numReturns=" + numReturns +
+                ", hitRate=" + hitRate +
+                ", chanceHitRate=" + chanceHitRate +
+                ", numTurningPoints=" + numTurningPoints +
+                '}';
+    }
+}
@@ -0,0 +1,310 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTable;
+
+/**
+ * Finds, for a time t, the latest earlier time at which a planet's
+ * unwrapped longitude was a given number of degrees behind where it is
+ * at t.  For a lookback of N cycles that is N * 360 degrees, i.e. the
+ * time the planet was last at the same place in the zodiac N full
+ * cycles ago.
+ *
+ * Because of retrograde motion the unwrapped longitude is not
+ * monotonic, so "the time when the longitude was y" can have several
+ * answers.  The one wanted is the latest, that is, the last time before
+ * t that the planet was at or behind y.  To find that quickly, a
+ * running minimum of the table samples is kept from the end of the
+ * table backwards:
+ *
+ *     envelope[k] = min(longitude[k], envelope[k + 1])
+ *
+ * This is non-decreasing, so the last sample with envelope[k] <= y can
+ * be found with a search that starts from the previous answer and only
+ * moves a few samples for consecutive bars.  After that sample the
+ * longitude never comes back down to y, so the crossing lies in the
+ * interval [k, k + 1], where it is solved for on the Hermite curve of
+ * the table with Newton's method, kept inside the bracket by bisection.
+ *
+ * The envelope also sees samples after t.  If the planet dips back
+ * below y after t, which only happens when the lookback is shorter than
+ * a retrograde loop, the search falls back to scanning backwards
+ * from t.
+ *
+ * For bodies whose longitude decreases over time, such as the lunar
+ * nodes, everything is done on the negated longitude, so "behind"
+ * means further along in the direction of motion.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+class LongitudeReturnFinder implements ReturnFinder {
+
+    /**
+     * Convergence tolerance of the root finding, as a fraction of the
+     * table step.  For a 2 day step this is well under a millisecond.
+     */
+    private static final double TOLERANCE = 1.0e-9;
+
+    /**
+     * Newton's method roughly squares the error with each step, so once
+     * a step is smaller than this, the one after it would be below
+     * TOLERANCE and the iteration stops after taking it.
+     */
+    private static final double LAST_STEP = 1.0e-6;
+
+    private static final int MAX_ITERATIONS = 20;
+
+    private final double startJd;
+    private final double stepDays;
+    private final double inverseStepDays;
+
+    /**
+     * +1.0 if the longitude increases over the table, -1.0 if
+     * it decreases.
+     */
+    private final double direction;
+
+    /**
+     * Longitude of each sample, multiplied by the direction.
+     */
+    private final double[] longitude;
+
+    /**
+     * Speed of each sample, multiplied by the direction and the step,
+     * so that it is the derivative over a unit interval.
+     */
+    private final double[] slope;
+
+    /**
+     * Running minimum of longitude from the end of the table.
+     */
+    private final double[] envelope;
+
+    LongitudeReturnFinder(EphemerisTable table) {
+        int n = table.getNumSamples();
+
+        this.startJd = table.getStartJd();
+        this.stepDays = table.getStepDays();
+        this.inverseStepDays = 1.0 / stepDays;
+        this.direction = (table.getSampleLongitude(n - 1) >=
+                table.getSampleLongitude(0)) ? 1.0 : -1.0;
+
+        this.longitude = new double[n];
+        this.slope = new double[n];
+        for (int i = 0; i < n; i++) {
+            longitude[i] = direction * table.getSampleLongitude(i);
+            slope[i] = direction * table.getSampleSpeed(i) * stepDays;
+        }
+
+        this.envelope = new double[n];
+        envelope[n - 1] = longitude[n - 1];
+        for (int i = n - 2; i >= 0; i--) {
+            envelope[i] = Math.min(longitude[i], envelope[i + 1]);
+        }
+    }
+
+    /**
+     * Returns +1.0 if the body's longitude increases over the table,
+     * or -1.0 if it decreases.
+     */
+    double getDirection() {
+        return direction;
+    }
+
+    /**
+     * Finds the lookback times for a run of times.  The times should be
+     * in ascending order for the warm start to help, but any order
+     * gives the right answers.
+     *
+     * @param jd Times to look back from.
+     * @param unwrappedLongitude Unwrapped longitude of the body at each
+     *                           time, from the same table.
+     * @param degrees How far back to look, in degrees of motion.
+     *                Must be positive.
+     * @param from First index to do (inclusive).
+     * @param to Last index to do (exclusive).
+     * @param out Array to put the Julian Days in, at the same indexes.
+     *            Times that fall before the start of the table are
+     *            set to NaN.
+     */
+    @Override
+    public void findLookbackJds(double[] jd,
+                                double[] unwrappedLongitude,
+                                double degrees,
+                                int from,
+                                int to,
+                                double[] out) {
+        int last = longitude.length - 1;
+        int k = -1;
+        boolean haveGuess = false;
+
+        for (int i = from; i < to; i++) {
+            double t = jd[i];
+            double y = direction * unwrappedLongitude[i] - degrees;
+
+            k = haveGuess ? lastAtOrBelow(y, k) : searchLastAtOrBelow(y);
+            haveGuess = true;
+
+            int node = (int) Math.floor((t - startJd) * inverseStepDays);
+
+            if (k < 0) {
+                out[i] = Double.NaN;
+            }
+            else if (k < node && k < last) {
+                // longitude[k] <= y < longitude[k + 1], and
+                // nothing after k comes back down to y.
+                out[i] = solve(k, y, 1.0);
+            }
+            else {
+                out[i] = scanBack(t, node, y);
+            }
+        }
+    }
+
+    /**
+     * Finds the crossing by walking back from t, for when the envelope
+     * cannot be used.
+     */
+    private double scanBack(double t, int node, double y) {
+        if (node < 0) {
+            return Double.NaN;
+        }
+        int k = Math.min(node, longitude.length - 2);
+        double upper = Math.min((t - startJd) * inverseStepDays - k, 1.0);
+
+        if (longitude[k] <= y) {
+            return solve(k, y, upper);
+        }
+        k--;
+        while (k >= 0 && longitude[k] > y) {
+            k--;
+        }
+        return (k < 0) ? Double.NaN : solve(k, y, 1.0);
+    }
+
+    /**
+     * Returns the last index with envelope[k] <= y, or -1 if there is
+     * none, starting from a guess and galloping outwards.
+     */
+    private int lastAtOrBelow(double y, int guess) {
+        int n = envelope.length;
+
+        if (guess < 0) {
+            guess = 0;
+        }
+
+        if (envelope[guess] <= y) {
+            // Move forwards.
+            int step = 1;
+            int lo = guess;
+            int hi = guess + step;
+            while (hi < n && envelope[hi] <= y) {
+                lo = hi;
+                step <<= 1;
+                hi = lo + step;
+            }
+            return bisect(y, lo, Math.min(hi, n));
+        }
+        else {
+            // Move backwards.
+            int step = 1;
+            int hi = guess;
+            int lo = guess - step;
+            while (lo >= 0 && envelope[lo] > y) {
+                hi = lo;
+                step <<= 1;
+                lo = hi - step;
+            }
+            if (lo < 0) {
+                return (envelope[0] > y) ? -1 : bisect(y, 0, hi);
+            }
+            return bisect(y, lo, hi);
+        }
+    }
+
+    private int searchLastAtOrBelow(double y) {
+        if (envelope[0] > y) {
+            return -1;
+        }
+        return bisect(y, 0, envelope.length);
+    }
+
+    /**
+     * Returns the last index in [lo, hi) with envelope[k] <= y,
+     * given that envelope[lo] <= y and envelope[hi] > y (or hi is
+     * past the end).
+     */
+    private int bisect(double y, int lo, int hi) {
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (envelope[mid] <= y) {
+                lo = mid;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Solves for the time in interval k at which the longitude is y,
+     * given that it is at or below y at the start of the interval and
+     * above y at the fraction upper of it.
+     *
+     * @return double Julian Day of the crossing.
+     */
+    private double solve(int k, double y, double upper) {
+        double p0 = longitude[k];
+        double p1 = longitude[k + 1];
+        double m0 = slope[k];
+        double m1 = slope[k + 1];
+
+        double lo = 0.0;
+        double hi = upper;
+
+        // Start from the straight line between the samples.
+        double s = (p1 != p0) ? (y - p0) / (p1 - p0) : 0.5;
+        if (!(s > lo && s < hi)) {
+            s = 0.5 * (lo + hi);
+        }
+
+        for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
+            double s2 = s * s;
+            double s3 = s2 * s;
+            double f = (2 * s3 - 3 * s2 + 1) * p0 +
+                       (s3 - 2 * s2 + s) * m0 +
+                       (-2 * s3 + 3 * s2) * p1 +
+                       (s3 - s2) * m1 - y;
+
+            if (f > 0) {
+                hi = s;
+            }
+            else {
+                lo = s;
+            }
+
+            double df = (6 * s2 - 6 * s) * (p0 - p1) +
+                        (3 * s2 - 4 * s + 1) * m0 +
+                        (3 * s2 - 2 * s) * m1;
+
+            double delta = f / df;
+            if (Math.abs(delta) < LAST_STEP) {
+                s -= delta;
+                break;
+            }
+
+            double next = s - delta;
+            if (!(next > lo && next < hi)) {
+                // Newton step left the bracket (or df was zero).
+                next = 0.5 * (lo + hi);
+                if (hi - lo < TOLERANCE) {
+                    s = next;
+                    break;
+                }
+            }
+            s = next;
+        }
+
+        return startJd + (k + s) * stepDays;
+    }
+}
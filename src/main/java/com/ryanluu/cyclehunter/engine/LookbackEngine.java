@@ -0,0 +1,774 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTable;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableService;
+import com.ryanluu.cyclehunter.ephemeris.SyntheticBodies;
+import com.ryanluu.cyclehunter.ephemeris.SyntheticBody;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.stream.IntStream;
+
+/**
+ * Computes lookbacks: for every bar of a price series, the time when a
+ * planet was last at the same longitude a LookbackMultiple number of
+ * its cycles earlier, and the bar nearest that time.  This is what the
+ * lookback overlays compare the current prices against.
+ *
+ * Planet positions come from the interpolated EphemerisTables of an
+ * EphemerisTableService, and the times are solved for with
+ * LongitudeReturnFinder, so no Swiss Ephemeris calls are made per bar.
+ * Consecutive bars look back to nearby times, so each search starts
+ * from the answer for the previous bar, and mapping the times to bar
+ * indexes walks forwards from the previous bar index in the same way.
+ *
+ * Bars are processed in chunks, and chunks of all the multiples are run
+ * in parallel on the common ForkJoinPool.  Each chunk starts its warm
+ * start over, so the results do not depend on how the work was split.
+ * If the calling thread is interrupted, the computation stops with a
+ * CancellationException at the next chunk.
+ *
+ * The synthetic bodies "CalendarDay" and "Ascendant" have no tables.
+ * Their longitudes at the bars and their lookback times are calculated
+ * in closed form by the engine's SyntheticBodies, in the same chunks.
+ *
+ * If a LookbackTimesCache is set, the lookback times are kept in it,
+ * and series with the same bar timestamps as an earlier one (another
+ * instrument on the same calendar) only have them mapped to their
+ * own bar indexes.
+ *
+ * When bars are appended to a series, extend() brings its results up
+ * to date by working out the lookbacks of the new bars only.  The
+ * lookbacks of the bars that were there already do not change, since
+ * they look back to times before those bars.  Callers that append bars
+ * on a thread that must not wait, such as LookbackRecomputer, prepare
+ * an Extender beforehand in the background, whose table already
+ * reaches EXTEND_AHEAD_DAYS past the last bar.
+ */
+public class LookbackEngine {
+
+    private static final Logger logger =
+            Logger.getLogger(LookbackEngine.class);
+
+    /**
+     * Number of bars processed per parallel task.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * How much longer than the average cycle length the ephemeris
+     * table is made to reach back, to allow for the planet going
+     * slower than average.
+     */
+    private static final double SPAN_SAFETY_FACTOR = 1.25;
+
+    /**
+     * Extra days added to the span the table reaches back.
+     */
+    private static final double SPAN_MARGIN_DAYS = 60.0;
+
+    /**
+     * Least number of days used to measure a planet's average speed.
+     * This should be long enough that retrograde loops average out.
+     */
+    private static final double MIN_SPEED_MEASURE_DAYS = 2.0 * 365.25;
+
+    /**
+     * How many days past the last bar the table of an Extender from
+     * prepareExtender() reaches.  Bars appended up to then are extended
+     * to without growing the table.
+     */
+    public static final double EXTEND_AHEAD_DAYS = 90.0;
+
+    private final EphemerisTableService tableService;
+
+    private boolean parallel = true;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private volatile SyntheticBodies syntheticBodies = SyntheticBodies.DEFAULT;
+
+    /**
+     * Cache of lookback times shared by series with the same bar
+     * timestamps, or null if nothing is cached.
+     */
+    private volatile LookbackTimesCache lookbackTimesCache = null;
+
+    /**
+     * Creates an engine that gets its planet positions from the
+     * service shared through Ephemeris.getTableService().
+     */
+    public LookbackEngine() {
+        this(Ephemeris.getTableService());
+    }
+
+    /**
+     * Creates an engine that gets its planet positions from the
+     * given service.
+     *
+     * @param tableService Service that provides EphemerisTables.
+     */
+    public LookbackEngine(EphemerisTableService tableService) {
+        this.tableService = tableService;
+    }
+
+    public EphemerisTableService getTableService() {
+        return tableService;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Sets whether the work is split over the common ForkJoinPool,
+     * or done on the calling thread.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public SyntheticBodies getSyntheticBodies() {
+        return syntheticBodies;
+    }
+
+    /**
+     * Sets the synthetic bodies used for "CalendarDay" and "Ascendant",
+     * for example ones for the exchange location in the settings.
+     */
+    public void setSyntheticBodies(SyntheticBodies syntheticBodies) {
+        this.syntheticBodies = syntheticBodies;
+
+        // Cached times of the old bodies are no longer right.
+        LookbackTimesCache cache = lookbackTimesCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    public LookbackTimesCache getLookbackTimesCache() {
+        return lookbackTimesCache;
+    }
+
+    /**
+     * Sets the cache that lookback times are kept in, so that series
+     * with the same bar timestamps share them.
+     *
+     * @param lookbackTimesCache Cache, or null to cache nothing.
+     */
+    public void setLookbackTimesCache(LookbackTimesCache lookbackTimesCache) {
+        this.lookbackTimesCache = lookbackTimesCache;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Chunk size must be positive, but was " + chunkSize + ".");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns how far back a LookbackMultiple looks, in degrees.
+     *
+     * @param lookbackMultiple Lookback multiple.
+     * @return double Number of cycles times 360.
+     */
+    public static double getLookbackDegrees(LookbackMultiple lookbackMultiple) {
+        return lookbackMultiple.getLookbackMultiple()
+                .multiply(BigDecimal.valueOf(360)).doubleValue();
+    }
+
+    /**
+     * Computes the lookback for one multiple.  The multiple is used
+     * whether or not it is enabled.
+     *
+     * @param series Price bars, sorted by timestamp.
+     * @param planetSelection Planet to look back with.
+     * @param lookbackMultiple Number of cycles to look back.
+     * @return LookbackResult Result.
+     */
+    public LookbackResult compute(PriceBarSeries series,
+                                  PlanetSelection planetSelection,
+                                  LookbackMultiple lookbackMultiple) {
+        return computeAll(series, planetSelection,
+                Collections.singletonList(lookbackMultiple)).get(0);
+    }
+
+    /**
+     * Computes the lookbacks for each enabled multiple.
+     *
+     * @param series Price bars, sorted by timestamp.
+     * @param planetSelection Planet to look back with.
+     * @param lookbackMultiples Multiples.  Disabled ones are skipped.
+     * @return List<LookbackResult> One result per enabled multiple,
+     *         in the same order.
+     */
+    public List<LookbackResult> compute(PriceBarSeries series,
+                                        PlanetSelection planetSelection,
+                                        List<LookbackMultiple> lookbackMultiples) {
+        List<LookbackMultiple> enabled = new ArrayList<>();
+        for (LookbackMultiple lookbackMultiple : lookbackMultiples) {
+            if (Boolean.TRUE.equals(lookbackMultiple.getEnabled())) {
+                enabled.add(lookbackMultiple);
+            }
+        }
+        return computeAll(series, planetSelection, enabled);
+    }
+
+    /**
+     * Computes the lookbacks for all the given multiples,
+     * enabled or not.
+     *
+     * @param series Price bars, sorted by timestamp.
+     * @param planetSelection Planet to look back with.
+     * @param lookbackMultiples Multiples.  Each must be positive.
+     * @return List<LookbackResult> One result per multiple,
+     *         in the same order.
+     */
+    public List<LookbackResult> computeAll(PriceBarSeries series,
+                                           PlanetSelection planetSelection,
+                                           List<LookbackMultiple> lookbackMultiples) {
+        int numMultiples = lookbackMultiples.size();
+        double[] degrees = new double[numMultiples];
+        double maxDegrees = 0.0;
+        for (int m = 0; m < numMultiples; m++) {
+            degrees[m] = getLookbackDegrees(lookbackMultiples.get(m));
+            if (!(degrees[m] > 0.0)) {
+                throw new IllegalArgumentException("Lookback multiple " +
+                        lookbackMultiples.get(m).getName() +
+                        " must be positive, but was " +
+                        lookbackMultiples.get(m).getLookbackMultiple() + ".");
+            }
+            maxDegrees = Math.max(maxDegrees, degrees[m]);
+        }
+
+        final int numBars = series.size();
+        List<LookbackResult> rv = new ArrayList<>(numMultiples);
+
+        if (numBars == 0 || numMultiples == 0) {
+            for (int m = 0; m < numMultiples; m++) {
+                rv.add(new LookbackResult(planetSelection,
+                        lookbackMultiples.get(m), degrees[m],
+                        new double[0], new int[0]));
+            }
+            return rv;
+        }
+
+        long startTime = System.nanoTime();
+
+        final double[] barJd = series.toTimestampArray();
+        final double[][] lookbackJd = new double[numMultiples][];
+        final int[][] lookbackBarIndex = new int[numMultiples][numBars];
+        final double[] lookbackDegrees = degrees;
+
+        // Take what is already known from the cache.
+        final LookbackTimesCache cache = lookbackTimesCache;
+        final LookbackTimesCache.Grid grid =
+                (cache != null) ? LookbackTimesCache.grid(barJd) : null;
+        final boolean[] cached = new boolean[numMultiples];
+        double maxMissingDegrees = 0.0;
+        for (int m = 0; m < numMultiples; m++) {
+            if (cache != null) {
+                lookbackJd[m] = cache.get(grid, planetSelection, degrees[m]);
+            }
+            if (lookbackJd[m] != null) {
+                cached[m] = true;
+            }
+            else {
+                lookbackJd[m] = new double[numBars];
+                maxMissingDegrees = Math.max(maxMissingDegrees, degrees[m]);
+            }
+        }
+
+        final PreparedLookback prepared = (maxMissingDegrees > 0.0) ?
+                prepare(barJd, planetSelection, maxMissingDegrees) : null;
+
+        final int size = chunkSize;
+        final int numChunks = (numBars - 1) / size + 1;
+        IntStream tasks = IntStream.range(0, numMultiples * numChunks);
+        if (parallel) {
+            tasks = tasks.parallel();
+        }
+        final Thread caller = Thread.currentThread();
+        tasks.forEach(task -> {
+            // Stop early if the caller was interrupted, e.g. because
+            // the user asked for something else in the meantime.
+            if (caller.isInterrupted()) {
+                throw new CancellationException("Lookback computation interrupted.");
+            }
+            int m = task / numChunks;
+            int from = (task % numChunks) * size;
+            int to = Math.min(from + size, numBars);
+            if (!cached[m]) {
+                prepared.finder.findLookbackJds(barJd, prepared.barLongitude,
+                        lookbackDegrees[m], from, to, lookbackJd[m]);
+            }
+            mapToBarIndexes(barJd, lookbackJd[m], from, to, lookbackBarIndex[m]);
+        });
+
+        if (cache != null) {
+            for (int m = 0; m < numMultiples; m++) {
+                if (!cached[m]) {
+                    cache.put(grid, planetSelection, degrees[m], lookbackJd[m]);
+                }
+            }
+        }
+
+        for (int m = 0; m < numMultiples; m++) {
+            rv.add(new LookbackResult(planetSelection, lookbackMultiples.get(m),
+                    degrees[m], lookbackJd[m], lookbackBarIndex[m]));
+        }
+
+        logger.debug("Computed " + numMultiples + " lookbacks of " +
+                planetSelection.getDisplayName() + " for " + numBars +
+                " bars in " + (System.nanoTime() - startTime) / 1000000 + " ms.");
+
+        return rv;
+    }
+
+    /**
+     * Extends results to bars appended to the series since they were
+     * computed.  Only the new bars are worked out, on the calling
+     * thread, so this is meant for a few bars at a time, such as the
+     * bars a live file has just been appended with.
+     *
+     * @param series Price bars the results were computed for, with
+     *               more bars appended.
+     * @param previous Results for one planet, all for the same
+     *                 number of bars.
+     * @return List<LookbackResult> Results for every bar of the series,
+     *         in the same order.  These are the previous results if no
+     *         bars were appended.
+     */
+    public List<LookbackResult> extend(PriceBarSeries series,
+                                       List<LookbackResult> previous) {
+        return extend(series, previous, null);
+    }
+
+    /**
+     * Extends results to bars appended to the series, using the table
+     * of an Extender prepared beforehand.  No ephemeris table is made
+     * or grown, and the table is not copied again.
+     *
+     * @param extender From prepareExtender() for the planet of the
+     *                 results, or null to prepare one for the new bars.
+     * @throws IllegalArgumentException If the extender is not for the
+     *                                  planet, or does not cover the
+     *                                  new bars.
+     * @see #extend(PriceBarSeries, List)
+     */
+    List<LookbackResult> extend(PriceBarSeries series,
+                                List<LookbackResult> previous,
+                                Extender extender) {
+        if (previous.isEmpty()) {
+            return new ArrayList<>(previous);
+        }
+
+        final int numBars = series.size();
+        final int from = previous.get(0).size();
+        PlanetSelection planetSelection = previous.get(0).getPlanetSelection();
+        double maxDegrees = 0.0;
+        for (LookbackResult result : previous) {
+            PlanetSelection ps = result.getPlanetSelection();
+            if (result.size() != from ||
+                    !ps.getPlanetName().equals(planetSelection.getPlanetName()) ||
+                    ps.getPlanetCentricity() != planetSelection.getPlanetCentricity()) {
+                throw new IllegalArgumentException("Results to extend must be " +
+                        "for one planet and the same bars, but " + result +
+                        " is not like " + previous.get(0) + ".");
+            }
+            maxDegrees = Math.max(maxDegrees, result.getLookbackDegrees());
+        }
+        if (from > numBars) {
+            throw new IllegalArgumentException("Results are for " + from +
+                    " bars, but the series only has " + numBars + ".");
+        }
+        if (from == numBars) {
+            return new ArrayList<>(previous);
+        }
+
+        final int numNew = numBars - from;
+        double[] newBarJd = new double[numNew];
+        series.copyTimestamps(from, numBars, newBarJd, 0);
+        double lastJd = newBarJd[numNew - 1];
+        if (extender == null) {
+            extender = prepareExtender(planetSelection, newBarJd[0], lastJd,
+                    lastJd, maxDegrees);
+        }
+        else if (!extender.isFor(planetSelection.getPlanetName(),
+                planetSelection.getPlanetCentricity()) ||
+                !extender.covers(lastJd, maxDegrees)) {
+            throw new IllegalArgumentException(extender + " does not cover " +
+                    "bars up to " + lastJd + " looking back " + maxDegrees +
+                    " degrees with " + planetSelection.getDisplayName() + ".");
+        }
+
+        double[] newBarLongitude = new double[numNew];
+        extender.fillUnwrappedLongitudes(newBarJd, 0, numNew, newBarLongitude);
+
+        // Return value.
+        List<LookbackResult> rv = new ArrayList<>(previous.size());
+
+        double firstJd = series.getFirstTimestampJd();
+        double[] newLookbackJd = new double[numNew];
+        for (LookbackResult result : previous) {
+            extender.finder.findLookbackJds(newBarJd, newBarLongitude,
+                    result.getLookbackDegrees(), 0, numNew, newLookbackJd);
+
+            LookbackResult extended = result.grow(numBars);
+            double[] lookbackJd = extended.getLookbackJdArray();
+            int[] lookbackBarIndex = extended.getLookbackBarIndexArray();
+            for (int i = 0; i < numNew; i++) {
+                double t = newLookbackJd[i];
+                lookbackJd[from + i] = t;
+                lookbackBarIndex[from + i] =
+                        (t >= firstJd) ? series.nearestIndex(t) : -1;
+            }
+            rv.add(extended);
+        }
+
+        return rv;
+    }
+
+    /**
+     * Prepares what extend() needs for a planet over a series, with a
+     * table reaching EXTEND_AHEAD_DAYS past the last bar.  This makes
+     * or grows the planet's ephemeris table, so it should be called in
+     * the background, and the Extender kept for the bars to come.
+     *
+     * @param series Price bars, sorted by timestamp.  Must not be empty.
+     * @param planetSelection Planet to look back with.
+     * @param maxDegrees Furthest the lookbacks will look back.
+     * @return Extender What extend() needs.
+     */
+    Extender prepareExtender(PriceBarSeries series,
+                             PlanetSelection planetSelection,
+                             double maxDegrees) {
+        double lastJd = series.getLastTimestampJd();
+        return prepareExtender(planetSelection, series.getFirstTimestampJd(),
+                lastJd, lastJd + EXTEND_AHEAD_DAYS, maxDegrees);
+    }
+
+    /**
+     * Does the work that all lookbacks of a planet over a series
+     * share: getting an ephemeris table that reaches back far enough,
+     * and the planet's longitude at every bar.  Synthetic bodies need
+     * only their longitude at every bar.
+     *
+     * @param series Price bars, sorted by timestamp.  Must not be empty.
+     * @param planetSelection Planet to look back with.
+     * @param maxDegrees Furthest the lookbacks will look back.
+     * @return PreparedLookback What the lookbacks need.
+     */
+    PreparedLookback prepare(PriceBarSeries series,
+                             PlanetSelection planetSelection,
+                             double maxDegrees) {
+        return prepare(series.toTimestampArray(), planetSelection, maxDegrees);
+    }
+
+    /**
+     * Does the work that all lookbacks of a planet over a series share.
+     *
+     * @param barJd Timestamps of the bars, sorted.  Must not be empty,
+     *              and must not be modified afterwards.
+     * @see #prepare(PriceBarSeries, PlanetSelection, double)
+     */
+    PreparedLookback prepare(double[] barJd,
+                             PlanetSelection planetSelection,
+                             double maxDegrees) {
+        final int numBars = barJd.length;
+        double lastJd = barJd[numBars - 1];
+
+        Extender extender = prepareExtender(planetSelection, barJd[0],
+                lastJd, lastJd, maxDegrees);
+        double[] barLongitude = new double[numBars];
+        extender.fillUnwrappedLongitudes(barJd, 0, numBars, barLongitude);
+
+        return new PreparedLookback(planetSelection, barJd, barLongitude,
+                extender.finder, extender.averageSpeed);
+    }
+
+    /**
+     * Gets a table for lookbacks from bars between firstJd and lastJd,
+     * reaching ahead to endJd.  Synthetic bodies need no table.
+     */
+    private Extender prepareExtender(PlanetSelection planetSelection,
+                                     double firstJd,
+                                     double lastJd,
+                                     double endJd,
+                                     double maxDegrees) {
+        SyntheticBody synthetic = syntheticBodies.get(planetSelection.getPlanetName());
+        if (synthetic != null) {
+            return new Extender(planetSelection, maxDegrees,
+                    Double.POSITIVE_INFINITY, null, synthetic,
+                    synthetic::fillLookbackJds, synthetic.getAverageSpeed());
+        }
+
+        int planetId = Ephemeris.getPlanetIdForName(planetSelection.getPlanetName());
+        PlanetSelection.Centricity centricity = planetSelection.getPlanetCentricity();
+
+        // Measure the planet's average speed to know how far back
+        // the lookback reaches.
+        double measureStart = Math.min(firstJd, lastJd - MIN_SPEED_MEASURE_DAYS);
+        EphemerisTable table = tableService.getTable(planetId, centricity,
+                measureStart, lastJd);
+        double averageSpeed = Math.abs(
+                table.getUnwrappedLongitude(lastJd) -
+                table.getUnwrappedLongitude(measureStart)) /
+                (lastJd - measureStart);
+
+        if (!(averageSpeed > 0.0)) {
+            throw new IllegalStateException("Planet " +
+                    planetSelection.getDisplayName() +
+                    " does not move, so it has no cycle to look back with.");
+        }
+
+        double spanDays = maxDegrees / averageSpeed * SPAN_SAFETY_FACTOR +
+                SPAN_MARGIN_DAYS;
+        table = tableService.getTable(planetId, centricity,
+                firstJd - spanDays, endJd);
+
+        return new Extender(planetSelection, maxDegrees, endJd, table, null,
+                new LongitudeReturnFinder(table), averageSpeed);
+    }
+
+    /**
+     * Computes one lookback from a PreparedLookback, on the calling
+     * thread.  For callers that run many lookbacks of one planet in
+     * parallel themselves, such as MultipleSweep.
+     *
+     * @param prepared From prepare(), with a maxDegrees at least
+     *                 this lookback's.
+     * @param lookbackMultiple Multiple the result is for.
+     * @param degrees How far to look back, in degrees.
+     * @return LookbackResult Result.
+     */
+    LookbackResult compute(PreparedLookback prepared,
+                           LookbackMultiple lookbackMultiple,
+                           double degrees) {
+        int numBars = prepared.barJd.length;
+        double[] lookbackJd = new double[numBars];
+        int[] lookbackBarIndex = new int[numBars];
+
+        prepared.finder.findLookbackJds(prepared.barJd, prepared.barLongitude,
+                degrees, 0, numBars, lookbackJd);
+        mapToBarIndexes(prepared.barJd, lookbackJd, 0, numBars, lookbackBarIndex);
+
+        return new LookbackResult(prepared.planetSelection, lookbackMultiple,
+                degrees, lookbackJd, lookbackBarIndex);
+    }
+
+    /**
+     * What the lookbacks of one planet over one series have in common.
+     * Read only, so it can be shared by threads.
+     */
+    static final class PreparedLookback {
+        final PlanetSelection planetSelection;
+
+        /**
+         * Timestamps of the bars.
+         */
+        final double[] barJd;
+
+        /**
+         * Unwrapped longitude of the planet at each bar.
+         */
+        final double[] barLongitude;
+
+        final ReturnFinder finder;
+
+        /**
+         * Average speed of the planet, in degrees per day.
+         */
+        final double averageSpeed;
+
+        PreparedLookback(PlanetSelection planetSelection,
+                         double[] barJd,
+                         double[] barLongitude,
+                         ReturnFinder finder,
+                         double averageSpeed) {
+            this.planetSelection = planetSelection;
+            this.barJd = barJd;
+            this.barLongitude = barLongitude;
+            this.finder = finder;
+            this.averageSpeed = averageSpeed;
+        }
+    }
+
+    /**
+     * A planet's table and the finder over it, for extending lookbacks
+     * to bars up to endJd.  Read only, so it can be shared by threads.
+     */
+    static final class Extender {
+        final PlanetSelection planetSelection;
+
+        /**
+         * Furthest the lookbacks can look back, in degrees.
+         */
+        final double maxDegrees;
+
+        /**
+         * Latest bar time the table covers.
+         */
+        final double endJd;
+
+        /**
+         * Table of the planet, or null for a synthetic body.
+         */
+        final EphemerisTable table;
+
+        /**
+         * Synthetic body, or null for a planet with a table.
+         */
+        final SyntheticBody synthetic;
+
+        final ReturnFinder finder;
+
+        /**
+         * Average speed of the planet, in degrees per day.
+         */
+        final double averageSpeed;
+
+        Extender(PlanetSelection planetSelection,
+                 double maxDegrees,
+                 double endJd,
+                 EphemerisTable table,
+                 SyntheticBody synthetic,
+                 ReturnFinder finder,
+                 double averageSpeed) {
+            this.planetSelection = planetSelection;
+            this.maxDegrees = maxDegrees;
+            this.endJd = endJd;
+            this.table = table;
+            this.synthetic = synthetic;
+            this.finder = finder;
+            this.averageSpeed = averageSpeed;
+        }
+
+        /**
+         * Returns true if this is for the given planet and centricity.
+         */
+        boolean isFor(String planetName, PlanetSelection.Centricity centricity) {
+            return planetSelection.getPlanetName().equals(planetName) &&
+                    planetSelection.getPlanetCentricity() == centricity;
+        }
+
+        /**
+         * Returns true if lookbacks of up to the given degrees can be
+         * worked out for bars up to lastJd.
+         */
+        boolean covers(double lastJd, double degrees) {
+            return lastJd <= endJd && degrees <= maxDegrees;
+        }
+
+        /**
+         * Puts the unwrapped longitude of the planet at each time
+         * in out, at the same indexes.
+         */
+        void fillUnwrappedLongitudes(double[] jd, int from, int to, double[] out) {
+            if (synthetic != null) {
+                synthetic.fillUnwrappedLongitudes(jd, from, to, out);
+            }
+            else {
+                Ephemeris.calculateLongitudes(table, jd, from, to, out, null, true);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Extender{" +
+                    "planet=" + planetSelection.getDisplayName() +
+                    ", maxDegrees=" + maxDegrees +
+                    ", endJd=" + endJd +
+                    '}';
+        }
+    }
+
+    /**
+     * Maps times to the index of the nearest bar, for a run of bars.
+     * The search walks from the previous answer, since the times of
+     * consecutive bars are close together.
+     *
+     * This is the last step of every lookback, after the lookback
+     * times are found.  It is public so that lookback times worked
+     * out some other way can be mapped onto the bars the same way.
+     *
+     * @param barJd Timestamps of the bars, sorted.
+     * @param jd Times to map.  NaN maps to -1.
+     * @param from First index to do (inclusive).
+     * @param to Last index to do (exclusive).
+     * @param out Array to put the bar indexes in, at the same indexes.
+     *            Times before the first bar map to -1.
+     */
+    public static void mapToBarIndexes(double[] barJd,
+                                       double[] jd,
+                                       int from,
+                                       int to,
+                                       int[] out) {
+        final int last = barJd.length - 1;
+        final double firstJd = barJd[0];
+
+        // Index of the last bar at or before the time.
+        int floor = -1;
+        boolean haveGuess = false;
+
+        for (int i = from; i < to; i++) {
+            double t = jd[i];
+            if (!(t >= firstJd)) {
+                // Before the series, or NaN.
+                out[i] = -1;
+                continue;
+            }
+
+            if (!haveGuess) {
+                floor = floorIndex(barJd, t);
+                haveGuess = true;
+            }
+            else {
+                while (floor < last && barJd[floor + 1] <= t) {
+                    floor++;
+                }
+                while (barJd[floor] > t) {
+                    floor--;
+                }
+            }
+
+            if (floor < last && barJd[floor + 1] - t < t - barJd[floor]) {
+                out[i] = floor + 1;
+            }
+            else {
+                out[i] = floor;
+            }
+        }
+    }
+
+    private static int floorIndex(double[] barJd, double t) {
+        int low = 0;
+        int high = barJd.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (barJd[mid] <= t) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        return high;
+    }
+}
@@ -0,0 +1,83 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+
+import java.math.BigDecimal;
+
+/**
+ * Identifies a lookback computation by what its result depends on:
+ * the planet, its centricity and the number of cycles.  Overlays that
+ * differ only in name or color have the same key, and share a result.
+ */
+public final class LookbackKey {
+
+    private final String planetName;
+    private final PlanetSelection.Centricity centricity;
+
+    /**
+     * Number of cycles, with trailing zeros stripped so that
+     * 2 and 2.000 are the same key.
+     */
+    private final BigDecimal multiple;
+
+    public LookbackKey(String planetName,
+                       PlanetSelection.Centricity centricity,
+                       BigDecimal multiple) {
+        this.planetName = planetName;
+        this.centricity = centricity;
+        this.multiple = (multiple.signum() == 0) ?
+                BigDecimal.ZERO : multiple.stripTrailingZeros();
+    }
+
+    public String getPlanetName() {
+        return planetName;
+    }
+
+    public PlanetSelection.Centricity getCentricity() {
+        return centricity;
+    }
+
+    public BigDecimal getMultiple() {
+        return multiple;
+    }
+
+    /**
+     * Returns true if the other key is for the same planet
+     * and centricity.
+     */
+    public boolean isSamePlanet(LookbackKey other) {
+        return planetName.equals(other.planetName) &&
+                centricity == other.centricity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        LookbackKey that = (LookbackKey) o;
+
+        if (!planetName.equals(that.planetName)) return false;
+        if (centricity != that.centricity) return false;
+        if (!multiple.equals(that.multiple)) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = planetName.hashCode();
+        result = 31 * result + centricity.hashCode();
+        result = 31 * result + multiple.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LookbackKey{" +
+                "planetName='" + planetName + '\'' +
+                ", centricity=" + centricity +
+                ", multiple=" + multiple.toPlainString() +
+                '}';
+    }
+}
@@ -0,0 +1,433 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the lookback results for the overlays the settings ask for up
+ * to date, recomputing only what a settings change actually affects.
+ *
+ * Each time settings are applied, the new overlays are diffed against
+ * the ones from the last time (see OverlayDiff).  Results are kept per
+ * LookbackKey, so only keys that no overlay had before get computed;
+ * color changes, removing overlays, and overlays that share a key with
+ * another need no computation at all.  Results that are no longer
+ * needed are kept for a while in case they are asked for again, so
+ * unchecking and rechecking a multiple is also free.
+ *
+ * Missing results for the same planet are computed together in one
+ * LookbackEngine call, which looks up the planet's table and bar
+ * longitudes once for all of them.
+ *
+ * Updates are synchronized, so the recomputer may be used from a
+ * background thread.  Snapshots of the settings (OverlaySpec.fromSettings)
+ * should be taken on the thread that edits the settings.  The overlays
+ * and results of the last completed apply() are published as immutable
+ * snapshots, so they can be read from the JavaFX Application Thread
+ * without waiting for an apply() that is still running.  If an apply()
+ * is interrupted, the last completed one stays published, and results
+ * it had already computed are kept for the next apply().
+ *
+ * When bars are appended to the series, appendBars() extends the
+ * results to them, working out the new bars only.  It is meant to be
+ * called on the JavaFX Application Thread, so it never makes or grows
+ * an ephemeris table: apply() prepares a LookbackEngine.Extender per
+ * planet, whose table reaches LookbackEngine.EXTEND_AHEAD_DAYS past
+ * the last bar, and appendBars() reuses it.  Results for a planet whose
+ * table the bars have run past are left as they are, isUpToDate()
+ * returns false, and the next apply() extends them in the background.
+ */
+public class LookbackRecomputer {
+
+    private static final Logger logger =
+            Logger.getLogger(LookbackRecomputer.class);
+
+    /**
+     * Default number of results kept after no overlay needs them.
+     */
+    public static final int DEFAULT_SPARE_RESULT_LIMIT = 8;
+
+    private final LookbackEngine engine;
+
+    private PriceBarSeries priceBarSeries;
+
+    /**
+     * Overlays of the last completed apply().
+     */
+    private volatile List<OverlaySpec> overlaySpecs = Collections.emptyList();
+
+    /**
+     * Results of the last completed apply().
+     */
+    private volatile Map<LookbackKey, LookbackResult> publishedResults =
+            Collections.emptyMap();
+
+    /**
+     * Results for the keys of the current overlays.
+     */
+    private final Map<LookbackKey, LookbackResult> results = new HashMap<>();
+
+    /**
+     * Results no longer needed, least recently dropped first.
+     */
+    private final LinkedHashMap<LookbackKey, LookbackResult> spareResults =
+            new LinkedHashMap<>();
+
+    /**
+     * Extenders for the planets of the results, kept for appendBars().
+     */
+    private final List<LookbackEngine.Extender> extenders = new ArrayList<>();
+
+    /**
+     * False if appendBars() left some results behind the series.
+     */
+    private volatile boolean upToDate = true;
+
+    private int spareResultLimit = DEFAULT_SPARE_RESULT_LIMIT;
+
+    /**
+     * Number of lookbacks computed so far.
+     */
+    private long computeCount = 0;
+
+    public LookbackRecomputer(LookbackEngine engine) {
+        this.engine = engine;
+    }
+
+    public LookbackEngine getEngine() {
+        return engine;
+    }
+
+    public synchronized PriceBarSeries getPriceBarSeries() {
+        return priceBarSeries;
+    }
+
+    /**
+     * Sets the price bars the lookbacks are computed for.  All results
+     * are dropped, and the next apply() computes every overlay.
+     *
+     * @param priceBarSeries Price bars, or null.
+     */
+    public synchronized void setPriceBarSeries(PriceBarSeries priceBarSeries) {
+        this.priceBarSeries = priceBarSeries;
+        results.clear();
+        spareResults.clear();
+        extenders.clear();
+        upToDate = true;
+        overlaySpecs = Collections.emptyList();
+        publishedResults = Collections.emptyMap();
+    }
+
+    public synchronized int getSpareResultLimit() {
+        return spareResultLimit;
+    }
+
+    public synchronized void setSpareResultLimit(int spareResultLimit) {
+        this.spareResultLimit = spareResultLimit;
+        trimSpareResults();
+    }
+
+    public synchronized long getComputeCount() {
+        return computeCount;
+    }
+
+    /**
+     * Returns true if the results cover every bar of the series.  This
+     * is false after appendBars() could not extend some results without
+     * growing an ephemeris table, until the next apply() does it.
+     */
+    public boolean isUpToDate() {
+        return upToDate;
+    }
+
+    /**
+     * Returns the overlays from the last apply().
+     */
+    public List<OverlaySpec> getOverlaySpecs() {
+        return overlaySpecs;
+    }
+
+    /**
+     * Returns the result for an overlay.
+     *
+     * @param spec Overlay from the last apply().
+     * @return LookbackResult Result, or null if there are no price bars.
+     */
+    public LookbackResult getResult(OverlaySpec spec) {
+        return publishedResults.get(spec.getKey());
+    }
+
+    /**
+     * Brings the results up to date with the given settings.
+     *
+     * @param settings Settings.  This should only be called on the
+     *                 thread that edits the settings.
+     * @return OverlayDiff What changed since the last apply().
+     */
+    public OverlayDiff apply(CycleHunterSettings settings) {
+        return apply(OverlaySpec.fromSettings(settings));
+    }
+
+    /**
+     * Brings the results up to date with the given overlays.
+     *
+     * @param newSpecs Overlays wanted.
+     * @return OverlayDiff What changed since the last apply().
+     */
+    public synchronized OverlayDiff apply(List<OverlaySpec> newSpecs) {
+        long startTime = System.nanoTime();
+
+        OverlayDiff diff = OverlayDiff.between(overlaySpecs, newSpecs);
+
+        Set<LookbackKey> neededKeys = new HashSet<>();
+        for (OverlaySpec spec : newSpecs) {
+            neededKeys.add(spec.getKey());
+        }
+
+        // Set aside results nothing needs any more.
+        Iterator<Map.Entry<LookbackKey, LookbackResult>> it =
+                results.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<LookbackKey, LookbackResult> entry = it.next();
+            if (!neededKeys.contains(entry.getKey())) {
+                spareResults.put(entry.getKey(), entry.getValue());
+                it.remove();
+            }
+        }
+
+        // Work out which results are missing, grouped by planet.
+        Map<LookbackKey, OverlaySpec> missing = new LinkedHashMap<>();
+        for (OverlaySpec spec : newSpecs) {
+            LookbackKey key = spec.getKey();
+            if (results.containsKey(key) || missing.containsKey(key)) {
+                continue;
+            }
+            LookbackResult spare = spareResults.remove(key);
+            if (spare != null) {
+                results.put(key, spare);
+            }
+            else {
+                missing.put(key, spec);
+            }
+        }
+        trimSpareResults();
+
+        if (priceBarSeries != null && !missing.isEmpty()) {
+            computeMissing(new ArrayList<>(missing.values()));
+        }
+        if (priceBarSeries != null && !priceBarSeries.isEmpty()) {
+            prepareExtenders();
+        }
+
+        overlaySpecs = Collections.unmodifiableList(new ArrayList<>(newSpecs));
+        publishedResults = Collections.unmodifiableMap(new HashMap<>(results));
+
+        logger.debug("Settings applied: " + diff + ", computed " +
+                missing.size() + " lookbacks in " +
+                (System.nanoTime() - startTime) / 1000000 + " ms.");
+
+        return diff;
+    }
+
+    /**
+     * Brings the results up to date with bars appended to the series
+     * since the last apply() or appendBars(), computing the lookbacks
+     * of the new bars only.  Results kept for overlays no longer
+     * shown are dropped rather than extended.
+     *
+     * No ephemeris table is made or grown here.  Results for a planet
+     * whose table from the last apply() does not reach the new bars
+     * are left behind; see isUpToDate().
+     *
+     * @return int Number of bars the results were extended by.
+     */
+    public synchronized int appendBars() {
+        if (priceBarSeries == null || results.isEmpty()) {
+            return 0;
+        }
+
+        long startTime = System.nanoTime();
+
+        spareResults.clear();
+
+        int numBars = priceBarSeries.size();
+        double lastJd = priceBarSeries.getLastTimestampJd();
+        int oldSize = numBars;
+        boolean allExtended = true;
+        for (List<LookbackKey> samePlanet : groupByPlanet(results.keySet())) {
+            List<LookbackResult> previous = new ArrayList<>();
+            double maxDegrees = 0.0;
+            for (LookbackKey key : samePlanet) {
+                LookbackResult result = results.get(key);
+                previous.add(result);
+                maxDegrees = Math.max(maxDegrees, result.getLookbackDegrees());
+                oldSize = Math.min(oldSize, result.size());
+            }
+
+            LookbackEngine.Extender extender = getExtender(samePlanet.get(0));
+            if (extender == null || !extender.covers(lastJd, maxDegrees)) {
+                // Growing the table is left to apply().
+                allExtended = false;
+                continue;
+            }
+
+            List<LookbackResult> extended =
+                    engine.extend(priceBarSeries, previous, extender);
+            for (int i = 0; i < samePlanet.size(); i++) {
+                results.put(samePlanet.get(i), extended.get(i));
+            }
+        }
+
+        publishedResults = Collections.unmodifiableMap(new HashMap<>(results));
+        upToDate = allExtended;
+
+        int rv = allExtended ? numBars - oldSize : 0;
+        logger.debug("Extended " + results.size() + " lookbacks by " +
+                (numBars - oldSize) + " bars in " +
+                (System.nanoTime() - startTime) / 1000 + " us" +
+                (allExtended ? "." : ", leaving some for the next apply()."));
+
+        return rv;
+    }
+
+    /**
+     * Prepares an extender for every planet of the results, reusing
+     * those that still cover the bars, and extends the results that
+     * appendBars() left behind.  This is where the ephemeris tables
+     * grow as the bars are appended, so it is done by apply(), in
+     * the background.
+     */
+    private void prepareExtenders() {
+        int numBars = priceBarSeries.size();
+        double lastJd = priceBarSeries.getLastTimestampJd();
+
+        List<LookbackEngine.Extender> prepared = new ArrayList<>();
+        for (List<LookbackKey> samePlanet : groupByPlanet(results.keySet())) {
+            List<LookbackKey> behind = new ArrayList<>();
+            List<LookbackResult> previous = new ArrayList<>();
+            double maxDegrees = 0.0;
+            for (LookbackKey key : samePlanet) {
+                LookbackResult result = results.get(key);
+                maxDegrees = Math.max(maxDegrees, result.getLookbackDegrees());
+                if (result.size() < numBars) {
+                    behind.add(key);
+                    previous.add(result);
+                }
+            }
+
+            LookbackEngine.Extender extender = getExtender(samePlanet.get(0));
+            if (extender == null || !extender.covers(lastJd, maxDegrees)) {
+                extender = engine.prepareExtender(priceBarSeries,
+                        results.get(samePlanet.get(0)).getPlanetSelection(),
+                        maxDegrees);
+            }
+            prepared.add(extender);
+
+            if (!previous.isEmpty()) {
+                List<LookbackResult> extended =
+                        engine.extend(priceBarSeries, previous, extender);
+                for (int i = 0; i < behind.size(); i++) {
+                    results.put(behind.get(i), extended.get(i));
+                }
+            }
+        }
+
+        extenders.clear();
+        extenders.addAll(prepared);
+        upToDate = true;
+    }
+
+    /**
+     * Returns the extender for the planet of a key, or null.
+     */
+    private LookbackEngine.Extender getExtender(LookbackKey key) {
+        for (LookbackEngine.Extender extender : extenders) {
+            if (extender.isFor(key.getPlanetName(), key.getCentricity())) {
+                return extender;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits keys into groups for the same planet.
+     */
+    private static List<List<LookbackKey>> groupByPlanet(Collection<LookbackKey> keys) {
+        List<List<LookbackKey>> rv = new ArrayList<>();
+
+        List<LookbackKey> remaining = new ArrayList<>(keys);
+        while (!remaining.isEmpty()) {
+            LookbackKey first = remaining.get(0);
+            List<LookbackKey> samePlanet = new ArrayList<>();
+
+            Iterator<LookbackKey> it = remaining.iterator();
+            while (it.hasNext()) {
+                LookbackKey key = it.next();
+                if (key.isSamePlanet(first)) {
+                    samePlanet.add(key);
+                    it.remove();
+                }
+            }
+            rv.add(samePlanet);
+        }
+
+        return rv;
+    }
+
+    /**
+     * Computes results for the given overlays, one engine call
+     * per planet.
+     */
+    private void computeMissing(List<OverlaySpec> missing) {
+        List<PlanetSelection> planets = new ArrayList<>();
+        for (OverlaySpec spec : missing) {
+            planets.add(spec.getPlanetSelection());
+        }
+        engine.getTableService().registerPlanets(planets);
+
+        while (!missing.isEmpty()) {
+            OverlaySpec first = missing.get(0);
+            List<OverlaySpec> samePlanet = new ArrayList<>();
+            List<LookbackMultiple> multiples = new ArrayList<>();
+
+            Iterator<OverlaySpec> it = missing.iterator();
+            while (it.hasNext()) {
+                OverlaySpec spec = it.next();
+                if (spec.getKey().isSamePlanet(first.getKey())) {
+                    samePlanet.add(spec);
+                    multiples.add(spec.getLookbackMultiple());
+                    it.remove();
+                }
+            }
+
+            List<LookbackResult> computed = engine.computeAll(priceBarSeries,
+                    first.getPlanetSelection(), multiples);
+            for (int i = 0; i < samePlanet.size(); i++) {
+                results.put(samePlanet.get(i).getKey(), computed.get(i));
+            }
+            computeCount += samePlanet.size();
+        }
+    }
+
+    private void trimSpareResults() {
+        Iterator<LookbackKey> it = spareResults.keySet().iterator();
+        while (spareResults.size() > spareResultLimit && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
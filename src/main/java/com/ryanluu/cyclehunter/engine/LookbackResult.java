@@ -0,0 +1,191 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result of a lookback computation for one planet and one
+ * LookbackMultiple: for every bar of a price series, the Julian Day
+ * when the planet was last the given number of cycles behind where it
+ * is at that bar, and the index of the bar nearest that time.
+ *
+ * A result can be extended to bars appended to its series (see
+ * LookbackEngine.extend()).  The new result shares the arrays of the
+ * old one when they have room at the end, the way PriceBarSeries
+ * grows its columns, so that appending a bar does not copy the whole
+ * history.  The old result still sees only its own bars.
+ */
+public class LookbackResult {
+
+    private final PlanetSelection planetSelection;
+    private final LookbackMultiple lookbackMultiple;
+
+    /**
+     * How far back was looked, in degrees of the planet's motion.
+     */
+    private final double lookbackDegrees;
+
+    /**
+     * Julian Day looked back to, for each bar.  NaN where the
+     * time could not be calculated.  May be longer than size.
+     */
+    private final double[] lookbackJd;
+
+    /**
+     * Index of the bar nearest lookbackJd, for each bar.  -1 where
+     * the time is before the first bar of the series.  May be longer
+     * than size.
+     */
+    private final int[] lookbackBarIndex;
+
+    /**
+     * Number of bars in the result.
+     */
+    private final int size;
+
+    /**
+     * Number of entries of the arrays in use, by this result or by a
+     * result extended from it.  Shared by the results that share the
+     * arrays, so that only one of them can extend into the room at
+     * the end.
+     */
+    private final AtomicInteger arraysFilled;
+
+    public LookbackResult(PlanetSelection planetSelection,
+                          LookbackMultiple lookbackMultiple,
+                          double lookbackDegrees,
+                          double[] lookbackJd,
+                          int[] lookbackBarIndex) {
+        this.planetSelection = planetSelection;
+        this.lookbackMultiple = lookbackMultiple;
+        this.lookbackDegrees = lookbackDegrees;
+        this.lookbackJd = lookbackJd;
+        this.lookbackBarIndex = lookbackBarIndex;
+        this.size = lookbackJd.length;
+        this.arraysFilled = new AtomicInteger(size);
+    }
+
+    private LookbackResult(LookbackResult previous,
+                           double[] lookbackJd,
+                           int[] lookbackBarIndex,
+                           int size,
+                           AtomicInteger arraysFilled) {
+        this.planetSelection = previous.planetSelection;
+        this.lookbackMultiple = previous.lookbackMultiple;
+        this.lookbackDegrees = previous.lookbackDegrees;
+        this.lookbackJd = lookbackJd;
+        this.lookbackBarIndex = lookbackBarIndex;
+        this.size = size;
+        this.arraysFilled = arraysFilled;
+    }
+
+    /**
+     * Returns a result for more bars, with the same values as this
+     * one for the bars this one has.  The caller fills in the rest
+     * through the arrays, before anything else sees the new result.
+     *
+     * @param newSize Number of bars.  Must be at least size().
+     * @return LookbackResult New result.
+     */
+    LookbackResult grow(int newSize) {
+        if (newSize < size) {
+            throw new IllegalArgumentException("Cannot shrink a result of " +
+                    size + " bars to " + newSize + ".");
+        }
+
+        if (newSize <= lookbackJd.length &&
+                arraysFilled.compareAndSet(size, newSize)) {
+            return new LookbackResult(this, lookbackJd, lookbackBarIndex,
+                    newSize, arraysFilled);
+        }
+
+        // Grow by half again, as PriceBarSeries does.
+        int capacity = Math.max(newSize, size + (size >> 1));
+        return new LookbackResult(this,
+                Arrays.copyOf(lookbackJd, capacity),
+                Arrays.copyOf(lookbackBarIndex, capacity),
+                newSize, new AtomicInteger(newSize));
+    }
+
+    /**
+     * Returns the array of times, for filling in by grow()'s caller.
+     */
+    double[] getLookbackJdArray() {
+        return lookbackJd;
+    }
+
+    /**
+     * Returns the array of bar indexes, for filling in by
+     * grow()'s caller.
+     */
+    int[] getLookbackBarIndexArray() {
+        return lookbackBarIndex;
+    }
+
+    public PlanetSelection getPlanetSelection() {
+        return planetSelection;
+    }
+
+    public LookbackMultiple getLookbackMultiple() {
+        return lookbackMultiple;
+    }
+
+    public double getLookbackDegrees() {
+        return lookbackDegrees;
+    }
+
+    /**
+     * Returns the number of bars in the result, which is the number
+     * of bars in the series it was computed for.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the Julian Day looked back to from the given bar.
+     *
+     * @param barIndex Index of the bar.
+     * @return double Julian Day, or NaN if it could not be calculated.
+     */
+    public double getLookbackJd(int barIndex) {
+        return lookbackJd[barIndex];
+    }
+
+    /**
+     * Returns the index of the bar nearest the time looked back to
+     * from the given bar.
+     *
+     * @param barIndex Index of the bar.
+     * @return int Bar index, or -1 if the time is before the series.
+     */
+    public int getLookbackBarIndex(int barIndex) {
+        return lookbackBarIndex[barIndex];
+    }
+
+    /**
+     * Returns the number of bars that map to a bar in the series.
+     */
+    public int getMappedBarCount() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (lookbackBarIndex[i] >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "LookbackResult{" +
+                "planetSelection=" + planetSelection.getDisplayName() +
+                ", lookbackMultiple=" + lookbackMultiple.getName() +
+                ", lookbackDegrees=" + lookbackDegrees +
+                ", size=" + size +
+                '}';
+    }
+}
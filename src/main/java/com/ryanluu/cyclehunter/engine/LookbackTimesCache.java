@@ -0,0 +1,256 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lookback times kept for reuse by price series that have the same bar
+ * timestamps.  The time a planet looked back to from each bar depends
+ * only on the bar timestamps, the planet and how far back is looked,
+ * not on the prices, so instruments traded on the same calendar (daily
+ * bars of futures on one exchange, for example) can share them.  Only
+ * mapping the times to bar indexes has to be done per instrument.
+ *
+ * Timestamps are compared by a 64-bit fingerprint of all of them,
+ * together with their number and the first and last, rather than
+ * element by element.
+ *
+ * The arrays handed out are shared, and must not be modified.  The
+ * least recently used entries are dropped once the arrays take up
+ * more than the maximum number of bytes.  The cache is thread-safe.
+ */
+public class LookbackTimesCache {
+
+    /**
+     * Default largest number of bytes of lookback times kept.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Cached times, least recently used first.
+     */
+    private final LinkedHashMap<Key, double[]> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private long maxBytes;
+
+    private long sizeBytes = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public LookbackTimesCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes Largest number of bytes of lookback times kept.
+     */
+    public LookbackTimesCache(long maxBytes) {
+        setMaxBytes(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException(
+                    "Maximum size cannot be negative, but was " + maxBytes + ".");
+        }
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    /**
+     * Works out what identifies a set of bar timestamps.
+     *
+     * @param barJd Timestamps of the bars.  Must not be empty.
+     * @return Grid Identity of the timestamps.
+     */
+    public static Grid grid(double[] barJd) {
+        long hash = FNV_OFFSET_BASIS;
+        for (double jd : barJd) {
+            long bits = Double.doubleToLongBits(jd);
+            hash = (hash ^ bits) * FNV_PRIME;
+            hash ^= hash >>> 29;
+        }
+        return new Grid(hash, barJd.length, barJd[0], barJd[barJd.length - 1]);
+    }
+
+    /**
+     * Returns the times looked back to from each bar of the grid.
+     *
+     * @param grid Bar timestamps.
+     * @param planetSelection Planet looked back with.
+     * @param lookbackDegrees How far back, in degrees.
+     * @return double[] Times, or null if they are not in the cache.
+     *         The array must not be modified.
+     */
+    public synchronized double[] get(Grid grid,
+                                     PlanetSelection planetSelection,
+                                     double lookbackDegrees) {
+        double[] rv = entries.get(new Key(grid, planetSelection, lookbackDegrees));
+        if (rv != null) {
+            hitCount++;
+        }
+        else {
+            missCount++;
+        }
+        return rv;
+    }
+
+    /**
+     * Keeps the times looked back to from each bar of the grid.
+     *
+     * @param grid Bar timestamps.
+     * @param planetSelection Planet looked back with.
+     * @param lookbackDegrees How far back, in degrees.
+     * @param lookbackJd Times.  The array must not be modified
+     *                   afterwards.
+     */
+    public synchronized void put(Grid grid,
+                                 PlanetSelection planetSelection,
+                                 double lookbackDegrees,
+                                 double[] lookbackJd) {
+        double[] old = entries.put(new Key(grid, planetSelection, lookbackDegrees),
+                lookbackJd);
+        if (old != null) {
+            sizeBytes -= old.length * 8L;
+        }
+        sizeBytes += lookbackJd.length * 8L;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, double[]>> it = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && it.hasNext()) {
+            sizeBytes -= it.next().getValue().length * 8L;
+            it.remove();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LookbackTimesCache{" +
+                "size=" + entries.size() +
+                ", sizeBytes=" + sizeBytes +
+                ", hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                '}';
+    }
+
+    /**
+     * Identity of a set of bar timestamps.
+     */
+    public static final class Grid {
+        private final long fingerprint;
+        private final int numBars;
+        private final double firstJd;
+        private final double lastJd;
+
+        private Grid(long fingerprint, int numBars, double firstJd, double lastJd) {
+            this.fingerprint = fingerprint;
+            this.numBars = numBars;
+            this.firstJd = firstJd;
+            this.lastJd = lastJd;
+        }
+
+        public int getNumBars() {
+            return numBars;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Grid grid = (Grid) o;
+            return fingerprint == grid.fingerprint &&
+                    numBars == grid.numBars &&
+                    Double.compare(grid.firstJd, firstJd) == 0 &&
+                    Double.compare(grid.lastJd, lastJd) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (fingerprint ^ (fingerprint >>> 32)) * 31 + numBars;
+        }
+
+        @Override
+        public String toString() {
+            return "Grid{" +
+                    "numBars=" + numBars +
+                    ", firstJd=" + firstJd +
+                    ", lastJd=" + lastJd +
+                    '}';
+        }
+    }
+
+    /**
+     * Key of one cached array.
+     */
+    private static final class Key {
+        private final Grid grid;
+        private final String planetName;
+        private final PlanetSelection.Centricity centricity;
+        private final double lookbackDegrees;
+
+        Key(Grid grid, PlanetSelection planetSelection, double lookbackDegrees) {
+            this.grid = grid;
+            this.planetName = planetSelection.getPlanetName();
+            this.centricity = planetSelection.getPlanetCentricity();
+            this.lookbackDegrees = lookbackDegrees;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Double.compare(key.lookbackDegrees, lookbackDegrees) == 0 &&
+                    grid.equals(key.grid) &&
+                    planetName.equals(key.planetName) &&
+                    centricity == key.centricity;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = grid.hashCode();
+            result = 31 * result + planetName.hashCode();
+            result = 31 * result + centricity.hashCode();
+            long bits = Double.doubleToLongBits(lookbackDegrees);
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.data.ProgressListener;
+import com.ryanluu.cyclehunter.engine.LookbackEngine.PreparedLookback;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import javafx.scene.paint.Color;
+import org.apache.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Sweeps a continuous range of lookback multiples for one planet,
+ * for example 0.5 to 20 in steps of 0.001, and scores each the way
+ * the CycleScanner does, to give a curve of fit against multiple.
+ *
+ * Evaluating every step would mean tens of thousands of lookbacks, so
+ * the sweep goes from coarse to fine: the whole range is first
+ * evaluated on a grid of step * 10^K, and then, for each finer grid
+ * down to the step, only the points around the best peaks of the
+ * grid before are evaluated.
+ *
+ * A grid must not step over a peak.  A peak of the return correlation
+ * is about as wide as the number of bars the returns are taken over,
+ * while the lookback moves by a whole cycle of the planet per 1.0 of
+ * multiple, which can be thousands of bars.  So the peaks are looked
+ * for with returns over more bars the coarser the grid is, enough
+ * that the lookback moves by no more than half a peak between points.
+ * The curve itself is scored with returns over smoothingBars bars at
+ * every point.
+ *
+ * The ephemeris table and the planet's longitude at every bar are
+ * worked out once per sweep and shared by all the lookbacks, which are
+ * evaluated in parallel, a grid at a time.  If the calling thread is
+ * interrupted, the sweep stops with a CancellationException.
+ */
+public class MultipleSweep {
+
+    private static final Logger logger = Logger.getLogger(MultipleSweep.class);
+
+    /**
+     * Default number of bars the correlated returns of the curve
+     * are taken over.
+     */
+    public static final int DEFAULT_SMOOTHING_BARS = 10;
+
+    /**
+     * Default number of peaks refined at each finer grid.
+     */
+    public static final int DEFAULT_NUM_PEAKS = 8;
+
+    /**
+     * Coarsest grid, as a power of ten times the step.
+     */
+    private static final int MAX_COARSE_POWER = 4;
+
+    /**
+     * Least number of points in the coarse grid.
+     */
+    private static final int MIN_COARSE_POINTS = 20;
+
+    private final LookbackEngine engine;
+
+    private int smoothingBars = DEFAULT_SMOOTHING_BARS;
+
+    private int numPeaks = DEFAULT_NUM_PEAKS;
+
+    public MultipleSweep(LookbackEngine engine) {
+        this.engine = engine;
+    }
+
+    public int getSmoothingBars() {
+        return smoothingBars;
+    }
+
+    public void setSmoothingBars(int smoothingBars) {
+        if (smoothingBars < 1) {
+            throw new IllegalArgumentException(
+                    "Smoothing must be at least 1 bar, but was " +
+                    smoothingBars + ".");
+        }
+        this.smoothingBars = smoothingBars;
+    }
+
+    public int getNumPeaks() {
+        return numPeaks;
+    }
+
+    public void setNumPeaks(int numPeaks) {
+        if (numPeaks < 1) {
+            throw new IllegalArgumentException(
+                    "Number of peaks must be at least 1, but was " +
+                    numPeaks + ".");
+        }
+        this.numPeaks = numPeaks;
+    }
+
+    /**
+     * Sweeps the multiples min, min + step, ... up to max.
+     *
+     * @param series Price bars, sorted by timestamp.  Must not be empty.
+     * @param planetSelection Planet to look back with.
+     * @param min Smallest multiple.  Must be positive.
+     * @param max Largest multiple.
+     * @param step Finest step between multiples.  Must be positive.
+     * @param progressListener Told after each lookback.  May be null.
+     * @return SweepCurve Fit of the multiples evaluated.
+     */
+    public SweepCurve sweep(PriceBarSeries series,
+                            PlanetSelection planetSelection,
+                            BigDecimal min,
+                            BigDecimal max,
+                            BigDecimal step,
+                            ProgressListener progressListener) {
+        if (min.signum() <= 0 || step.signum() <= 0 || max.compareTo(min) < 0) {
+            throw new IllegalArgumentException("Cannot sweep from " + min +
+                    " to " + max + " in steps of " + step + ".");
+        }
+        if (series.isEmpty()) {
+            throw new IllegalArgumentException("There are no price bars to sweep.");
+        }
+
+        long startTime = System.nanoTime();
+
+        final long lastIndex = max.subtract(min)
+                .divide(step, 0, RoundingMode.FLOOR).longValueExact();
+
+        final PreparedLookback prepared = engine.prepare(series, planetSelection,
+                max.doubleValue() * 360.0);
+
+        final CycleScanner.SeriesFeatures features = new CycleScanner.SeriesFeatures(
+                series, CycleScanner.DEFAULT_TURNING_POINT_WINDOW);
+
+        // How many bars the lookback moves per step of the grid.
+        int numBars = series.size();
+        double daysPerBar = (numBars > 1) ?
+                (series.getLastTimestampJd() - series.getFirstTimestampJd()) / (numBars - 1) :
+                1.0;
+        double barsPerStep = step.doubleValue() * 360.0 / prepared.averageSpeed / daysPerBar;
+
+        // Coarsest grid that still has a fair number of points.
+        int power = 0;
+        long stride = 1;
+        while (power < MAX_COARSE_POWER && lastIndex / (stride * 10) >= MIN_COARSE_POINTS) {
+            power++;
+            stride *= 10;
+        }
+
+        final Map<Long, CycleScore> scores = new TreeMap<>();
+        final AtomicLong done = new AtomicLong(0);
+        final ProgressListener progress =
+                (progressListener != null) ? progressListener : ProgressListener.NONE;
+
+        // Only an estimate, since peaks may be close together.
+        final long expectedWork = lastIndex / stride + 1 +
+                (long) power * numPeaks * 19;
+        final ProgressListener listener = (workDone, totalWork) ->
+                progress.progress(Math.min(workDone, expectedWork), expectedWork);
+
+        // Coarse grid over the whole range.
+        List<Long> grid = new ArrayList<>();
+        for (long i = 0; i <= lastIndex; i += stride) {
+            grid.add(i);
+        }
+
+        while (true) {
+            // Smooth the returns enough that a peak is at least two
+            // points of this grid wide.
+            int stageBars = (int) Math.min(Math.max(smoothingBars,
+                    Math.ceil(2.0 * stride * barsPerStep)), Math.max(1, numBars / 4));
+            Map<Long, CycleScore> stageScores = evaluate(prepared, stageBars,
+                    features, min, step, grid, scores, done, listener);
+
+            if (stride == 1) {
+                break;
+            }
+
+            // Finer grid around the peaks.
+            long previousStride = stride;
+            stride /= 10;
+
+            Set<Long> around = new TreeSet<>();
+            for (long peak : findPeaks(stageScores, previousStride)) {
+                long from = Math.max(0, peak - previousStride + stride);
+                long to = Math.min(lastIndex, peak + previousStride - stride);
+                for (long i = from; i <= to; i += stride) {
+                    around.add(i);
+                }
+            }
+            grid = new ArrayList<>(around);
+        }
+
+        int size = scores.size();
+        long[] gridIndex = new long[size];
+        double[] correlation = new double[size];
+        double[] hitRateLift = new double[size];
+        int p = 0;
+        for (Map.Entry<Long, CycleScore> entry : scores.entrySet()) {
+            gridIndex[p] = entry.getKey();
+            correlation[p] = entry.getValue().getCorrelation();
+            hitRateLift[p] = entry.getValue().getHitRateLift();
+            p++;
+        }
+
+        logger.info("Swept " + planetSelection.getDisplayName() + " from " +
+                min + " to " + max + " in steps of " + step + ": evaluated " +
+                size + " of " + (lastIndex + 1) + " multiples in " +
+                (System.nanoTime() - startTime) / 1000000 + " ms.");
+
+        return new SweepCurve(planetSelection, min, step, gridIndex,
+                correlation, hitRateLift);
+    }
+
+    /**
+     * Computes the lookbacks for the multiples at the given grid
+     * indexes, in parallel, and scores each twice: with the stage's
+     * smoothing, for finding the peaks to refine, and with the sweep's
+     * smoothing, for the curve.
+     *
+     * @param stageBars Bars the stage's returns are taken over.
+     * @param scores Map the curve's scores are put in.
+     * @return Map<Long, CycleScore> The stage's scores.
+     */
+    private Map<Long, CycleScore> evaluate(PreparedLookback prepared,
+                                           int stageBars,
+                                           CycleScanner.SeriesFeatures features,
+                                           BigDecimal min,
+                                           BigDecimal step,
+                                           List<Long> gridIndexes,
+                                           Map<Long, CycleScore> scores,
+                                           AtomicLong done,
+                                           ProgressListener listener) {
+        final int count = gridIndexes.size();
+        final CycleScore[] stageResults = new CycleScore[count];
+        final CycleScore[] results = new CycleScore[count];
+        final int curveBars = smoothingBars;
+        final Thread caller = Thread.currentThread();
+
+        IntStream.range(0, count).parallel().forEach(n -> {
+            if (caller.isInterrupted()) {
+                throw new CancellationException("Sweep interrupted.");
+            }
+            BigDecimal multiple = min.add(step.multiply(BigDecimal.valueOf(gridIndexes.get(n))));
+            LookbackMultiple lm = new LookbackMultiple(multiple.toPlainString(),
+                    multiple, Color.GRAY, true);
+            LookbackResult result = engine.compute(prepared, lm,
+                    LookbackEngine.getLookbackDegrees(lm));
+            results[n] = CycleScanner.score(features, result, curveBars,
+                    CycleScanner.DEFAULT_HIT_TOLERANCE);
+            stageResults[n] = (stageBars == curveBars) ? results[n] :
+                    CycleScanner.score(features, result, stageBars,
+                            CycleScanner.DEFAULT_HIT_TOLERANCE);
+            listener.progress(done.incrementAndGet(), 0);
+        });
+
+        // Return value.
+        Map<Long, CycleScore> rv = new TreeMap<>();
+
+        for (int n = 0; n < count; n++) {
+            scores.put(gridIndexes.get(n), results[n]);
+            rv.put(gridIndexes.get(n), stageResults[n]);
+        }
+
+        return rv;
+    }
+
+    /**
+     * Returns the grid indexes of the highest local maxima of the
+     * correlation among the given points.
+     *
+     * A finer grid only covers the neighbourhoods of the peaks before
+     * it, so the points are in runs with gaps between them.  A point is
+     * only compared with the points next to it on the grid; at the end
+     * of a run, as at the ends of the range, there is nothing to
+     * compare with on that side.
+     *
+     * @param scores Scores by grid index.
+     * @param stride Distance between neighbouring points of the grid.
+     */
+    List<Long> findPeaks(Map<Long, CycleScore> scores, long stride) {
+        List<Long> indexes = new ArrayList<>(scores.keySet());
+        int size = indexes.size();
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            double c = scores.get(indexes.get(i)).getCorrelation();
+            values[i] = Double.isNaN(c) ? Double.NEGATIVE_INFINITY : c;
+        }
+
+        List<Integer> peaks = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            boolean hasLeft = (i > 0 && indexes.get(i) - indexes.get(i - 1) == stride);
+            boolean hasRight = (i < size - 1 && indexes.get(i + 1) - indexes.get(i) == stride);
+            boolean aboveLeft = (!hasLeft || values[i] >= values[i - 1]);
+            boolean aboveRight = (!hasRight || values[i] >= values[i + 1]);
+            if (aboveLeft && aboveRight && values[i] > Double.NEGATIVE_INFINITY) {
+                peaks.add(i);
+            }
+        }
+        peaks.sort((a, b) -> Double.compare(values[b], values[a]));
+
+        List<Long> rv = new ArrayList<>();
+        for (int i = 0; i < peaks.size() && i < numPeaks; i++) {
+            rv.add(indexes.get(peaks.get(i)));
+        }
+        return rv;
+    }
+}
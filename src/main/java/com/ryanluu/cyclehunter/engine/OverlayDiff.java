@@ -0,0 +1,126 @@
+package com.ryanluu.cyclehunter.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What changed between two sets of overlays, sorted by how much work
+ * each change needs:
+ *
+ *   - added:      new overlays, whose data has to be computed
+ *                 (unless another overlay already has the same key).
+ *   - changed:    overlays whose planet or multiple changed, so their
+ *                 data has to be computed again.
+ *   - recolored:  overlays whose only change is the color.  These
+ *                 only need to be repainted.
+ *   - removed:    overlays that are gone.
+ *   - unchanged:  everything else.
+ *
+ * Specs in the added, changed, recolored and unchanged lists are the
+ * new ones; specs in the removed list are the old ones.
+ */
+public final class OverlayDiff {
+
+    private final List<OverlaySpec> added = new ArrayList<>();
+    private final List<OverlaySpec> changed = new ArrayList<>();
+    private final List<OverlaySpec> recolored = new ArrayList<>();
+    private final List<OverlaySpec> removed = new ArrayList<>();
+    private final List<OverlaySpec> unchanged = new ArrayList<>();
+
+    private OverlayDiff() {
+    }
+
+    /**
+     * Works out what changed from the old overlays to the new ones.
+     *
+     * @param oldSpecs Overlays before.
+     * @param newSpecs Overlays after.
+     * @return OverlayDiff The differences.
+     */
+    public static OverlayDiff between(List<OverlaySpec> oldSpecs,
+                                      List<OverlaySpec> newSpecs) {
+        OverlayDiff rv = new OverlayDiff();
+
+        Map<String, OverlaySpec> oldBySlot = new HashMap<>();
+        for (OverlaySpec spec : oldSpecs) {
+            oldBySlot.put(spec.getSlotId(), spec);
+        }
+
+        for (OverlaySpec spec : newSpecs) {
+            OverlaySpec old = oldBySlot.remove(spec.getSlotId());
+            if (old == null) {
+                rv.added.add(spec);
+            }
+            else if (!old.getKey().equals(spec.getKey())) {
+                rv.changed.add(spec);
+            }
+            else if (!old.getColor().equals(spec.getColor()) ||
+                    !old.getLookbackMultiple().getName().equals(
+                            spec.getLookbackMultiple().getName())) {
+                rv.recolored.add(spec);
+            }
+            else {
+                rv.unchanged.add(spec);
+            }
+        }
+
+        // Whatever is left over was not in the new list.
+        for (OverlaySpec spec : oldSpecs) {
+            if (oldBySlot.containsKey(spec.getSlotId())) {
+                rv.removed.add(spec);
+            }
+        }
+
+        return rv;
+    }
+
+    public List<OverlaySpec> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    public List<OverlaySpec> getChanged() {
+        return Collections.unmodifiableList(changed);
+    }
+
+    public List<OverlaySpec> getRecolored() {
+        return Collections.unmodifiableList(recolored);
+    }
+
+    public List<OverlaySpec> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    public List<OverlaySpec> getUnchanged() {
+        return Collections.unmodifiableList(unchanged);
+    }
+
+    /**
+     * Returns true if nothing changed at all.
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() &&
+                recolored.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * Returns true if only colors (or names) changed,
+     * so a repaint is enough.
+     */
+    public boolean isRepaintOnly() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "OverlayDiff{" +
+                "added=" + added.size() +
+                ", changed=" + changed.size() +
+                ", recolored=" + recolored.size() +
+                ", removed=" + removed.size() +
+                ", unchanged=" + unchanged.size() +
+                '}';
+    }
+}
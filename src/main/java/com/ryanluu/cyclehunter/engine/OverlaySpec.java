@@ -0,0 +1,118 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of one lookback overlay that the settings ask for: an
+ * enabled planet combined with an enabled LookbackMultiple.
+ *
+ * The settings objects are edited in place by the SettingsPane, so
+ * these snapshots are what earlier settings are remembered as, for
+ * working out what changed.  Each overlay has a slot ID made from the
+ * positions of its planet and multiple in the settings lists, so that
+ * editing the number of a multiple shows up as a change to the same
+ * overlay rather than as one removed and another added.
+ */
+public final class OverlaySpec {
+
+    private final String slotId;
+    private final LookbackKey key;
+    private final PlanetSelection planetSelection;
+    private final LookbackMultiple lookbackMultiple;
+    private final Color color;
+
+    OverlaySpec(String slotId,
+                PlanetSelection planetSelection,
+                LookbackMultiple lookbackMultiple) {
+        this.slotId = slotId;
+        this.planetSelection = new PlanetSelection(
+                planetSelection.getPlanetName(),
+                planetSelection.getPlanetCentricity(), true);
+        this.color = lookbackMultiple.getColor();
+        this.lookbackMultiple = new LookbackMultiple(
+                lookbackMultiple.getName(),
+                lookbackMultiple.getLookbackMultiple(), color, true);
+        this.key = new LookbackKey(planetSelection.getPlanetName(),
+                planetSelection.getPlanetCentricity(),
+                lookbackMultiple.getLookbackMultiple());
+    }
+
+    /**
+     * Returns a snapshot of every overlay the settings ask for.
+     *
+     * @param settings Settings.
+     * @return List<OverlaySpec> One spec per enabled planet and
+     *         enabled lookback multiple.
+     */
+    public static List<OverlaySpec> fromSettings(CycleHunterSettings settings) {
+        List<OverlaySpec> rv = new ArrayList<>();
+
+        List<PlanetSelection> planets = settings.getPlanetSelectionList();
+        List<LookbackMultiple> custom = settings.getCustomLookbackMultiplesList();
+        List<LookbackMultiple> fixed = settings.getFixedLookbackMultiplesList();
+
+        for (int p = 0; p < planets.size(); p++) {
+            PlanetSelection ps = planets.get(p);
+            if (!Boolean.TRUE.equals(ps.getEnabled())) {
+                continue;
+            }
+            for (int m = 0; m < custom.size(); m++) {
+                LookbackMultiple lm = custom.get(m);
+                if (Boolean.TRUE.equals(lm.getEnabled())) {
+                    rv.add(new OverlaySpec(p + "/custom/" + m, ps, lm));
+                }
+            }
+            for (int m = 0; m < fixed.size(); m++) {
+                LookbackMultiple lm = fixed.get(m);
+                if (Boolean.TRUE.equals(lm.getEnabled())) {
+                    rv.add(new OverlaySpec(p + "/fixed/" + m, ps, lm));
+                }
+            }
+        }
+
+        return rv;
+    }
+
+    /**
+     * Returns the ID of the place in the settings this overlay comes
+     * from.  Two specs with the same slot ID are the same overlay,
+     * possibly with different values.
+     */
+    public String getSlotId() {
+        return slotId;
+    }
+
+    /**
+     * Returns what the overlay's data depends on.
+     */
+    public LookbackKey getKey() {
+        return key;
+    }
+
+    public PlanetSelection getPlanetSelection() {
+        return planetSelection;
+    }
+
+    public LookbackMultiple getLookbackMultiple() {
+        return lookbackMultiple;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    @Override
+    public String toString() {
+        return "OverlaySpec{" +
+                "slotId='" + slotId + '\'' +
+                ", key=" + key +
+                ", color=" + color +
+                '}';
+    }
+}
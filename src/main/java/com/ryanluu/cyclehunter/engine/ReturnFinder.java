@@ -0,0 +1,33 @@
+package com.ryanluu.cyclehunter.engine;
+
+/**
+ * Finds lookback times: for a time t, the latest earlier time at which
+ * a body's unwrapped longitude was a given number of degrees behind
+ * where it is at t.  LongitudeReturnFinder does this for planets by
+ * searching their EphemerisTables, and synthetic bodies invert their
+ * closed-form longitude.
+ *
+ * Implementations are immutable and may be shared between threads.
+ */
+interface ReturnFinder {
+
+    /**
+     * Finds the lookback times for a run of times.
+     *
+     * @param jd Times to look back from.
+     * @param unwrappedLongitude Unwrapped longitude of the body at each
+     *                           time, from the same source.
+     * @param degrees How far back to look, in degrees of motion.
+     *                Must be positive.
+     * @param from First index to do (inclusive).
+     * @param to Last index to do (exclusive).
+     * @param out Array to put the Julian Days in, at the same indexes.
+     *            Times that cannot be found are set to NaN.
+     */
+    void findLookbackJds(double[] jd,
+                         double[] unwrappedLongitude,
+                         double degrees,
+                         int from,
+                         int to,
+                         double[] out);
+}
@@ -0,0 +1,140 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import javafx.scene.paint.Color;
+
+import java.math.BigDecimal;
+
+/**
+ * Fit against lookback multiple for one planet, from a MultipleSweep.
+ *
+ * The multiples evaluated are points of a grid, min + i * step, but
+ * only some of the grid is evaluated (coarsely everywhere, finely near
+ * the peaks), so the points are listed by grid index, in order.
+ */
+public class SweepCurve {
+
+    private final PlanetSelection planetSelection;
+    private final BigDecimal min;
+    private final BigDecimal step;
+
+    /**
+     * Grid index of each point, ascending.
+     */
+    private final long[] gridIndex;
+
+    private final double[] correlation;
+    private final double[] hitRateLift;
+
+    public SweepCurve(PlanetSelection planetSelection,
+                      BigDecimal min,
+                      BigDecimal step,
+                      long[] gridIndex,
+                      double[] correlation,
+                      double[] hitRateLift) {
+        this.planetSelection = planetSelection;
+        this.min = min;
+        this.step = step;
+        this.gridIndex = gridIndex;
+        this.correlation = correlation;
+        this.hitRateLift = hitRateLift;
+    }
+
+    public PlanetSelection getPlanetSelection() {
+        return planetSelection;
+    }
+
+    public BigDecimal getMin() {
+        return min;
+    }
+
+    public BigDecimal getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the number of multiples evaluated.
+     */
+    public int size() {
+        return gridIndex.length;
+    }
+
+    /**
+     * Returns a multiple, exactly.
+     */
+    public BigDecimal getMultipleDecimal(int index) {
+        return min.add(step.multiply(BigDecimal.valueOf(gridIndex[index])));
+    }
+
+    public double getMultiple(int index) {
+        return getMultipleDecimal(index).doubleValue();
+    }
+
+    /**
+     * Returns the return correlation at a multiple.
+     * NaN if it could not be worked out.
+     */
+    public double getCorrelation(int index) {
+        return correlation[index];
+    }
+
+    /**
+     * Returns the turning point hit rate relative to chance
+     * at a multiple.  NaN if it could not be worked out.
+     */
+    public double getHitRateLift(int index) {
+        return hitRateLift[index];
+    }
+
+    /**
+     * Returns the index of the multiple with the highest correlation,
+     * or -1 if there is none.
+     */
+    public int getBestIndex() {
+        // Return value.
+        int rv = -1;
+
+        for (int i = 0; i < correlation.length; i++) {
+            if (!Double.isNaN(correlation[i]) &&
+                    (rv < 0 || correlation[i] > correlation[rv])) {
+                rv = i;
+            }
+        }
+
+        return rv;
+    }
+
+    /**
+     * Returns the index of the evaluated multiple nearest to a value,
+     * or -1 if the curve is empty.
+     */
+    public int nearestIndex(double multiple) {
+        // Return value.
+        int rv = -1;
+
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < gridIndex.length; i++) {
+            double distance = Math.abs(getMultiple(i) - multiple);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                rv = i;
+            }
+        }
+
+        return rv;
+    }
+
+    /**
+     * Creates a LookbackMultiple for one of the multiples of the curve,
+     * enabled, for adding to the custom multiples in the settings.
+     *
+     * @param index Index of the multiple.
+     * @param color Color for its overlay.
+     * @return LookbackMultiple New lookback multiple.
+     */
+    public LookbackMultiple createLookbackMultiple(int index, Color color) {
+        BigDecimal multiple = getMultipleDecimal(index).stripTrailingZeros();
+        return new LookbackMultiple(multiple.toPlainString(), multiple, color, true);
+    }
+}
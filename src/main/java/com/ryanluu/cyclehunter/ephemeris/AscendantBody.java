@@ -0,0 +1,193 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+/**
+ * The Ascendant: the degree of the ecliptic rising on the eastern
+ * horizon at a place on Earth, such as the location of an exchange.
+ *
+ * It is calculated from the sidereal time, without the Swiss
+ * Ephemeris.  The right ascension of the meridian (RAMC) is the
+ * Greenwich mean sidereal time (IAU 1982) plus the east longitude of
+ * the place, and from it, the latitude phi and the obliquity of the
+ * ecliptic eps:
+ *
+ *     Ascendant = atan2(cos RAMC, -(sin RAMC cos eps + tan phi sin eps))
+ *
+ * The mean obliquity of J2000 is used and nutation is left out, which
+ * moves the Ascendant by less than a hundredth of a degree over a
+ * century, or a couple of seconds of time.
+ *
+ * The Ascendant goes once round the zodiac per sidereal day, always
+ * forwards but at a rate that changes with the sign rising.  It is a
+ * function of the RAMC alone, so its unwrapped longitude is the
+ * Ascendant plus 360 degrees for every whole turn of the RAMC, and
+ * the inverse is closed-form too: the RAMC at which a degree of the
+ * ecliptic rises is its oblique ascension less 90 degrees.
+ *
+ * Above about 66 degrees of latitude parts of the ecliptic never rise,
+ * so such places are not accepted.
+ */
+public final class AscendantBody extends SyntheticBody {
+
+    /**
+     * Largest latitude accepted, in degrees north or south.
+     */
+    public static final double MAX_LATITUDE = 66.0;
+
+    /**
+     * Mean sidereal rotation of the Earth, in degrees per day.
+     */
+    static final double SIDEREAL_DEGREES_PER_DAY = 360.98564736629;
+
+    private static final double J2000 = 2451545.0;
+
+    /**
+     * Mean obliquity of the ecliptic at J2000, in radians.
+     */
+    private static final double OBLIQUITY = Math.toRadians(23.4392911);
+
+    private static final double SIN_OBLIQUITY = Math.sin(OBLIQUITY);
+    private static final double COS_OBLIQUITY = Math.cos(OBLIQUITY);
+
+    private final double latitude;
+    private final double longitude;
+
+    private final double tanLatitude;
+
+    /**
+     * tan(latitude) * sin(obliquity), the constant in the
+     * Ascendant formula.
+     */
+    private final double tanLatitudeSinObliquity;
+
+    /**
+     * Ascendant when the RAMC is 0, in degrees.  The Ascendants of
+     * RAMCs in [0, 360) are kept in [ascendantAtZero, ascendantAtZero + 360).
+     */
+    private final double ascendantAtZero;
+
+    /**
+     * Creates the Ascendant of a place.
+     *
+     * @param latitude Latitude in degrees, north positive.
+     * @param longitude Longitude in degrees, east positive.
+     * @throws IllegalArgumentException If the latitude is beyond
+     *                                  MAX_LATITUDE.
+     */
+    public AscendantBody(double latitude, double longitude) {
+        super(SyntheticBodies.ASCENDANT);
+
+        if (!(Math.abs(latitude) <= MAX_LATITUDE)) {
+            throw new IllegalArgumentException("Latitude " + latitude +
+                    " is beyond " + MAX_LATITUDE +
+                    " degrees, where the Ascendant is not defined at all times.");
+        }
+        if (!(Math.abs(longitude) <= 180.0)) {
+            throw new IllegalArgumentException(
+                    "Longitude " + longitude + " is not in [-180, 180].");
+        }
+
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.tanLatitude = Math.tan(Math.toRadians(latitude));
+        this.tanLatitudeSinObliquity = tanLatitude * SIN_OBLIQUITY;
+        this.ascendantAtZero = Math.toDegrees(Math.atan2(1.0, -tanLatitudeSinObliquity));
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    @Override
+    public double getAverageSpeed() {
+        return SIDEREAL_DEGREES_PER_DAY;
+    }
+
+    /**
+     * Returns the RAMC at a time, in degrees, without reducing it
+     * to [0, 360).
+     */
+    double getUnwrappedRamc(double jd) {
+        double d = jd - J2000;
+        double t = d / 36525.0;
+        return 280.46061837 + SIDEREAL_DEGREES_PER_DAY * d +
+                (0.000387933 - t / 38710000.0) * t * t + longitude;
+    }
+
+    @Override
+    public double getUnwrappedLongitude(double jd) {
+        double ramc = getUnwrappedRamc(jd);
+        double turns = Math.floor(ramc / 360.0);
+        return 360.0 * turns + getAscendant(ramc - 360.0 * turns);
+    }
+
+    @Override
+    public double getJdForUnwrappedLongitude(double unwrappedLongitude) {
+        double turns = Math.floor((unwrappedLongitude - ascendantAtZero) / 360.0);
+        double ascendant = unwrappedLongitude - 360.0 * turns;
+        double ramc = getRamc(ascendant);
+
+        // Keep the RAMC on the same turn as the Ascendant at the
+        // ends of the range, where rounding can put it on the other.
+        if (ramc > 270.0 && ascendant - ascendantAtZero < 180.0) {
+            ramc -= 360.0;
+        }
+        else if (ramc < 90.0 && ascendant - ascendantAtZero > 180.0) {
+            ramc += 360.0;
+        }
+
+        double target = 360.0 * turns + ramc;
+
+        // Invert the sidereal time.  The first guess ignores the
+        // quadratic terms, which one correction takes care of.
+        double d = (target - 280.46061837 - longitude) / SIDEREAL_DEGREES_PER_DAY;
+        for (int i = 0; i < 2; i++) {
+            d -= (getUnwrappedRamc(J2000 + d) - target) / SIDEREAL_DEGREES_PER_DAY;
+        }
+        return J2000 + d;
+    }
+
+    /**
+     * Returns the Ascendant for a RAMC in [0, 360), in the range
+     * [ascendantAtZero, ascendantAtZero + 360).
+     */
+    double getAscendant(double ramc) {
+        double r = Math.toRadians(ramc);
+        double rv = Math.toDegrees(Math.atan2(Math.cos(r),
+                -(Math.sin(r) * COS_OBLIQUITY + tanLatitudeSinObliquity)));
+        while (rv < ascendantAtZero) {
+            rv += 360.0;
+        }
+        while (rv >= ascendantAtZero + 360.0) {
+            rv -= 360.0;
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the RAMC, in [0, 360), at which an ecliptic longitude
+     * is the Ascendant: its oblique ascension less 90 degrees.
+     */
+    double getRamc(double ascendant) {
+        double l = Math.toRadians(ascendant);
+        double sinL = Math.sin(l);
+        double rightAscension = Math.atan2(sinL * COS_OBLIQUITY, Math.cos(l));
+        double declination = Math.asin(SIN_OBLIQUITY * sinL);
+        double ascensionalDifference = Math.asin(tanLatitude * Math.tan(declination));
+
+        double rv = Math.toDegrees(rightAscension - ascensionalDifference) - 90.0;
+        rv %= 360.0;
+        if (rv < 0.0) {
+            rv += 360.0;
+        }
+        return rv;
+    }
+
+    @Override
+    public String toString() {
+        return "AscendantBody{latitude=" + latitude + ", longitude=" + longitude + "}";
+    }
+}
@@ -0,0 +1,100 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+
+/**
+ * The "CalendarDay" cycle: the day of the Gregorian calendar year.
+ * Every year is divided into 366 day slots, one per calendar date
+ * including February 29th, and the longitude goes 360 / 366 degrees
+ * per day through them, starting from 0 degrees at midnight UT on
+ * January 1st.  In common years the slot of February 29th is skipped:
+ * the longitude jumps over it at midnight on March 1st.  The unwrapped
+ * longitude counts whole years as well:
+ *
+ *     unwrapped = 360 * (year + slot / 366)
+ *
+ * so a lookback of N whole cycles lands on the same calendar date and
+ * time of day N years earlier (March 1st for February 29th).
+ */
+public final class CalendarDayBody extends SyntheticBody {
+
+    /**
+     * Average length of the Gregorian calendar year, in days.
+     */
+    static final double MEAN_YEAR_DAYS = 365.2425;
+
+    /**
+     * Number of day slots in every year.
+     */
+    static final int SLOTS_PER_YEAR = 366;
+
+    private static final double DEGREES_PER_SLOT = 360.0 / SLOTS_PER_YEAR;
+
+    /**
+     * Day of the year (from 0) on which February 29th starts.
+     */
+    private static final double FEBRUARY_29 = 31 + 28;
+
+    /**
+     * Julian Day of 2000-01-01 00:00 UT.
+     */
+    private static final double JD_2000 = 2451544.5;
+
+    public CalendarDayBody() {
+        super(SyntheticBodies.CALENDAR_DAY);
+    }
+
+    @Override
+    public double getAverageSpeed() {
+        return 360.0 / MEAN_YEAR_DAYS;
+    }
+
+    @Override
+    public double getUnwrappedLongitude(double jd) {
+        int year = getYear(jd);
+        double day = jd - getStartOfYear(year);
+        if (day >= FEBRUARY_29 && !isLeapYear(year)) {
+            day += 1.0;
+        }
+        return 360.0 * year + day * DEGREES_PER_SLOT;
+    }
+
+    @Override
+    public double getJdForUnwrappedLongitude(double unwrappedLongitude) {
+        double years = unwrappedLongitude / 360.0;
+        int year = (int) Math.floor(years);
+        double slot = (unwrappedLongitude - 360.0 * year) / DEGREES_PER_SLOT;
+        if (slot >= FEBRUARY_29 && !isLeapYear(year)) {
+            // Times in the slot of February 29th are March 1st.
+            slot = Math.max(slot - 1.0, FEBRUARY_29);
+        }
+        return getStartOfYear(year) + slot;
+    }
+
+    static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * Returns the Julian Day of midnight UT on January 1st of a year.
+     */
+    static double getStartOfYear(int year) {
+        return Ephemeris.julianDayNumber(year, 1, 1) - 0.5;
+    }
+
+    /**
+     * Returns the Gregorian calendar year (UT) that a time falls in.
+     */
+    static int getYear(double jd) {
+        int year = 2000 + (int) Math.floor((jd - JD_2000) / MEAN_YEAR_DAYS);
+
+        // The estimate is at most a day or two off at a year boundary.
+        while (getStartOfYear(year) > jd) {
+            year--;
+        }
+        while (getStartOfYear(year + 1) <= jd) {
+            year++;
+        }
+        return year;
+    }
+}
@@ -0,0 +1,592 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed table of the longitude and longitude speed of one body,
+ * sampled at a fixed step over a range of dates.  Positions at any
+ * time within the range are answered by cubic Hermite interpolation
+ * between the two neighbouring samples, using both the longitudes and
+ * the speeds, so no Swiss Ephemeris call is needed per query.
+ *
+ * The longitudes are stored unwrapped, that is, they keep increasing
+ * (or decreasing) past 360 degrees instead of wrapping back to 0.
+ * This keeps the curve smooth for interpolation, and it also makes
+ * "N full cycles ago" a simple subtraction of N * 360 degrees.
+ *
+ * The interpolation error for cubic Hermite interpolation is at most
+ * h^4 / 384 * max|f''''| for step h.  Rather than trusting an estimate
+ * of the fourth derivative, the table measures its own error when it is
+ * built, by sampling the body at the midpoint of every interval and
+ * comparing it to the interpolated value.  The midpoint is where the
+ * Hermite error is largest when the fourth derivative changes little
+ * over one step, which it does at the steps used.  The largest
+ * difference is available from getMaxErrorDegrees(), and
+ * EphemerisTableService shrinks the step until it is within the
+ * requested tolerance.  Checking every interval doubles the number of
+ * ephemeris calls made while building, but no interval is left out.
+ *
+ * If the sampler is thread-safe (see PositionSampler.isThreadSafe()),
+ * large tables are sampled in chunks over the common ForkJoinPool,
+ * and only the unwrapping, which is cheap, is done in order.
+ *
+ * Tables are immutable once built, so they may be shared between
+ * threads.  Extending a table creates a new one.
+ */
+public class EphemerisTable {
+
+    /**
+     * Number of samples above which a thread-safe sampler is used
+     * from several threads at once.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 12;
+
+    /**
+     * Number of samples in each piece of parallel sampling.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 10;
+
+    private final int planetId;
+    private final PlanetSelection.Centricity centricity;
+
+    /**
+     * How the samples were calculated.
+     */
+    private final PositionSampler.Method samplingMethod;
+
+    /**
+     * Julian Day of the first sample.
+     */
+    private final double startJd;
+
+    /**
+     * Number of days between samples.
+     */
+    private final double stepDays;
+
+    /**
+     * 1.0 / stepDays.
+     */
+    private final double inverseStepDays;
+
+    /**
+     * Unwrapped longitude in degrees at each sample.
+     */
+    private final double[] longitude;
+
+    /**
+     * Longitude speed in degrees per day at each sample.
+     */
+    private final double[] speed;
+
+    /**
+     * Largest interpolation error measured when the table was built.
+     */
+    private final double maxErrorDegrees;
+
+    EphemerisTable(int planetId,
+                   PlanetSelection.Centricity centricity,
+                   PositionSampler.Method samplingMethod,
+                   double startJd,
+                   double stepDays,
+                   double[] longitude,
+                   double[] speed,
+                   double maxErrorDegrees) {
+
+        if (longitude.length < 2 || longitude.length != speed.length) {
+            throw new IllegalArgumentException(
+                    "A table needs at least two samples of longitude and speed.");
+        }
+
+        this.planetId = planetId;
+        this.centricity = centricity;
+        this.samplingMethod = samplingMethod;
+        this.startJd = startJd;
+        this.stepDays = stepDays;
+        this.inverseStepDays = 1.0 / stepDays;
+        this.longitude = longitude;
+        this.speed = speed;
+        this.maxErrorDegrees = maxErrorDegrees;
+    }
+
+    /**
+     * Builds a table covering at least the range [startJd, endJd].
+     * The first sample is placed on a multiple of the step, so that
+     * tables built for overlapping ranges share sample points.
+     *
+     * @param sampler Calculates the actual positions.
+     * @param planetId Swiss Ephemeris planet ID the sampler calculates.
+     * @param centricity Centricity the sampler calculates.
+     * @param startJd Start of the range.
+     * @param endJd End of the range.
+     * @param stepDays Number of days between samples.
+     * @return EphemerisTable The new table.
+     */
+    public static EphemerisTable build(PositionSampler sampler,
+                                       int planetId,
+                                       PlanetSelection.Centricity centricity,
+                                       double startJd,
+                                       double endJd,
+                                       double stepDays) {
+
+        double alignedStart = alignDown(startJd, stepDays);
+        int numSamples = (int) Math.ceil((endJd - alignedStart) / stepDays) + 2;
+
+        double[] longitude = new double[numSamples];
+        double[] speed = new double[numSamples];
+
+        sample(sampler, alignedStart, stepDays, longitude, speed, 0, numSamples);
+        unwrap(longitude, 0, numSamples);
+
+        double maxError = measureError(sampler, alignedStart, stepDays,
+                longitude, speed, 0, numSamples);
+
+        return new EphemerisTable(planetId, centricity, sampler.getMethod(),
+                alignedStart, stepDays, longitude, speed, maxError);
+    }
+
+    /**
+     * Returns a table that covers at least [startJd, endJd] as well as
+     * everything this table covers.  Existing samples are reused and
+     * only the new ones are calculated.  If this table already covers
+     * the range, this table is returned.
+     *
+     * @param sampler Calculates the actual positions.  It must calculate
+     *                the same body as the one this table was built with,
+     *                by the same method.
+     * @param startJd Start of the range needed.
+     * @param endJd End of the range needed.
+     * @return EphemerisTable This table, or a new, larger one.
+     * @throws IllegalArgumentException If the sampler's method is not
+     *                                  the one this table was sampled by.
+     */
+    public EphemerisTable extendTo(PositionSampler sampler,
+                                   double startJd,
+                                   double endJd) {
+        if (covers(startJd, endJd)) {
+            return this;
+        }
+        if (sampler.getMethod() != samplingMethod) {
+            throw new IllegalArgumentException("Cannot extend a table sampled " +
+                    samplingMethod + " with samples taken " + sampler.getMethod() + ".");
+        }
+
+        double newStart = Math.min(this.startJd, alignDown(startJd, stepDays));
+        double newEnd = Math.max(getEndJd(), endJd);
+        int prefix = (int) Math.round((this.startJd - newStart) * inverseStepDays);
+        int numSamples = (int) Math.ceil((newEnd - newStart) / stepDays) + 2;
+        numSamples = Math.max(numSamples, prefix + longitude.length);
+
+        double[] newLongitude = new double[numSamples];
+        double[] newSpeed = new double[numSamples];
+        System.arraycopy(longitude, 0, newLongitude, prefix, longitude.length);
+        System.arraycopy(speed, 0, newSpeed, prefix, speed.length);
+
+        int oldEnd = prefix + longitude.length;
+        sample(sampler, newStart, stepDays, newLongitude, newSpeed, 0, prefix);
+        sample(sampler, newStart, stepDays, newLongitude, newSpeed, oldEnd, numSamples);
+
+        // New samples before the existing ones.  These are unwrapped
+        // backwards from the first existing sample, so that the existing
+        // unwrapped values do not change.
+        for (int i = prefix - 1; i >= 0; i--) {
+            newLongitude[i] = newLongitude[i + 1] +
+                    normalizeDelta(newLongitude[i] - newLongitude[i + 1]);
+        }
+
+        // New samples after the existing ones.
+        unwrap(newLongitude, oldEnd - 1, numSamples);
+
+        double maxError = maxErrorDegrees;
+        if (prefix > 0) {
+            maxError = Math.max(maxError, measureError(sampler, newStart,
+                    stepDays, newLongitude, newSpeed, 0, prefix + 1));
+        }
+        if (oldEnd < numSamples) {
+            maxError = Math.max(maxError, measureError(sampler, newStart,
+                    stepDays, newLongitude, newSpeed, oldEnd - 1, numSamples));
+        }
+
+        return new EphemerisTable(planetId, centricity, samplingMethod,
+                newStart, stepDays, newLongitude, newSpeed, maxError);
+    }
+
+    /**
+     * Samples the positions at startJd + i * stepDays for i in
+     * [from, to), in parallel if the sampler allows it.  The longitudes
+     * are left wrapped.
+     */
+    private static void sample(final PositionSampler sampler,
+                               final double startJd,
+                               final double stepDays,
+                               final double[] longitude,
+                               final double[] speed,
+                               final int from,
+                               final int to) {
+        int count = to - from;
+        if (count <= 0) {
+            return;
+        }
+
+        if (count < PARALLEL_THRESHOLD || !sampler.isThreadSafe()) {
+            sampleChunk(sampler, startJd, stepDays, longitude, speed, from, to);
+            return;
+        }
+
+        int numChunks = (count - 1) / PARALLEL_CHUNK_SIZE + 1;
+        IntStream.range(0, numChunks).parallel().forEach(chunk -> {
+            int chunkFrom = from + chunk * PARALLEL_CHUNK_SIZE;
+            int chunkTo = Math.min(chunkFrom + PARALLEL_CHUNK_SIZE, to);
+            sampleChunk(sampler, startJd, stepDays, longitude, speed, chunkFrom, chunkTo);
+        });
+    }
+
+    private static void sampleChunk(PositionSampler sampler,
+                                    double startJd,
+                                    double stepDays,
+                                    double[] longitude,
+                                    double[] speed,
+                                    int from,
+                                    int to) {
+        sampler.sampleGrid(startJd, stepDays, from, to, longitude, speed);
+    }
+
+    /**
+     * Samples the midpoint of every interval between samples
+     * [from, to) and returns the largest difference from the
+     * interpolated values.  This is done in parallel if the sampler
+     * allows it.
+     */
+    private static double measureError(final PositionSampler sampler,
+                                       final double startJd,
+                                       final double stepDays,
+                                       final double[] longitude,
+                                       final double[] speed,
+                                       final int from,
+                                       final int to) {
+        int count = to - from;
+        if (count < PARALLEL_THRESHOLD || !sampler.isThreadSafe()) {
+            return measureErrorInChunk(sampler, startJd, stepDays,
+                    longitude, speed, from, to);
+        }
+
+        // Neighbouring chunks share their boundary sample, so every
+        // interval is checked once.
+        final int chunkSize = PARALLEL_CHUNK_SIZE;
+        int numChunks = (count - 1) / chunkSize + 1;
+        return IntStream.range(0, numChunks).parallel().mapToDouble(chunk -> {
+            int chunkFrom = from + chunk * chunkSize;
+            int chunkTo = Math.min(chunkFrom + chunkSize + 1, to);
+            return measureErrorInChunk(sampler, startJd, stepDays,
+                    longitude, speed, chunkFrom, chunkTo);
+        }).max().orElse(0.0);
+    }
+
+    private static double measureErrorInChunk(PositionSampler sampler,
+                                              double startJd,
+                                              double stepDays,
+                                              double[] longitude,
+                                              double[] speed,
+                                              int from,
+                                              int to) {
+        double maxError = 0.0;
+
+        // The midpoints are themselves an evenly spaced grid,
+        // so sample them in one call.
+        int numChecks = to - 1 - from;
+        if (numChecks <= 0) {
+            return maxError;
+        }
+        double[] midLongitude = new double[numChecks];
+        double[] midSpeed = new double[numChecks];
+        sampler.sampleGrid(startJd + (from + 0.5) * stepDays,
+                stepDays, 0, numChecks, midLongitude, midSpeed);
+
+        for (int j = 0; j < numChecks; j++) {
+            int i = from + j;
+            double interpolated = hermite(longitude[i], longitude[i + 1],
+                    speed[i] * stepDays, speed[i + 1] * stepDays, 0.5);
+            double error = Math.abs(normalizeDelta(interpolated - midLongitude[j]));
+            if (error > maxError) {
+                maxError = error;
+            }
+        }
+
+        return maxError;
+    }
+
+    /**
+     * Unwraps longitudes in [0, 360) in place, so that consecutive
+     * values never jump by more than 180 degrees.
+     */
+    static void unwrap(double[] longitude, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            longitude[i] = longitude[i - 1] +
+                    normalizeDelta(longitude[i] - longitude[i - 1]);
+        }
+    }
+
+    /**
+     * Normalizes an angle difference to the range [-180, 180).
+     */
+    static double normalizeDelta(double delta) {
+        return delta - 360.0 * Math.floor((delta + 180.0) / 360.0);
+    }
+
+    /**
+     * Wraps a longitude to the range [0, 360).
+     */
+    public static double wrap(double longitude) {
+        double rv = longitude - 360.0 * Math.floor(longitude / 360.0);
+        // Guard against rounding giving exactly 360.
+        return (rv >= 360.0) ? 0.0 : rv;
+    }
+
+    private static double alignDown(double jd, double stepDays) {
+        return Math.floor(jd / stepDays) * stepDays;
+    }
+
+    /**
+     * Cubic Hermite interpolation on the unit interval.
+     *
+     * @param p0 Value at t = 0.
+     * @param p1 Value at t = 1.
+     * @param m0 Derivative at t = 0, scaled to the unit interval.
+     * @param m1 Derivative at t = 1, scaled to the unit interval.
+     * @param t Position in the interval.
+     * @return double Interpolated value.
+     */
+    static double hermite(double p0, double p1, double m0, double m1, double t) {
+        double t2 = t * t;
+        double t3 = t2 * t;
+        return (2 * t3 - 3 * t2 + 1) * p0 +
+               (t3 - 2 * t2 + t) * m0 +
+               (-2 * t3 + 3 * t2) * p1 +
+               (t3 - t2) * m1;
+    }
+
+    public int getPlanetId() {
+        return planetId;
+    }
+
+    public PlanetSelection.Centricity getCentricity() {
+        return centricity;
+    }
+
+    public PositionSampler.Method getSamplingMethod() {
+        return samplingMethod;
+    }
+
+    public double getStartJd() {
+        return startJd;
+    }
+
+    /**
+     * Returns the Julian Day of the last sample.
+     */
+    public double getEndJd() {
+        return startJd + (longitude.length - 1) * stepDays;
+    }
+
+    public double getStepDays() {
+        return stepDays;
+    }
+
+    public int getNumSamples() {
+        return longitude.length;
+    }
+
+    public double getMaxErrorDegrees() {
+        return maxErrorDegrees;
+    }
+
+    /**
+     * Returns true if this table covers the whole range [startJd, endJd].
+     */
+    public boolean covers(double startJd, double endJd) {
+        return startJd >= this.startJd && endJd <= getEndJd();
+    }
+
+    /**
+     * Returns the Julian Day of the given sample.
+     */
+    public double getSampleJd(int index) {
+        return startJd + index * stepDays;
+    }
+
+    /**
+     * Returns the unwrapped longitude at the given sample.
+     */
+    public double getSampleLongitude(int index) {
+        return longitude[index];
+    }
+
+    /**
+     * Returns the longitude speed at the given sample.
+     */
+    public double getSampleSpeed(int index) {
+        return speed[index];
+    }
+
+    /**
+     * Returns the index of the interval [sample i, sample i + 1] that
+     * holds the given time.  Times outside the table are clamped to the
+     * first or last interval.
+     */
+    public int intervalIndex(double jd) {
+        int i = (int) Math.floor((jd - startJd) * inverseStepDays);
+        if (i < 0) {
+            return 0;
+        }
+        int last = longitude.length - 2;
+        return (i > last) ? last : i;
+    }
+
+    /**
+     * Returns the unwrapped longitude at the given time.
+     * Times outside the table are extrapolated from the nearest
+     * interval, which is not accurate; callers should make sure the
+     * table covers the times they ask about.
+     *
+     * @param jd Julian Day.
+     * @return double Unwrapped longitude in degrees.
+     */
+    public double getUnwrappedLongitude(double jd) {
+        double x = (jd - startJd) * inverseStepDays;
+        int i = (int) x;
+        if (i < 0 || x < 0) {
+            i = 0;
+        }
+        else if (i > longitude.length - 2) {
+            i = longitude.length - 2;
+        }
+        double t = x - i;
+
+        return hermite(longitude[i], longitude[i + 1],
+                speed[i] * stepDays, speed[i + 1] * stepDays, t);
+    }
+
+    /**
+     * Returns the longitude at the given time, in the range [0, 360).
+     *
+     * @param jd Julian Day.
+     * @return double Longitude in degrees.
+     */
+    public double getLongitude(double jd) {
+        return wrap(getUnwrappedLongitude(jd));
+    }
+
+    /**
+     * Returns the longitude speed at the given time.
+     *
+     * @param jd Julian Day.
+     * @return double Speed in degrees per day.
+     */
+    public double getSpeed(double jd) {
+        double x = (jd - startJd) * inverseStepDays;
+        int i = (int) x;
+        if (i < 0 || x < 0) {
+            i = 0;
+        }
+        else if (i > longitude.length - 2) {
+            i = longitude.length - 2;
+        }
+        double t = x - i;
+        double t2 = t * t;
+
+        // Derivative of the Hermite polynomial, converted back
+        // from per unit interval to per day.
+        double dp = (6 * t2 - 6 * t) * (longitude[i] - longitude[i + 1]) +
+                (3 * t2 - 4 * t + 1) * speed[i] * stepDays +
+                (3 * t2 - 2 * t) * speed[i + 1] * stepDays;
+        return dp * inverseStepDays;
+    }
+
+    /**
+     * Fills in unwrapped longitudes for many times at once.
+     *
+     * @param jd Times to look up.
+     * @param from First index to fill (inclusive).
+     * @param to Last index to fill (exclusive).
+     * @param out Array to put the longitudes in, at the same indexes.
+     */
+    public void fillUnwrappedLongitudes(double[] jd, int from, int to, double[] out) {
+        final double start = startJd;
+        final double inv = inverseStepDays;
+        final double step = stepDays;
+        final double[] lon = longitude;
+        final double[] spd = speed;
+        final int last = lon.length - 2;
+
+        for (int k = from; k < to; k++) {
+            double x = (jd[k] - start) * inv;
+            int i = (int) x;
+            if (x < 0) {
+                i = 0;
+            }
+            else if (i > last) {
+                i = last;
+            }
+            double t = x - i;
+            double t2 = t * t;
+            double t3 = t2 * t;
+
+            out[k] = (2 * t3 - 3 * t2 + 1) * lon[i] +
+                     (t3 - 2 * t2 + t) * spd[i] * step +
+                     (-2 * t3 + 3 * t2) * lon[i + 1] +
+                     (t3 - t2) * spd[i + 1] * step;
+        }
+    }
+
+    /**
+     * Fills in longitude speeds for many times at once.
+     *
+     * @param jd Times to look up.
+     * @param from First index to fill (inclusive).
+     * @param to Last index to fill (exclusive).
+     * @param out Array to put the speeds in, in degrees per day,
+     *            at the same indexes.
+     */
+    public void fillSpeeds(double[] jd, int from, int to, double[] out) {
+        final double start = startJd;
+        final double inv = inverseStepDays;
+        final double step = stepDays;
+        final double[] lon = longitude;
+        final double[] spd = speed;
+        final int last = lon.length - 2;
+
+        for (int k = from; k < to; k++) {
+            double x = (jd[k] - start) * inv;
+            int i = (int) x;
+            if (x < 0) {
+                i = 0;
+            }
+            else if (i > last) {
+                i = last;
+            }
+            double t = x - i;
+            double t2 = t * t;
+
+            double dp = (6 * t2 - 6 * t) * (lon[i] - lon[i + 1]) +
+                    (3 * t2 - 4 * t + 1) * spd[i] * step +
+                    (3 * t2 - 2 * t) * spd[i + 1] * step;
+            out[k] = dp * inv;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EphemerisTable{" +
+                "planetId=" + planetId +
+                ", centricity=" + centricity +
+                ", samplingMethod=" + samplingMethod +
+                ", startJd=" + startJd +
+                ", endJd=" + getEndJd() +
+                ", stepDays=" + stepDays +
+                ", numSamples=" + longitude.length +
+                ", maxErrorDegrees=" + maxErrorDegrees +
+                '}';
+    }
+}
@@ -0,0 +1,327 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * On-disk cache of EphemerisTables, so that planetary tables built in
+ * one session can be reused by the next one instead of being
+ * recalculated through the Swiss Ephemeris.
+ *
+ * Each table is kept in its own file in the cache directory, named
+ * after the planet ID, centricity, sampling method and step size, e.g.
+ * "planet4_G_D_1.0.eph" for one sampled directly or "planet4_G_B_1.0.eph"
+ * for one sampled from barycentric states.  A table is only ever loaded
+ * for the sampling method it was built by, so it is never extended with
+ * samples calculated another way.  Only the files for the planets that
+ * are asked for get opened, so only their pages are read.
+ *
+ * A file is a small header followed by the sample columns,
+ * all little-endian:
+ *
+ *     int     magic number ('CHEP')
+ *     int     format version
+ *     int     planet ID
+ *     int     centricity (0 = geocentric, 1 = heliocentric)
+ *     double  step in days
+ *     double  Julian Day of the first sample
+ *     double  largest measured interpolation error, in degrees
+ *     int     number of samples
+ *     int     sampling method (0 = direct, 1 = barycentric)
+ *
+ *     double[numSamples]  unwrapped longitude
+ *     double[numSamples]  longitude speed
+ *
+ * Files with a different magic number or version are ignored, and are
+ * overwritten the next time the table is saved.
+ */
+public class EphemerisTableCache {
+
+    private static final Logger logger =
+            Logger.getLogger(EphemerisTableCache.class);
+
+    /**
+     * Name of the directory, under the settings directory,
+     * where the cache files are kept.
+     */
+    public static final String CACHE_DIRECTORY = "ephemerisCache";
+
+    /**
+     * Filename extension of cache files.
+     */
+    public static final String CACHE_FILE_EXTENSION = ".eph";
+
+    /**
+     * 'CHEP' in ASCII.
+     */
+    private static final int MAGIC = 0x43484550;
+
+    /**
+     * Version of the file format.  Bump this when the layout, or the way
+     * the samples are calculated, changes, so that old files are rebuilt.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int HEADER_SIZE = 4 * 4 + 3 * 8 + 2 * 4;
+
+    private final Path cacheDirectory;
+
+    /**
+     * Creates a cache that keeps its files in the given directory.
+     *
+     * @param cacheDirectory Directory for the cache files.  It is created
+     *                       when the first file is written.
+     */
+    public EphemerisTableCache(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Creates a cache in the application settings directory.
+     *
+     * @return EphemerisTableCache Cache object.
+     */
+    public static EphemerisTableCache inSettingsDirectory() {
+        return new EphemerisTableCache(Paths.get(
+                CycleHunterSettings.getSettingsDirectoryPath(), CACHE_DIRECTORY));
+    }
+
+    public Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Returns the path of the cache file for the given table key.
+     */
+    public Path getCacheFile(int planetId,
+                             PlanetSelection.Centricity centricity,
+                             PositionSampler.Method samplingMethod,
+                             double stepDays) {
+        return cacheDirectory.resolve(getFilePrefix(planetId, centricity, samplingMethod) +
+                Double.toString(stepDays) + CACHE_FILE_EXTENSION);
+    }
+
+    private static String getFilePrefix(int planetId,
+                                        PlanetSelection.Centricity centricity,
+                                        PositionSampler.Method samplingMethod) {
+        return "planet" + planetId + "_" +
+                (centricity == PlanetSelection.Centricity.HELIOCENTRIC ? "H" : "G") +
+                "_" +
+                (samplingMethod == PositionSampler.Method.BARYCENTRIC ? "B" : "D") +
+                "_";
+    }
+
+    private static int getMethodCode(PositionSampler.Method samplingMethod) {
+        return (samplingMethod == PositionSampler.Method.BARYCENTRIC) ? 1 : 0;
+    }
+
+    /**
+     * Loads the cached table for the given planet and sampling method
+     * with the largest step whose measured error is still within the
+     * tolerance.
+     *
+     * @param planetId Swiss Ephemeris planet ID.
+     * @param centricity Geocentric or heliocentric.
+     * @param samplingMethod How the table must have been sampled.
+     * @param errorToleranceDegrees Largest interpolation error allowed.
+     * @return EphemerisTable Cached table, or null if there is no usable one.
+     */
+    public EphemerisTable load(int planetId,
+                               PlanetSelection.Centricity centricity,
+                               PositionSampler.Method samplingMethod,
+                               double errorToleranceDegrees) {
+
+        String prefix = getFilePrefix(planetId, centricity, samplingMethod);
+        File[] files = cacheDirectory.toFile().listFiles((dir, name) ->
+                name.startsWith(prefix) && name.endsWith(CACHE_FILE_EXTENSION));
+        if (files == null) {
+            return null;
+        }
+
+        // Prefer the largest step that is accurate enough, since that
+        // is the smallest file and the one the service would build.
+        // Only the headers are looked at to choose.
+        Path bestFile = null;
+        double bestStep = 0.0;
+        for (File file : files) {
+            ByteBuffer header = readHeader(file.toPath());
+            if (header == null ||
+                    header.getInt(8) != planetId ||
+                    header.getInt(44) != getMethodCode(samplingMethod) ||
+                    header.getDouble(32) > errorToleranceDegrees) {
+                continue;
+            }
+            double stepDays = header.getDouble(16);
+            if (bestFile == null || stepDays > bestStep) {
+                bestFile = file.toPath();
+                bestStep = stepDays;
+            }
+        }
+
+        return (bestFile == null) ? null : read(bestFile);
+    }
+
+    /**
+     * Reads just the header of a cache file.
+     *
+     * @return ByteBuffer Header, or null if the file is not a cache file
+     *         of the current format.
+     */
+    private static ByteBuffer readHeader(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return null;
+                }
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+                return null;
+            }
+            return header;
+        } catch (IOException e) {
+            logger.debug("Could not read header of '" + file + "'.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads one cache file.
+     *
+     * @param file Cache file.
+     * @return EphemerisTable The table, or null if the file is not valid.
+     */
+    EphemerisTable read(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                return null;
+            }
+
+            MappedByteBuffer buf = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION) {
+                logger.debug("Ignoring ephemeris cache file '" + file +
+                        "' with an old format.");
+                return null;
+            }
+
+            int planetId = buf.getInt(8);
+            int centricityCode = buf.getInt(12);
+            double stepDays = buf.getDouble(16);
+            double startJd = buf.getDouble(24);
+            double maxErrorDegrees = buf.getDouble(32);
+            int numSamples = buf.getInt(40);
+            int methodCode = buf.getInt(44);
+
+            if (numSamples < 2 || stepDays <= 0 ||
+                    HEADER_SIZE + 2L * numSamples * 8 != fileSize) {
+                logger.warn("Ephemeris cache file '" + file + "' is corrupt.");
+                return null;
+            }
+
+            double[] longitude = new double[numSamples];
+            double[] speed = new double[numSamples];
+
+            buf.position(HEADER_SIZE);
+            ByteBuffer columns = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+            columns.asDoubleBuffer().get(longitude).get(speed);
+
+            PlanetSelection.Centricity centricity = (centricityCode == 1) ?
+                    PlanetSelection.Centricity.HELIOCENTRIC :
+                    PlanetSelection.Centricity.GEOCENTRIC;
+
+            PositionSampler.Method samplingMethod = (methodCode == 1) ?
+                    PositionSampler.Method.BARYCENTRIC :
+                    PositionSampler.Method.DIRECT;
+
+            return new EphemerisTable(planetId, centricity, samplingMethod,
+                    startJd, stepDays, longitude, speed, maxErrorDegrees);
+
+        } catch (IOException e) {
+            logger.warn("Failed to read ephemeris cache file '" + file + "'.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves a table, replacing any cached table with the same
+     * planet, centricity, sampling method and step.
+     *
+     * @param table Table to save.
+     */
+    public void save(EphemerisTable table) {
+        Path file = getCacheFile(table.getPlanetId(), table.getCentricity(),
+                table.getSamplingMethod(), table.getStepDays());
+
+        Path tempFile = null;
+        try {
+            Files.createDirectories(cacheDirectory);
+            tempFile = Files.createTempFile(cacheDirectory,
+                    file.getFileName().toString(), ".tmp");
+
+            int n = table.getNumSamples();
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + 2 * n * 8)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            buf.putInt(MAGIC);
+            buf.putInt(FORMAT_VERSION);
+            buf.putInt(table.getPlanetId());
+            buf.putInt(table.getCentricity() ==
+                    PlanetSelection.Centricity.HELIOCENTRIC ? 1 : 0);
+            buf.putDouble(table.getStepDays());
+            buf.putDouble(table.getStartJd());
+            buf.putDouble(table.getMaxErrorDegrees());
+            buf.putInt(n);
+            buf.putInt(getMethodCode(table.getSamplingMethod()));
+
+            for (int i = 0; i < n; i++) {
+                buf.putDouble(table.getSampleLongitude(i));
+            }
+            for (int i = 0; i < n; i++) {
+                buf.putDouble(table.getSampleSpeed(i));
+            }
+            buf.flip();
+
+            try (FileChannel channel = FileChannel.open(tempFile,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
+
+            Files.move(tempFile, file,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            logger.debug("Saved ephemeris cache file '" + file + "'.");
+
+        } catch (IOException e) {
+            logger.warn("Failed to save ephemeris cache file '" + file + "'.", e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    logger.debug("Could not delete '" + tempFile + "'.", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,605 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import org.apache.log4j.Logger;
+import swisseph.SweConst;
+import swisseph.SwissEph;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Hands out EphemerisTables for planets, building them on first use
+ * and extending them when a wider date range is asked for.
+ *
+ * Each table is sampled with a step chosen for how fast its planet
+ * moves.  After a table is built, its measured interpolation error is
+ * compared with the error tolerance, and if it is too large the table
+ * is rebuilt with half the step.
+ *
+ * If an EphemerisTableCache is set, tables are looked for there before
+ * being built, and every table built or extended is saved back to it,
+ * so later sessions only calculate the dates they have not seen before.
+ *
+ * The service is thread-safe, and the tables handed out are immutable
+ * and may be read from any thread.  By default it calculates with a
+ * SwissEphPool, which gives every thread its own SwissEph instance, so
+ * different planets are built at the same time on different threads
+ * (each waits only for another thread building the same planet and
+ * centricity), and the samples of a large table are spread over the
+ * ForkJoinPool as well.  getTables() builds a whole list of planets at
+ * once that way.  A service given a single SwissEph instance has to
+ * build one table at a time.
+ *
+ * When registerPlanets() or getTables() is given both the geocentric
+ * and the heliocentric selection of a planet, the pair is sampled through a
+ * PositionService, which calculates both from one barycentric state
+ * per time and shares the states of the Sun and the Earth between
+ * planets.  The geocentric Sun and heliocentric Earth are then sampled
+ * through it as well, since they need nothing but those shared states.
+ * Before a table is sampled that way, the PositionService's positions
+ * are checked against direct Swiss Ephemeris calls at a few times over
+ * its range, and if any differ by more than the error tolerance, that
+ * planet and centricity go back to direct sampling for good.  Tables
+ * remember how they were sampled, and a table is never extended with
+ * samples taken the other way; it is rebuilt instead.
+ */
+public class EphemerisTableService {
+
+    private static final Logger logger =
+            Logger.getLogger(EphemerisTableService.class);
+
+    /**
+     * Default largest interpolation error allowed, in degrees.
+     * (0.36 arc-seconds.)
+     */
+    public static final double DEFAULT_ERROR_TOLERANCE_DEGREES = 1.0e-4;
+
+    /**
+     * Smallest step used when refining a table that is not
+     * accurate enough.
+     */
+    private static final double MIN_STEP_DAYS = 1.0 / 64.0;
+
+    /**
+     * Extra days added on each side of a requested range when a table
+     * has to be built or extended, so that small changes in range do
+     * not cause a rebuild every time.
+     */
+    private static final double RANGE_MARGIN_DAYS = 366.0;
+
+    /**
+     * Number of times, spread over the range of a table, at which the
+     * positionService is checked against direct sampling before the
+     * table is sampled through it.
+     */
+    private static final int NUM_VALIDATION_POINTS = 32;
+
+    /**
+     * Pool of per-thread SwissEph instances, or null if the service
+     * calculates with a single instance.
+     */
+    private final SwissEphPool swissEphPool;
+
+    /**
+     * The single SwissEph instance, or null if the service uses a pool.
+     */
+    private final SwissEph swissEph;
+
+    /**
+     * Service that samples geocentric and heliocentric positions
+     * together, or null if the service uses a single instance.
+     */
+    private final PositionService positionService;
+
+    /**
+     * Planets whose geocentric and heliocentric tables have both been
+     * asked for, which are sampled through the positionService.
+     */
+    private final Set<Integer> pairedPlanetIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Tables for which the positionService disagreed with direct
+     * sampling by more than the error tolerance, and which are
+     * sampled directly from then on.
+     */
+    private final Set<TableKey> directOnlyKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Held while building when there is a single SwissEph instance,
+     * or null if tables for different keys may be built at once.
+     */
+    private final Object singleInstanceLock;
+
+    private volatile double errorToleranceDegrees = DEFAULT_ERROR_TOLERANCE_DEGREES;
+
+    /**
+     * On-disk cache of tables, or null if tables are not persisted.
+     */
+    private volatile EphemerisTableCache tableCache;
+
+    /**
+     * Tables built so far.
+     */
+    private final Map<TableKey, EphemerisTable> tables = new ConcurrentHashMap<>();
+
+    /**
+     * Lock held while building or extending the table of a key.
+     */
+    private final Map<TableKey, Object> buildLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a service that calculates with a pool of per-thread
+     * SwissEph instances.
+     */
+    public EphemerisTableService() {
+        this(new SwissEphPool(), null);
+    }
+
+    /**
+     * Creates a service that calculates with the given SwissEph instance.
+     * The instance must not be used by anything else while the service
+     * is in use.  Tables are built one at a time.
+     *
+     * A subclass that overrides createSampler() may pass null, in which
+     * case it is up to its samplers to be safe to use at the same time
+     * for different planets.
+     *
+     * @param swissEph SwissEph instance, or null.
+     */
+    public EphemerisTableService(SwissEph swissEph) {
+        this(null, swissEph);
+    }
+
+    private EphemerisTableService(SwissEphPool swissEphPool, SwissEph swissEph) {
+        this.swissEphPool = swissEphPool;
+        this.swissEph = swissEph;
+        this.positionService = (swissEphPool != null) ?
+                new PositionService(swissEphPool) : null;
+        this.singleInstanceLock = (swissEph != null) ? new Object() : null;
+    }
+
+    /**
+     * Creates a service that calculates with the given pool, for
+     * example one reading the ephemeris files from a given directory.
+     *
+     * @param swissEphPool Pool of per-thread SwissEph instances.
+     * @return EphemerisTableService New service.
+     */
+    public static EphemerisTableService withPool(SwissEphPool swissEphPool) {
+        return new EphemerisTableService(swissEphPool, null);
+    }
+
+    public double getErrorToleranceDegrees() {
+        return errorToleranceDegrees;
+    }
+
+    public void setErrorToleranceDegrees(double errorToleranceDegrees) {
+        this.errorToleranceDegrees = errorToleranceDegrees;
+    }
+
+    public EphemerisTableCache getTableCache() {
+        return tableCache;
+    }
+
+    /**
+     * Sets the on-disk cache used to load and save tables.
+     *
+     * @param tableCache Cache, or null to not persist tables.
+     */
+    public void setTableCache(EphemerisTableCache tableCache) {
+        this.tableCache = tableCache;
+    }
+
+    /**
+     * Returns the pool of SwissEph instances, or null if the service
+     * calculates with a single instance.
+     */
+    public SwissEphPool getSwissEphPool() {
+        return swissEphPool;
+    }
+
+    /**
+     * Returns the service that samples geocentric and heliocentric
+     * positions together, or null if the service calculates with a
+     * single instance.
+     */
+    public PositionService getPositionService() {
+        return positionService;
+    }
+
+    /**
+     * Returns the default number of days between samples for a planet.
+     * Faster moving bodies get a smaller step.
+     *
+     * @param planetId Swiss Ephemeris planet ID.
+     * @return double Step in days.
+     */
+    public static double getDefaultStepDays(int planetId) {
+        switch (planetId) {
+            case SweConst.SE_MOON:
+            case SweConst.SE_TRUE_NODE:
+            case SweConst.SE_OSCU_APOG:
+            case SweConst.SE_INTP_APOG:
+            case SweConst.SE_INTP_PERG:
+                return 0.25;
+            case SweConst.SE_MERCURY:
+            case SweConst.SE_VENUS:
+            case SweConst.SE_SUN:
+            case SweConst.SE_EARTH:
+            case SweConst.SE_MARS:
+                return 1.0;
+            default:
+                return 2.0;
+        }
+    }
+
+    /**
+     * Returns a table for the given planet selection covering
+     * at least [startJd, endJd].
+     *
+     * @param planetSelection Planet and centricity.
+     * @param startJd Start of the range needed.
+     * @param endJd End of the range needed.
+     * @return EphemerisTable Table covering the range.
+     */
+    public EphemerisTable getTable(PlanetSelection planetSelection,
+                                   double startJd,
+                                   double endJd) {
+        int planetId = Ephemeris.getPlanetIdForName(planetSelection.getPlanetName());
+        return getTable(planetId, planetSelection.getPlanetCentricity(),
+                startJd, endJd);
+    }
+
+    /**
+     * Returns a table for the given planet covering at least
+     * [startJd, endJd], building or extending it if needed.
+     *
+     * @param planetId Swiss Ephemeris planet ID.
+     * @param centricity Geocentric or heliocentric.
+     * @param startJd Start of the range needed.
+     * @param endJd End of the range needed.
+     * @return EphemerisTable Table covering the range.
+     */
+    public EphemerisTable getTable(int planetId,
+                                   PlanetSelection.Centricity centricity,
+                                   double startJd,
+                                   double endJd) {
+        if (endJd < startJd) {
+            throw new IllegalArgumentException(
+                    "endJd " + endJd + " is before startJd " + startJd + ".");
+        }
+
+        TableKey key = new TableKey(planetId, centricity);
+
+        // Most of the time the table is already there.
+        EphemerisTable table = tables.get(key);
+        if (table != null && table.covers(startJd, endJd)) {
+            return table;
+        }
+
+        Object lock = (singleInstanceLock != null) ?
+                singleInstanceLock :
+                buildLocks.computeIfAbsent(key, k -> new Object());
+        synchronized (lock) {
+            return buildTable(key, startJd, endJd);
+        }
+    }
+
+    /**
+     * Tells the service which planets are about to be asked for, so
+     * that the ones wanted both geocentric and heliocentric have their
+     * tables sampled together.  getTables() does this itself; callers
+     * that get their tables one at a time should call it first.
+     *
+     * @param planetSelections Planets and centricities in use.
+     */
+    public void registerPlanets(Collection<PlanetSelection> planetSelections) {
+        Set<TableKey> keys = new HashSet<>();
+        for (PlanetSelection ps : planetSelections) {
+            int planetId = Ephemeris.getPlanetIdForName(ps.getPlanetName());
+            if (planetId != -9999) {
+                keys.add(new TableKey(planetId, ps.getPlanetCentricity()));
+            }
+        }
+
+        for (TableKey key : keys) {
+            if (key.centricity == PlanetSelection.Centricity.GEOCENTRIC &&
+                    keys.contains(new TableKey(key.planetId,
+                            PlanetSelection.Centricity.HELIOCENTRIC))) {
+                pairedPlanetIds.add(key.planetId);
+            }
+        }
+    }
+
+    /**
+     * Returns tables for many planets covering at least
+     * [startJd, endJd], building the missing ones in parallel.
+     * Planets whose names have no Swiss Ephemeris planet ID are
+     * left out, and planets that appear more than once (for example
+     * enabled and disabled) share a table.
+     *
+     * @param planetSelections Planets and centricities.
+     * @param startJd Start of the range needed.
+     * @param endJd End of the range needed.
+     * @return Map<PlanetSelection, EphemerisTable> Table for each
+     *         planet, in the order given.
+     */
+    public Map<PlanetSelection, EphemerisTable> getTables(Collection<PlanetSelection> planetSelections,
+                                                          double startJd,
+                                                          double endJd) {
+        long startTime = System.nanoTime();
+
+        List<TableKey> keys = planetSelections.stream()
+                .map(ps -> new TableKey(Ephemeris.getPlanetIdForName(ps.getPlanetName()),
+                        ps.getPlanetCentricity()))
+                .filter(key -> key.planetId != -9999)
+                .distinct()
+                .collect(Collectors.toList());
+
+        registerPlanets(planetSelections);
+
+        Map<TableKey, EphemerisTable> built = new ConcurrentHashMap<>();
+        keys.parallelStream().forEach(key ->
+                built.put(key, getTable(key.planetId, key.centricity, startJd, endJd)));
+
+        // Return value.
+        Map<PlanetSelection, EphemerisTable> rv = new LinkedHashMap<>();
+
+        for (PlanetSelection ps : planetSelections) {
+            EphemerisTable table = built.get(new TableKey(
+                    Ephemeris.getPlanetIdForName(ps.getPlanetName()),
+                    ps.getPlanetCentricity()));
+            if (table != null) {
+                rv.put(ps, table);
+            }
+        }
+
+        logger.debug("Got " + keys.size() + " tables in " +
+                (System.nanoTime() - startTime) / 1000000 + " ms.");
+
+        return rv;
+    }
+
+    /**
+     * Builds or extends the table for a key, with its build lock held.
+     */
+    private EphemerisTable buildTable(TableKey key, double startJd, double endJd) {
+        int planetId = key.planetId;
+        PlanetSelection.Centricity centricity = key.centricity;
+        EphemerisTableCache tableCache = this.tableCache;
+
+        // Another thread may have built it while this one waited.
+        EphemerisTable table = tables.get(key);
+        PositionSampler sampler = createSampler(planetId, centricity);
+
+        // A table sampled another way, for example before the planet
+        // was paired, is rebuilt rather than extended.
+        if (table != null && table.getSamplingMethod() != sampler.getMethod()) {
+            table = null;
+        }
+
+        if (table == null && tableCache != null) {
+            table = loadFromCache(tableCache, planetId, centricity, sampler.getMethod());
+            if (table != null) {
+                tables.put(key, table);
+            }
+        }
+
+        if (table != null && table.covers(startJd, endJd)) {
+            return table;
+        }
+
+        double paddedStart = startJd - RANGE_MARGIN_DAYS;
+        double paddedEnd = endJd + RANGE_MARGIN_DAYS;
+
+        if (sampler.getMethod() == PositionSampler.Method.BARYCENTRIC &&
+                !agreesWithDirectSampling(sampler, key, paddedStart, paddedEnd)) {
+            directOnlyKeys.add(key);
+            sampler = createSampler(planetId, centricity);
+            table = null;
+        }
+
+        long startTime = System.nanoTime();
+
+        if (table != null) {
+            table = table.extendTo(sampler, paddedStart, paddedEnd);
+        }
+        else {
+            table = buildWithinTolerance(sampler, planetId, centricity,
+                    paddedStart, paddedEnd);
+        }
+
+        logger.debug("Built " + table + " in " +
+                (System.nanoTime() - startTime) / 1000000 + " ms.");
+
+        tables.put(key, table);
+
+        if (tableCache != null) {
+            tableCache.save(table);
+        }
+
+        return table;
+    }
+
+    /**
+     * Loads a table from the on-disk cache, if there is one
+     * accurate enough.
+     */
+    private EphemerisTable loadFromCache(EphemerisTableCache tableCache,
+                                         int planetId,
+                                         PlanetSelection.Centricity centricity,
+                                         PositionSampler.Method samplingMethod) {
+        long startTime = System.nanoTime();
+
+        EphemerisTable table = tableCache.load(planetId, centricity,
+                samplingMethod, errorToleranceDegrees);
+
+        if (table != null) {
+            logger.debug("Loaded " + table + " from cache in " +
+                    (System.nanoTime() - startTime) / 1000000 + " ms.");
+        }
+
+        return table;
+    }
+
+    /**
+     * Returns the table for the given planet if one has already
+     * been built, without building anything.
+     *
+     * @return EphemerisTable Table, or null if there is none.
+     */
+    public EphemerisTable getExistingTable(int planetId,
+                                           PlanetSelection.Centricity centricity) {
+        return tables.get(new TableKey(planetId, centricity));
+    }
+
+    /**
+     * Builds a table, halving the step until the measured
+     * interpolation error is within the tolerance.
+     */
+    private EphemerisTable buildWithinTolerance(PositionSampler sampler,
+                                                int planetId,
+                                                PlanetSelection.Centricity centricity,
+                                                double startJd,
+                                                double endJd) {
+        double step = getDefaultStepDays(planetId);
+
+        EphemerisTable table = EphemerisTable.build(sampler, planetId,
+                centricity, startJd, endJd, step);
+
+        while (table.getMaxErrorDegrees() > errorToleranceDegrees &&
+                step / 2.0 >= MIN_STEP_DAYS) {
+            step /= 2.0;
+            logger.debug("Interpolation error " + table.getMaxErrorDegrees() +
+                    " for planet " + planetId + " is above tolerance.  " +
+                    "Rebuilding with step " + step + " days.");
+            table = EphemerisTable.build(sampler, planetId, centricity,
+                    startJd, endJd, step);
+        }
+
+        if (table.getMaxErrorDegrees() > errorToleranceDegrees) {
+            logger.warn("Could not get interpolation error for planet " +
+                    planetId + " below " + errorToleranceDegrees +
+                    " degrees.  Measured error is " +
+                    table.getMaxErrorDegrees() + " degrees.");
+        }
+
+        return table;
+    }
+
+    /**
+     * Creates the sampler used to calculate positions for a planet.
+     */
+    protected PositionSampler createSampler(int planetId,
+                                            PlanetSelection.Centricity centricity) {
+        if (positionService != null && isPaired(planetId) &&
+                PositionService.supports(planetId, centricity) &&
+                !directOnlyKeys.contains(new TableKey(planetId, centricity))) {
+            return positionService.createSampler(planetId, centricity);
+        }
+        return createDirectSampler(planetId, centricity);
+    }
+
+    /**
+     * Creates a sampler that makes one Swiss Ephemeris call per position.
+     */
+    private PositionSampler createDirectSampler(int planetId,
+                                                PlanetSelection.Centricity centricity) {
+        if (swissEphPool != null) {
+            return swissEphPool.createSampler(planetId, centricity);
+        }
+        return new SwissEphSampler(swissEph, planetId, centricity);
+    }
+
+    /**
+     * Returns true if the given sampler's positions are within the error
+     * tolerance of direct sampling at NUM_VALIDATION_POINTS times spread
+     * over [startJd, endJd].
+     */
+    private boolean agreesWithDirectSampling(PositionSampler sampler,
+                                             TableKey key,
+                                             double startJd,
+                                             double endJd) {
+        PositionSampler direct = createDirectSampler(key.planetId, key.centricity);
+        double[] expected = new double[2];
+        double[] actual = new double[2];
+        double maxDifference = 0.0;
+
+        for (int i = 0; i < NUM_VALIDATION_POINTS; i++) {
+            double jd = startJd + (endJd - startJd) * i / (NUM_VALIDATION_POINTS - 1);
+            direct.sample(jd, expected);
+            sampler.sample(jd, actual);
+            maxDifference = Math.max(maxDifference,
+                    Math.abs(EphemerisTable.normalizeDelta(actual[0] - expected[0])));
+        }
+
+        if (maxDifference > errorToleranceDegrees) {
+            logger.warn("Barycentric positions of planet " + key.planetId +
+                    " " + key.centricity + " differ from direct sampling by " +
+                    maxDifference + " degrees, more than the tolerance of " +
+                    errorToleranceDegrees + ".  Sampling it directly.");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if a planet is sampled through the positionService:
+     * if both its tables were asked for, or if it is the Sun or the
+     * Earth and any planet was.
+     */
+    private boolean isPaired(int planetId) {
+        if (planetId == SweConst.SE_SUN || planetId == SweConst.SE_EARTH) {
+            return !pairedPlanetIds.isEmpty();
+        }
+        return pairedPlanetIds.contains(planetId);
+    }
+
+    /**
+     * Key identifying a table.
+     */
+    static final class TableKey {
+        final int planetId;
+        final PlanetSelection.Centricity centricity;
+
+        TableKey(int planetId, PlanetSelection.Centricity centricity) {
+            this.planetId = planetId;
+            this.centricity = centricity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            TableKey that = (TableKey) o;
+
+            if (planetId != that.planetId) return false;
+            if (centricity != that.centricity) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * planetId + centricity.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "TableKey{" +
+                    "planetId=" + planetId +
+                    ", centricity=" + centricity +
+                    '}';
+        }
+    }
+}
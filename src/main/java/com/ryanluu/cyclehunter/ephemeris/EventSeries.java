@@ -0,0 +1,205 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import java.util.Arrays;
+
+/**
+ * Times of one kind of planetary event, such as the sign ingresses of
+ * a planet, sorted by time and held in primitive arrays so they can be
+ * searched with a binary search.
+ *
+ * Each event has a value and flags whose meaning depends on the kind
+ * of event (see PlanetaryEventIndex):
+ *
+ *     Ingress:  value is the sign boundary crossed, in degrees
+ *               (0, 30, ... 330), flags is FLAG_REVERSE if the planet
+ *               was moving backwards across it.
+ *     Station:  value is the longitude of the station, flags is
+ *               FLAG_REVERSE if the planet turns retrograde there, or
+ *               0 if it turns direct.
+ *     Aspect:   value is the separation of the two planets, in degrees
+ *               (for example 90 or 270 for a square), flags is
+ *               FLAG_REVERSE if the separation is shrinking.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public final class EventSeries {
+
+    /**
+     * Flag for an event that happens while moving backwards.
+     */
+    public static final byte FLAG_REVERSE = 1;
+
+    public static final EventSeries EMPTY =
+            new EventSeries(new double[0], new double[0], new byte[0]);
+
+    private final double[] jd;
+    private final double[] value;
+    private final byte[] flags;
+
+    private EventSeries(double[] jd, double[] value, byte[] flags) {
+        this.jd = jd;
+        this.value = value;
+        this.flags = flags;
+    }
+
+    public int size() {
+        return jd.length;
+    }
+
+    public boolean isEmpty() {
+        return jd.length == 0;
+    }
+
+    public double getJd(int index) {
+        return jd[index];
+    }
+
+    public double getValue(int index) {
+        return value[index];
+    }
+
+    public byte getFlags(int index) {
+        return flags[index];
+    }
+
+    public boolean isReverse(int index) {
+        return (flags[index] & FLAG_REVERSE) != 0;
+    }
+
+    /**
+     * Finds the last event at or before the given time.
+     *
+     * @param t Julian Day to search for.
+     * @return int Index of the event, or -1 if there is none.
+     */
+    public int floorIndex(double t) {
+        int low = 0;
+        int high = jd.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (jd[mid] <= t) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        return high;
+    }
+
+    /**
+     * Finds the first event at or after the given time.
+     *
+     * @param t Julian Day to search for.
+     * @return int Index of the event, or size() if there is none.
+     */
+    public int ceilingIndex(double t) {
+        int low = 0;
+        int high = jd.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (jd[mid] < t) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Finds the last event before the given time with the given value,
+     * for example the last time a planet crossed 0 degrees Aries.
+     *
+     * @param t Julian Day to search back from (exclusive).
+     * @param value Value of the event, in degrees.
+     * @return int Index of the event, or -1 if there is none.
+     */
+    public int lastIndexBefore(double t, double value) {
+        for (int i = ceilingIndex(t) - 1; i >= 0; i--) {
+            if (this.value[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the times of the events in [fromJd, toJd] to an array.
+     */
+    public double[] getJdRange(double fromJd, double toJd) {
+        int from = ceilingIndex(fromJd);
+        int to = floorIndex(toJd) + 1;
+        return Arrays.copyOfRange(jd, from, Math.max(from, to));
+    }
+
+    public long getMemoryUsageBytes() {
+        return jd.length * (8L + 8L + 1L);
+    }
+
+    @Override
+    public String toString() {
+        return "EventSeries{size=" + jd.length + "}";
+    }
+
+    /**
+     * Collects events in any order and sorts them into an EventSeries.
+     * Not thread-safe.
+     */
+    static final class Builder {
+
+        private double[] jd = new double[16];
+        private double[] value = new double[16];
+        private byte[] flags = new byte[16];
+        private int size = 0;
+        private boolean sorted = true;
+
+        void add(double t, double v, byte f) {
+            if (size == jd.length) {
+                int capacity = size * 2;
+                jd = Arrays.copyOf(jd, capacity);
+                value = Arrays.copyOf(value, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+            }
+            if (size > 0 && t < jd[size - 1]) {
+                sorted = false;
+            }
+            jd[size] = t;
+            value[size] = v;
+            flags[size] = f;
+            size++;
+        }
+
+        EventSeries build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            if (sorted) {
+                return new EventSeries(Arrays.copyOf(jd, size),
+                        Arrays.copyOf(value, size), Arrays.copyOf(flags, size));
+            }
+
+            // Sort the event indexes by time, then gather.
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(jd[a], jd[b]));
+
+            double[] sortedJd = new double[size];
+            double[] sortedValue = new double[size];
+            byte[] sortedFlags = new byte[size];
+            for (int i = 0; i < size; i++) {
+                sortedJd[i] = jd[order[i]];
+                sortedValue[i] = value[order[i]];
+                sortedFlags[i] = flags[order[i]];
+            }
+            return new EventSeries(sortedJd, sortedValue, sortedFlags);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import java.util.Arrays;
+
+/**
+ * Spans of time during which two planets are within orb of an aspect,
+ * sorted by time.  The spans of one aspect do not overlap, so both
+ * their starts and their ends are in order and can be searched with a
+ * binary search.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public final class OrbWindows {
+
+    public static final OrbWindows EMPTY =
+            new OrbWindows(new double[0], new double[0], new double[0]);
+
+    private final double[] startJd;
+    private final double[] endJd;
+    private final double[] separation;
+
+    private OrbWindows(double[] startJd, double[] endJd, double[] separation) {
+        this.startJd = startJd;
+        this.endJd = endJd;
+        this.separation = separation;
+    }
+
+    public int size() {
+        return startJd.length;
+    }
+
+    public double getStartJd(int index) {
+        return startJd[index];
+    }
+
+    public double getEndJd(int index) {
+        return endJd[index];
+    }
+
+    /**
+     * Returns the exact separation of the aspect, in degrees
+     * (for example 90 or 270 for a square).
+     */
+    public double getSeparation(int index) {
+        return separation[index];
+    }
+
+    /**
+     * Finds the span holding the given time.
+     *
+     * @param t Julian Day.
+     * @return int Index of the span, or -1 if the planets are not
+     *             within orb at that time.
+     */
+    public int indexAt(double t) {
+        int low = 0;
+        int high = startJd.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (startJd[mid] <= t) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        return (high >= 0 && endJd[high] >= t) ? high : -1;
+    }
+
+    /**
+     * Returns true if the planets are within orb at the given time.
+     */
+    public boolean contains(double t) {
+        return indexAt(t) >= 0;
+    }
+
+    public long getMemoryUsageBytes() {
+        return startJd.length * 24L;
+    }
+
+    @Override
+    public String toString() {
+        return "OrbWindows{size=" + startJd.length + "}";
+    }
+
+    /**
+     * Collects spans, which must not overlap, in any order.
+     * Not thread-safe.
+     */
+    static final class Builder {
+
+        private double[] startJd = new double[16];
+        private double[] endJd = new double[16];
+        private double[] separation = new double[16];
+        private int size = 0;
+
+        void add(double start, double end, double separationDegrees) {
+            if (size == startJd.length) {
+                int capacity = size * 2;
+                startJd = Arrays.copyOf(startJd, capacity);
+                endJd = Arrays.copyOf(endJd, capacity);
+                separation = Arrays.copyOf(separation, capacity);
+            }
+            startJd[size] = start;
+            endJd[size] = end;
+            separation[size] = separationDegrees;
+            size++;
+        }
+
+        OrbWindows build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(startJd[a], startJd[b]));
+
+            double[] sortedStart = new double[size];
+            double[] sortedEnd = new double[size];
+            double[] sortedSeparation = new double[size];
+            for (int i = 0; i < size; i++) {
+                sortedStart[i] = startJd[order[i]];
+                sortedEnd[i] = endJd[order[i]];
+                sortedSeparation[i] = separation[order[i]];
+            }
+            return new OrbWindows(sortedStart, sortedEnd, sortedSeparation);
+        }
+    }
+}
@@ -0,0 +1,668 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed times of the planetary events that cycle hunting keeps
+ * asking about: when a planet entered each sign, when it stationed
+ * retrograde or direct, and when two planets made each aspect (and
+ * when they were within orb of it), over a range of dates.
+ *
+ * Finding one of these is a root finding problem.  Doing it against
+ * the Swiss Ephemeris for every query is slow, so the index finds them
+ * all once, on the Hermite curves of the EphemerisTables, and stores
+ * them as sorted primitive arrays (EventSeries and OrbWindows).  After
+ * that, a query such as "when did Mars last station" is a binary
+ * search.
+ *
+ * The events are found by stepping along each curve (a planet's
+ * unwrapped longitude, or the difference of the unwrapped longitudes
+ * of two planets) at the step of its table, and looking for a level,
+ * such as a sign boundary or an aspect angle plus a whole number of
+ * turns, between consecutive points.  The crossing is then solved for
+ * with the Illinois method.  This assumes a curve is monotonic over
+ * one step, which holds for the table steps the service picks except
+ * right at a station, where a crossing and its return within one step
+ * may be missed.  Stations are found the same way from the sign of the
+ * speed.
+ *
+ * Aspects are only indexed between planets of the same centricity.
+ * Bodies whose names have no Swiss Ephemeris planet ID are left out.
+ * Building is split by planet and by pair over the common ForkJoinPool;
+ * if the calling thread is interrupted, it stops with a
+ * CancellationException.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public class PlanetaryEventIndex {
+
+    private static final Logger logger =
+            Logger.getLogger(PlanetaryEventIndex.class);
+
+    /**
+     * Default aspect angles, in degrees: conjunction, sextile, square,
+     * trine and opposition.
+     */
+    public static final double[] DEFAULT_ASPECT_ANGLES = { 0.0, 60.0, 90.0, 120.0, 180.0 };
+
+    /**
+     * Default orb, in degrees.
+     */
+    public static final double DEFAULT_ORB_DEGREES = 1.0;
+
+    private static final double SIGN_DEGREES = 30.0;
+
+    /**
+     * Root finding stops once the curve is within this many degrees
+     * (or degrees per day, for stations) of the level, or the bracket
+     * is narrower than TOLERANCE_DAYS.
+     */
+    private static final double TOLERANCE = 1.0e-9;
+    private static final double TOLERANCE_DAYS = 1.0e-8;
+
+    private static final int MAX_ITERATIONS = 60;
+
+    private final double startJd;
+    private final double endJd;
+    private final double[] aspectAngles;
+    private final double orbDegrees;
+
+    private final List<PlanetSelection> bodies;
+
+    /**
+     * Index into bodies of each planet ID and centricity.
+     */
+    private final Map<EphemerisTableService.TableKey, Integer> bodyIndex;
+
+    private final EventSeries[] ingresses;
+    private final EventSeries[] stations;
+
+    /**
+     * Index into aspects of each pair of bodies, or -1 for pairs
+     * that are not indexed.
+     */
+    private final int[][] pairIndex;
+
+    /**
+     * Exact aspects and orb windows of each pair, by aspect angle.
+     */
+    private final EventSeries[][] aspects;
+    private final OrbWindows[][] orbWindows;
+
+    private PlanetaryEventIndex(double startJd,
+                                double endJd,
+                                double[] aspectAngles,
+                                double orbDegrees,
+                                List<PlanetSelection> bodies,
+                                Map<EphemerisTableService.TableKey, Integer> bodyIndex,
+                                EventSeries[] ingresses,
+                                EventSeries[] stations,
+                                int[][] pairIndex,
+                                EventSeries[][] aspects,
+                                OrbWindows[][] orbWindows) {
+        this.startJd = startJd;
+        this.endJd = endJd;
+        this.aspectAngles = aspectAngles;
+        this.orbDegrees = orbDegrees;
+        this.bodies = bodies;
+        this.bodyIndex = bodyIndex;
+        this.ingresses = ingresses;
+        this.stations = stations;
+        this.pairIndex = pairIndex;
+        this.aspects = aspects;
+        this.orbWindows = orbWindows;
+    }
+
+    /**
+     * Builds an index with the default aspects and orb.
+     *
+     * @see #build(EphemerisTableService, List, double, double, double[], double)
+     */
+    public static PlanetaryEventIndex build(EphemerisTableService service,
+                                            List<PlanetSelection> planetSelections,
+                                            double startJd,
+                                            double endJd) {
+        return build(service, planetSelections, startJd, endJd,
+                DEFAULT_ASPECT_ANGLES, DEFAULT_ORB_DEGREES);
+    }
+
+    /**
+     * Builds an index.
+     *
+     * @param service Service to get the planet tables from.
+     * @param planetSelections Planets to index.  Whether they are
+     *                         enabled does not matter, and repeats are
+     *                         indexed once.
+     * @param startJd Start of the range of dates.
+     * @param endJd End of the range of dates.
+     * @param aspectAngles Aspect angles, in degrees from 0 to 180.
+     *                     Each is found on both sides, so 90 finds
+     *                     separations of 90 and 270.
+     * @param orbDegrees Orb of the aspects.  It must be less than half
+     *                   the gap between the two sides of each aspect.
+     * @return PlanetaryEventIndex The new index.
+     */
+    public static PlanetaryEventIndex build(EphemerisTableService service,
+                                            List<PlanetSelection> planetSelections,
+                                            double startJd,
+                                            double endJd,
+                                            double[] aspectAngles,
+                                            double orbDegrees) {
+        if (!(endJd > startJd)) {
+            throw new IllegalArgumentException(
+                    "endJd " + endJd + " is not after startJd " + startJd + ".");
+        }
+        for (double angle : aspectAngles) {
+            if (!(angle >= 0.0 && angle <= 180.0)) {
+                throw new IllegalArgumentException(
+                        "Aspect angles must be from 0 to 180 degrees, but one was " +
+                        angle + ".");
+            }
+            double gap = Math.min(angle, 180.0 - angle);
+            if (gap > 0.0 && !(orbDegrees < gap)) {
+                throw new IllegalArgumentException("An orb of " + orbDegrees +
+                        " degrees is too wide for an aspect of " + angle + " degrees.");
+            }
+        }
+        if (!(orbDegrees >= 0.0 && orbDegrees < 90.0)) {
+            throw new IllegalArgumentException(
+                    "Orb must be from 0 to 90 degrees, but was " + orbDegrees + ".");
+        }
+
+        long startTime = System.nanoTime();
+        final Thread caller = Thread.currentThread();
+
+        // Bodies that have planet IDs, without repeats.
+        List<PlanetSelection> bodies = new ArrayList<>();
+        Map<EphemerisTableService.TableKey, Integer> bodyIndex = new HashMap<>();
+        List<EphemerisTable> tables = new ArrayList<>();
+        for (PlanetSelection ps : planetSelections) {
+            int planetId = Ephemeris.getPlanetIdForName(ps.getPlanetName());
+            EphemerisTableService.TableKey key =
+                    new EphemerisTableService.TableKey(planetId, ps.getPlanetCentricity());
+            if (planetId == -9999 || bodyIndex.containsKey(key)) {
+                continue;
+            }
+            bodyIndex.put(key, bodies.size());
+            bodies.add(ps);
+        }
+
+        // The tables are built in parallel.
+        Map<PlanetSelection, EphemerisTable> tablesByBody =
+                service.getTables(bodies, startJd, endJd);
+        for (PlanetSelection ps : bodies) {
+            tables.add(tablesByBody.get(ps));
+        }
+
+        final int numBodies = bodies.size();
+        final double[] angles = aspectAngles.clone();
+
+        // Pairs of the same centricity.
+        int[][] pairIndex = new int[numBodies][numBodies];
+        List<int[]> pairs = new ArrayList<>();
+        for (int i = 0; i < numBodies; i++) {
+            Arrays.fill(pairIndex[i], -1);
+        }
+        for (int i = 0; i < numBodies; i++) {
+            for (int j = i + 1; j < numBodies; j++) {
+                if (bodies.get(i).getPlanetCentricity() ==
+                        bodies.get(j).getPlanetCentricity()) {
+                    pairIndex[i][j] = pairs.size();
+                    pairIndex[j][i] = pairs.size();
+                    pairs.add(new int[] { i, j });
+                }
+            }
+        }
+
+        final EventSeries[] ingresses = new EventSeries[numBodies];
+        final EventSeries[] stations = new EventSeries[numBodies];
+        final EventSeries[][] aspects = new EventSeries[pairs.size()][];
+        final OrbWindows[][] orbWindows = new OrbWindows[pairs.size()][];
+
+        // Pairs first, since there are more of them and the Moon's
+        // take the longest.
+        IntStream.range(0, pairs.size() + numBodies).parallel().forEach(task -> {
+            if (caller.isInterrupted()) {
+                throw new CancellationException("Building the event index was interrupted.");
+            }
+            if (task < pairs.size()) {
+                int[] pair = pairs.get(task);
+                EphemerisTable a = tables.get(pair[0]);
+                EphemerisTable b = tables.get(pair[1]);
+                aspects[task] = new EventSeries[angles.length];
+                orbWindows[task] = new OrbWindows[angles.length];
+                findAspects(a, b, startJd, endJd, angles, orbDegrees,
+                        aspects[task], orbWindows[task]);
+            }
+            else {
+                int body = task - pairs.size();
+                EphemerisTable table = tables.get(body);
+                ingresses[body] = findIngresses(table, startJd, endJd);
+                stations[body] = findStations(table, startJd, endJd);
+            }
+        });
+
+        PlanetaryEventIndex rv = new PlanetaryEventIndex(startJd, endJd, angles,
+                orbDegrees, Collections.unmodifiableList(bodies), bodyIndex,
+                ingresses, stations, pairIndex, aspects, orbWindows);
+
+        logger.info("Built event index of " + numBodies + " bodies and " +
+                pairs.size() + " pairs over " + Math.round(endJd - startJd) +
+                " days in " + (System.nanoTime() - startTime) / 1000000 +
+                " ms, using " + rv.getMemoryUsageBytes() / 1024 + " KB.");
+
+        return rv;
+    }
+
+    /**
+     * Finds the sign ingresses of a planet.
+     */
+    private static EventSeries findIngresses(EphemerisTable table,
+                                             double startJd,
+                                             double endJd) {
+        EventSeries.Builder builder = new EventSeries.Builder();
+        DoubleUnaryOperator longitude = table::getUnwrappedLongitude;
+
+        double step = table.getStepDays();
+        double t0 = startJd;
+        double s0 = longitude.applyAsDouble(t0);
+        while (t0 < endJd) {
+            double t1 = Math.min(t0 + step, endJd);
+            double s1 = longitude.applyAsDouble(t1);
+
+            double lo = Math.min(s0, s1);
+            for (double level = Math.floor(Math.max(s0, s1) / SIGN_DEGREES) * SIGN_DEGREES;
+                 level > lo; level -= SIGN_DEGREES) {
+                double t = solve(longitude, level, t0, t1, s0, s1);
+                builder.add(t, EphemerisTable.wrap(level),
+                        (s1 < s0) ? EventSeries.FLAG_REVERSE : 0);
+            }
+
+            t0 = t1;
+            s0 = s1;
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Finds the times a planet's speed changes sign.
+     */
+    private static EventSeries findStations(EphemerisTable table,
+                                            double startJd,
+                                            double endJd) {
+        EventSeries.Builder builder = new EventSeries.Builder();
+        DoubleUnaryOperator speed = table::getSpeed;
+
+        double step = table.getStepDays();
+        double t0 = startJd;
+        double v0 = speed.applyAsDouble(t0);
+        while (t0 < endJd) {
+            double t1 = Math.min(t0 + step, endJd);
+            double v1 = speed.applyAsDouble(t1);
+
+            if ((v0 > 0.0 && v1 <= 0.0) || (v0 < 0.0 && v1 >= 0.0)) {
+                double t = solve(speed, 0.0, t0, t1, v0, v1);
+                builder.add(t, table.getLongitude(t),
+                        (v0 > 0.0) ? EventSeries.FLAG_REVERSE : 0);
+            }
+
+            t0 = t1;
+            v0 = v1;
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Finds the exact aspects between two planets, and the spans of
+     * time they are within orb of them.
+     */
+    private static void findAspects(EphemerisTable a,
+                                    EphemerisTable b,
+                                    double startJd,
+                                    double endJd,
+                                    double[] angles,
+                                    double orbDegrees,
+                                    EventSeries[] aspectsOut,
+                                    OrbWindows[] orbWindowsOut) {
+        DoubleUnaryOperator separation =
+                t -> a.getUnwrappedLongitude(t) - b.getUnwrappedLongitude(t);
+
+        // Each angle has one or two sides, such as 90 and 270.
+        int numAngles = angles.length;
+        double[][] sides = new double[numAngles][];
+        for (int n = 0; n < numAngles; n++) {
+            double angle = angles[n];
+            sides[n] = (angle == 0.0 || angle == 180.0) ?
+                    new double[] { angle } :
+                    new double[] { angle, 360.0 - angle };
+        }
+
+        EventSeries.Builder[] exact = new EventSeries.Builder[numAngles];
+        OrbWindows.Builder[] windows = new OrbWindows.Builder[numAngles];
+
+        // Start of the orb window each side is in, or NaN if it is
+        // not in one.
+        double[][] windowStart = new double[numAngles][];
+
+        double s = separation.applyAsDouble(startJd);
+        for (int n = 0; n < numAngles; n++) {
+            exact[n] = new EventSeries.Builder();
+            windows[n] = new OrbWindows.Builder();
+            windowStart[n] = new double[sides[n].length];
+            for (int k = 0; k < sides[n].length; k++) {
+                double distance = EphemerisTable.normalizeDelta(s - sides[n][k]);
+                windowStart[n][k] = (Math.abs(distance) <= orbDegrees) ? startJd : Double.NaN;
+            }
+        }
+
+        // Orb boundaries crossed in one step, as (time, side) pairs.
+        double[] crossingTime = new double[8];
+
+        double step = Math.min(a.getStepDays(), b.getStepDays());
+        double t0 = startJd;
+        double s0 = s;
+        while (t0 < endJd) {
+            double t1 = Math.min(t0 + step, endJd);
+            double s1 = separation.applyAsDouble(t1);
+            byte flags = (s1 < s0) ? EventSeries.FLAG_REVERSE : 0;
+            double lo = Math.min(s0, s1);
+            double hi = Math.max(s0, s1);
+
+            for (int n = 0; n < numAngles; n++) {
+                for (int k = 0; k < sides[n].length; k++) {
+                    double side = sides[n][k];
+
+                    for (double level = levelAtOrBelow(hi, side); level > lo; level -= 360.0) {
+                        exact[n].add(solve(separation, level, t0, t1, s0, s1), side, flags);
+                    }
+
+                    if (orbDegrees <= 0.0) {
+                        continue;
+                    }
+
+                    // Each orb boundary crossed goes into or out of
+                    // the window, so sort them by time and toggle.
+                    int numCrossings = 0;
+                    for (int sign = -1; sign <= 1; sign += 2) {
+                        double edge = side + sign * orbDegrees;
+                        for (double level = levelAtOrBelow(hi, edge); level > lo; level -= 360.0) {
+                            if (numCrossings == crossingTime.length) {
+                                crossingTime = Arrays.copyOf(crossingTime, numCrossings * 2);
+                            }
+                            crossingTime[numCrossings++] = solve(separation, level, t0, t1, s0, s1);
+                        }
+                    }
+                    if (numCrossings == 0) {
+                        continue;
+                    }
+                    Arrays.sort(crossingTime, 0, numCrossings);
+                    for (int c = 0; c < numCrossings; c++) {
+                        if (Double.isNaN(windowStart[n][k])) {
+                            windowStart[n][k] = crossingTime[c];
+                        }
+                        else {
+                            windows[n].add(windowStart[n][k], crossingTime[c], side);
+                            windowStart[n][k] = Double.NaN;
+                        }
+                    }
+                }
+            }
+
+            t0 = t1;
+            s0 = s1;
+        }
+
+        for (int n = 0; n < numAngles; n++) {
+            for (int k = 0; k < sides[n].length; k++) {
+                if (!Double.isNaN(windowStart[n][k])) {
+                    windows[n].add(windowStart[n][k], endJd, sides[n][k]);
+                }
+            }
+            aspectsOut[n] = exact[n].build();
+            orbWindowsOut[n] = windows[n].build();
+        }
+    }
+
+    /**
+     * Returns the highest value of base + 360 * k that is at most x.
+     */
+    private static double levelAtOrBelow(double x, double base) {
+        return base + 360.0 * Math.floor((x - base) / 360.0);
+    }
+
+    /**
+     * Solves f(t) = level for t in [t0, t1] with the Illinois method,
+     * given f(t0) = f0 and f(t1) = f1 on opposite sides of the level.
+     */
+    static double solve(DoubleUnaryOperator f,
+                        double level,
+                        double t0,
+                        double t1,
+                        double f0,
+                        double f1) {
+        double a = t0;
+        double b = t1;
+        double fa = f0 - level;
+        double fb = f1 - level;
+        if (fa == 0.0) {
+            return a;
+        }
+        if (fb == 0.0) {
+            return b;
+        }
+
+        // Which end was kept last time: -1 for a, +1 for b.
+        int kept = 0;
+        double c = b;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            c = (a * fb - b * fa) / (fb - fa);
+            double fc = f.applyAsDouble(c) - level;
+            if (Math.abs(fc) <= TOLERANCE || b - a <= TOLERANCE_DAYS) {
+                break;
+            }
+            if ((fc > 0.0) == (fb > 0.0)) {
+                b = c;
+                fb = fc;
+                if (kept == -1) {
+                    fa *= 0.5;
+                }
+                kept = -1;
+            }
+            else {
+                a = c;
+                fa = fc;
+                if (kept == 1) {
+                    fb *= 0.5;
+                }
+                kept = 1;
+            }
+        }
+
+        return c;
+    }
+
+    public double getStartJd() {
+        return startJd;
+    }
+
+    public double getEndJd() {
+        return endJd;
+    }
+
+    public double[] getAspectAngles() {
+        return aspectAngles.clone();
+    }
+
+    public double getOrbDegrees() {
+        return orbDegrees;
+    }
+
+    /**
+     * Returns the bodies indexed.
+     */
+    public List<PlanetSelection> getBodies() {
+        return bodies;
+    }
+
+    /**
+     * Returns true if the planet is in the index.
+     */
+    public boolean contains(PlanetSelection planetSelection) {
+        return getBodyIndex(planetSelection) >= 0;
+    }
+
+    private int getBodyIndex(PlanetSelection planetSelection) {
+        int planetId = Ephemeris.getPlanetIdForName(planetSelection.getPlanetName());
+        Integer rv = bodyIndex.get(new EphemerisTableService.TableKey(planetId,
+                planetSelection.getPlanetCentricity()));
+        return (rv == null) ? -1 : rv;
+    }
+
+    private int requireBodyIndex(PlanetSelection planetSelection) {
+        int rv = getBodyIndex(planetSelection);
+        if (rv < 0) {
+            throw new IllegalArgumentException(
+                    planetSelection.getDisplayName() + " is not in the event index.");
+        }
+        return rv;
+    }
+
+    private int getAngleIndex(double angle) {
+        for (int n = 0; n < aspectAngles.length; n++) {
+            if (aspectAngles[n] == angle) {
+                return n;
+            }
+        }
+        throw new IllegalArgumentException(
+                "Aspects of " + angle + " degrees are not in the event index.");
+    }
+
+    private int requirePairIndex(PlanetSelection a, PlanetSelection b) {
+        int rv = pairIndex[requireBodyIndex(a)][requireBodyIndex(b)];
+        if (rv < 0) {
+            throw new IllegalArgumentException("Aspects between " + a.getDisplayName() +
+                    " and " + b.getDisplayName() + " are not in the event index.");
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the sign ingresses of a planet.
+     */
+    public EventSeries getIngresses(PlanetSelection planetSelection) {
+        return ingresses[requireBodyIndex(planetSelection)];
+    }
+
+    /**
+     * Returns the retrograde and direct stations of a planet.
+     */
+    public EventSeries getStations(PlanetSelection planetSelection) {
+        return stations[requireBodyIndex(planetSelection)];
+    }
+
+    /**
+     * Returns the exact aspects of an angle between two planets.
+     * The separations of the events are of a from b.
+     */
+    public EventSeries getAspects(PlanetSelection a, PlanetSelection b, double angle) {
+        int pair = requirePairIndex(a, b);
+        return aspects[pair][getAngleIndex(angle)];
+    }
+
+    /**
+     * Returns the spans of time two planets are within orb
+     * of an aspect.
+     */
+    public OrbWindows getOrbWindows(PlanetSelection a, PlanetSelection b, double angle) {
+        int pair = requirePairIndex(a, b);
+        return orbWindows[pair][getAngleIndex(angle)];
+    }
+
+    /**
+     * Returns the time of the last station of a planet before a time,
+     * or NaN if there is none in the index.
+     */
+    public double getLastStationJd(PlanetSelection planetSelection, double jd) {
+        EventSeries events = getStations(planetSelection);
+        int index = events.ceilingIndex(jd) - 1;
+        return (index >= 0) ? events.getJd(index) : Double.NaN;
+    }
+
+    /**
+     * Returns the time a planet last crossed a sign boundary before
+     * a time, or NaN if there is none in the index.
+     *
+     * @param planetSelection Planet.
+     * @param boundaryDegrees Sign boundary: 0 for 0 Aries, 30 for
+     *                        0 Taurus, and so on.
+     * @param jd Time to look back from.
+     */
+    public double getLastIngressJd(PlanetSelection planetSelection,
+                                   double boundaryDegrees,
+                                   double jd) {
+        EventSeries events = getIngresses(planetSelection);
+        int index = events.lastIndexBefore(jd, boundaryDegrees);
+        return (index >= 0) ? events.getJd(index) : Double.NaN;
+    }
+
+    /**
+     * Returns the time of the last exact aspect between two planets
+     * before a time, on either side, or NaN if there is none in the
+     * index.
+     */
+    public double getLastAspectJd(PlanetSelection a,
+                                  PlanetSelection b,
+                                  double angle,
+                                  double jd) {
+        EventSeries events = getAspects(a, b, angle);
+        int index = events.ceilingIndex(jd) - 1;
+        return (index >= 0) ? events.getJd(index) : Double.NaN;
+    }
+
+    /**
+     * Returns the number of bytes held by the event arrays.
+     */
+    public long getMemoryUsageBytes() {
+        // Return value.
+        long rv = 0;
+
+        for (int i = 0; i < ingresses.length; i++) {
+            rv += ingresses[i].getMemoryUsageBytes();
+            rv += stations[i].getMemoryUsageBytes();
+        }
+        for (int p = 0; p < aspects.length; p++) {
+            for (int n = 0; n < aspectAngles.length; n++) {
+                rv += aspects[p][n].getMemoryUsageBytes();
+                rv += orbWindows[p][n].getMemoryUsageBytes();
+            }
+        }
+
+        return rv;
+    }
+
+    @Override
+    public String toString() {
+        return "PlanetaryEventIndex{" +
+                "startJd=" + startJd +
+                ", endJd=" + endJd +
+                ", bodies=" + bodies.size() +
+                ", pairs=" + aspects.length +
+                ", aspectAngles=" + Arrays.toString(aspectAngles) +
+                ", orbDegrees=" + orbDegrees +
+                '}';
+    }
+}
@@ -0,0 +1,83 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+/**
+ * Something that can calculate the longitude and longitude speed
+ * of one body at a given time.  EphemerisTable uses a PositionSampler
+ * to fill in its sample points.
+ *
+ * Samplers are not assumed to be thread-safe.  One that is can say so
+ * with isThreadSafe(), and then EphemerisTable samples with it from
+ * several threads at once.
+ */
+public interface PositionSampler {
+
+    /**
+     * How a sampler arrives at its positions.  Tables sampled one way
+     * are never extended with samples taken the other way.
+     */
+    enum Method {
+        /**
+         * One Swiss Ephemeris call (swe_calc) per position.
+         */
+        DIRECT,
+
+        /**
+         * From barycentric states, through a PositionService.
+         */
+        BARYCENTRIC
+    }
+
+    /**
+     * Calculates the position at the given time.
+     *
+     * @param jd Julian Day (UT).
+     * @param out Array of at least two elements.  On return, out[0]
+     *            holds the longitude in degrees, in the range [0, 360),
+     *            and out[1] holds the longitude speed in degrees per day.
+     */
+    void sample(double jd, double[] out);
+
+    /**
+     * Calculates the positions at evenly spaced times,
+     * startJd + i * stepDays for i in [from, to).  Samplers that can do
+     * a whole grid more cheaply than one time at a time (see
+     * PositionService) override this.
+     *
+     * @param startJd Julian Day (UT) of i = 0.
+     * @param stepDays Days between times.
+     * @param from First index (inclusive).
+     * @param to Last index (exclusive).
+     * @param longitude Array to put the longitudes in, in the range
+     *                  [0, 360), at index i.
+     * @param speed Array to put the longitude speeds in, in degrees
+     *              per day, at index i.
+     */
+    default void sampleGrid(double startJd,
+                            double stepDays,
+                            int from,
+                            int to,
+                            double[] longitude,
+                            double[] speed) {
+        double[] out = new double[2];
+        for (int i = from; i < to; i++) {
+            sample(startJd + i * stepDays, out);
+            longitude[i] = out[0];
+            speed[i] = out[1];
+        }
+    }
+
+    /**
+     * Returns how this sampler calculates its positions.
+     */
+    default Method getMethod() {
+        return Method.DIRECT;
+    }
+
+    /**
+     * Returns true if sample() may be called from several threads
+     * at once.
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+}
@@ -0,0 +1,700 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import org.apache.log4j.Logger;
+import swisseph.SweConst;
+import swisseph.SwissEph;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calculates the geocentric and heliocentric longitudes of a planet
+ * together, from one barycentric state of the planet per time.
+ *
+ * Calculating a geocentric and a heliocentric position separately
+ * costs two ephemeris calls per time.  This service instead asks for
+ * the barycentric position and velocity of the planet, and of the Sun
+ * and the Earth, and takes differences:
+ *
+ *     heliocentric = planet - Sun
+ *     geocentric   = planet - Earth
+ *
+ * The states of the Sun and the Earth are shared by every planet
+ * sampled at the same times, so once several planets are being
+ * sampled, each planet costs about one call per time for both
+ * centricities instead of two.  The Sun's geocentric and the Earth's
+ * heliocentric positions come from the shared states alone.
+ *
+ * Times are handled in chunks of CHUNK_SIZE points of an evenly
+ * spaced grid, aligned to whole multiples of the grid step, so that
+ * tables built over different ranges still share chunks where they
+ * overlap.  The longitudes and speeds of every chunk calculated are
+ * kept, for both centricities, in a cache keyed by planet, centricity
+ * and grid step, so whichever centricity is asked for second is served
+ * from the cache.  The least recently used chunks are dropped when the
+ * cache grows past its size limit.
+ *
+ * The barycentric states are geometric, so the corrections the Swiss
+ * Ephemeris makes for an apparent position are made here: the
+ * light-time of the planet, and for geocentric positions the
+ * deflection of light by the Sun and the annual aberration, with the
+ * same formulas the Swiss Ephemeris uses.  The light-time is taken
+ * from the geometric distance rather than iterated, which moves the
+ * positions by a few milli-arc-seconds at most.  Nodes and apogees
+ * have no barycentric state, and supports() returns false for them.
+ *
+ * The service is thread-safe.
+ */
+public class PositionService {
+
+    private static final Logger logger = Logger.getLogger(PositionService.class);
+
+    /**
+     * Number of grid points calculated together and cached as a unit.
+     */
+    public static final int CHUNK_SIZE = 256;
+
+    /**
+     * Default largest size of the cache, in bytes.
+     */
+    public static final long DEFAULT_MAX_CACHE_BYTES = 64L << 20;
+
+    /**
+     * Speed of light, in AU per day.
+     */
+    static final double SPEED_OF_LIGHT_AU_PER_DAY = 173.1446326846693;
+
+    /**
+     * Twice the gravitational radius of the Sun (2 G M / c^2), in AU,
+     * which sets the size of the deflection of light.
+     */
+    private static final double SUN_DEFLECTION_AU = 1.9741257e-8;
+
+    /**
+     * Resolution of the phase of a grid (the offset of its points from
+     * whole multiples of the step), as a fraction of the step.
+     */
+    private static final double PHASE_SCALE = 4294967296.0;
+
+    /**
+     * Number of locks that chunk calculations are spread over.
+     */
+    private static final int NUM_LOCK_STRIPES = 64;
+
+    // Kinds of cached chunk.
+    private static final int KIND_STATE = 0;
+    private static final int KIND_GEOCENTRIC = 1;
+    private static final int KIND_HELIOCENTRIC = 2;
+
+    /**
+     * Source of barycentric states.
+     */
+    public interface StateSource {
+
+        /**
+         * Calculates the geometric barycentric state of a body, in
+         * ecliptic coordinates of date.
+         *
+         * @param bodyId Swiss Ephemeris planet ID.
+         * @param jd Julian Day (UT).
+         * @param out Array of at least 6 to put x, y, z (AU) and their
+         *            speeds (AU per day) in.
+         */
+        void sampleState(int bodyId, double jd, double[] out);
+    }
+
+    private final StateSource stateSource;
+
+    /**
+     * Cached chunks, least recently used first.  Guarded by itself.
+     */
+    private final LinkedHashMap<ChunkKey, double[]> cache =
+            new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * Size of the arrays in the cache, in bytes.  Guarded by cache.
+     */
+    private long cacheBytes = 0;
+
+    private volatile long maxCacheBytes = DEFAULT_MAX_CACHE_BYTES;
+
+    /**
+     * Locks held while calculating a chunk, so two threads do not
+     * calculate the same one.  A thread holding a longitude lock may
+     * take a state lock, never the other way round.
+     */
+    private final Object[] longitudeLocks = new Object[NUM_LOCK_STRIPES];
+    private final Object[] stateLocks = new Object[NUM_LOCK_STRIPES];
+
+    /**
+     * Number of barycentric states calculated so far.
+     */
+    private final AtomicLong numStatesCalculated = new AtomicLong();
+
+    /**
+     * Creates a service that calculates states with the per-thread
+     * SwissEph instances of a pool.
+     *
+     * @param swissEphPool Pool to calculate with.
+     */
+    public PositionService(SwissEphPool swissEphPool) {
+        this(new SwissEphStateSource(swissEphPool));
+    }
+
+    /**
+     * Creates a service that takes states from the given source,
+     * which must be thread-safe.
+     *
+     * @param stateSource Source of barycentric states.
+     */
+    public PositionService(StateSource stateSource) {
+        this.stateSource = stateSource;
+        for (int i = 0; i < NUM_LOCK_STRIPES; i++) {
+            longitudeLocks[i] = new Object();
+            stateLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns true if the service can calculate positions for the
+     * given planet and centricity.  Bodies without a barycentric
+     * state (nodes and apogees), the heliocentric Sun and the
+     * geocentric Earth are not supported.
+     */
+    public static boolean supports(int planetId, PlanetSelection.Centricity centricity) {
+        boolean heliocentric = (centricity == PlanetSelection.Centricity.HELIOCENTRIC);
+
+        switch (planetId) {
+            case SweConst.SE_SUN:
+                return !heliocentric;
+            case SweConst.SE_EARTH:
+                return heliocentric;
+            case SweConst.SE_MOON:
+            case SweConst.SE_MERCURY:
+            case SweConst.SE_VENUS:
+            case SweConst.SE_MARS:
+            case SweConst.SE_JUPITER:
+            case SweConst.SE_SATURN:
+            case SweConst.SE_URANUS:
+            case SweConst.SE_NEPTUNE:
+            case SweConst.SE_PLUTO:
+            case SweConst.SE_CHIRON:
+            case SweConst.SE_PHOLUS:
+            case SweConst.SE_CERES:
+            case SweConst.SE_PALLAS:
+            case SweConst.SE_JUNO:
+            case SweConst.SE_VESTA:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public long getMaxCacheBytes() {
+        return maxCacheBytes;
+    }
+
+    public void setMaxCacheBytes(long maxCacheBytes) {
+        this.maxCacheBytes = maxCacheBytes;
+        synchronized (cache) {
+            evict();
+        }
+    }
+
+    public long getCacheSizeBytes() {
+        synchronized (cache) {
+            return cacheBytes;
+        }
+    }
+
+    /**
+     * Returns the number of barycentric states calculated so far,
+     * each of which is one ephemeris call.
+     */
+    public long getNumStatesCalculated() {
+        return numStatesCalculated.get();
+    }
+
+    /**
+     * Drops everything in the cache.
+     */
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    /**
+     * Creates a thread-safe sampler for a planet that calculates
+     * through this service.
+     *
+     * @param planetId Swiss Ephemeris planet ID.
+     * @param centricity Geocentric or heliocentric.
+     * @return PositionSampler New sampler.
+     * @throws IllegalArgumentException If supports() is false for the
+     *                                  planet and centricity.
+     */
+    public PositionSampler createSampler(int planetId,
+                                         PlanetSelection.Centricity centricity) {
+        if (!supports(planetId, centricity)) {
+            throw new IllegalArgumentException("Planet " + planetId +
+                    " is not supported " + centricity + ".");
+        }
+
+        return new PositionSampler() {
+            @Override
+            public void sample(double jd, double[] out) {
+                PositionService.this.sample(planetId, centricity, jd, out);
+            }
+
+            @Override
+            public void sampleGrid(double startJd,
+                                   double stepDays,
+                                   int from,
+                                   int to,
+                                   double[] longitude,
+                                   double[] speed) {
+                PositionService.this.sampleGrid(planetId, centricity,
+                        startJd, stepDays, from, to, longitude, speed);
+            }
+
+            @Override
+            public Method getMethod() {
+                return Method.BARYCENTRIC;
+            }
+
+            @Override
+            public boolean isThreadSafe() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Calculates the position of a planet at a single time.  This
+     * does not use the cache.
+     *
+     * @param planetId Swiss Ephemeris planet ID.
+     * @param centricity Geocentric or heliocentric.
+     * @param jd Julian Day (UT).
+     * @param out Array to put the longitude in degrees, in the range
+     *            [0, 360), at index 0, and the longitude speed in
+     *            degrees per day at index 1.
+     */
+    public void sample(int planetId,
+                       PlanetSelection.Centricity centricity,
+                       double jd,
+                       double[] out) {
+        boolean geocentric = (centricity != PlanetSelection.Centricity.HELIOCENTRIC);
+        int observerId = geocentric ? SweConst.SE_EARTH : SweConst.SE_SUN;
+
+        double[] body = new double[6];
+        double[] observer = new double[6];
+        calculateState(planetId, jd, body);
+        calculateState(observerId, jd, observer);
+
+        // The Sun bends the light of everything but itself on its
+        // way to the Earth.
+        double[] sun = null;
+        if (geocentric && planetId != SweConst.SE_SUN) {
+            sun = new double[6];
+            calculateState(SweConst.SE_SUN, jd, sun);
+        }
+
+        double[] result = new double[2];
+        toLongitude(body, 0, observer, 0, sun, 0, geocentric, result, 0, 1);
+        out[0] = result[0];
+        out[1] = result[1];
+    }
+
+    /**
+     * Calculates the positions of a planet at evenly spaced times,
+     * startJd + i * stepDays for i in [from, to), sharing work with
+     * the other centricity and with other planets sampled on the
+     * same grid.
+     *
+     * @param planetId Swiss Ephemeris planet ID.
+     * @param centricity Geocentric or heliocentric.
+     * @param startJd Julian Day (UT) of i = 0.
+     * @param stepDays Days between times.
+     * @param from First index (inclusive).
+     * @param to Last index (exclusive).
+     * @param longitude Array to put the longitudes in, at index i.
+     * @param speed Array to put the longitude speeds in, at index i.
+     */
+    public void sampleGrid(int planetId,
+                           PlanetSelection.Centricity centricity,
+                           double startJd,
+                           double stepDays,
+                           int from,
+                           int to,
+                           double[] longitude,
+                           double[] speed) {
+        if (!(stepDays > 0.0)) {
+            throw new IllegalArgumentException(
+                    "stepDays must be positive: " + stepDays);
+        }
+
+        // Split startJd into whole steps and a phase, so grids that
+        // differ only by whole steps share chunks.
+        double steps = startJd / stepDays;
+        long base = (long) Math.floor(steps);
+        long phase = Math.round((steps - base) * PHASE_SCALE);
+        if (phase >= (long) PHASE_SCALE) {
+            base++;
+            phase = 0;
+        }
+
+        int kind = (centricity == PlanetSelection.Centricity.HELIOCENTRIC) ?
+                KIND_HELIOCENTRIC : KIND_GEOCENTRIC;
+        long kFrom = base + from;
+        long kTo = base + to;
+
+        for (long chunk = Math.floorDiv(kFrom, CHUNK_SIZE);
+             chunk * CHUNK_SIZE < kTo;
+             chunk++) {
+
+            ChunkKey key = new ChunkKey(planetId, kind, stepDays, phase, chunk);
+            double[] samples = getLongitudeChunk(key);
+
+            long k0 = chunk * CHUNK_SIZE;
+            long a = Math.max(kFrom, k0);
+            long b = Math.min(kTo, k0 + CHUNK_SIZE);
+            int offset = (int) (a - base);
+            int j = (int) (a - k0);
+            int n = (int) (b - a);
+            System.arraycopy(samples, j, longitude, offset, n);
+            System.arraycopy(samples, CHUNK_SIZE + j, speed, offset, n);
+        }
+    }
+
+    /**
+     * Returns a chunk of longitudes (CHUNK_SIZE of them, then their
+     * speeds), calculating it and its other centricity if it is not
+     * cached.
+     */
+    private double[] getLongitudeChunk(ChunkKey key) {
+        double[] rv = getCached(key);
+        if (rv != null) {
+            return rv;
+        }
+
+        synchronized (lockFor(longitudeLocks, key)) {
+            // Another thread may have calculated it while this one waited.
+            rv = getCached(key);
+            if (rv != null) {
+                return rv;
+            }
+
+            PlanetSelection.Centricity centricity = (key.kind == KIND_HELIOCENTRIC) ?
+                    PlanetSelection.Centricity.HELIOCENTRIC :
+                    PlanetSelection.Centricity.GEOCENTRIC;
+            if (!supports(key.bodyId, centricity)) {
+                throw new IllegalArgumentException("Planet " + key.bodyId +
+                        " is not supported " + centricity + ".");
+            }
+
+            boolean geocentric = supports(key.bodyId, PlanetSelection.Centricity.GEOCENTRIC);
+            boolean heliocentric = supports(key.bodyId, PlanetSelection.Centricity.HELIOCENTRIC);
+
+            double[] earth = getStateChunk(key.withBody(SweConst.SE_EARTH));
+            double[] sun = getStateChunk(key.withBody(SweConst.SE_SUN));
+            double[] body;
+            if (key.bodyId == SweConst.SE_SUN) {
+                body = sun;
+            }
+            else if (key.bodyId == SweConst.SE_EARTH) {
+                body = earth;
+            }
+            else {
+                body = calculateStateChunk(key);
+            }
+
+            double[] deflector = (key.bodyId == SweConst.SE_SUN) ? null : sun;
+            double[] geo = geocentric ? new double[2 * CHUNK_SIZE] : null;
+            double[] helio = heliocentric ? new double[2 * CHUNK_SIZE] : null;
+            for (int j = 0; j < CHUNK_SIZE; j++) {
+                if (geo != null) {
+                    toLongitude(body, j * 6, earth, j * 6, deflector, j * 6, true,
+                            geo, j, CHUNK_SIZE + j);
+                }
+                if (helio != null) {
+                    toLongitude(body, j * 6, sun, j * 6, null, 0, false,
+                            helio, j, CHUNK_SIZE + j);
+                }
+            }
+
+            if (geo != null) {
+                putCached(key.withKind(KIND_GEOCENTRIC), geo);
+            }
+            if (helio != null) {
+                putCached(key.withKind(KIND_HELIOCENTRIC), helio);
+            }
+
+            return (key.kind == KIND_HELIOCENTRIC) ? helio : geo;
+        }
+    }
+
+    /**
+     * Returns a chunk of barycentric states of an observer (the Sun or
+     * the Earth), 6 values per point, calculating it if it is not
+     * cached.
+     */
+    private double[] getStateChunk(ChunkKey key) {
+        double[] rv = getCached(key);
+        if (rv != null) {
+            return rv;
+        }
+
+        synchronized (lockFor(stateLocks, key)) {
+            rv = getCached(key);
+            if (rv == null) {
+                rv = calculateStateChunk(key);
+                putCached(key, rv);
+            }
+            return rv;
+        }
+    }
+
+    /**
+     * Calculates the barycentric states of a body at the points of
+     * a chunk.
+     */
+    private double[] calculateStateChunk(ChunkKey key) {
+        double[] rv = new double[6 * CHUNK_SIZE];
+        double[] state = new double[6];
+
+        double offset = key.phase / PHASE_SCALE;
+        long k0 = key.chunk * CHUNK_SIZE;
+        for (int j = 0; j < CHUNK_SIZE; j++) {
+            double jd = ((k0 + j) + offset) * key.stepDays;
+            calculateState(key.bodyId, jd, state);
+            System.arraycopy(state, 0, rv, j * 6, 6);
+        }
+
+        return rv;
+    }
+
+    private void calculateState(int bodyId, double jd, double[] out) {
+        stateSource.sampleState(bodyId, jd, out);
+        numStatesCalculated.incrementAndGet();
+    }
+
+    /**
+     * Calculates the longitude and longitude speed of a body seen from
+     * an observer, from their barycentric states.  The light-time of
+     * the body is applied.  For an apparent (geocentric) position the
+     * deflection of light by the Sun is applied as well, if the Sun's
+     * state is given, and then the annual aberration.
+     */
+    static void toLongitude(double[] body, int bodyOffset,
+                            double[] observer, int observerOffset,
+                            double[] sun, int sunOffset,
+                            boolean apparent,
+                            double[] out, int longitudeIndex, int speedIndex) {
+        double x = body[bodyOffset] - observer[observerOffset];
+        double y = body[bodyOffset + 1] - observer[observerOffset + 1];
+        double z = body[bodyOffset + 2] - observer[observerOffset + 2];
+        double bvx = body[bodyOffset + 3];
+        double bvy = body[bodyOffset + 4];
+        double ovx = observer[observerOffset + 3];
+        double ovy = observer[observerOffset + 4];
+        double ovz = observer[observerOffset + 5];
+
+        // Where the body was when the light left it.
+        double lightTime = Math.sqrt(x * x + y * y + z * z) / SPEED_OF_LIGHT_AU_PER_DAY;
+        x -= lightTime * bvx;
+        y -= lightTime * bvy;
+        z -= lightTime * body[bodyOffset + 5];
+
+        if (apparent && sun != null) {
+            // Deflection of light by the Sun, as in swi_deflect_light():
+            // u is the direction of the body from the observer, q from
+            // the Sun and e the direction of the observer from the Sun.
+            double ex = observer[observerOffset] - sun[sunOffset];
+            double ey = observer[observerOffset + 1] - sun[sunOffset + 1];
+            double ez = observer[observerOffset + 2] - sun[sunOffset + 2];
+            double qx = x + ex;
+            double qy = y + ey;
+            double qz = z + ez;
+            double ru = Math.sqrt(x * x + y * y + z * z);
+            double rq = Math.sqrt(qx * qx + qy * qy + qz * qz);
+            double re = Math.sqrt(ex * ex + ey * ey + ez * ez);
+
+            if (ru > 0.0 && rq > 0.0 && re > 0.0) {
+                double ux = x / ru;
+                double uy = y / ru;
+                double uz = z / ru;
+                qx /= rq;
+                qy /= rq;
+                qz /= rq;
+                ex /= re;
+                ey /= re;
+                ez /= re;
+                double uq = ux * qx + uy * qy + uz * qz;
+                double ue = ux * ex + uy * ey + uz * ez;
+                double qe = qx * ex + qy * ey + qz * ez;
+                double g = SUN_DEFLECTION_AU / re / (1.0 + qe);
+                x = ru * (ux + g * (uq * ex - ue * qx));
+                y = ru * (uy + g * (uq * ey - ue * qy));
+                z = ru * (uz + g * (uq * ez - ue * qz));
+            }
+        }
+
+        if (apparent) {
+            // Relativistic annual aberration, as in swi_aberr_light().
+            double ru = Math.sqrt(x * x + y * y + z * z);
+            double vx = ovx / SPEED_OF_LIGHT_AU_PER_DAY;
+            double vy = ovy / SPEED_OF_LIGHT_AU_PER_DAY;
+            double vz = ovz / SPEED_OF_LIGHT_AU_PER_DAY;
+            double v2 = vx * vx + vy * vy + vz * vz;
+            double b1 = Math.sqrt(1.0 - v2);
+            double f1 = (ru > 0.0) ? (x * vx + y * vy + z * vz) / ru : 0.0;
+            double f2 = 1.0 + f1 / (1.0 + b1);
+            x = (b1 * x + f2 * ru * vx) / (1.0 + f1);
+            y = (b1 * y + f2 * ru * vy) / (1.0 + f1);
+            z = (b1 * z + f2 * ru * vz) / (1.0 + f1);
+        }
+
+        double vx = bvx - ovx;
+        double vy = bvy - ovy;
+        double r2 = x * x + y * y;
+
+        double longitude = Math.toDegrees(Math.atan2(y, x));
+        if (longitude < 0.0) {
+            longitude += 360.0;
+        }
+        if (longitude >= 360.0) {
+            longitude -= 360.0;
+        }
+
+        out[longitudeIndex] = longitude;
+        out[speedIndex] = (r2 > 0.0) ? Math.toDegrees((x * vy - y * vx) / r2) : 0.0;
+    }
+
+    private static Object lockFor(Object[] locks, ChunkKey key) {
+        return locks[(key.hashCode() & 0x7fffffff) % NUM_LOCK_STRIPES];
+    }
+
+    private double[] getCached(ChunkKey key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    private void putCached(ChunkKey key, double[] values) {
+        synchronized (cache) {
+            double[] old = cache.put(key, values);
+            if (old != null) {
+                cacheBytes -= old.length * 8L;
+            }
+            cacheBytes += values.length * 8L;
+            evict();
+        }
+    }
+
+    /**
+     * Drops least recently used chunks until the cache is within its
+     * size limit.  Called with the cache lock held.
+     */
+    private void evict() {
+        Iterator<Map.Entry<ChunkKey, double[]>> it = cache.entrySet().iterator();
+        while (cacheBytes > maxCacheBytes && it.hasNext()) {
+            Map.Entry<ChunkKey, double[]> entry = it.next();
+            cacheBytes -= entry.getValue().length * 8L;
+            it.remove();
+        }
+    }
+
+    /**
+     * Identifies a chunk: the body, what is held (states or the
+     * longitudes of one centricity), the grid and the chunk number
+     * within it.
+     */
+    private static final class ChunkKey {
+        final int bodyId;
+        final int kind;
+        final double stepDays;
+        final long phase;
+        final long chunk;
+
+        ChunkKey(int bodyId, int kind, double stepDays, long phase, long chunk) {
+            this.bodyId = bodyId;
+            this.kind = kind;
+            this.stepDays = stepDays;
+            this.phase = phase;
+            this.chunk = chunk;
+        }
+
+        ChunkKey withBody(int bodyId) {
+            return new ChunkKey(bodyId, KIND_STATE, stepDays, phase, chunk);
+        }
+
+        ChunkKey withKind(int kind) {
+            return new ChunkKey(bodyId, kind, stepDays, phase, chunk);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ChunkKey)) {
+                return false;
+            }
+            ChunkKey other = (ChunkKey) o;
+            return bodyId == other.bodyId &&
+                    kind == other.kind &&
+                    Double.compare(stepDays, other.stepDays) == 0 &&
+                    phase == other.phase &&
+                    chunk == other.chunk;
+        }
+
+        @Override
+        public int hashCode() {
+            int rv = bodyId;
+            rv = 31 * rv + kind;
+            rv = 31 * rv + Double.hashCode(stepDays);
+            rv = 31 * rv + Long.hashCode(phase);
+            rv = 31 * rv + Long.hashCode(chunk);
+            return rv;
+        }
+    }
+
+    /**
+     * StateSource that calculates with the per-thread SwissEph
+     * instances of a pool.
+     */
+    private static final class SwissEphStateSource implements StateSource {
+
+        private static final int FLAGS = SweConst.SEFLG_SWIEPH |
+                SweConst.SEFLG_SPEED |
+                SweConst.SEFLG_XYZ |
+                SweConst.SEFLG_BARYCTR |
+                SweConst.SEFLG_TRUEPOS;
+
+        private final SwissEphPool swissEphPool;
+
+        SwissEphStateSource(SwissEphPool swissEphPool) {
+            this.swissEphPool = swissEphPool;
+        }
+
+        @Override
+        public void sampleState(int bodyId, double jd, double[] out) {
+            SwissEph swissEph = swissEphPool.get();
+            StringBuffer serr = new StringBuffer();
+            int rv = swissEph.swe_calc_ut(jd, bodyId, FLAGS, out, serr);
+            if (rv < 0) {
+                String message = "Swiss Ephemeris failed to calculate the " +
+                        "barycentric state of planet " + bodyId +
+                        " at JD " + jd + ": " + serr;
+                logger.error(message);
+                throw new IllegalStateException(message);
+            }
+        }
+    }
+}
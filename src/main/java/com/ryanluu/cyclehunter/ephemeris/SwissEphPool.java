@@ -0,0 +1,188 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import org.apache.log4j.Logger;
+import swisseph.SwissEph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Gives each thread its own SwissEph instance.
+ *
+ * A SwissEph object keeps mutable state between calls (the last
+ * positions calculated, file positions, and so on), so it must not be
+ * shared between threads, and sharing one behind a lock makes every
+ * ephemeris calculation wait for every other.  The pool instead creates
+ * an instance the first time a thread asks for one and keeps it for
+ * that thread, so table building can be spread over all the cores.
+ *
+ * The instances all read the same ephemeris files.  The Java port does
+ * not let instances share its file buffers, but the files are only
+ * read, so the operating system's page cache holds one copy of them
+ * for all the instances.
+ *
+ * The pool uses one ThreadLocal however many samplers it creates.
+ * Worker threads, such as those of the common ForkJoinPool, live as
+ * long as the JVM, so close() also drops every thread's instance and
+ * samplers rather than leaving them reachable from those threads.
+ */
+public class SwissEphPool {
+
+    private static final Logger logger = Logger.getLogger(SwissEphPool.class);
+
+    private final Supplier<SwissEph> factory;
+
+    /**
+     * What the pool keeps for each thread.
+     */
+    private final ThreadLocal<PerThread> perThread =
+            ThreadLocal.withInitial(PerThread::new);
+
+    /**
+     * Every thread's state that holds an instance, for close().
+     */
+    private final List<PerThread> created = new ArrayList<>();
+
+    /**
+     * Incremented by close(), so that each thread knows to drop what
+     * it kept from before.
+     */
+    private volatile int generation = 0;
+
+    /**
+     * A thread's SwissEph instance, and its samplers by planet and
+     * centricity.
+     */
+    private static final class PerThread {
+        int generation;
+        SwissEph swissEph;
+        final Map<Integer, SwissEphSampler> samplers = new HashMap<>();
+
+        void clear() {
+            swissEph = null;
+            samplers.clear();
+        }
+    }
+
+    /**
+     * Creates a pool of instances that use the default ephemeris path.
+     */
+    public SwissEphPool() {
+        this(SwissEph::new);
+    }
+
+    /**
+     * Creates a pool of instances that read the ephemeris files in
+     * the given directory.
+     *
+     * @param ephePath Directory of the ephemeris files.
+     */
+    public SwissEphPool(String ephePath) {
+        this(() -> new SwissEph(ephePath));
+    }
+
+    /**
+     * Creates a pool that makes its instances with the given factory.
+     *
+     * @param factory Creates a new, independent SwissEph instance.
+     */
+    public SwissEphPool(Supplier<SwissEph> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the calling thread's state, with an instance that has
+     * not been closed.
+     */
+    private PerThread getPerThread() {
+        PerThread state = perThread.get();
+        int current = generation;
+        if (state.generation != current) {
+            state.clear();
+            state.generation = current;
+        }
+        if (state.swissEph == null) {
+            state.swissEph = factory.get();
+            synchronized (created) {
+                created.add(state);
+                logger.debug("Created SwissEph instance " + created.size() +
+                        " for thread '" + Thread.currentThread().getName() + "'.");
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Returns the calling thread's SwissEph instance, creating it
+     * if needed.  It must only be used on the calling thread.
+     */
+    public SwissEph get() {
+        return getPerThread().swissEph;
+    }
+
+    /**
+     * Returns the number of instances created since the pool was
+     * created or last closed.
+     */
+    public int getNumInstances() {
+        synchronized (created) {
+            return created.size();
+        }
+    }
+
+    /**
+     * Creates a sampler that may be used from any number of threads
+     * at once.  Each thread samples with its own SwissEphSampler on its
+     * own SwissEph instance.
+     *
+     * @param planetId Swiss Ephemeris planet ID (SweConst.SE_*).
+     * @param centricity Geocentric or heliocentric.
+     * @return PositionSampler Thread-safe sampler.
+     */
+    public PositionSampler createSampler(int planetId,
+                                         PlanetSelection.Centricity centricity) {
+        final Integer key = planetId * 2 +
+                (centricity == PlanetSelection.Centricity.HELIOCENTRIC ? 1 : 0);
+
+        return new PositionSampler() {
+            @Override
+            public void sample(double jd, double[] out) {
+                PerThread state = getPerThread();
+                SwissEphSampler sampler = state.samplers.get(key);
+                if (sampler == null) {
+                    sampler = new SwissEphSampler(state.swissEph, planetId, centricity);
+                    state.samplers.put(key, sampler);
+                }
+                sampler.sample(jd, out);
+            }
+
+            @Override
+            public boolean isThreadSafe() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Closes the ephemeris files of every instance created, and lets
+     * go of the instances and samplers of every thread.  The pool must
+     * not be in use while it is closed.  If it is used again
+     * afterwards, new instances are created.
+     */
+    public void close() {
+        synchronized (created) {
+            for (PerThread state : created) {
+                if (state.swissEph != null) {
+                    state.swissEph.swe_close();
+                }
+                state.clear();
+            }
+            created.clear();
+            generation++;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import org.apache.log4j.Logger;
+import swisseph.SweConst;
+import swisseph.SwissEph;
+
+/**
+ * PositionSampler that calculates positions with the Swiss Ephemeris.
+ *
+ * SwissEph objects keep internal state between calls, so a sampler
+ * must not be used by more than one thread at a time, and neither
+ * may its SwissEph object.
+ */
+public class SwissEphSampler implements PositionSampler {
+
+    private static final Logger logger =
+            Logger.getLogger(SwissEphSampler.class);
+
+    private final SwissEph swissEph;
+    private final int planetId;
+    private final int flags;
+
+    // Scratch buffers reused between calls.
+    private final double[] xx = new double[6];
+    private final StringBuffer serr = new StringBuffer();
+
+    /**
+     * Creates a sampler.
+     *
+     * @param swissEph SwissEph object to calculate with.
+     * @param planetId Swiss Ephemeris planet ID (SweConst.SE_*).
+     * @param centricity Whether to calculate geocentric or
+     *                   heliocentric positions.
+     */
+    public SwissEphSampler(SwissEph swissEph,
+                           int planetId,
+                           PlanetSelection.Centricity centricity) {
+        this.swissEph = swissEph;
+        this.planetId = planetId;
+        this.flags = getFlags(centricity);
+    }
+
+    /**
+     * Returns the Swiss Ephemeris flags used for the given centricity.
+     */
+    static int getFlags(PlanetSelection.Centricity centricity) {
+        int flags = SweConst.SEFLG_SWIEPH | SweConst.SEFLG_SPEED;
+        if (centricity == PlanetSelection.Centricity.HELIOCENTRIC) {
+            flags |= SweConst.SEFLG_HELCTR;
+        }
+        return flags;
+    }
+
+    @Override
+    public void sample(double jd, double[] out) {
+        serr.setLength(0);
+        int rv = swissEph.swe_calc_ut(jd, planetId, flags, xx, serr);
+        if (rv < 0) {
+            String message = "Swiss Ephemeris failed to calculate planet " +
+                    planetId + " at JD " + jd + ": " + serr;
+            logger.error(message);
+            throw new IllegalStateException(message);
+        }
+
+        out[0] = xx[0];
+        out[1] = xx[3];
+    }
+}
@@ -0,0 +1,95 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import org.apache.log4j.Logger;
+
+/**
+ * The synthetic bodies that can be chosen in PlanetSelections next to
+ * the Swiss Ephemeris planets: "CalendarDay" and "Ascendant".  These
+ * have no Swiss Ephemeris planet ID (Ephemeris.getPlanetIdForName()
+ * gives -9999 for them), so they have no EphemerisTables, and the
+ * lookback engine calculates them directly instead.
+ *
+ * The Ascendant depends on a place, which is the exchange location in
+ * the settings.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public final class SyntheticBodies {
+
+    private static final Logger logger = Logger.getLogger(SyntheticBodies.class);
+
+    public static final String CALENDAR_DAY = "CalendarDay";
+
+    public static final String ASCENDANT = "Ascendant";
+
+    /**
+     * Synthetic bodies for the default exchange location.
+     */
+    public static final SyntheticBodies DEFAULT = new SyntheticBodies(
+            CycleHunterSettings.DEFAULT_EXCHANGE_LATITUDE,
+            CycleHunterSettings.DEFAULT_EXCHANGE_LONGITUDE);
+
+    private final CalendarDayBody calendarDay;
+    private final AscendantBody ascendant;
+
+    /**
+     * Creates the synthetic bodies for an exchange location.
+     *
+     * @param exchangeLatitude Latitude in degrees, north positive.
+     * @param exchangeLongitude Longitude in degrees, east positive.
+     */
+    public SyntheticBodies(double exchangeLatitude, double exchangeLongitude) {
+        this.calendarDay = new CalendarDayBody();
+        this.ascendant = new AscendantBody(exchangeLatitude, exchangeLongitude);
+    }
+
+    /**
+     * Creates the synthetic bodies for the exchange location in the
+     * settings.  If the location is not valid, the default location
+     * is used instead.
+     */
+    public static SyntheticBodies forSettings(CycleHunterSettings settings) {
+        try {
+            return new SyntheticBodies(settings.getExchangeLatitude(),
+                    settings.getExchangeLongitude());
+        }
+        catch (IllegalArgumentException e) {
+            logger.warn("Exchange location in the settings is not usable: " +
+                    e.getMessage() + "  Using the default location.");
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * Returns true if a planet name is that of a synthetic body.
+     */
+    public static boolean isSynthetic(String planetName) {
+        return CALENDAR_DAY.equals(planetName) || ASCENDANT.equals(planetName);
+    }
+
+    /**
+     * Returns the synthetic body with the given name.
+     *
+     * @param planetName Name used in PlanetSelections.
+     * @return SyntheticBody Body, or null if the name is not that of
+     *         a synthetic body.
+     */
+    public SyntheticBody get(String planetName) {
+        if (CALENDAR_DAY.equals(planetName)) {
+            return calendarDay;
+        }
+        if (ASCENDANT.equals(planetName)) {
+            return ascendant;
+        }
+        return null;
+    }
+
+    public CalendarDayBody getCalendarDay() {
+        return calendarDay;
+    }
+
+    public AscendantBody getAscendant() {
+        return ascendant;
+    }
+}
@@ -0,0 +1,96 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+/**
+ * A cycle source that is not a Swiss Ephemeris body, such as the
+ * calendar year or the Ascendant, whose longitude is a closed-form
+ * function of time.
+ *
+ * Like the longitudes of an EphemerisTable, the longitudes here are
+ * unwrapped: they keep increasing past 360 degrees, so that N * 360
+ * degrees back is N whole cycles back.  Synthetic bodies never go
+ * retrograde, so the unwrapped longitude can be inverted exactly, and
+ * a lookback is one evaluation of the inverse per bar instead of a
+ * search through a table.
+ *
+ * Instances are immutable and may be shared between threads.
+ */
+public abstract class SyntheticBody {
+
+    private final String name;
+
+    protected SyntheticBody(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name used for the body in PlanetSelections.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the average speed of the body, in degrees per day.
+     */
+    public abstract double getAverageSpeed();
+
+    /**
+     * Returns the unwrapped longitude of the body at a time.
+     *
+     * @param jd Julian Day (UT).
+     * @return double Unwrapped longitude, in degrees.
+     */
+    public abstract double getUnwrappedLongitude(double jd);
+
+    /**
+     * Returns the time at which the body had the given unwrapped
+     * longitude.  This is the inverse of getUnwrappedLongitude().
+     *
+     * @param unwrappedLongitude Unwrapped longitude, in degrees.
+     * @return double Julian Day (UT).
+     */
+    public abstract double getJdForUnwrappedLongitude(double unwrappedLongitude);
+
+    /**
+     * Calculates the unwrapped longitude at many times at once.
+     *
+     * @param jd Julian Days to calculate for.
+     * @param from First index of jd to calculate (inclusive).
+     * @param to Last index of jd to calculate (exclusive).
+     * @param out Array to put the unwrapped longitudes in,
+     *            at the same indexes as jd.
+     */
+    public void fillUnwrappedLongitudes(double[] jd, int from, int to, double[] out) {
+        for (int i = from; i < to; i++) {
+            out[i] = getUnwrappedLongitude(jd[i]);
+        }
+    }
+
+    /**
+     * Finds the lookback times for a run of times: for each, the time
+     * when the body was the given number of degrees behind.
+     *
+     * @param jd Times to look back from.
+     * @param unwrappedLongitude Unwrapped longitude of the body at
+     *                           each time.
+     * @param degrees How far back to look, in degrees.
+     * @param from First index to do (inclusive).
+     * @param to Last index to do (exclusive).
+     * @param out Array to put the Julian Days in, at the same indexes.
+     */
+    public void fillLookbackJds(double[] jd,
+                                double[] unwrappedLongitude,
+                                double degrees,
+                                int from,
+                                int to,
+                                double[] out) {
+        for (int i = from; i < to; i++) {
+            out[i] = getJdForUnwrappedLongitude(unwrappedLongitude[i] - degrees);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{name='" + name + "'}";
+    }
+}
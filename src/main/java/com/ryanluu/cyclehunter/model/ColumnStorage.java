@@ -0,0 +1,55 @@
+package com.ryanluu.cyclehunter.model;
+
+/**
+ * Where the columns of a PriceBarSeries, and of the PriceBarPyramid
+ * built over it, keep their values.
+ *
+ * HEAP keeps each column in a Java array.  This is the fastest to
+ * read, and what small and medium sized histories should use.
+ *
+ * OFF_HEAP keeps each column in direct ByteBuffers outside the Java
+ * heap, so that a history of hundreds of millions of bars can be
+ * held with a small heap, and the garbage collector has nothing to
+ * do with it.  Reads are a little slower than from an array.  A
+ * column can hold up to Integer.MAX_VALUE values, however much
+ * room that takes.  The amount of direct memory the JVM allows is
+ * set with -XX:MaxDirectMemorySize, and is the same as the maximum
+ * heap size by default.
+ *
+ * A series read from a PriceBarCache with OFF_HEAP storage maps the
+ * columns of the cache file into memory instead of reading them, so
+ * the operating system pages them in as they are used.
+ */
+public interface ColumnStorage {
+
+    /**
+     * Columns in Java arrays.
+     */
+    ColumnStorage HEAP = new HeapColumnStorage();
+
+    /**
+     * Columns in direct ByteBuffers, outside the Java heap.
+     */
+    ColumnStorage OFF_HEAP = new OffHeapColumnStorage();
+
+    /**
+     * Creates a column of doubles, all 0.
+     *
+     * @param capacity Number of values the column holds.
+     * @return DoubleColumn New column.
+     */
+    DoubleColumn createDoubleColumn(int capacity);
+
+    /**
+     * Creates a column of longs, all 0.
+     *
+     * @param capacity Number of values the column holds.
+     * @return LongColumn New column.
+     */
+    LongColumn createLongColumn(int capacity);
+
+    /**
+     * Returns true if the columns are kept outside the Java heap.
+     */
+    boolean isOffHeap();
+}
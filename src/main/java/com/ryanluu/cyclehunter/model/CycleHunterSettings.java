@@ -55,6 +55,51 @@ public class CycleHunterSettings {
 
     private String lastOpenedCsvFilename = "";
 
+    /**
+     * CSV files of the instruments open in the workspace, which are
+     * opened again at start up.
+     */
+    private List<String> openCsvFilenameList = new LinkedList<>();
+
+    /**
+     * True if open CSV files are followed, and bars appended to them
+     * are added to the chart as they are written.
+     */
+    private boolean liveUpdatesEnabled = false;
+
+    /**
+     * Maximum number of threads used to parse a price bar CSV file.
+     * 0 means use all available processors.
+     */
+    private int csvLoadParallelism = 0;
+
+    /**
+     * True if price bars are kept outside the Java heap, for histories
+     * too big to keep on it.  See ColumnStorage.
+     */
+    private boolean offHeapPriceBarsEnabled = false;
+
+    /**
+     * Maximum total size, in megabytes, of the binary price bar cache
+     * files kept in the settings directory.
+     */
+    private long priceBarCacheMaxMegabytes = 2048;
+
+    /**
+     * Default exchange location (New York), in degrees of latitude
+     * north and longitude east.
+     */
+    public static final double DEFAULT_EXCHANGE_LATITUDE = 40.7128;
+    public static final double DEFAULT_EXCHANGE_LONGITUDE = -74.0060;
+
+    /**
+     * Location of the exchange the prices come from, which the
+     * Ascendant is calculated for.  Latitude in degrees north,
+     * longitude in degrees east.
+     */
+    private double exchangeLatitude = DEFAULT_EXCHANGE_LATITUDE;
+    private double exchangeLongitude = DEFAULT_EXCHANGE_LONGITUDE;
+
     private List<PlanetSelection> planetSelectionList =
             new LinkedList<>();
 
@@ -98,6 +143,19 @@ public class CycleHunterSettings {
         }
     }
 
+    /**
+     * Returns the full path of the directory where the application
+     * stores its data (settings file, caches, etc.).
+     *
+     * @return String Path of the settings directory.
+     */
+    public static String getSettingsDirectoryPath() {
+        CycleHunterSettings.doHomeDirCheck();
+
+        return CycleHunterSettings.USER_HOME_DIR + File.separator +
+                CycleHunterSettings.SETTINGS_DIRECTORY;
+    }
+
     /**
      * Initialization function.  This will initialize
      * the settings object with hard-coded default values
@@ -107,6 +165,7 @@ public class CycleHunterSettings {
 
         // No previous opened file by default.
         lastOpenedCsvFilename = "";
+        openCsvFilenameList = new LinkedList<>();
 
         // Variable to hold the current PlanetSelection being
         // created before adding it to the list.
@@ -180,39 +239,39 @@ public class CycleHunterSettings {
 
 
         planetName = "Mercury";
-        ps = new PlanetSelection(planetName, geocentric, enabled);
+        ps = new PlanetSelection(planetName, heliocentric, enabled);
         planetSelectionList.add(ps);
 
         planetName = "Venus";
-        ps = new PlanetSelection(planetName, geocentric, enabled);
+        ps = new PlanetSelection(planetName, heliocentric, enabled);
         planetSelectionList.add(ps);
 
         planetName = "Earth";
-        ps = new PlanetSelection(planetName, geocentric, enabled);
+        ps = new PlanetSelection(planetName, heliocentric, enabled);
         planetSelectionList.add(ps);
 
         planetName = "Mars";
-        ps = new PlanetSelection(planetName, geocentric, enabled);
+        ps = new PlanetSelection(planetName, heliocentric, enabled);
         planetSelectionList.add(ps);
 
         planetName = "Jupiter";
-        ps = new PlanetSelection(planetName, geocentric, enabled);
+        ps = new PlanetSelection(planetName, heliocentric, enabled);
         planetSelectionList.add(ps);
 
         planetName = "Saturn";
-        ps = new PlanetSelection(planetName, geocentric, enabled);
+        ps = new PlanetSelection(planetName, heliocentric, enabled);
         planetSelectionList.add(ps);
 
         planetName = "Uranus";
-        ps = new PlanetSelection(planetName, geocentric, enabled);
+        ps = new PlanetSelection(planetName, heliocentric, enabled);
         planetSelectionList.add(ps);
 
         planetName = "Neptune";
-        ps = new PlanetSelection(planetName, geocentric, enabled);
+        ps = new PlanetSelection(planetName, heliocentric, enabled);
         planetSelectionList.add(ps);
 
         planetName = "Pluto";
-        ps = new PlanetSelection(planetName, geocentric, enabled);
+        ps = new PlanetSelection(planetName, heliocentric, enabled);
         planetSelectionList.add(ps);
 
 
@@ -415,6 +474,28 @@ public class CycleHunterSettings {
         return settings;
     }
 
+    /**
+     * Loads a CycleHunterSettings object from the given JSON file,
+     * for example one saved by the application and copied to a server.
+     * Unlike loadSettings(), failures are not replaced with the
+     * default settings.
+     *
+     * @param file JSON file to load.
+     * @return A CycleHunterSettings object, populated with the values
+     *         in the file.
+     * @throws IOException If the file cannot be read or parsed.
+     */
+    public static CycleHunterSettings loadSettings(File file) throws IOException {
+        logger.info("Attempting to load settings from file '" + file + "' ...");
+
+        ObjectMapper mapper = new ObjectMapper();
+        CycleHunterSettings settings = mapper.readValue(file, CycleHunterSettings.class);
+
+        logger.info("Settings loaded.");
+
+        return settings;
+    }
+
 
     /**
      * This list returns a list of PlanetSelection objects
@@ -478,6 +559,62 @@ public class CycleHunterSettings {
         this.lastOpenedCsvFilename = lastOpenedCsvFilename;
     }
 
+    public List<String> getOpenCsvFilenameList() {
+        return openCsvFilenameList;
+    }
+
+    public void setOpenCsvFilenameList(List<String> openCsvFilenameList) {
+        this.openCsvFilenameList = openCsvFilenameList;
+    }
+
+    public boolean isLiveUpdatesEnabled() {
+        return liveUpdatesEnabled;
+    }
+
+    public void setLiveUpdatesEnabled(boolean liveUpdatesEnabled) {
+        this.liveUpdatesEnabled = liveUpdatesEnabled;
+    }
+
+    public boolean isOffHeapPriceBarsEnabled() {
+        return offHeapPriceBarsEnabled;
+    }
+
+    public void setOffHeapPriceBarsEnabled(boolean offHeapPriceBarsEnabled) {
+        this.offHeapPriceBarsEnabled = offHeapPriceBarsEnabled;
+    }
+
+    public int getCsvLoadParallelism() {
+        return csvLoadParallelism;
+    }
+
+    public void setCsvLoadParallelism(int csvLoadParallelism) {
+        this.csvLoadParallelism = csvLoadParallelism;
+    }
+
+    public long getPriceBarCacheMaxMegabytes() {
+        return priceBarCacheMaxMegabytes;
+    }
+
+    public void setPriceBarCacheMaxMegabytes(long priceBarCacheMaxMegabytes) {
+        this.priceBarCacheMaxMegabytes = priceBarCacheMaxMegabytes;
+    }
+
+    public double getExchangeLatitude() {
+        return exchangeLatitude;
+    }
+
+    public void setExchangeLatitude(double exchangeLatitude) {
+        this.exchangeLatitude = exchangeLatitude;
+    }
+
+    public double getExchangeLongitude() {
+        return exchangeLongitude;
+    }
+
+    public void setExchangeLongitude(double exchangeLongitude) {
+        this.exchangeLongitude = exchangeLongitude;
+    }
+
     public List<PlanetSelection> getPlanetSelectionList() {
         return planetSelectionList;
     }
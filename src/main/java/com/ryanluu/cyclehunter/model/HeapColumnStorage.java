@@ -0,0 +1,149 @@
+package com.ryanluu.cyclehunter.model;
+
+/**
+ * ColumnStorage that keeps each column in a Java array.
+ * Use ColumnStorage.HEAP rather than creating one.
+ */
+public final class HeapColumnStorage implements ColumnStorage {
+
+    HeapColumnStorage() {
+    }
+
+    @Override
+    public DoubleColumn createDoubleColumn(int capacity) {
+        return new ArrayDoubleColumn(new double[capacity]);
+    }
+
+    @Override
+    public LongColumn createLongColumn(int capacity) {
+        return new ArrayLongColumn(new long[capacity]);
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return false;
+    }
+
+    /**
+     * Creates a column that uses the given array.  The array is not
+     * copied.
+     */
+    public static DoubleColumn wrap(double[] values) {
+        return new ArrayDoubleColumn(values);
+    }
+
+    /**
+     * Creates a column that uses the given array.  The array is not
+     * copied.
+     */
+    public static LongColumn wrap(long[] values) {
+        return new ArrayLongColumn(values);
+    }
+
+    @Override
+    public String toString() {
+        return "HEAP";
+    }
+
+    private static final class ArrayDoubleColumn extends DoubleColumn {
+
+        private final double[] values;
+
+        ArrayDoubleColumn(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int capacity() {
+            return values.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void set(int index, double value) {
+            values[index] = value;
+        }
+
+        @Override
+        public ColumnStorage getStorage() {
+            return ColumnStorage.HEAP;
+        }
+
+        @Override
+        public DoubleColumn resize(int newCapacity, int size) {
+            double[] rv = new double[newCapacity];
+            System.arraycopy(values, 0, rv, 0, size);
+            return new ArrayDoubleColumn(rv);
+        }
+
+        @Override
+        public void copyTo(int fromIndex, int toIndex, double[] dest, int destOffset) {
+            System.arraycopy(values, fromIndex, dest, destOffset, toIndex - fromIndex);
+        }
+
+        @Override
+        public void copyFrom(double[] src, int srcOffset, int destIndex, int length) {
+            System.arraycopy(src, srcOffset, values, destIndex, length);
+        }
+
+        @Override
+        public void copyFrom(DoubleColumn src, int srcIndex, int destIndex, int length) {
+            src.copyTo(srcIndex, srcIndex + length, values, destIndex);
+        }
+    }
+
+    private static final class ArrayLongColumn extends LongColumn {
+
+        private final long[] values;
+
+        ArrayLongColumn(long[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int capacity() {
+            return values.length;
+        }
+
+        @Override
+        public long get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void set(int index, long value) {
+            values[index] = value;
+        }
+
+        @Override
+        public ColumnStorage getStorage() {
+            return ColumnStorage.HEAP;
+        }
+
+        @Override
+        public LongColumn resize(int newCapacity, int size) {
+            long[] rv = new long[newCapacity];
+            System.arraycopy(values, 0, rv, 0, size);
+            return new ArrayLongColumn(rv);
+        }
+
+        @Override
+        public void copyTo(int fromIndex, int toIndex, long[] dest, int destOffset) {
+            System.arraycopy(values, fromIndex, dest, destOffset, toIndex - fromIndex);
+        }
+
+        @Override
+        public void copyFrom(long[] src, int srcOffset, int destIndex, int length) {
+            System.arraycopy(src, srcOffset, values, destIndex, length);
+        }
+
+        @Override
+        public void copyFrom(LongColumn src, int srcIndex, int destIndex, int length) {
+            src.copyTo(srcIndex, srcIndex + length, values, destIndex);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.ryanluu.cyclehunter.model;
+
+/**
+ * Fixed size column of long values, kept in a ColumnStorage.
+ * This is what a PriceBarSeries keeps the prices, volume and open
+ * interest of its bars in.
+ *
+ * Columns are not thread-safe for writes.  Concurrent reads are fine.
+ */
+public abstract class LongColumn {
+
+    /**
+     * Number of values copied at a time by copyFrom().
+     */
+    private static final int COPY_BLOCK_SIZE = 8192;
+
+    /**
+     * Returns the number of values the column holds.
+     */
+    public abstract int capacity();
+
+    public abstract long get(int index);
+
+    public abstract void set(int index, long value);
+
+    /**
+     * Returns the storage the column is kept in.
+     */
+    public abstract ColumnStorage getStorage();
+
+    /**
+     * Creates a writable column in the same storage with the given
+     * capacity, holding a copy of the first values of this one.
+     *
+     * @param newCapacity Capacity of the new column.
+     * @param size Number of values to copy.  Must not be more than
+     *             either capacity.
+     * @return LongColumn New column.
+     */
+    public abstract LongColumn resize(int newCapacity, int size);
+
+    /**
+     * Returns true if set() cannot be called, such as for a column
+     * mapped from a cache file.  resize() gives a writable copy.
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Copies values [fromIndex, toIndex) into an array.
+     */
+    public void copyTo(int fromIndex, int toIndex, long[] dest, int destOffset) {
+        for (int i = fromIndex, j = destOffset; i < toIndex; i++, j++) {
+            dest[j] = get(i);
+        }
+    }
+
+    /**
+     * Copies values from an array into the column, starting at
+     * destIndex.
+     */
+    public void copyFrom(long[] src, int srcOffset, int destIndex, int length) {
+        for (int i = 0; i < length; i++) {
+            set(destIndex + i, src[srcOffset + i]);
+        }
+    }
+
+    /**
+     * Copies values from another column, which may be kept in a
+     * different storage, into this one, starting at destIndex.
+     */
+    public void copyFrom(LongColumn src, int srcIndex, int destIndex, int length) {
+        long[] block = new long[Math.min(length, COPY_BLOCK_SIZE)];
+        for (int done = 0; done < length; done += block.length) {
+            int n = Math.min(block.length, length - done);
+            src.copyTo(srcIndex + done, srcIndex + done + n, block, 0);
+            copyFrom(block, 0, destIndex + done, n);
+        }
+    }
+}
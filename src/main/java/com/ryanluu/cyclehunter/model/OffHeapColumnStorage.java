@@ -0,0 +1,335 @@
+package com.ryanluu.cyclehunter.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ColumnStorage that keeps each column in direct ByteBuffers,
+ * outside the Java heap.  Use ColumnStorage.OFF_HEAP rather than
+ * creating one.
+ *
+ * A ByteBuffer holds at most Integer.MAX_VALUE bytes, so a column is
+ * split into segments of SEGMENT_SIZE values, each in its own buffer.
+ * Values are stored little-endian, the same as in a PriceBarCache
+ * file, so a column can also be a read-only view of a mapped file.
+ *
+ * The memory of a direct buffer is freed when the garbage collector
+ * finds the buffer is no longer used, which it may not do straight
+ * away.
+ */
+public final class OffHeapColumnStorage implements ColumnStorage {
+
+    /**
+     * log2 of the number of values in a segment.
+     */
+    static final int SEGMENT_SHIFT = 27;
+
+    /**
+     * Number of values in a segment: 1 GiB of doubles or longs.
+     */
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Bytes in a double or a long.
+     */
+    private static final int VALUE_BYTES = 8;
+
+    OffHeapColumnStorage() {
+    }
+
+    @Override
+    public DoubleColumn createDoubleColumn(int capacity) {
+        return new BufferDoubleColumn(allocate(capacity), capacity);
+    }
+
+    @Override
+    public LongColumn createLongColumn(int capacity) {
+        return new BufferLongColumn(allocate(capacity), capacity);
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+
+    /**
+     * Creates a read-only column over little-endian doubles in a file,
+     * by mapping them into memory.  The mapping stays valid after the
+     * channel is closed.
+     *
+     * @param channel Channel open for reading.
+     * @param position Offset of the first value in the file.
+     * @param size Number of values.
+     * @return DoubleColumn Column over the file.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static DoubleColumn mapDoubleColumn(FileChannel channel, long position,
+                                               int size)
+            throws IOException {
+        return new BufferDoubleColumn(map(channel, position, size), size);
+    }
+
+    /**
+     * Creates a read-only column over little-endian longs in a file,
+     * by mapping them into memory.  The mapping stays valid after the
+     * channel is closed.
+     *
+     * @param channel Channel open for reading.
+     * @param position Offset of the first value in the file.
+     * @param size Number of values.
+     * @return LongColumn Column over the file.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static LongColumn mapLongColumn(FileChannel channel, long position,
+                                           int size)
+            throws IOException {
+        return new BufferLongColumn(map(channel, position, size), size);
+    }
+
+    @Override
+    public String toString() {
+        return "OFF_HEAP";
+    }
+
+    /**
+     * Returns the number of values in segment s of a column.
+     */
+    private static int segmentLength(int capacity, int s) {
+        return Math.min(SEGMENT_SIZE, capacity - s * SEGMENT_SIZE);
+    }
+
+    private static int segmentCount(int capacity) {
+        return (int) (((long) capacity + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+    }
+
+    private static ByteBuffer[] allocate(int capacity) {
+        ByteBuffer[] rv = new ByteBuffer[segmentCount(capacity)];
+        for (int s = 0; s < rv.length; s++) {
+            rv[s] = ByteBuffer.allocateDirect(segmentLength(capacity, s) * VALUE_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return rv;
+    }
+
+    private static ByteBuffer[] map(FileChannel channel, long position, int size)
+            throws IOException {
+        ByteBuffer[] rv = new ByteBuffer[segmentCount(size)];
+        for (int s = 0; s < rv.length; s++) {
+            rv[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position + (long) s * SEGMENT_SIZE * VALUE_BYTES,
+                    (long) segmentLength(size, s) * VALUE_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return rv;
+    }
+
+    /**
+     * Returns how many values from index can be copied before the end
+     * of its segment, up to max.
+     */
+    private static int run(int index, int max) {
+        return Math.min(max, SEGMENT_SIZE - (index & SEGMENT_MASK));
+    }
+
+    private static final class BufferDoubleColumn extends DoubleColumn {
+
+        private final DoubleBuffer[] segments;
+
+        private final int capacity;
+
+        private final boolean readOnly;
+
+        BufferDoubleColumn(ByteBuffer[] buffers, int capacity) {
+            this.segments = new DoubleBuffer[buffers.length];
+            for (int s = 0; s < buffers.length; s++) {
+                segments[s] = buffers[s].asDoubleBuffer();
+            }
+            this.capacity = capacity;
+            this.readOnly = buffers.length > 0 && buffers[0].isReadOnly();
+        }
+
+        @Override
+        public int capacity() {
+            return capacity;
+        }
+
+        @Override
+        public double get(int index) {
+            return segments[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+        }
+
+        @Override
+        public void set(int index, double value) {
+            segments[index >>> SEGMENT_SHIFT].put(index & SEGMENT_MASK, value);
+        }
+
+        @Override
+        public ColumnStorage getStorage() {
+            return ColumnStorage.OFF_HEAP;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return readOnly;
+        }
+
+        @Override
+        public DoubleColumn resize(int newCapacity, int size) {
+            BufferDoubleColumn rv = new BufferDoubleColumn(allocate(newCapacity),
+                    newCapacity);
+            rv.copyFrom(this, 0, 0, size);
+            return rv;
+        }
+
+        @Override
+        public void copyTo(int fromIndex, int toIndex, double[] dest, int destOffset) {
+            for (int i = fromIndex; i < toIndex; ) {
+                int n = run(i, toIndex - i);
+                DoubleBuffer segment = segments[i >>> SEGMENT_SHIFT].duplicate();
+                segment.position(i & SEGMENT_MASK);
+                segment.get(dest, destOffset + (i - fromIndex), n);
+                i += n;
+            }
+        }
+
+        @Override
+        public void copyFrom(double[] src, int srcOffset, int destIndex, int length) {
+            for (int done = 0; done < length; ) {
+                int i = destIndex + done;
+                int n = run(i, length - done);
+                DoubleBuffer segment = segments[i >>> SEGMENT_SHIFT].duplicate();
+                segment.position(i & SEGMENT_MASK);
+                segment.put(src, srcOffset + done, n);
+                done += n;
+            }
+        }
+
+        @Override
+        public void copyFrom(DoubleColumn src, int srcIndex, int destIndex, int length) {
+            if (!(src instanceof BufferDoubleColumn)) {
+                super.copyFrom(src, srcIndex, destIndex, length);
+                return;
+            }
+
+            // Buffer to buffer, a run at a time that stays inside
+            // one segment of each column.
+            DoubleBuffer[] srcSegments = ((BufferDoubleColumn) src).segments;
+            for (int done = 0; done < length; ) {
+                int i = srcIndex + done;
+                int j = destIndex + done;
+                int n = run(j, run(i, length - done));
+                DoubleBuffer from = srcSegments[i >>> SEGMENT_SHIFT].duplicate();
+                from.position(i & SEGMENT_MASK);
+                from.limit((i & SEGMENT_MASK) + n);
+                DoubleBuffer to = segments[j >>> SEGMENT_SHIFT].duplicate();
+                to.position(j & SEGMENT_MASK);
+                to.put(from);
+                done += n;
+            }
+        }
+    }
+
+    private static final class BufferLongColumn extends LongColumn {
+
+        private final LongBuffer[] segments;
+
+        private final int capacity;
+
+        private final boolean readOnly;
+
+        BufferLongColumn(ByteBuffer[] buffers, int capacity) {
+            this.segments = new LongBuffer[buffers.length];
+            for (int s = 0; s < buffers.length; s++) {
+                segments[s] = buffers[s].asLongBuffer();
+            }
+            this.capacity = capacity;
+            this.readOnly = buffers.length > 0 && buffers[0].isReadOnly();
+        }
+
+        @Override
+        public int capacity() {
+            return capacity;
+        }
+
+        @Override
+        public long get(int index) {
+            return segments[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+        }
+
+        @Override
+        public void set(int index, long value) {
+            segments[index >>> SEGMENT_SHIFT].put(index & SEGMENT_MASK, value);
+        }
+
+        @Override
+        public ColumnStorage getStorage() {
+            return ColumnStorage.OFF_HEAP;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return readOnly;
+        }
+
+        @Override
+        public LongColumn resize(int newCapacity, int size) {
+            BufferLongColumn rv = new BufferLongColumn(allocate(newCapacity),
+                    newCapacity);
+            rv.copyFrom(this, 0, 0, size);
+            return rv;
+        }
+
+        @Override
+        public void copyTo(int fromIndex, int toIndex, long[] dest, int destOffset) {
+            for (int i = fromIndex; i < toIndex; ) {
+                int n = run(i, toIndex - i);
+                LongBuffer segment = segments[i >>> SEGMENT_SHIFT].duplicate();
+                segment.position(i & SEGMENT_MASK);
+                segment.get(dest, destOffset + (i - fromIndex), n);
+                i += n;
+            }
+        }
+
+        @Override
+        public void copyFrom(long[] src, int srcOffset, int destIndex, int length) {
+            for (int done = 0; done < length; ) {
+                int i = destIndex + done;
+                int n = run(i, length - done);
+                LongBuffer segment = segments[i >>> SEGMENT_SHIFT].duplicate();
+                segment.position(i & SEGMENT_MASK);
+                segment.put(src, srcOffset + done, n);
+                done += n;
+            }
+        }
+
+        @Override
+        public void copyFrom(LongColumn src, int srcIndex, int destIndex, int length) {
+            if (!(src instanceof BufferLongColumn)) {
+                super.copyFrom(src, srcIndex, destIndex, length);
+                return;
+            }
+
+            // Buffer to buffer, a run at a time that stays inside
+            // one segment of each column.
+            LongBuffer[] srcSegments = ((BufferLongColumn) src).segments;
+            for (int done = 0; done < length; ) {
+                int i = srcIndex + done;
+                int j = destIndex + done;
+                int n = run(j, run(i, length - done));
+                LongBuffer from = srcSegments[i >>> SEGMENT_SHIFT].duplicate();
+                from.position(i & SEGMENT_MASK);
+                from.limit((i & SEGMENT_MASK) + n);
+                LongBuffer to = segments[j >>> SEGMENT_SHIFT].duplicate();
+                to.position(j & SEGMENT_MASK);
+                to.put(from);
+                done += n;
+            }
+        }
+    }
+}
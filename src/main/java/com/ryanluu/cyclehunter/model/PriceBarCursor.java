@@ -0,0 +1,183 @@
+package com.ryanluu.cyclehunter.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Flyweight, read-only view of the bars of a PriceBarSeries.
+ *
+ * A cursor is positioned on one bar of the series at a time.
+ * Its getters read straight out of the series columns, so code can
+ * walk through a whole series without one object being allocated
+ * per bar:
+ *
+ *     PriceBarCursor cursor = series.cursor();
+ *     while (cursor.next()) {
+ *         doSomething(cursor);
+ *     }
+ *
+ * The BigDecimal and boxed values returned by some of the getters are
+ * created on demand.  Hot loops should use the primitive getters
+ * (e.g. getClose()) or go to the PriceBarSeries directly.
+ *
+ * A cursor is not a PriceBar, and it has no equals() or hashCode()
+ * of its own, since it changes as it moves.  If a PriceBar is needed,
+ * or one needs to be held on to after the cursor moves, use
+ * toPriceBar() to take a copy.  Bars are changed through the series.
+ */
+public class PriceBarCursor {
+
+    private final PriceBarSeries series;
+
+    /**
+     * Index of the bar the cursor is currently on.
+     * Starts before the first bar, so that next() moves
+     * onto the first bar.
+     */
+    private int index = -1;
+
+    PriceBarCursor(PriceBarSeries series) {
+        this.series = series;
+    }
+
+    public PriceBarSeries getSeries() {
+        return series;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Positions the cursor on the bar at the given index.
+     *
+     * @param index Index of the bar in the series.
+     * @return PriceBarCursor this cursor, for chaining.
+     */
+    public PriceBarCursor moveTo(int index) {
+        if (index < 0 || index >= series.size()) {
+            throw new IndexOutOfBoundsException(
+                    "Index: " + index + ", Size: " + series.size());
+        }
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * Moves the cursor onto the next bar.
+     *
+     * @return true if the cursor is now on a bar,
+     *         false if there are no more bars.
+     */
+    public boolean next() {
+        if (index + 1 < series.size()) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the cursor back to before the first bar.
+     */
+    public void reset() {
+        index = -1;
+    }
+
+    // Primitive getters.  These do not allocate.
+
+    public double getTimestamp() {
+        return series.getTimestampJd(index);
+    }
+
+    public double getOpen() {
+        return series.getOpenPrice(index);
+    }
+
+    public double getHigh() {
+        return series.getHighPrice(index);
+    }
+
+    public double getLow() {
+        return series.getLowPrice(index);
+    }
+
+    public double getClose() {
+        return series.getClosePrice(index);
+    }
+
+    public long getVolumeLong() {
+        return series.getVolume(index);
+    }
+
+    public long getOpenInterestLong() {
+        return series.getOpenInterest(index);
+    }
+
+    // Getters of the values as PriceBar holds them.
+
+    public Double getTimestampJd() {
+        return series.getTimestampJd(index);
+    }
+
+    public BigDecimal getOpenPrice() {
+        return series.toPriceDecimal(series.getOpenPriceUnscaled(index));
+    }
+
+    public BigDecimal getHighPrice() {
+        return series.toPriceDecimal(series.getHighPriceUnscaled(index));
+    }
+
+    public BigDecimal getLowPrice() {
+        return series.toPriceDecimal(series.getLowPriceUnscaled(index));
+    }
+
+    public BigDecimal getClosePrice() {
+        return series.toPriceDecimal(series.getClosePriceUnscaled(index));
+    }
+
+    public Integer getOpenInterest() {
+        return toIntSaturated(series.getOpenInterest(index));
+    }
+
+    public Integer getVolume() {
+        return toIntSaturated(series.getVolume(index));
+    }
+
+    /**
+     * Returns a standalone copy of the bar the cursor is currently on.
+     *
+     * @return PriceBar New PriceBar object.
+     */
+    public PriceBar toPriceBar() {
+        return series.toPriceBar(index);
+    }
+
+    /**
+     * Converts a long to an int, clamping it to the int range.
+     * PriceBar only has room for an Integer volume and open interest,
+     * where as the series stores longs.
+     */
+    static int toIntSaturated(long value) {
+        if (value > Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        if (value < Integer.MIN_VALUE) {
+            return Integer.MIN_VALUE;
+        }
+        return (int) value;
+    }
+
+    @Override
+    public String toString() {
+        return "PriceBarCursor{" +
+                "index=" + index +
+                ", timestampJd=" + getTimestampJd() +
+                ", openPrice=" + getOpenPrice() +
+                ", highPrice=" + getHighPrice() +
+                ", lowPrice=" + getLowPrice() +
+                ", closePrice=" + getClosePrice() +
+                ", openInterest=" + getOpenInterest() +
+                ", volume=" + getVolume() +
+                '}';
+    }
+}
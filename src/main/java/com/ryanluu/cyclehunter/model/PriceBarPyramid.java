@@ -0,0 +1,393 @@
+package com.ryanluu.cyclehunter.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PriceBarPyramid is a multi-resolution index over a PriceBarSeries.
+ *
+ * Level 0 is the series itself.  Each level above it aggregates
+ * FAN_OUT consecutive nodes of the level below into one OHLC node, so
+ * for daily bars level 1 is roughly weekly, level 2 roughly monthly
+ * (25 trading days), level 3 roughly five months, and so on.  Each
+ * node holds the open of its first bar, the highest high, the lowest
+ * low, the close of its last bar, the total volume, and the open
+ * interest of its last bar, all in primitive columns kept in the same
+ * ColumnStorage as the series.
+ *
+ * Nodes are grouped by bar index, not by calendar date: node k of
+ * level L covers bars [k * FAN_OUT^L, (k + 1) * FAN_OUT^L).  The chart
+ * and the other range queries work in bar indexes, and fixed size
+ * groups mean a node's bars can be found without storing them.
+ * Only complete nodes are stored; the bars at the end that do not
+ * fill a node are read from the level below.
+ *
+ * Range queries such as getHighestHighUnscaled(from, to) split the
+ * range into the largest whole nodes that fit, so they look at no more
+ * than about 2 * (FAN_OUT - 1) nodes per level, however long the
+ * range is.  Callers that want whole nodes themselves can pick a level
+ * with getCoarsestLevel().
+ *
+ * Memory: the levels above the series hold 1/4 as many nodes as there
+ * are bars (1/5 + 1/25 + ...), at 48 bytes per node against
+ * PriceBarSeries.BYTES_PER_BAR (56) per bar, which is about 21% of the
+ * series.
+ *
+ * The pyramid is brought up to date with update(), which only
+ * aggregates the bars appended since the last call.  Bars that were
+ * changed in place are not noticed; PriceBarSeries throws its pyramid
+ * away whenever that happens (see PriceBarSeries.getPyramid()).
+ */
+public class PriceBarPyramid {
+
+    /**
+     * Number of nodes of one level that make up a node of
+     * the level above.
+     */
+    public static final int FAN_OUT = 5;
+
+    /**
+     * Number of bytes used to store one node of a level.
+     * (Six longs.)
+     */
+    public static final int BYTES_PER_NODE = 6 * 8;
+
+    /**
+     * Series that is indexed.
+     */
+    private final PriceBarSeries series;
+
+    /**
+     * Number of bars of the series covered by the levels.
+     */
+    private int numBarsIndexed = 0;
+
+    /**
+     * Levels 1 and up.  Level L is levels.get(L - 1).
+     */
+    private final List<Level> levels = new ArrayList<>();
+
+    /**
+     * Creates the pyramid for a series and builds it.
+     *
+     * @param series Price bars to index.
+     */
+    public PriceBarPyramid(PriceBarSeries series) {
+        this.series = series;
+        update();
+    }
+
+    public PriceBarSeries getPriceBarSeries() {
+        return series;
+    }
+
+    /**
+     * Aggregates any bars that have been appended to the series since
+     * the pyramid was built or last updated.  If the series has shrunk,
+     * the pyramid is rebuilt.
+     */
+    public void update() {
+        int numBars = series.size();
+        if (numBars < numBarsIndexed) {
+            levels.clear();
+            numBarsIndexed = 0;
+        }
+
+        // Level 1 from the bars, then each level from the one below.
+        int belowSize = numBars;
+        for (int level = 1; belowSize >= FAN_OUT; level++) {
+            if (levels.size() < level) {
+                levels.add(new Level(series.getStorage()));
+            }
+            Level nodes = levels.get(level - 1);
+
+            int newSize = belowSize / FAN_OUT;
+            nodes.ensureCapacity(newSize);
+            for (int k = nodes.size; k < newSize; k++) {
+                if (level == 1) {
+                    nodes.aggregateBars(series, k);
+                }
+                else {
+                    nodes.aggregateNodes(levels.get(level - 2), k);
+                }
+            }
+            nodes.size = newSize;
+
+            belowSize = newSize;
+        }
+
+        numBarsIndexed = numBars;
+    }
+
+    /**
+     * Returns the number of levels, including level 0 (the series).
+     */
+    public int getNumLevels() {
+        return 1 + levels.size();
+    }
+
+    /**
+     * Returns the number of bars in each node of a level.
+     */
+    public static int getBarsPerNode(int level) {
+        int rv = 1;
+        for (int i = 0; i < level; i++) {
+            rv *= FAN_OUT;
+        }
+        return rv;
+    }
+
+    /**
+     * Returns the number of complete nodes in a level.
+     */
+    public int getLevelSize(int level) {
+        if (level == 0) {
+            return numBarsIndexed;
+        }
+        return levels.get(level - 1).size;
+    }
+
+    /**
+     * Returns the coarsest level whose nodes are no bigger than the
+     * given number of bars, for example the number of bars per pixel.
+     *
+     * @param maxBarsPerNode Largest number of bars per node wanted.
+     * @return int Level, 0 if even level 1 is too coarse.
+     */
+    public int getCoarsestLevel(double maxBarsPerNode) {
+        int rv = 0;
+        long barsPerNode = FAN_OUT;
+        while (rv + 1 < getNumLevels() && barsPerNode <= maxBarsPerNode) {
+            rv++;
+            barsPerNode *= FAN_OUT;
+        }
+        return rv;
+    }
+
+    public long getOpenPriceUnscaled(int level, int index) {
+        return level == 0 ? series.getOpenPriceUnscaled(index) :
+                levels.get(level - 1).open.get(index);
+    }
+
+    public long getHighPriceUnscaled(int level, int index) {
+        return level == 0 ? series.getHighPriceUnscaled(index) :
+                levels.get(level - 1).high.get(index);
+    }
+
+    public long getLowPriceUnscaled(int level, int index) {
+        return level == 0 ? series.getLowPriceUnscaled(index) :
+                levels.get(level - 1).low.get(index);
+    }
+
+    public long getClosePriceUnscaled(int level, int index) {
+        return level == 0 ? series.getClosePriceUnscaled(index) :
+                levels.get(level - 1).close.get(index);
+    }
+
+    public long getVolume(int level, int index) {
+        return level == 0 ? series.getVolume(index) :
+                levels.get(level - 1).volume.get(index);
+    }
+
+    public long getOpenInterest(int level, int index) {
+        return level == 0 ? series.getOpenInterest(index) :
+                levels.get(level - 1).openInterest.get(index);
+    }
+
+    /**
+     * Returns the highest high of the bars [fromIndex, toIndex).
+     *
+     * @return long Unscaled price, or Long.MIN_VALUE if the range
+     *              is empty.
+     */
+    public long getHighestHighUnscaled(int fromIndex, int toIndex) {
+        checkRange(fromIndex, toIndex);
+
+        // Return value.
+        long rv = Long.MIN_VALUE;
+
+        int level = 0;
+        int from = fromIndex;
+        int to = toIndex;
+        while (from < to) {
+            // Take the odd nodes at either end, until both ends
+            // line up with nodes of the level above.
+            while (from < to && (from % FAN_OUT != 0 || level + 1 >= getNumLevels())) {
+                rv = Math.max(rv, getHighPriceUnscaled(level, from++));
+            }
+            while (from < to && to % FAN_OUT != 0) {
+                rv = Math.max(rv, getHighPriceUnscaled(level, --to));
+            }
+            from /= FAN_OUT;
+            to /= FAN_OUT;
+            level++;
+        }
+
+        return rv;
+    }
+
+    /**
+     * Returns the lowest low of the bars [fromIndex, toIndex).
+     *
+     * @return long Unscaled price, or Long.MAX_VALUE if the range
+     *              is empty.
+     */
+    public long getLowestLowUnscaled(int fromIndex, int toIndex) {
+        checkRange(fromIndex, toIndex);
+
+        // Return value.
+        long rv = Long.MAX_VALUE;
+
+        int level = 0;
+        int from = fromIndex;
+        int to = toIndex;
+        while (from < to) {
+            while (from < to && (from % FAN_OUT != 0 || level + 1 >= getNumLevels())) {
+                rv = Math.min(rv, getLowPriceUnscaled(level, from++));
+            }
+            while (from < to && to % FAN_OUT != 0) {
+                rv = Math.min(rv, getLowPriceUnscaled(level, --to));
+            }
+            from /= FAN_OUT;
+            to /= FAN_OUT;
+            level++;
+        }
+
+        return rv;
+    }
+
+    /**
+     * Returns the total volume of the bars [fromIndex, toIndex).
+     */
+    public long getTotalVolume(int fromIndex, int toIndex) {
+        checkRange(fromIndex, toIndex);
+
+        // Return value.
+        long rv = 0;
+
+        int level = 0;
+        int from = fromIndex;
+        int to = toIndex;
+        while (from < to) {
+            while (from < to && (from % FAN_OUT != 0 || level + 1 >= getNumLevels())) {
+                rv += getVolume(level, from++);
+            }
+            while (from < to && to % FAN_OUT != 0) {
+                rv += getVolume(level, --to);
+            }
+            from /= FAN_OUT;
+            to /= FAN_OUT;
+            level++;
+        }
+
+        return rv;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the levels
+     * above the series.
+     */
+    public long getMemoryUsageBytes() {
+        long rv = 0;
+        for (Level level : levels) {
+            rv += (long) level.open.capacity() * BYTES_PER_NODE;
+        }
+        return rv;
+    }
+
+    private void checkRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > numBarsIndexed || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                    "fromIndex: " + fromIndex + ", toIndex: " + toIndex +
+                    ", Bars indexed: " + numBarsIndexed);
+        }
+    }
+
+    /**
+     * The nodes of one level, in parallel columns.
+     */
+    private static final class Level {
+        int size = 0;
+        LongColumn open;
+        LongColumn high;
+        LongColumn low;
+        LongColumn close;
+        LongColumn volume;
+        LongColumn openInterest;
+
+        Level(ColumnStorage storage) {
+            open = storage.createLongColumn(0);
+            high = storage.createLongColumn(0);
+            low = storage.createLongColumn(0);
+            close = storage.createLongColumn(0);
+            volume = storage.createLongColumn(0);
+            openInterest = storage.createLongColumn(0);
+        }
+
+        void ensureCapacity(int minCapacity) {
+            int capacity = open.capacity();
+            if (capacity >= minCapacity) {
+                return;
+            }
+
+            // Grow by half, as the series does, so that appending bar
+            // by bar does not copy the columns every time.
+            int newCapacity = Math.max(minCapacity, capacity + (capacity >> 1));
+            open = open.resize(newCapacity, size);
+            high = high.resize(newCapacity, size);
+            low = low.resize(newCapacity, size);
+            close = close.resize(newCapacity, size);
+            volume = volume.resize(newCapacity, size);
+            openInterest = openInterest.resize(newCapacity, size);
+        }
+
+        /**
+         * Sets node k from bars [k * FAN_OUT, (k + 1) * FAN_OUT).
+         */
+        void aggregateBars(PriceBarSeries series, int k) {
+            int first = k * FAN_OUT;
+            int last = first + FAN_OUT - 1;
+
+            long h = series.getHighPriceUnscaled(first);
+            long l = series.getLowPriceUnscaled(first);
+            long v = series.getVolume(first);
+            for (int i = first + 1; i <= last; i++) {
+                h = Math.max(h, series.getHighPriceUnscaled(i));
+                l = Math.min(l, series.getLowPriceUnscaled(i));
+                v += series.getVolume(i);
+            }
+
+            open.set(k, series.getOpenPriceUnscaled(first));
+            high.set(k, h);
+            low.set(k, l);
+            close.set(k, series.getClosePriceUnscaled(last));
+            volume.set(k, v);
+            openInterest.set(k, series.getOpenInterest(last));
+        }
+
+        /**
+         * Sets node k from nodes [k * FAN_OUT, (k + 1) * FAN_OUT)
+         * of the level below.
+         */
+        void aggregateNodes(Level below, int k) {
+            int first = k * FAN_OUT;
+            int last = first + FAN_OUT - 1;
+
+            long h = below.high.get(first);
+            long l = below.low.get(first);
+            long v = below.volume.get(first);
+            for (int i = first + 1; i <= last; i++) {
+                h = Math.max(h, below.high.get(i));
+                l = Math.min(l, below.low.get(i));
+                v += below.volume.get(i);
+            }
+
+            open.set(k, below.open.get(first));
+            high.set(k, h);
+            low.set(k, l);
+            close.set(k, below.close.get(last));
+            volume.set(k, v);
+            openInterest.set(k, below.openInterest.get(last));
+        }
+    }
+}
@@ -0,0 +1,870 @@
+package com.ryanluu.cyclehunter.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * PriceBarSeries holds a whole history of price bars in a columnar
+ * layout.  Instead of one PriceBar object per bar (a boxed Double,
+ * four BigDecimals and two boxed Integers), each field is stored in
+ * its own parallel primitive array:
+ *
+ *   timestampJd   double[]  Julian Day of the bar.
+ *   open/high/low/close  long[]  Fixed-point prices.
+ *   volume        long[]
+ *   openInterest  long[]
+ *
+ * Prices are stored as unscaled longs with a fixed number of
+ * decimal places (the price scale) chosen per instrument.
+ * For example, with a price scale of 2, the price 1234.25 is
+ * stored as 123425.  This keeps prices exact (no binary floating
+ * point rounding), while still letting the hot loops work on
+ * primitive values that sit next to each other in memory.
+ *
+ * The columns are kept in a ColumnStorage chosen when the series is
+ * created: Java arrays by default, or direct buffers outside the
+ * heap for histories too big to keep on it.  A series read from a
+ * cache file with off-heap storage may have read-only columns mapped
+ * from the file; changing it copies them into writable ones first.
+ *
+ * Code that walks the bars one at a time can use a PriceBarCursor,
+ * a read-only view that can be moved along the series without
+ * allocating a new object per bar.  toPriceBar() makes a PriceBar
+ * of one bar for code that still wants those.
+ *
+ * This class is not thread-safe for writes.  Concurrent reads
+ * are fine once the series is fully populated.
+ */
+public class PriceBarSeries {
+
+    /**
+     * Default number of decimal places used for prices,
+     * if one is not specified.
+     */
+    public static final int DEFAULT_PRICE_SCALE = 4;
+
+    /**
+     * Maximum number of decimal places supported.  10^18 is the
+     * largest power of ten that fits in a long.
+     */
+    public static final int MAX_PRICE_SCALE = 18;
+
+    /**
+     * Initial array capacity used if one is not specified.
+     */
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    /**
+     * Number of bytes used to store one bar in the columns.
+     * (One double and six longs.)
+     */
+    public static final int BYTES_PER_BAR = 7 * 8;
+
+    /**
+     * Powers of ten, indexed by price scale.
+     */
+    private static final long[] POWERS_OF_TEN = new long[MAX_PRICE_SCALE + 1];
+    static {
+        long value = 1;
+        for (int i = 0; i <= MAX_PRICE_SCALE; i++) {
+            POWERS_OF_TEN[i] = value;
+            value *= 10;
+        }
+    }
+
+    /**
+     * Number of decimal places in the fixed-point prices.
+     */
+    private final int priceScale;
+
+    /**
+     * 10 ^ priceScale.
+     */
+    private final long priceScaleFactor;
+
+    /**
+     * 1.0 / priceScaleFactor, cached so that converting
+     * to a double is a multiply instead of a divide.
+     */
+    private final double inversePriceScaleFactor;
+
+    /**
+     * Number of bars currently in the series.
+     */
+    private int size;
+
+    /**
+     * Where the columns are kept.
+     */
+    private final ColumnStorage storage;
+
+    private DoubleColumn timestampJd;
+    private LongColumn openPrice;
+    private LongColumn highPrice;
+    private LongColumn lowPrice;
+    private LongColumn closePrice;
+    private LongColumn volume;
+    private LongColumn openInterest;
+
+    /**
+     * Multi-resolution index over the bars, built on first use.
+     * Null if it has not been built, or the bars were changed in place
+     * since it was.
+     */
+    private PriceBarPyramid pyramid = null;
+
+    /**
+     * Creates an empty series with the default price scale.
+     */
+    public PriceBarSeries() {
+        this(DEFAULT_PRICE_SCALE, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an empty series.
+     *
+     * @param priceScale Number of decimal places stored for prices.
+     */
+    public PriceBarSeries(int priceScale) {
+        this(priceScale, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an empty series.
+     *
+     * @param priceScale Number of decimal places stored for prices.
+     * @param initialCapacity Number of bars to allocate room for up front.
+     */
+    public PriceBarSeries(int priceScale, int initialCapacity) {
+        this(priceScale, initialCapacity, ColumnStorage.HEAP);
+    }
+
+    /**
+     * Creates an empty series.
+     *
+     * @param priceScale Number of decimal places stored for prices.
+     * @param initialCapacity Number of bars to allocate room for up front.
+     * @param storage Where to keep the columns.
+     */
+    public PriceBarSeries(int priceScale, int initialCapacity,
+                          ColumnStorage storage) {
+        if (priceScale < 0 || priceScale > MAX_PRICE_SCALE) {
+            throw new IllegalArgumentException(
+                    "priceScale must be between 0 and " + MAX_PRICE_SCALE +
+                    ", but was: " + priceScale);
+        }
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException(
+                    "initialCapacity cannot be negative: " + initialCapacity);
+        }
+
+        this.priceScale = priceScale;
+        this.priceScaleFactor = POWERS_OF_TEN[priceScale];
+        this.inversePriceScaleFactor = 1.0 / priceScaleFactor;
+        this.size = 0;
+        this.storage = storage;
+
+        timestampJd = storage.createDoubleColumn(initialCapacity);
+        openPrice = storage.createLongColumn(initialCapacity);
+        highPrice = storage.createLongColumn(initialCapacity);
+        lowPrice = storage.createLongColumn(initialCapacity);
+        closePrice = storage.createLongColumn(initialCapacity);
+        volume = storage.createLongColumn(initialCapacity);
+        openInterest = storage.createLongColumn(initialCapacity);
+    }
+
+    /**
+     * Creates a series that uses the given arrays as its columns.
+     * The arrays are not copied, so the caller must not modify them
+     * afterwards.  This is used when the columns have been read in
+     * bulk, for example from a cache file.
+     *
+     * @param priceScale Number of decimal places stored for prices.
+     * @param size Number of bars in the arrays.
+     * @return PriceBarSeries Series backed by the given arrays.
+     */
+    public static PriceBarSeries wrap(int priceScale, int size,
+                                      double[] timestampJd,
+                                      long[] openPrice,
+                                      long[] highPrice,
+                                      long[] lowPrice,
+                                      long[] closePrice,
+                                      long[] volume,
+                                      long[] openInterest) {
+
+        return wrap(priceScale, size,
+                HeapColumnStorage.wrap(timestampJd),
+                HeapColumnStorage.wrap(openPrice),
+                HeapColumnStorage.wrap(highPrice),
+                HeapColumnStorage.wrap(lowPrice),
+                HeapColumnStorage.wrap(closePrice),
+                HeapColumnStorage.wrap(volume),
+                HeapColumnStorage.wrap(openInterest));
+    }
+
+    /**
+     * Creates a series that uses the given columns, which must all be
+     * kept in the same storage.  The columns are not copied, so the
+     * caller must not modify them afterwards.  They may be read-only,
+     * such as columns mapped from a cache file.
+     *
+     * @param priceScale Number of decimal places stored for prices.
+     * @param size Number of bars in the columns.
+     * @return PriceBarSeries Series backed by the given columns.
+     */
+    public static PriceBarSeries wrap(int priceScale, int size,
+                                      DoubleColumn timestampJd,
+                                      LongColumn openPrice,
+                                      LongColumn highPrice,
+                                      LongColumn lowPrice,
+                                      LongColumn closePrice,
+                                      LongColumn volume,
+                                      LongColumn openInterest) {
+
+        ColumnStorage storage = timestampJd.getStorage();
+        PriceBarSeries rv = new PriceBarSeries(priceScale, 0, storage);
+
+        LongColumn[] columns = { openPrice, highPrice, lowPrice, closePrice,
+                volume, openInterest };
+        if (timestampJd.capacity() < size) {
+            throw new IllegalArgumentException("Column is smaller than size.");
+        }
+        for (LongColumn column : columns) {
+            if (column.capacity() < size) {
+                throw new IllegalArgumentException("Column is smaller than size.");
+            }
+            if (column.getStorage() != storage) {
+                throw new IllegalArgumentException(
+                        "Columns are kept in different storage.");
+            }
+        }
+
+        rv.timestampJd = timestampJd;
+        rv.openPrice = openPrice;
+        rv.highPrice = highPrice;
+        rv.lowPrice = lowPrice;
+        rv.closePrice = closePrice;
+        rv.volume = volume;
+        rv.openInterest = openInterest;
+        rv.size = size;
+        return rv;
+    }
+
+    /**
+     * Returns 10 ^ scale.
+     *
+     * @param scale Number of decimal places.  Must be between 0 and
+     *              MAX_PRICE_SCALE.
+     * @return long 10 raised to the given power.
+     */
+    public static long powerOfTen(int scale) {
+        return POWERS_OF_TEN[scale];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    public long getPriceScaleFactor() {
+        return priceScaleFactor;
+    }
+
+    public ColumnStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns true if the columns cannot be changed where they are,
+     * because they are mapped from a file.  Changing the series copies
+     * them first.
+     */
+    public boolean isReadOnly() {
+        return timestampJd.isReadOnly();
+    }
+
+    /**
+     * Makes sure the columns can hold at least the given number of bars
+     * without growing again.
+     *
+     * @param minCapacity Number of bars.
+     */
+    public void ensureCapacity(int minCapacity) {
+        int capacity = timestampJd.capacity();
+        if (minCapacity <= capacity) {
+            return;
+        }
+
+        // Grow by half again, like ArrayList does, so that
+        // appending one bar at a time is amortized constant time.
+        int newCapacity = capacity + (capacity >> 1);
+        if (newCapacity < minCapacity) {
+            newCapacity = minCapacity;
+        }
+        if (newCapacity < 0) {
+            // Overflow.
+            newCapacity = Integer.MAX_VALUE - 8;
+        }
+
+        resize(newCapacity);
+    }
+
+    /**
+     * Replaces the columns with writable ones of the given capacity,
+     * holding the bars in the series.
+     */
+    private void resize(int newCapacity) {
+        timestampJd = timestampJd.resize(newCapacity, size);
+        openPrice = openPrice.resize(newCapacity, size);
+        highPrice = highPrice.resize(newCapacity, size);
+        lowPrice = lowPrice.resize(newCapacity, size);
+        closePrice = closePrice.resize(newCapacity, size);
+        volume = volume.resize(newCapacity, size);
+        openInterest = openInterest.resize(newCapacity, size);
+    }
+
+    /**
+     * Copies read-only columns into writable ones, before a bar is
+     * changed in place.
+     */
+    private void ensureWritable() {
+        if (timestampJd.isReadOnly()) {
+            resize(timestampJd.capacity());
+        }
+    }
+
+    /**
+     * Shrinks the columns so that they are exactly as big as the
+     * number of bars in the series.  Useful after a load has finished.
+     */
+    public void trimToSize() {
+        if (timestampJd.capacity() == size) {
+            return;
+        }
+
+        resize(size);
+    }
+
+    /**
+     * Removes all bars.  The allocated capacity is kept.
+     */
+    public void clear() {
+        size = 0;
+        pyramid = null;
+    }
+
+    /**
+     * Appends a bar to the end of the series.
+     * Prices are given in unscaled fixed-point form, using this
+     * series' price scale.
+     */
+    public void append(double timestampJd,
+                       long openPriceUnscaled,
+                       long highPriceUnscaled,
+                       long lowPriceUnscaled,
+                       long closePriceUnscaled,
+                       long volume,
+                       long openInterest) {
+
+        if (size == this.timestampJd.capacity()) {
+            ensureCapacity(size + 1);
+        }
+        else {
+            ensureWritable();
+        }
+
+        int i = size;
+        this.timestampJd.set(i, timestampJd);
+        this.openPrice.set(i, openPriceUnscaled);
+        this.highPrice.set(i, highPriceUnscaled);
+        this.lowPrice.set(i, lowPriceUnscaled);
+        this.closePrice.set(i, closePriceUnscaled);
+        this.volume.set(i, volume);
+        this.openInterest.set(i, openInterest);
+        size++;
+    }
+
+    /**
+     * Appends a PriceBar to the end of the series.
+     * Prices are rounded (HALF_UP) to this series' price scale.
+     *
+     * @param priceBar PriceBar to copy the values of.
+     */
+    public void append(PriceBar priceBar) {
+        append(priceBar.getTimestampJd(),
+                toUnscaledPrice(priceBar.getOpenPrice()),
+                toUnscaledPrice(priceBar.getHighPrice()),
+                toUnscaledPrice(priceBar.getLowPrice()),
+                toUnscaledPrice(priceBar.getClosePrice()),
+                priceBar.getVolume(),
+                priceBar.getOpenInterest());
+    }
+
+    /**
+     * Appends every bar of another series onto the end of this one.
+     * The other series must use the same price scale.
+     *
+     * @param other Series to copy the bars from.
+     */
+    public void appendAll(PriceBarSeries other) {
+        if (other.priceScale != priceScale) {
+            throw new IllegalArgumentException(
+                    "Cannot append a series with price scale " +
+                    other.priceScale + " onto a series with price scale " +
+                    priceScale + ".");
+        }
+
+        int n = other.size;
+        ensureCapacity(size + n);
+        ensureWritable();
+
+        timestampJd.copyFrom(other.timestampJd, 0, size, n);
+        openPrice.copyFrom(other.openPrice, 0, size, n);
+        highPrice.copyFrom(other.highPrice, 0, size, n);
+        lowPrice.copyFrom(other.lowPrice, 0, size, n);
+        closePrice.copyFrom(other.closePrice, 0, size, n);
+        volume.copyFrom(other.volume, 0, size, n);
+        openInterest.copyFrom(other.openInterest, 0, size, n);
+        size += n;
+    }
+
+    /**
+     * Converts a BigDecimal price into unscaled fixed-point form
+     * using this series' price scale.  Extra decimal places are
+     * rounded (HALF_UP).
+     *
+     * @param price Price to convert.
+     * @return long Unscaled price.
+     * @throws ArithmeticException If the unscaled price does not
+     *                             fit in a long.
+     */
+    public long toUnscaledPrice(BigDecimal price) {
+        return price.setScale(priceScale, RoundingMode.HALF_UP)
+                .unscaledValue().longValueExact();
+    }
+
+    /**
+     * Converts a double price into unscaled fixed-point form
+     * using this series' price scale.
+     *
+     * @param price Price to convert.
+     * @return long Unscaled price.
+     */
+    public long toUnscaledPrice(double price) {
+        return Math.round(price * priceScaleFactor);
+    }
+
+    /**
+     * Converts an unscaled fixed-point price into a double.
+     *
+     * @param unscaledPrice Unscaled price.
+     * @return double Price value.
+     */
+    public double toPrice(long unscaledPrice) {
+        return unscaledPrice * inversePriceScaleFactor;
+    }
+
+    /**
+     * Converts an unscaled fixed-point price into an exact BigDecimal.
+     *
+     * @param unscaledPrice Unscaled price.
+     * @return BigDecimal Price value.
+     */
+    public BigDecimal toPriceDecimal(long unscaledPrice) {
+        return BigDecimal.valueOf(unscaledPrice, priceScale);
+    }
+
+    public double getTimestampJd(int index) {
+        return timestampJd.get(index);
+    }
+
+    public long getOpenPriceUnscaled(int index) {
+        return openPrice.get(index);
+    }
+
+    public long getHighPriceUnscaled(int index) {
+        return highPrice.get(index);
+    }
+
+    public long getLowPriceUnscaled(int index) {
+        return lowPrice.get(index);
+    }
+
+    public long getClosePriceUnscaled(int index) {
+        return closePrice.get(index);
+    }
+
+    public double getOpenPrice(int index) {
+        return openPrice.get(index) * inversePriceScaleFactor;
+    }
+
+    public double getHighPrice(int index) {
+        return highPrice.get(index) * inversePriceScaleFactor;
+    }
+
+    public double getLowPrice(int index) {
+        return lowPrice.get(index) * inversePriceScaleFactor;
+    }
+
+    public double getClosePrice(int index) {
+        return closePrice.get(index) * inversePriceScaleFactor;
+    }
+
+    public long getVolume(int index) {
+        return volume.get(index);
+    }
+
+    public long getOpenInterest(int index) {
+        return openInterest.get(index);
+    }
+
+    public void setTimestampJd(int index, double value) {
+        checkIndex(index);
+        ensureWritable();
+        timestampJd.set(index, value);
+        pyramid = null;
+    }
+
+    public void setOpenPriceUnscaled(int index, long value) {
+        checkIndex(index);
+        ensureWritable();
+        openPrice.set(index, value);
+        pyramid = null;
+    }
+
+    public void setHighPriceUnscaled(int index, long value) {
+        checkIndex(index);
+        ensureWritable();
+        highPrice.set(index, value);
+        pyramid = null;
+    }
+
+    public void setLowPriceUnscaled(int index, long value) {
+        checkIndex(index);
+        ensureWritable();
+        lowPrice.set(index, value);
+        pyramid = null;
+    }
+
+    public void setClosePriceUnscaled(int index, long value) {
+        checkIndex(index);
+        ensureWritable();
+        closePrice.set(index, value);
+        pyramid = null;
+    }
+
+    public void setVolume(int index, long value) {
+        checkIndex(index);
+        ensureWritable();
+        volume.set(index, value);
+        pyramid = null;
+    }
+
+    public void setOpenInterest(int index, long value) {
+        checkIndex(index);
+        ensureWritable();
+        openInterest.set(index, value);
+        pyramid = null;
+    }
+
+    /**
+     * Counts the places where a bar's timestamp is earlier than the
+     * timestamp of the bar before it.  Equal timestamps are allowed.
+     *
+     * @return int Number of out-of-order bars.  0 means the series is
+     *             sorted by timestamp.
+     */
+    public int countTimestampInversions() {
+        int count = 0;
+        for (int i = 1; i < size; i++) {
+            if (timestampJd.get(i) < timestampJd.get(i - 1)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sorts the bars by timestamp.  The sort is stable, so bars with
+     * equal timestamps keep their relative order.
+     */
+    public void sortByTimestamp() {
+        if (countTimestampInversions() == 0) {
+            return;
+        }
+
+        // Work out the sorted order of the bar indexes,
+        // then rearrange every column into that order.
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSortByTimestamp(order, new int[size], 0, size);
+
+        int capacity = timestampJd.capacity();
+        DoubleColumn sortedTimestamps = storage.createDoubleColumn(capacity);
+        for (int i = 0; i < size; i++) {
+            sortedTimestamps.set(i, timestampJd.get(order[i]));
+        }
+        timestampJd = sortedTimestamps;
+
+        openPrice = permute(openPrice, order);
+        highPrice = permute(highPrice, order);
+        lowPrice = permute(lowPrice, order);
+        closePrice = permute(closePrice, order);
+        volume = permute(volume, order);
+        openInterest = permute(openInterest, order);
+        pyramid = null;
+    }
+
+    private LongColumn permute(LongColumn column, int[] order) {
+        LongColumn rv = storage.createLongColumn(column.capacity());
+        for (int i = 0; i < size; i++) {
+            rv.set(i, column.get(order[i]));
+        }
+        return rv;
+    }
+
+    /**
+     * Stable merge sort of bar indexes, [from, to), by timestamp.
+     */
+    private void mergeSortByTimestamp(int[] order, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+
+        int mid = (from + to) >>> 1;
+        mergeSortByTimestamp(order, scratch, from, mid);
+        mergeSortByTimestamp(order, scratch, mid, to);
+
+        // Already in order.
+        if (timestampJd.get(order[mid - 1]) <= timestampJd.get(order[mid])) {
+            return;
+        }
+
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to ||
+                    (left < mid &&
+                     timestampJd.get(scratch[left]) <= timestampJd.get(scratch[right]))) {
+                order[i] = scratch[left++];
+            }
+            else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+
+    /**
+     * Returns the first timestamp in the series.
+     * The series must not be empty.
+     */
+    public double getFirstTimestampJd() {
+        return timestampJd.get(0);
+    }
+
+    /**
+     * Returns the last timestamp in the series.
+     * The series must not be empty.
+     */
+    public double getLastTimestampJd() {
+        return timestampJd.get(size - 1);
+    }
+
+    /**
+     * Finds the index of the last bar whose timestamp is less than
+     * or equal to the given Julian Day.  The series timestamps must be
+     * sorted in ascending order.
+     *
+     * @param jd Julian Day to search for.
+     * @return int Index of the bar, or -1 if jd is before the first bar.
+     */
+    public int floorIndex(double jd) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timestampJd.get(mid) <= jd) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+
+        return high;
+    }
+
+    /**
+     * Finds the index of the bar whose timestamp is closest to the
+     * given Julian Day.  The series timestamps must be sorted in
+     * ascending order.
+     *
+     * @param jd Julian Day to search for.
+     * @return int Index of the nearest bar, or -1 if the series is empty.
+     */
+    public int nearestIndex(double jd) {
+        if (size == 0) {
+            return -1;
+        }
+
+        int floor = floorIndex(jd);
+        if (floor < 0) {
+            return 0;
+        }
+        if (floor == size - 1) {
+            return floor;
+        }
+
+        double before = jd - timestampJd.get(floor);
+        double after = timestampJd.get(floor + 1) - jd;
+        return (after < before) ? floor + 1 : floor;
+    }
+
+    /**
+     * Bulk copy of timestamps into a caller-supplied array.
+     *
+     * @param fromIndex First bar index to copy (inclusive).
+     * @param toIndex Last bar index to copy (exclusive).
+     * @param dest Destination array.
+     * @param destOffset Offset in the destination array to copy to.
+     */
+    public void copyTimestamps(int fromIndex, int toIndex,
+                               double[] dest, int destOffset) {
+        checkRange(fromIndex, toIndex);
+        timestampJd.copyTo(fromIndex, toIndex, dest, destOffset);
+    }
+
+    /**
+     * Bulk copy of close prices, converted to doubles,
+     * into a caller-supplied array.
+     *
+     * @param fromIndex First bar index to copy (inclusive).
+     * @param toIndex Last bar index to copy (exclusive).
+     * @param dest Destination array.
+     * @param destOffset Offset in the destination array to copy to.
+     */
+    public void copyClosePrices(int fromIndex, int toIndex,
+                                double[] dest, int destOffset) {
+        checkRange(fromIndex, toIndex);
+        double factor = inversePriceScaleFactor;
+        for (int i = fromIndex, j = destOffset; i < toIndex; i++, j++) {
+            dest[j] = closePrice.get(i) * factor;
+        }
+    }
+
+    /**
+     * Returns a new array holding all the timestamps in the series.
+     */
+    public double[] toTimestampArray() {
+        double[] rv = new double[size];
+        timestampJd.copyTo(0, size, rv, 0);
+        return rv;
+    }
+
+    /**
+     * Returns a new array holding all the close prices in the series,
+     * converted to doubles.
+     */
+    public double[] toClosePriceArray() {
+        double[] rv = new double[size];
+        copyClosePrices(0, size, rv, 0);
+        return rv;
+    }
+
+    /**
+     * Creates a new PriceBar holding a copy of the values of
+     * the bar at the given index.
+     *
+     * @param index Index of the bar.
+     * @return PriceBar New PriceBar object.
+     */
+    public PriceBar toPriceBar(int index) {
+        checkIndex(index);
+        return new PriceBar(timestampJd.get(index),
+                toPriceDecimal(openPrice.get(index)),
+                toPriceDecimal(highPrice.get(index)),
+                toPriceDecimal(lowPrice.get(index)),
+                toPriceDecimal(closePrice.get(index)),
+                PriceBarCursor.toIntSaturated(openInterest.get(index)),
+                PriceBarCursor.toIntSaturated(volume.get(index)));
+    }
+
+    /**
+     * Returns a flyweight PriceBar view positioned on the first bar.
+     * Each call returns a new cursor, so separate threads should
+     * each obtain their own.
+     *
+     * @return PriceBarCursor cursor over this series.
+     */
+    public PriceBarCursor cursor() {
+        return new PriceBarCursor(this);
+    }
+
+    /**
+     * Returns the multi-resolution index over the bars, for range
+     * queries and drawing that should not have to visit every bar.
+     *
+     * The pyramid is built the first time this is called, and
+     * brought up to date with any bars appended since the last call.
+     * Changing bars in place (the setters, sortByTimestamp() and clear())
+     * discards it, so that it is rebuilt on the next call.
+     *
+     * @return PriceBarPyramid Pyramid over this series.
+     */
+    public synchronized PriceBarPyramid getPyramid() {
+        if (pyramid == null) {
+            pyramid = new PriceBarPyramid(this);
+        }
+        else {
+            pyramid.update();
+        }
+        return pyramid;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the columns,
+     * on the heap or off it.  Columns mapped from a file are counted
+     * too, though the operating system only keeps the pages that are
+     * being used in memory.
+     */
+    public long getMemoryUsageBytes() {
+        return (long) timestampJd.capacity() * BYTES_PER_BAR;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                    "Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private void checkRange(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                    "fromIndex: " + fromIndex + ", toIndex: " + toIndex +
+                    ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PriceBarSeries{" +
+                "size=" + size +
+                ", priceScale=" + priceScale +
+                ", storage=" + storage +
+                (size > 0 ? ", firstTimestampJd=" + timestampJd.get(0) +
+                        ", lastTimestampJd=" + timestampJd.get(size - 1) : "") +
+                '}';
+    }
+}
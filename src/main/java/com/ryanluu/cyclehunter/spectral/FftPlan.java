@@ -0,0 +1,173 @@
+package com.ryanluu.cyclehunter.spectral;
+
+/**
+ * A reusable plan for the power spectrum of a real signal whose length
+ * is a power of two.
+ *
+ * The signal of length n is packed into n/2 complex values (even samples
+ * as real parts, odd samples as imaginary parts), transformed with an
+ * iterative radix-2 FFT of size n/2, and then untangled into the n/2 + 1
+ * frequencies of the real signal.  This takes half the time and memory
+ * of a complex FFT of size n.
+ *
+ * The twiddle factors, the bit reversal table and the work arrays are
+ * made once, when the plan is created, so powerSpectrum() allocates
+ * nothing and a plan can be used over and over on signals of its size.
+ * Because of the work arrays, a plan must not be used by two threads
+ * at the same time.
+ */
+public final class FftPlan {
+
+    /**
+     * Length of the real signal.
+     */
+    private final int size;
+
+    /**
+     * Size of the complex FFT, size / 2.
+     */
+    private final int half;
+
+    /**
+     * cos(2 pi k / size) and sin(2 pi k / size), for k < size / 2.
+     * The complex FFT of size half uses every other entry.
+     */
+    private final double[] cos;
+    private final double[] sin;
+
+    /**
+     * Bit reversed index of each index below half.
+     */
+    private final int[] bitReverse;
+
+    /**
+     * Work arrays for the complex FFT.
+     */
+    private final double[] re;
+    private final double[] im;
+
+    /**
+     * Creates a plan.
+     *
+     * @param size Length of the signals.  Must be a power of two,
+     *             at least 4.
+     */
+    public FftPlan(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException(
+                    "FFT size must be a power of two of at least 4, but was " +
+                    size + ".");
+        }
+        this.size = size;
+        this.half = size / 2;
+
+        cos = new double[half];
+        sin = new double[half];
+        for (int k = 0; k < half; k++) {
+            double angle = 2.0 * Math.PI * k / size;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+
+        int bits = Integer.numberOfTrailingZeros(half);
+        bitReverse = new int[half];
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+
+        re = new double[half];
+        im = new double[half];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the smallest power of two that is at least n (and at least 4).
+     */
+    public static int nextPowerOfTwo(int n) {
+        if (n > (1 << 30)) {
+            throw new IllegalArgumentException("Too large for an FFT: " + n);
+        }
+        return Math.max(4, Integer.highestOneBit(Math.max(1, n - 1)) << 1);
+    }
+
+    /**
+     * Computes the power spectrum of a real signal: the squared
+     * magnitude of its discrete Fourier transform at frequencies
+     * 0, 1, ... size / 2 (in cycles per size samples).
+     *
+     * @param signal Signal of the plan's size.  Not changed.
+     * @param power Array of at least size / 2 + 1 to put the power in.
+     */
+    public void powerSpectrum(double[] signal, double[] power) {
+        if (signal.length < size || power.length < half + 1) {
+            throw new IllegalArgumentException("Arrays are too short for an FFT of size " +
+                    size + ".");
+        }
+
+        // Pack the even and odd samples as complex values,
+        // in bit reversed order.
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            re[j] = signal[2 * i];
+            im[j] = signal[2 * i + 1];
+        }
+
+        transform();
+
+        // Untangle the spectrum of the real signal.
+        power[0] = square(re[0] + im[0]);
+        power[half] = square(re[0] - im[0]);
+        for (int k = 1; k < half; k++) {
+            int m = half - k;
+
+            // Transforms of the even and odd samples.
+            double evenRe = (re[k] + re[m]) * 0.5;
+            double evenIm = (im[k] - im[m]) * 0.5;
+            double oddRe = (im[k] + im[m]) * 0.5;
+            double oddIm = -(re[k] - re[m]) * 0.5;
+
+            // X[k] = even + exp(-2 pi i k / size) * odd
+            double c = cos[k];
+            double s = sin[k];
+            double xRe = evenRe + c * oddRe + s * oddIm;
+            double xIm = evenIm + c * oddIm - s * oddRe;
+
+            power[k] = xRe * xRe + xIm * xIm;
+        }
+    }
+
+    /**
+     * In place forward FFT of re and im, which are in bit reversed order.
+     */
+    private void transform() {
+        for (int length = 2; length <= half; length <<= 1) {
+            int halfLength = length >> 1;
+
+            // Steps through the twiddle table of size / 2 entries.
+            int tableStep = size / length;
+            for (int start = 0; start < half; start += length) {
+                for (int j = 0, t = 0; j < halfLength; j++, t += tableStep) {
+                    double wRe = cos[t];
+                    double wIm = -sin[t];
+
+                    int a = start + j;
+                    int b = a + halfLength;
+                    double xRe = re[b] * wRe - im[b] * wIm;
+                    double xIm = re[b] * wIm + im[b] * wRe;
+
+                    re[b] = re[a] - xRe;
+                    im[b] = im[a] - xIm;
+                    re[a] += xRe;
+                    im[a] += xIm;
+                }
+            }
+        }
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+}
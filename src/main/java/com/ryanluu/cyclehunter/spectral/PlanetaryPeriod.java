@@ -0,0 +1,93 @@
+package com.ryanluu.cyclehunter.spectral;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A planetary cycle length, in days, that a spectral peak can be
+ * compared with.
+ *
+ * A sidereal period is the time a planet takes to go once around the
+ * zodiac as seen from the Sun, which is the cycle of its heliocentric
+ * longitude.  A synodic period is the time between two conjunctions of
+ * the planet with the Sun as seen from the Earth, which is the cycle of
+ * its geocentric phases (and, for the outer planets, of its retrograde
+ * loops).  The Sun's sidereal period is the year, and the Moon's
+ * sidereal and synodic periods are its orbit and its lunation.
+ */
+public class PlanetaryPeriod {
+
+    public enum Kind {
+        SIDEREAL,
+        SYNODIC
+    }
+
+    /**
+     * Mean periods, in days.
+     */
+    public static final List<PlanetaryPeriod> ALL;
+
+    static {
+        List<PlanetaryPeriod> periods = new ArrayList<>();
+
+        periods.add(new PlanetaryPeriod("Sun", Kind.SIDEREAL, 365.256363));
+        periods.add(new PlanetaryPeriod("Moon", Kind.SIDEREAL, 27.321662));
+        periods.add(new PlanetaryPeriod("Moon", Kind.SYNODIC, 29.530589));
+        periods.add(new PlanetaryPeriod("Mercury", Kind.SIDEREAL, 87.9691));
+        periods.add(new PlanetaryPeriod("Mercury", Kind.SYNODIC, 115.88));
+        periods.add(new PlanetaryPeriod("Venus", Kind.SIDEREAL, 224.701));
+        periods.add(new PlanetaryPeriod("Venus", Kind.SYNODIC, 583.92));
+        periods.add(new PlanetaryPeriod("Mars", Kind.SIDEREAL, 686.980));
+        periods.add(new PlanetaryPeriod("Mars", Kind.SYNODIC, 779.94));
+        periods.add(new PlanetaryPeriod("Jupiter", Kind.SIDEREAL, 4332.589));
+        periods.add(new PlanetaryPeriod("Jupiter", Kind.SYNODIC, 398.88));
+        periods.add(new PlanetaryPeriod("Saturn", Kind.SIDEREAL, 10759.22));
+        periods.add(new PlanetaryPeriod("Saturn", Kind.SYNODIC, 378.09));
+        periods.add(new PlanetaryPeriod("Uranus", Kind.SIDEREAL, 30688.5));
+        periods.add(new PlanetaryPeriod("Uranus", Kind.SYNODIC, 369.66));
+        periods.add(new PlanetaryPeriod("Neptune", Kind.SIDEREAL, 60182.0));
+        periods.add(new PlanetaryPeriod("Neptune", Kind.SYNODIC, 367.49));
+        periods.add(new PlanetaryPeriod("Pluto", Kind.SIDEREAL, 90560.0));
+        periods.add(new PlanetaryPeriod("Pluto", Kind.SYNODIC, 366.73));
+
+        // Regression of the lunar nodes around the zodiac.
+        periods.add(new PlanetaryPeriod("TrueNorthNode", Kind.SIDEREAL, 6798.38));
+
+        ALL = Collections.unmodifiableList(periods);
+    }
+
+    private final String planetName;
+    private final Kind kind;
+    private final double periodDays;
+
+    public PlanetaryPeriod(String planetName, Kind kind, double periodDays) {
+        this.planetName = planetName;
+        this.kind = kind;
+        this.periodDays = periodDays;
+    }
+
+    public String getPlanetName() {
+        return planetName;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public double getPeriodDays() {
+        return periodDays;
+    }
+
+    /**
+     * Returns a name such as "Jupiter synodic".
+     */
+    public String getDisplayName() {
+        return planetName + " " + kind.name().toLowerCase();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%.2f days)", getDisplayName(), periodDays);
+    }
+}
@@ -0,0 +1,104 @@
+package com.ryanluu.cyclehunter.spectral;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a SpectralAnalyzer run over a price series: how the series
+ * was sampled, and the strongest peaks of its power spectrum.
+ */
+public class SpectralAnalysis {
+
+    private final double sampleStepDays;
+    private final int numSamples;
+    private final int fftSize;
+    private final boolean logPrices;
+    private final List<SpectralPeak> peaks;
+
+    public SpectralAnalysis(double sampleStepDays,
+                            int numSamples,
+                            int fftSize,
+                            boolean logPrices,
+                            List<SpectralPeak> peaks) {
+        this.sampleStepDays = sampleStepDays;
+        this.numSamples = numSamples;
+        this.fftSize = fftSize;
+        this.logPrices = logPrices;
+        this.peaks = Collections.unmodifiableList(peaks);
+    }
+
+    /**
+     * Returns the spacing of the uniform grid the prices were
+     * resampled to, in days.
+     */
+    public double getSampleStepDays() {
+        return sampleStepDays;
+    }
+
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * Returns the size of the FFT, which is numSamples zero padded
+     * to a power of two.
+     */
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    /**
+     * Returns true if the spectrum is of the logarithm of the close
+     * prices, or false if it is of the close prices themselves
+     * (because some were not positive).
+     */
+    public boolean isLogPrices() {
+        return logPrices;
+    }
+
+    /**
+     * Returns the period, in days, that the spectrum can tell apart
+     * from its neighbours at a given period.
+     */
+    public double getResolutionDays(double periodDays) {
+        return periodDays * periodDays / (fftSize * sampleStepDays);
+    }
+
+    /**
+     * Returns the peaks, strongest first.
+     */
+    public List<SpectralPeak> getPeaks() {
+        return peaks;
+    }
+
+    /**
+     * Formats the peaks as a text table, one row per peak.
+     */
+    public String formatReport() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(String.format("Spectrum of %s close prices: %d samples every %.4f days, FFT size %d.%n",
+                (logPrices ? "log" : "raw"), numSamples, sampleStepDays, fftSize));
+        sb.append(String.format("%4s  %12s  %10s  %8s  %s%n",
+                "Rank", "Period days", "+/- days", "Power %", "Planetary periods nearby"));
+
+        int rank = 1;
+        for (SpectralPeak peak : peaks) {
+            StringBuilder matches = new StringBuilder();
+            for (SpectralPeak.Match match : peak.getMatches()) {
+                if (matches.length() > 0) {
+                    matches.append(", ");
+                }
+                matches.append(match);
+            }
+            sb.append(String.format("%4d  %12.2f  %10.2f  %8.3f  %s%n",
+                    rank++,
+                    peak.getPeriodDays(),
+                    getResolutionDays(peak.getPeriodDays()) / 2.0,
+                    peak.getRelativePower() * 100.0,
+                    matches));
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,407 @@
+package com.ryanluu.cyclehunter.spectral;
+
+import com.ryanluu.cyclehunter.data.ProgressListener;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Looks for cycles in a price series with a Fourier transform, as a
+ * complement to the planetary lookbacks: the strongest periods of the
+ * prices are found first, and then compared with the planets'
+ * sidereal and synodic periods.
+ *
+ * The bars of a price series are not evenly spaced (there are no bars
+ * on weekends and holidays, and intraday data has gaps overnight), so
+ * the close prices are first resampled to a uniform grid by linear
+ * interpolation in time.  The grid step is the median spacing of the
+ * bars, made coarser if needed to keep the grid under maxSamples.  The
+ * samples are the logarithm of the close, with a straight line fitted
+ * and taken away so the trend does not swamp the cycles, and a Hann
+ * window applied to keep each peak from leaking far across the
+ * spectrum.  They are then zero padded to a power of two for the FFT.
+ *
+ * Peaks are the local maxima of the power spectrum with at least
+ * MIN_CYCLES cycles in the data.  The period of each is refined by
+ * fitting a parabola to the log of the power around it.
+ *
+ * The sample and spectrum arrays and the FftPlan are kept between runs
+ * and only made again when the FFT size changes, so running again on a
+ * series of about the same length allocates next to nothing.  An
+ * analyzer runs one analysis at a time.  It is meant to be run on a
+ * TaskScheduler thread; if the thread is interrupted, the analysis
+ * stops with a CancellationException.
+ */
+public class SpectralAnalyzer {
+
+    private static final Logger logger = Logger.getLogger(SpectralAnalyzer.class);
+
+    /**
+     * Default number of peaks reported.
+     */
+    public static final int DEFAULT_NUM_PEAKS = 12;
+
+    /**
+     * Default relative difference within which a planetary period
+     * is said to match a peak.
+     */
+    public static final double DEFAULT_MATCH_TOLERANCE = 0.03;
+
+    /**
+     * Default highest harmonic of a planetary period that is
+     * compared with the peaks.
+     */
+    public static final int DEFAULT_MAX_HARMONIC = 4;
+
+    /**
+     * Default largest number of samples in the uniform grid.
+     */
+    public static final int DEFAULT_MAX_SAMPLES = 1 << 22;
+
+    /**
+     * Least number of whole cycles in the data for a period to be
+     * reported as a peak.
+     */
+    public static final double MIN_CYCLES = 2.0;
+
+    /**
+     * Least number of samples to analyze.
+     */
+    private static final int MIN_SAMPLES = 16;
+
+    /**
+     * Most bar spacings looked at for the median spacing.
+     */
+    private static final int MAX_SPACINGS_SAMPLED = 4096;
+
+    private int numPeaks = DEFAULT_NUM_PEAKS;
+
+    private double matchTolerance = DEFAULT_MATCH_TOLERANCE;
+
+    private int maxHarmonic = DEFAULT_MAX_HARMONIC;
+
+    private int maxSamples = DEFAULT_MAX_SAMPLES;
+
+    /**
+     * Reused between runs of the same FFT size.
+     */
+    private FftPlan plan = null;
+    private double[] samples = null;
+    private double[] power = null;
+
+    public int getNumPeaks() {
+        return numPeaks;
+    }
+
+    public void setNumPeaks(int numPeaks) {
+        if (numPeaks < 1) {
+            throw new IllegalArgumentException(
+                    "Number of peaks must be at least 1, but was " +
+                    numPeaks + ".");
+        }
+        this.numPeaks = numPeaks;
+    }
+
+    public double getMatchTolerance() {
+        return matchTolerance;
+    }
+
+    public void setMatchTolerance(double matchTolerance) {
+        if (!(matchTolerance >= 0.0)) {
+            throw new IllegalArgumentException(
+                    "Match tolerance must not be negative, but was " +
+                    matchTolerance + ".");
+        }
+        this.matchTolerance = matchTolerance;
+    }
+
+    public int getMaxHarmonic() {
+        return maxHarmonic;
+    }
+
+    public void setMaxHarmonic(int maxHarmonic) {
+        if (maxHarmonic < 1) {
+            throw new IllegalArgumentException(
+                    "Highest harmonic must be at least 1, but was " +
+                    maxHarmonic + ".");
+        }
+        this.maxHarmonic = maxHarmonic;
+    }
+
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    public void setMaxSamples(int maxSamples) {
+        if (maxSamples < MIN_SAMPLES || maxSamples > (1 << 30)) {
+            throw new IllegalArgumentException(
+                    "Largest number of samples must be from " + MIN_SAMPLES +
+                    " to " + (1 << 30) + ", but was " + maxSamples + ".");
+        }
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * Analyzes the close prices of a series.
+     *
+     * @param series Price bars, sorted by timestamp.
+     * @param progressListener Told after each stage.  May be null.
+     * @return SpectralAnalysis Strongest peaks of the spectrum.
+     */
+    public synchronized SpectralAnalysis analyze(PriceBarSeries series,
+                                                 ProgressListener progressListener) {
+        final int numStages = 4;
+        ProgressListener progress =
+                (progressListener != null) ? progressListener : ProgressListener.NONE;
+        long startTime = System.nanoTime();
+
+        int numBars = series.size();
+        if (numBars < 2) {
+            throw new IllegalArgumentException(
+                    "At least 2 price bars are needed for a spectrum, but there are " +
+                    numBars + ".");
+        }
+
+        double firstJd = series.getFirstTimestampJd();
+        double span = series.getLastTimestampJd() - firstJd;
+        double step = getMedianSpacing(series);
+        if (!(step > 0.0) || !(span > 0.0)) {
+            throw new IllegalArgumentException(
+                    "The price bars do not span any time.");
+        }
+        if (span / step + 1.0 > maxSamples) {
+            step = span / (maxSamples - 1);
+        }
+        int numSamples = (int) Math.floor(span / step + 1e-9) + 1;
+        if (numSamples < MIN_SAMPLES) {
+            throw new IllegalArgumentException(
+                    "At least " + MIN_SAMPLES + " samples are needed for a spectrum, " +
+                    "but the price bars only give " + numSamples + ".");
+        }
+
+        int fftSize = FftPlan.nextPowerOfTwo(numSamples);
+        if (plan == null || plan.getSize() != fftSize) {
+            // Let go of the old arrays before making the new ones.
+            plan = null;
+            samples = null;
+            power = null;
+
+            plan = new FftPlan(fftSize);
+            samples = new double[fftSize];
+            power = new double[fftSize / 2 + 1];
+        }
+        progress.progress(1, numStages);
+        checkInterrupted();
+
+        boolean logPrices = resample(series, firstJd, step, numSamples);
+        detrendAndWindow(numSamples);
+        Arrays.fill(samples, numSamples, fftSize, 0.0);
+        progress.progress(2, numStages);
+        checkInterrupted();
+
+        plan.powerSpectrum(samples, power);
+        progress.progress(3, numStages);
+        checkInterrupted();
+
+        List<SpectralPeak> peaks = findPeaks(numSamples, fftSize, step);
+        progress.progress(4, numStages);
+
+        logger.info("Spectrum of " + numBars + " bars: " + numSamples +
+                " samples every " + step + " days, FFT size " + fftSize +
+                ", in " + (System.nanoTime() - startTime) / 1000000 + " ms.");
+
+        return new SpectralAnalysis(step, numSamples, fftSize, logPrices, peaks);
+    }
+
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Spectral analysis interrupted.");
+        }
+    }
+
+    /**
+     * Returns the median time between bars, in days, from an evenly
+     * spread selection of at most MAX_SPACINGS_SAMPLED spacings.
+     * Bars with the same timestamp are not counted.
+     */
+    static double getMedianSpacing(PriceBarSeries series) {
+        int numSpacings = series.size() - 1;
+        int count = Math.min(numSpacings, MAX_SPACINGS_SAMPLED);
+        double[] spacings = new double[count];
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((long) i * numSpacings / count);
+            double spacing = series.getTimestampJd(index + 1) - series.getTimestampJd(index);
+            if (spacing > 0.0) {
+                spacings[used++] = spacing;
+            }
+        }
+        if (used == 0) {
+            return 0.0;
+        }
+        Arrays.sort(spacings, 0, used);
+        return spacings[used / 2];
+    }
+
+    /**
+     * Fills samples[0 .. numSamples) with the close prices interpolated
+     * at firstJd + i * step.
+     *
+     * @return boolean true if the samples are of the log of the prices,
+     *         or false if some prices were not positive.
+     */
+    private boolean resample(PriceBarSeries series, double firstJd, double step, int numSamples) {
+        int numBars = series.size();
+
+        boolean logPrices = true;
+        for (int i = 0; i < numBars && logPrices; i++) {
+            if (series.getClosePriceUnscaled(i) <= 0) {
+                logPrices = false;
+            }
+        }
+
+        // Bars before and after the sample time.
+        int bar = 0;
+        double t0 = series.getTimestampJd(0);
+        double t1 = series.getTimestampJd(1);
+        double v0 = sampleValue(series, 0, logPrices);
+        double v1 = sampleValue(series, 1, logPrices);
+
+        for (int i = 0; i < numSamples; i++) {
+            double t = firstJd + i * step;
+            while (t > t1 && bar + 2 < numBars) {
+                bar++;
+                t0 = t1;
+                v0 = v1;
+                t1 = series.getTimestampJd(bar + 1);
+                v1 = sampleValue(series, bar + 1, logPrices);
+            }
+
+            if (t1 > t0) {
+                double f = Math.min(1.0, Math.max(0.0, (t - t0) / (t1 - t0)));
+                samples[i] = v0 + f * (v1 - v0);
+            }
+            else {
+                samples[i] = v1;
+            }
+        }
+
+        return logPrices;
+    }
+
+    private static double sampleValue(PriceBarSeries series, int index, boolean logPrices) {
+        double close = series.getClosePrice(index);
+        return logPrices ? Math.log(close) : close;
+    }
+
+    /**
+     * Takes the least squares line away from samples[0 .. numSamples)
+     * and applies a Hann window.
+     */
+    private void detrendAndWindow(int numSamples) {
+        double n = numSamples;
+        double sumX = n * (n - 1) / 2.0;
+        double sumXX = (n - 1) * n * (2 * n - 1) / 6.0;
+        double sumY = 0.0;
+        double sumXY = 0.0;
+        for (int i = 0; i < numSamples; i++) {
+            sumY += samples[i];
+            sumXY += i * samples[i];
+        }
+
+        double slope = (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+        double intercept = (sumY - slope * sumX) / n;
+
+        double angleStep = 2.0 * Math.PI / (numSamples - 1);
+        for (int i = 0; i < numSamples; i++) {
+            double window = 0.5 * (1.0 - Math.cos(angleStep * i));
+            samples[i] = (samples[i] - intercept - slope * i) * window;
+        }
+    }
+
+    /**
+     * Finds the numPeaks strongest local maxima of the power spectrum
+     * and matches each with the planetary periods near it.
+     */
+    private List<SpectralPeak> findPeaks(int numSamples, int fftSize, double step) {
+        int half = fftSize / 2;
+
+        double totalPower = 0.0;
+        for (int k = 1; k <= half; k++) {
+            totalPower += power[k];
+        }
+
+        // Frequency k has k * numSamples / fftSize cycles in the data.
+        int minK = Math.max(1, (int) Math.ceil(MIN_CYCLES * fftSize / numSamples));
+
+        // Strongest peaks so far, strongest first.
+        int[] peakK = new int[numPeaks];
+        int numFound = 0;
+        for (int k = Math.max(2, minK); k < half; k++) {
+            double p = power[k];
+            if (!(p > power[k - 1] && p >= power[k + 1])) {
+                continue;
+            }
+            if (numFound == numPeaks && p <= power[peakK[numFound - 1]]) {
+                continue;
+            }
+            int pos = Math.min(numFound, numPeaks - 1);
+            while (pos > 0 && power[peakK[pos - 1]] < p) {
+                peakK[pos] = peakK[pos - 1];
+                pos--;
+            }
+            peakK[pos] = k;
+            numFound = Math.min(numFound + 1, numPeaks);
+        }
+
+        // Return value.
+        List<SpectralPeak> rv = new ArrayList<>();
+
+        for (int i = 0; i < numFound; i++) {
+            int k = peakK[i];
+
+            // Parabola through the log power at k - 1, k, k + 1.
+            double a = Math.log(power[k - 1]);
+            double b = Math.log(power[k]);
+            double c = Math.log(power[k + 1]);
+            double denominator = a - 2.0 * b + c;
+            double offset = (denominator < 0.0) ? 0.5 * (a - c) / denominator : 0.0;
+            if (!(Math.abs(offset) <= 0.5)) {
+                offset = 0.0;
+            }
+
+            double periodDays = fftSize * step / (k + offset);
+            rv.add(new SpectralPeak(periodDays, power[k],
+                    (totalPower > 0.0) ? power[k] / totalPower : 0.0,
+                    findMatches(periodDays)));
+        }
+
+        return rv;
+    }
+
+    /**
+     * Returns the planetary periods, and harmonics of them up to
+     * maxHarmonic, within matchTolerance of a period.
+     */
+    List<SpectralPeak.Match> findMatches(double periodDays) {
+        // Return value.
+        List<SpectralPeak.Match> rv = new ArrayList<>();
+
+        for (PlanetaryPeriod planetaryPeriod : PlanetaryPeriod.ALL) {
+            for (int harmonic = 1; harmonic <= maxHarmonic; harmonic++) {
+                double target = planetaryPeriod.getPeriodDays() / harmonic;
+                double error = (periodDays - target) / target;
+                if (Math.abs(error) <= matchTolerance) {
+                    rv.add(new SpectralPeak.Match(planetaryPeriod, harmonic, error));
+                }
+            }
+        }
+        rv.sort(SpectralPeak.Match.BY_ERROR);
+
+        return rv;
+    }
+}
@@ -0,0 +1,103 @@
+package com.ryanluu.cyclehunter.spectral;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A peak of the power spectrum of a price series, with the planetary
+ * periods (or their harmonics) that lie near it.
+ */
+public class SpectralPeak {
+
+    /**
+     * A planetary period, or a harmonic of it, near a peak.
+     */
+    public static class Match {
+
+        public static final Comparator<Match> BY_ERROR =
+                Comparator.comparingDouble(m -> Math.abs(m.getRelativeError()));
+
+        private final PlanetaryPeriod planetaryPeriod;
+        private final int harmonic;
+        private final double relativeError;
+
+        public Match(PlanetaryPeriod planetaryPeriod, int harmonic, double relativeError) {
+            this.planetaryPeriod = planetaryPeriod;
+            this.harmonic = harmonic;
+            this.relativeError = relativeError;
+        }
+
+        public PlanetaryPeriod getPlanetaryPeriod() {
+            return planetaryPeriod;
+        }
+
+        /**
+         * Returns which harmonic of the period matched: 1 for the
+         * period itself, 2 for half of it, and so on.
+         */
+        public int getHarmonic() {
+            return harmonic;
+        }
+
+        /**
+         * Returns (peak period - matched period) / matched period.
+         */
+        public double getRelativeError() {
+            return relativeError;
+        }
+
+        @Override
+        public String toString() {
+            String name = planetaryPeriod.getDisplayName();
+            if (harmonic > 1) {
+                name = name + " / " + harmonic;
+            }
+            return String.format("%s (%+.1f%%)", name, relativeError * 100.0);
+        }
+    }
+
+    private final double periodDays;
+    private final double power;
+    private final double relativePower;
+    private final List<Match> matches;
+
+    public SpectralPeak(double periodDays,
+                        double power,
+                        double relativePower,
+                        List<Match> matches) {
+        this.periodDays = periodDays;
+        this.power = power;
+        this.relativePower = relativePower;
+        this.matches = Collections.unmodifiableList(matches);
+    }
+
+    public double getPeriodDays() {
+        return periodDays;
+    }
+
+    public double getPower() {
+        return power;
+    }
+
+    /**
+     * Returns the peak's power as a fraction of the total power
+     * of the spectrum.
+     */
+    public double getRelativePower() {
+        return relativePower;
+    }
+
+    /**
+     * Returns the planetary periods near the peak, nearest first.
+     */
+    public List<Match> getMatches() {
+        return matches;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SpectralPeak{periodDays=%.3f, relativePower=%.4f, matches=%s}",
+                periodDays, relativePower, matches);
+    }
+}
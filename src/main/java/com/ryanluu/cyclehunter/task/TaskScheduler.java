@@ -0,0 +1,467 @@
+package com.ryanluu.cyclehunter.task;
+
+import com.ryanluu.cyclehunter.data.ProgressListener;
+import javafx.application.Platform;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Runs the application's long running work (loading price bars,
+ * building ephemeris tables, computing lookbacks) on a bounded pool of
+ * background threads, so the JavaFX Application Thread is left free to
+ * draw.
+ *
+ * Work is submitted under a key, such as "load" or "recompute".  Only
+ * the latest job for a key matters: submitting a new one cancels the
+ * previous job for the same key, interrupting it if it has started,
+ * and a cancelled job's result is never delivered.  A job may also be
+ * submitted with a delay, which coalesces bursts of requests (for
+ * example several Apply clicks in a row) into one run of the last.
+ *
+ * Results, failures and progress are handed to the callbacks on the
+ * publish executor, which is Platform.runLater by default.  Everything
+ * waiting to be published is delivered in one batch per runLater call,
+ * and progress updates for a job are collapsed so that only the latest
+ * value is delivered, so a busy worker cannot flood the event queue.
+ *
+ * submit() and the Job setters should be called on the publish thread
+ * (the JavaFX Application Thread).  Cancellation and delivery then
+ * happen on the same thread, which is what guarantees a superseded
+ * job never gets its callback called.
+ *
+ * Work that runs long should check Job.isCancelled() or the thread's
+ * interrupt flag now and then, and stop by throwing (for example a
+ * CancellationException or an InterruptedIOException).
+ *
+ * A key is busy from submit() until its work has stopped running, even
+ * if the job was cancelled and nothing will be delivered, so isBusy()
+ * can be used to tell whether anything in the background may still be
+ * using what the work uses.  The onIdle callback is told when a key
+ * may have stopped being busy.
+ */
+public class TaskScheduler {
+
+    private static final Logger logger = Logger.getLogger(TaskScheduler.class);
+
+    /**
+     * Largest number of jobs waiting for a worker thread.
+     */
+    private static final int MAX_QUEUED_JOBS = 64;
+
+    /**
+     * Work done by a job.
+     *
+     * @param <T> Type of the result.
+     */
+    public interface Work<T> {
+        /**
+         * Does the work.
+         *
+         * @param job The job, for checking for cancellation and
+         *            reporting progress.
+         * @return T Result, handed to the job's onSucceeded callback.
+         * @throws Exception If the work fails, or stops because it
+         *                   was cancelled.
+         */
+        T run(Job<T> job) throws Exception;
+    }
+
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Executor publishExecutor;
+
+    /**
+     * Latest job for each key.  Only touched on the publish thread.
+     */
+    private final Map<String, Job<?>> currentJobs = new HashMap<>();
+
+    /**
+     * Jobs whose work is running on a worker thread.  A cancelled job
+     * stays in here until its work has stopped.
+     */
+    private final Set<Job<?>> runningJobs = ConcurrentHashMap.newKeySet();
+
+    private volatile Consumer<String> onIdle;
+
+    /**
+     * Things waiting to be run on the publish thread.
+     */
+    private final Queue<Runnable> publishQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * True while a drain of the publish queue has been handed to
+     * the publish executor and has not started yet.
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    /**
+     * Creates a scheduler that uses all but one of the processors
+     * (at least one) and publishes with Platform.runLater.
+     */
+    public TaskScheduler() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                Platform::runLater);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param numThreads Number of worker threads.
+     * @param publishExecutor Executor that runs the callbacks.
+     *                        It should run them all on one thread.
+     */
+    public TaskScheduler(int numThreads, Executor publishExecutor) {
+        this.publishExecutor = publishExecutor;
+
+        this.workers = new ThreadPoolExecutor(numThreads, numThreads,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(MAX_QUEUED_JOBS),
+                new DaemonThreadFactory("TaskScheduler-worker-"));
+        this.workers.allowCoreThreadTimeOut(true);
+
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                new DaemonThreadFactory("TaskScheduler-timer-"));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Submits work to run as soon as a worker is free.
+     *
+     * @see #submit(String, long, Work, Consumer)
+     */
+    public <T> Job<T> submit(String key, Work<T> work, Consumer<T> onSucceeded) {
+        return submit(key, 0, work, onSucceeded);
+    }
+
+    /**
+     * Submits work under a key, cancelling any earlier job with the
+     * same key.
+     *
+     * @param key Key of the work.
+     * @param delayMillis How long to wait before starting.  A job that is
+     *                    replaced while it waits never runs at all.
+     * @param work The work.
+     * @param onSucceeded Called with the result, unless the job was
+     *                    cancelled.  May be null.
+     * @return Job The job, for setting its other callbacks or
+     *         cancelling it.
+     */
+    public <T> Job<T> submit(String key,
+                             long delayMillis,
+                             Work<T> work,
+                             Consumer<T> onSucceeded) {
+        Job<?> previous = currentJobs.get(key);
+        if (previous != null) {
+            logger.debug("Job '" + key + "' superseded.");
+            previous.cancel();
+        }
+
+        Job<T> job = new Job<>(key, work, onSucceeded);
+        currentJobs.put(key, job);
+
+        if (delayMillis > 0) {
+            job.future = timer.schedule(job::start, delayMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        else {
+            job.start();
+        }
+
+        return job;
+    }
+
+    /**
+     * Cancels the current job for a key, if there is one.  The key
+     * stays busy until the job's work has stopped running.
+     *
+     * @param key Key of the work.
+     */
+    public void cancel(String key) {
+        Job<?> job = currentJobs.remove(key);
+        if (job != null) {
+            job.cancel();
+            publish(() -> checkIdle(key));
+        }
+    }
+
+    /**
+     * Returns true if there is a job for the key that has not finished
+     * yet, or a cancelled one whose work is still running.
+     */
+    public boolean isBusy(String key) {
+        if (currentJobs.containsKey(key)) {
+            return true;
+        }
+        for (Job<?> job : runningJobs) {
+            if (job.key.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the callback for when a key may have stopped being busy,
+     * which is called on the publish thread with the key after a job's
+     * work stops running or a job is cancelled.  It may be called for
+     * a key that is still, or already was, idle, so it should check
+     * isBusy() for the keys it cares about.
+     *
+     * @param onIdle Callback, or null.
+     */
+    public void setOnIdle(Consumer<String> onIdle) {
+        this.onIdle = onIdle;
+    }
+
+    private void checkIdle(String key) {
+        Consumer<String> listener = onIdle;
+        if (listener != null && !isBusy(key)) {
+            listener.accept(key);
+        }
+    }
+
+    /**
+     * Cancels everything and stops the threads.
+     */
+    public void shutdown() {
+        for (Job<?> job : currentJobs.values()) {
+            job.cancel();
+        }
+        currentJobs.clear();
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Queues something to run on the publish thread, and makes sure a
+     * drain of the queue is on its way.
+     */
+    private void publish(Runnable runnable) {
+        publishQueue.add(runnable);
+        if (drainScheduled.compareAndSet(false, true)) {
+            publishExecutor.execute(this::drainPublishQueue);
+        }
+    }
+
+    private void drainPublishQueue() {
+        // Clear the flag first, so that anything queued while
+        // draining gets a drain of its own.
+        drainScheduled.set(false);
+
+        Runnable runnable;
+        while ((runnable = publishQueue.poll()) != null) {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                logger.error("Exception in a task callback.", e);
+            }
+        }
+    }
+
+    /**
+     * A submitted piece of work.
+     *
+     * @param <T> Type of the result.
+     */
+    public final class Job<T> implements ProgressListener {
+
+        private final String key;
+        private final Work<T> work;
+        private final Consumer<T> onSucceeded;
+        private Consumer<Throwable> onFailed;
+        private DoubleConsumer onProgress;
+
+        private volatile boolean cancelled = false;
+        private volatile Future<?> future;
+
+        private volatile double latestProgress;
+        private final AtomicBoolean progressPending = new AtomicBoolean(false);
+
+        private Job(String key, Work<T> work, Consumer<T> onSucceeded) {
+            this.key = key;
+            this.work = work;
+            this.onSucceeded = onSucceeded;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Sets the callback for when the work throws.  It is not called
+         * when the job was cancelled.
+         */
+        public Job<T> setOnFailed(Consumer<Throwable> onFailed) {
+            this.onFailed = onFailed;
+            return this;
+        }
+
+        /**
+         * Sets the callback for progress, which is given a value
+         * between 0.0 and 1.0.
+         */
+        public Job<T> setOnProgress(DoubleConsumer onProgress) {
+            this.onProgress = onProgress;
+            return this;
+        }
+
+        /**
+         * Returns true if the job has been cancelled or superseded.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Throws a CancellationException if the job has been cancelled,
+         * for work that checks for it at convenient points.
+         */
+        public void checkCancelled() {
+            if (cancelled || Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Job '" + key + "' was cancelled.");
+            }
+        }
+
+        /**
+         * Cancels the job.  If it is running, its thread is interrupted.
+         */
+        public void cancel() {
+            cancelled = true;
+            Future<?> f = future;
+            if (f != null) {
+                f.cancel(true);
+            }
+        }
+
+        /**
+         * Reports progress.  May be called from any thread, as often as
+         * is convenient; only the latest value is published.
+         */
+        @Override
+        public void progress(long workDone, long totalWork) {
+            latestProgress = (totalWork > 0) ? (double) workDone / totalWork : 0.0;
+            if (progressPending.compareAndSet(false, true)) {
+                publish(() -> {
+                    progressPending.set(false);
+                    if (!cancelled && onProgress != null) {
+                        onProgress.accept(latestProgress);
+                    }
+                });
+            }
+        }
+
+        private void start() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                future = workers.submit(this::runWork);
+            } catch (RejectedExecutionException e) {
+                publish(failure(e));
+                publish(() -> checkIdle(key));
+            }
+        }
+
+        private void runWork() {
+            runningJobs.add(this);
+            Runnable outcome = cancelled ? null : runAndGetOutcome();
+
+            // The key is busy until here, cancelled or not.
+            runningJobs.remove(this);
+            if (outcome != null) {
+                publish(outcome);
+            }
+            publish(() -> checkIdle(key));
+        }
+
+        /**
+         * Runs the work, and returns what to publish about how it went,
+         * or null if the job was cancelled.
+         */
+        private Runnable runAndGetOutcome() {
+            try {
+                T result = work.run(this);
+                return () -> {
+                    if (finish()) {
+                        if (onSucceeded != null) {
+                            onSucceeded.accept(result);
+                        }
+                    }
+                };
+            } catch (Throwable t) {
+                // Errors too, such as an OutOfMemoryError, or the key
+                // would stay busy forever.
+                if (cancelled) {
+                    logger.debug("Job '" + key + "' stopped after being cancelled.");
+                    return null;
+                }
+                return failure(t);
+            }
+        }
+
+        private Runnable failure(Throwable t) {
+            return () -> {
+                if (finish()) {
+                    if (onFailed != null) {
+                        onFailed.accept(t);
+                    }
+                    else {
+                        logger.error("Job '" + key + "' failed.", t);
+                    }
+                }
+            };
+        }
+
+        /**
+         * Called on the publish thread when the job is done.
+         *
+         * @return boolean true if the job's callback should be called.
+         */
+        private boolean finish() {
+            if (cancelled) {
+                return false;
+            }
+            currentJobs.remove(key, this);
+            return true;
+        }
+    }
+
+    /**
+     * Makes named daemon threads, so that background work never keeps
+     * the application from exiting.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
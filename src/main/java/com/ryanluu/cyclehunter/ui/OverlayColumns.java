@@ -0,0 +1,156 @@
+package com.ryanluu.cyclehunter.ui;
+
+import com.ryanluu.cyclehunter.engine.LookbackResult;
+import com.ryanluu.cyclehunter.model.PriceBarPyramid;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+
+/**
+ * A lookback overlay reduced to one column per pixel for drawing: for
+ * each pixel column of the chart, the close of the first and of the
+ * last bar looked back to from the bars in it, and the lowest low and
+ * highest high of the bars between the earliest and the latest bar
+ * looked back to.  Prices are unscaled, as in the series.
+ *
+ * The bars of a column usually look back to a run of bars that has
+ * gaps in it, where the lookback skips over bars.  The overlay's line
+ * passes through the prices of those bars too, so the extremes are
+ * taken over the whole run, from the series' pyramid (see
+ * PriceBarPyramid).  Filling a column reads the lookback bar index of
+ * each of its bars, which is cheap, and only a few nodes of prices,
+ * however many bars the column covers.
+ *
+ * Bars whose lookback falls before the series are left out.  A column
+ * with no bars left in it has a low above its high.
+ *
+ * The arrays are reused from one drawing to the next, and only grow
+ * when the canvas gets wider.
+ */
+class OverlayColumns {
+
+    private int width;
+
+    private long[] first = new long[0];
+    private long[] last = new long[0];
+    private long[] low = new long[0];
+    private long[] high = new long[0];
+
+    /**
+     * Lowest low and highest high over all columns.  minLow is above
+     * maxHigh if no column has any bars.
+     */
+    private long minLow;
+    private long maxHigh;
+
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns true if any bars fall in the given column.
+     */
+    boolean hasBars(int column) {
+        return low[column] <= high[column];
+    }
+
+    long getFirst(int column) {
+        return first[column];
+    }
+
+    long getLast(int column) {
+        return last[column];
+    }
+
+    long getLow(int column) {
+        return low[column];
+    }
+
+    long getHigh(int column) {
+        return high[column];
+    }
+
+    long getMinLow() {
+        return minLow;
+    }
+
+    long getMaxHigh() {
+        return maxHigh;
+    }
+
+    private void setWidth(int width) {
+        this.width = width;
+        if (first.length < width) {
+            first = new long[width];
+            last = new long[width];
+            low = new long[width];
+            high = new long[width];
+        }
+    }
+
+    /**
+     * Fills the columns from a lookback result over a price bar series.
+     * Column c covers the bars from firstBar + c * barsPerPixel
+     * (inclusive) up to firstBar + (c + 1) * barsPerPixel (exclusive).
+     *
+     * @param series Price bars.
+     * @param result Lookback result computed for the series.
+     * @param firstBar Bar index, possibly fractional, at the left edge
+     *                 of column 0.
+     * @param barsPerPixel Number of bars per pixel column.
+     * @param width Number of columns.
+     */
+    void fill(PriceBarSeries series,
+              LookbackResult result,
+              double firstBar,
+              double barsPerPixel,
+              int width) {
+        setWidth(width);
+
+        PriceBarPyramid pyramid = series.getPyramid();
+        int numBars = Math.min(series.size(), result.size());
+        minLow = Long.MAX_VALUE;
+        maxHigh = Long.MIN_VALUE;
+
+        int from = (int) Math.floor(firstBar);
+
+        for (int c = 0; c < width; c++) {
+            int to = (int) Math.floor(firstBar + (c + 1) * barsPerPixel);
+
+            int firstJ = -1;
+            int lastJ = -1;
+            int minJ = Integer.MAX_VALUE;
+            int maxJ = -1;
+
+            int end = Math.min(to, numBars);
+            for (int i = Math.max(from, 0); i < end; i++) {
+                int j = result.getLookbackBarIndex(i);
+                if (j < 0) {
+                    continue;
+                }
+                if (firstJ < 0) {
+                    firstJ = j;
+                }
+                lastJ = j;
+                minJ = Math.min(minJ, j);
+                maxJ = Math.max(maxJ, j);
+            }
+
+            if (firstJ < 0) {
+                first[c] = 0;
+                last[c] = 0;
+                low[c] = Long.MAX_VALUE;
+                high[c] = Long.MIN_VALUE;
+            }
+            else {
+                first[c] = series.getClosePriceUnscaled(firstJ);
+                last[c] = series.getClosePriceUnscaled(lastJ);
+                low[c] = pyramid.getLowestLowUnscaled(minJ, maxJ + 1);
+                high[c] = pyramid.getHighestHighUnscaled(minJ, maxJ + 1);
+
+                minLow = Math.min(minLow, low[c]);
+                maxHigh = Math.max(maxHigh, high[c]);
+            }
+
+            from = Math.max(from, to);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.ryanluu.cyclehunter.ui;
+
+import com.ryanluu.cyclehunter.engine.LookbackResult;
+import com.ryanluu.cyclehunter.engine.OverlaySpec;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * One lookback overlay of the PriceChart: the price series as it was
+ * N cycles earlier, drawn at the bars it was looked back from, in the
+ * color of its LookbackMultiple.
+ *
+ * At each bar i the overlay shows the close of the bar
+ * result.getLookbackBarIndex(i).  Since the overlay's prices can be
+ * far from today's, each overlay is fitted to the plot height on its
+ * own, over the bars it has drawn.
+ *
+ * Each layer has its own Canvas, which works as an image cache.  It is
+ * drawn wider than the plot (a plot width of margin on either side),
+ * so panning only moves the canvas, and it is only drawn again when
+ * the overlay's data or color changes, the plot is resized, or the
+ * view is panned beyond the margin.  When zooming, the canvas is
+ * stretched until the zoom has settled for ZOOM_SETTLE_NANOS, so that
+ * a spin of the scroll wheel does not redraw every layer every frame.
+ *
+ * Zoomed out, the overlay is drawn as one vertical run per pixel
+ * column (see OverlayColumns), whose prices come from the series'
+ * pyramid, so drawing costs a few price reads per column however
+ * many bars are visible.
+ */
+class OverlayLayer {
+
+    /**
+     * Widest canvas drawn, in pixels.  Textures much bigger than this
+     * are not supported by every graphics card.
+     */
+    private static final int MAX_RASTER_WIDTH = 8192;
+
+    /**
+     * How long the zoom must stay the same before a stretched layer
+     * is drawn again at the new zoom.
+     */
+    static final long ZOOM_SETTLE_NANOS = 150L * 1000L * 1000L;
+
+    /**
+     * Width of the overlay line, in pixels.
+     */
+    private static final double LINE_WIDTH = 1.5;
+
+    private final Canvas canvas = new Canvas();
+
+    private OverlaySpec spec;
+    private LookbackResult result;
+
+    /**
+     * True if the data or color changed since the canvas was drawn.
+     */
+    private boolean dataChanged = true;
+
+    /**
+     * View the canvas was drawn for.  rasterBarsPerPixel is 0
+     * if it has not been drawn.
+     */
+    private double rasterFirstBar = 0.0;
+    private double rasterBarsPerPixel = 0.0;
+    private double rasterHeight = 0.0;
+
+    /**
+     * When the zoom last differed from the zoom the canvas was drawn for.
+     */
+    private long zoomChangedNanos = 0;
+
+    /**
+     * Pixel columns when zoomed out.  Reused from one drawing to the next.
+     */
+    private final OverlayColumns columns = new OverlayColumns();
+
+    OverlayLayer(OverlaySpec spec, LookbackResult result) {
+        this.spec = spec;
+        this.result = result;
+        canvas.setMouseTransparent(true);
+    }
+
+    Canvas getCanvas() {
+        return canvas;
+    }
+
+    OverlaySpec getSpec() {
+        return spec;
+    }
+
+    LookbackResult getResult() {
+        return result;
+    }
+
+    /**
+     * Sets the overlay's spec and data.  The canvas is only drawn
+     * again if the data or the color is different.
+     */
+    void setData(OverlaySpec spec, LookbackResult result) {
+        if (result != this.result || !spec.getColor().equals(this.spec.getColor())) {
+            dataChanged = true;
+        }
+        this.spec = spec;
+        this.result = result;
+    }
+
+    /**
+     * Brings the canvas up to date with the chart's view, drawing it
+     * again only if it has to.
+     *
+     * @param series Price bars the chart shows.
+     * @param firstBar Bar index at the left edge of the plot.
+     * @param barsPerPixel Bars per pixel of the plot.
+     * @param plotWidth Width of the plot, in pixels.
+     * @param plotHeight Height of the plot, in pixels.
+     * @param now Current time, from System.nanoTime().
+     * @return boolean true if the canvas is stretched and should be
+     *         drawn again once the zoom settles.
+     */
+    boolean update(PriceBarSeries series,
+                   double firstBar,
+                   double barsPerPixel,
+                   double plotWidth,
+                   double plotHeight,
+                   long now) {
+
+        // Data computed for another series is not drawn.
+        boolean hasData = (result != null && series != null &&
+                result.size() == series.size());
+        canvas.setVisible(hasData);
+        if (!hasData) {
+            return false;
+        }
+
+        boolean zoomChanged = (barsPerPixel != rasterBarsPerPixel);
+        if (zoomChanged && rasterBarsPerPixel > 0 && !dataChanged &&
+                plotHeight == rasterHeight) {
+            // Stretch what is there until the zoom settles.
+            if (zoomChangedNanos == 0) {
+                zoomChangedNanos = now;
+            }
+            if (now - zoomChangedNanos < ZOOM_SETTLE_NANOS) {
+                placeCanvas(firstBar, barsPerPixel);
+                return true;
+            }
+        }
+
+        double margin = getMargin(plotWidth);
+        double rasterWidth = canvas.getWidth();
+        double visibleFrom = (firstBar - rasterFirstBar) / rasterBarsPerPixel;
+        double visibleTo = visibleFrom + plotWidth;
+        boolean pannedOut = (visibleFrom < 0 || visibleTo > rasterWidth);
+
+        if (dataChanged || zoomChanged || pannedOut || plotHeight != rasterHeight) {
+            rasterize(series, firstBar - margin * barsPerPixel, barsPerPixel,
+                    (int) Math.ceil(plotWidth + 2 * margin), plotHeight);
+        }
+
+        placeCanvas(firstBar, barsPerPixel);
+        return false;
+    }
+
+    /**
+     * Returns how many pixels are drawn beyond each side of the plot.
+     */
+    private static double getMargin(double plotWidth) {
+        return Math.max(0, Math.min(plotWidth, (MAX_RASTER_WIDTH - plotWidth) / 2));
+    }
+
+    /**
+     * Moves (and, while zooming, stretches) the canvas so that its
+     * bars line up with the chart's.
+     */
+    private void placeCanvas(double firstBar, double barsPerPixel) {
+        double scale = rasterBarsPerPixel / barsPerPixel;
+        double offset = (rasterFirstBar - firstBar) / barsPerPixel;
+
+        // Scaling is about the center of the canvas.
+        double halfWidth = canvas.getWidth() / 2;
+        canvas.setScaleX(scale);
+        canvas.setTranslateX(offset - halfWidth + halfWidth * scale);
+    }
+
+    /**
+     * Draws the overlay onto the canvas.
+     */
+    private void rasterize(PriceBarSeries series,
+                           double firstBar,
+                           double barsPerPixel,
+                           int width,
+                           double height) {
+
+        dataChanged = false;
+        zoomChangedNanos = 0;
+        rasterFirstBar = firstBar;
+        rasterBarsPerPixel = barsPerPixel;
+        rasterHeight = height;
+
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, width, height);
+
+        int numBars = series.size();
+        int from = Math.max(0, (int) Math.floor(firstBar));
+        int to = Math.min(numBars, (int) Math.ceil(firstBar + width * barsPerPixel));
+        boolean perBar = (barsPerPixel < 1.0);
+
+        // Fit the overlay to the height.
+        long low = Long.MAX_VALUE;
+        long high = Long.MIN_VALUE;
+        if (perBar) {
+            for (int i = from; i < to; i++) {
+                int j = result.getLookbackBarIndex(i);
+                if (j >= 0) {
+                    long close = series.getClosePriceUnscaled(j);
+                    low = Math.min(low, close);
+                    high = Math.max(high, close);
+                }
+            }
+        }
+        else {
+            columns.fill(series, result, firstBar, barsPerPixel, width);
+            low = columns.getMinLow();
+            high = columns.getMaxHigh();
+        }
+        if (low > high) {
+            return;
+        }
+        double padding = Math.max(1.0, (high - low) * 0.05);
+        double yScale = height / (high - low + 2 * padding);
+        double yTop = high + padding;
+
+        Color color = spec.getColor();
+        gc.setStroke(color);
+        gc.setLineWidth(LINE_WIDTH);
+        gc.beginPath();
+
+        boolean penDown = false;
+
+        if (perBar) {
+            // A point per bar.
+            for (int i = from; i < to; i++) {
+                int j = result.getLookbackBarIndex(i);
+                if (j < 0) {
+                    penDown = false;
+                    continue;
+                }
+                double x = (i + 0.5 - firstBar) / barsPerPixel;
+                double y = (yTop - series.getClosePriceUnscaled(j)) * yScale;
+                if (penDown) {
+                    gc.lineTo(x, y);
+                }
+                else {
+                    gc.moveTo(x, y);
+                    penDown = true;
+                }
+            }
+        }
+        else {
+            // A vertical run per pixel column, from the first price in
+            // the column through the lowest and highest to the last.
+            for (int c = 0; c < width; c++) {
+                if (!columns.hasBars(c)) {
+                    penDown = false;
+                    continue;
+                }
+
+                double x = c + 0.5;
+                double yFirst = (yTop - columns.getFirst(c)) * yScale;
+                if (penDown) {
+                    gc.lineTo(x, yFirst);
+                }
+                else {
+                    gc.moveTo(x, yFirst);
+                    penDown = true;
+                }
+                gc.lineTo(x, (yTop - columns.getLow(c)) * yScale);
+                gc.lineTo(x, (yTop - columns.getHigh(c)) * yScale);
+                gc.lineTo(x, (yTop - columns.getLast(c)) * yScale);
+            }
+        }
+
+        gc.stroke();
+    }
+}
@@ -0,0 +1,688 @@
+package com.ryanluu.cyclehunter.ui;
+
+import com.ryanluu.cyclehunter.engine.LookbackResult;
+import com.ryanluu.cyclehunter.engine.OverlaySpec;
+import com.ryanluu.cyclehunter.model.PriceBarPyramid;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import javafx.animation.AnimationTimer;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Price chart drawn directly on a Canvas.
+ *
+ * The x axis is by bar index rather than by time, so that weekends and
+ * holidays take no space, and the view is described by the (fractional)
+ * index of the bar at the left edge and the number of bars per pixel.
+ * The y axis is fitted to the prices of the visible bars.
+ *
+ * When there is less than one bar per pixel, each bar is drawn as an
+ * OHLC bar.  Otherwise the bars are reduced to one column per pixel
+ * (see PriceColumns), and each column is drawn as one vertical line
+ * from its highest high to its lowest low.  All the lines of a frame go
+ * into one or two paths, so a frame costs a few canvas calls per pixel
+ * of width no matter how many bars are in view.
+ *
+ * Lookback overlays are drawn above the bars, each on its own cached
+ * canvas (see OverlayLayer), so that panning with many overlays on
+ * moves the overlay images instead of drawing them again.
+ *
+ * Dragging pans, the scroll wheel zooms around the mouse, and a double
+ * click fits the whole series.  Changes only mark the chart as needing
+ * a redraw; an AnimationTimer draws at most once per frame.  The timer
+ * only runs while there is something to draw, so an idle chart costs
+ * nothing per frame.
+ */
+public class PriceChart extends Pane {
+
+    /**
+     * Width of the price axis on the right, in pixels.
+     */
+    private static final double PRICE_AXIS_WIDTH = 70;
+
+    /**
+     * Height of the time axis at the bottom, in pixels.
+     */
+    private static final double TIME_AXIS_HEIGHT = 22;
+
+    /**
+     * Fraction of the visible price range added above and below.
+     */
+    private static final double PRICE_PADDING = 0.05;
+
+    /**
+     * Smallest number of bars per pixel, i.e. bars are at most
+     * this many pixels wide.
+     */
+    private static final double MIN_BARS_PER_PIXEL = 1.0 / 40.0;
+
+    /**
+     * Bars narrower than this many pixels are drawn without
+     * the open and close ticks.
+     */
+    private static final double MIN_TICKED_BAR_WIDTH = 3.0;
+
+    /**
+     * Zoom factor per scroll wheel notch.
+     */
+    private static final double ZOOM_PER_NOTCH = 1.15;
+
+    /**
+     * Distance in pixels between time axis labels.
+     */
+    private static final double TIME_LABEL_SPACING = 120;
+
+    private static final Color BACKGROUND_COLOR = Color.WHITE;
+    private static final Color GRID_COLOR = Color.rgb(230, 230, 230);
+    private static final Color AXIS_TEXT_COLOR = Color.rgb(80, 80, 80);
+    private static final Color BAR_COLOR = Color.BLACK;
+    private static final Color UP_BAR_COLOR = Color.rgb(0, 140, 0);
+    private static final Color DOWN_BAR_COLOR = Color.rgb(200, 0, 0);
+
+    private final Canvas canvas = new Canvas();
+
+    private PriceBarSeries priceBarSeries = null;
+
+    /**
+     * Bar index, possibly fractional, at the left edge of the plot.
+     */
+    private double firstBar = 0.0;
+
+    /**
+     * Number of bars per pixel of plot width.
+     */
+    private double barsPerPixel = 1.0;
+
+    /**
+     * Price range of the last frame drawn, after padding.
+     */
+    private double priceLow = 0.0;
+    private double priceHigh = 1.0;
+
+    private final PriceColumns columns = new PriceColumns();
+
+    private boolean redrawNeeded = false;
+
+    /**
+     * True if redrawTimer has been started and not stopped since.
+     */
+    private boolean redrawTimerRunning = false;
+
+    /**
+     * True if zoomToFit() was called before the chart had a size,
+     * so the fit has to be done when it gets one.
+     */
+    private boolean fitPending = false;
+
+    private double dragStartX;
+    private double dragStartFirstBar;
+
+    /**
+     * Called after the view changes.
+     */
+    private final List<Runnable> viewportListeners = new ArrayList<>();
+
+    /**
+     * Holds the overlay canvases, clipped to the plot area.
+     */
+    private final Pane overlayPane = new Pane();
+    private final Rectangle overlayClip = new Rectangle();
+
+    /**
+     * Overlay layers, in drawing order.
+     */
+    private final List<OverlayLayer> overlayLayers = new ArrayList<>();
+
+    /**
+     * True if an overlay is stretched and waiting for the zoom
+     * to settle.
+     */
+    private boolean overlaysSettling = false;
+
+    private final AnimationTimer redrawTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (redrawNeeded) {
+                redrawNeeded = false;
+                draw();
+            }
+            else if (overlaysSettling) {
+                updateOverlays();
+            }
+
+            if (!redrawNeeded && !overlaysSettling) {
+                stop();
+                redrawTimerRunning = false;
+            }
+        }
+    };
+
+    public PriceChart() {
+        getChildren().add(canvas);
+
+        overlayPane.setManaged(false);
+        overlayPane.setMouseTransparent(true);
+        overlayPane.setClip(overlayClip);
+        getChildren().add(overlayPane);
+
+        canvas.widthProperty().bind(widthProperty());
+        canvas.heightProperty().bind(heightProperty());
+        canvas.widthProperty().addListener(o -> handleResize());
+        canvas.heightProperty().addListener(o -> requestRedraw());
+
+        canvas.setOnMousePressed(this::handleMousePressed);
+        canvas.setOnMouseDragged(this::handleMouseDragged);
+        canvas.setOnMouseClicked(e -> {
+            if (e.getButton() == MouseButton.PRIMARY && e.getClickCount() == 2) {
+                zoomToFit();
+            }
+        });
+        canvas.setOnScroll(this::handleScroll);
+
+        requestRedraw();
+    }
+
+    public PriceBarSeries getPriceBarSeries() {
+        return priceBarSeries;
+    }
+
+    /**
+     * Sets the price bars to show, and fits them all in the view.
+     *
+     * @param priceBarSeries Price bars, or null to show nothing.
+     */
+    public void setPriceBarSeries(PriceBarSeries priceBarSeries) {
+        this.priceBarSeries = priceBarSeries;
+
+        // Overlays were computed for the old bars.
+        overlayLayers.clear();
+        overlayPane.getChildren().clear();
+
+        zoomToFit();
+    }
+
+    /**
+     * Shows bars that were appended to the series.  If the last bar
+     * was in view, the view moves along to keep the new last bar in
+     * view at the same zoom.
+     *
+     * @param oldSize Number of bars before the new ones.
+     */
+    public void barsAppended(int oldSize) {
+        if (priceBarSeries == null) {
+            return;
+        }
+
+        double lastVisibleBar = xToBar(getPlotWidth());
+        if (lastVisibleBar >= oldSize) {
+            setViewport(firstBar + (priceBarSeries.size() - oldSize), barsPerPixel);
+        }
+        else {
+            requestRedraw();
+        }
+    }
+
+    /**
+     * Sets the lookback overlays to draw.  Overlays are matched to the
+     * ones already drawn by their slot ID, and only those whose data or
+     * color changed are drawn again.
+     *
+     * @param specs Overlays, in drawing order (the last on top).
+     * @param results Gives the data of each overlay, or null if it has
+     *                none yet.  Data for a different number of bars
+     *                than the chart's series is not drawn.
+     */
+    public void setOverlays(List<OverlaySpec> specs,
+                            Function<OverlaySpec, LookbackResult> results) {
+        Map<String, OverlayLayer> oldLayers = new HashMap<>();
+        for (OverlayLayer layer : overlayLayers) {
+            oldLayers.put(layer.getSpec().getSlotId(), layer);
+        }
+
+        overlayLayers.clear();
+        for (OverlaySpec spec : specs) {
+            LookbackResult result = results.apply(spec);
+            OverlayLayer layer = oldLayers.remove(spec.getSlotId());
+            if (layer == null) {
+                layer = new OverlayLayer(spec, result);
+            }
+            else {
+                layer.setData(spec, result);
+            }
+            overlayLayers.add(layer);
+        }
+
+        List<Canvas> canvases = new ArrayList<>();
+        for (OverlayLayer layer : overlayLayers) {
+            canvases.add(layer.getCanvas());
+        }
+        overlayPane.getChildren().setAll(canvases);
+
+        requestRedraw();
+    }
+
+    public double getFirstBar() {
+        return firstBar;
+    }
+
+    public double getBarsPerPixel() {
+        return barsPerPixel;
+    }
+
+    /**
+     * Returns the width of the plot area, without the price axis.
+     */
+    public double getPlotWidth() {
+        return Math.max(0, canvas.getWidth() - PRICE_AXIS_WIDTH);
+    }
+
+    /**
+     * Returns the height of the plot area, without the time axis.
+     */
+    public double getPlotHeight() {
+        return Math.max(0, canvas.getHeight() - TIME_AXIS_HEIGHT);
+    }
+
+    /**
+     * Returns the lowest price of the view, as of the last frame drawn.
+     */
+    public double getPriceLow() {
+        return priceLow;
+    }
+
+    /**
+     * Returns the highest price of the view, as of the last frame drawn.
+     */
+    public double getPriceHigh() {
+        return priceHigh;
+    }
+
+    /**
+     * Adds a listener that is called after the view is panned, zoomed,
+     * resized or redrawn with a different price range.
+     */
+    public void addViewportListener(Runnable listener) {
+        viewportListeners.add(listener);
+    }
+
+    public void removeViewportListener(Runnable listener) {
+        viewportListeners.remove(listener);
+    }
+
+    /**
+     * Sets the view.
+     *
+     * @param firstBar Bar index at the left edge of the plot.
+     * @param barsPerPixel Number of bars per pixel.
+     */
+    public void setViewport(double firstBar, double barsPerPixel) {
+        this.barsPerPixel = Math.max(barsPerPixel, MIN_BARS_PER_PIXEL);
+        this.firstBar = clampFirstBar(firstBar, this.barsPerPixel);
+        requestRedraw();
+    }
+
+    /**
+     * Fits the whole series in the view.
+     */
+    public void zoomToFit() {
+        double width = getPlotWidth();
+        int numBars = (priceBarSeries == null) ? 0 : priceBarSeries.size();
+        if (numBars == 0 || width <= 0) {
+            fitPending = (numBars > 0);
+            firstBar = 0.0;
+            barsPerPixel = 1.0;
+            requestRedraw();
+            return;
+        }
+        fitPending = false;
+        setViewport(0.0, numBars / width);
+    }
+
+    /**
+     * Returns the x coordinate of the left edge of a bar.
+     */
+    public double barToX(double barIndex) {
+        return (barIndex - firstBar) / barsPerPixel;
+    }
+
+    /**
+     * Returns the bar index, possibly fractional, at an x coordinate.
+     */
+    public double xToBar(double x) {
+        return firstBar + x * barsPerPixel;
+    }
+
+    /**
+     * Returns the y coordinate of a price, as of the last frame drawn.
+     */
+    public double priceToY(double price) {
+        return (priceHigh - price) / (priceHigh - priceLow) * getPlotHeight();
+    }
+
+    /**
+     * Marks the chart as needing a redraw on the next frame, and
+     * starts the redraw timer if it is stopped.  Must be called on
+     * the JavaFX Application Thread.
+     */
+    public void requestRedraw() {
+        redrawNeeded = true;
+        if (!redrawTimerRunning) {
+            redrawTimerRunning = true;
+            redrawTimer.start();
+        }
+    }
+
+    /**
+     * Keeps at least a little of the series in view.
+     */
+    private double clampFirstBar(double first, double bpp) {
+        int numBars = (priceBarSeries == null) ? 0 : priceBarSeries.size();
+        double visibleBars = getPlotWidth() * bpp;
+        double min = -visibleBars * 0.9;
+        double max = Math.max(min, numBars - visibleBars * 0.1);
+        return Math.min(Math.max(first, min), max);
+    }
+
+    private void handleResize() {
+        if (fitPending) {
+            zoomToFit();
+            return;
+        }
+
+        // Keep the bar at the left edge and the zoom when resizing.
+        firstBar = clampFirstBar(firstBar, barsPerPixel);
+        requestRedraw();
+    }
+
+    private void handleMousePressed(MouseEvent e) {
+        dragStartX = e.getX();
+        dragStartFirstBar = firstBar;
+    }
+
+    private void handleMouseDragged(MouseEvent e) {
+        double dx = e.getX() - dragStartX;
+        setViewport(dragStartFirstBar - dx * barsPerPixel, barsPerPixel);
+    }
+
+    private void handleScroll(ScrollEvent e) {
+        if (e.getDeltaY() == 0) {
+            return;
+        }
+        double notches = e.getDeltaY() / 40.0;
+        double newBarsPerPixel = barsPerPixel * Math.pow(ZOOM_PER_NOTCH, -notches);
+
+        // Keep the bar under the mouse where it is.
+        double barAtMouse = xToBar(e.getX());
+        newBarsPerPixel = Math.max(newBarsPerPixel, MIN_BARS_PER_PIXEL);
+        setViewport(barAtMouse - e.getX() * newBarsPerPixel, newBarsPerPixel);
+    }
+
+    /**
+     * Draws the chart.
+     */
+    private void draw() {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        double plotWidth = getPlotWidth();
+        double plotHeight = getPlotHeight();
+
+        gc.setFill(BACKGROUND_COLOR);
+        gc.fillRect(0, 0, width, height);
+
+        if (priceBarSeries == null || priceBarSeries.isEmpty() ||
+                plotWidth < 1 || plotHeight < 1) {
+            overlayPane.setVisible(false);
+            notifyViewportListeners();
+            return;
+        }
+
+        boolean decimated = barsPerPixel >= 1.0;
+        double low;
+        double high;
+
+        if (decimated) {
+            columns.fill(priceBarSeries, firstBar, barsPerPixel, (int) plotWidth);
+            low = columns.getMinLow();
+            high = columns.getMaxHigh();
+        }
+        else {
+            int[] range = getVisibleBarRange();
+            low = Double.NaN;
+            high = Double.NaN;
+            if (range[0] < range[1]) {
+                PriceBarPyramid pyramid = priceBarSeries.getPyramid();
+                low = priceBarSeries.toPrice(
+                        pyramid.getLowestLowUnscaled(range[0], range[1]));
+                high = priceBarSeries.toPrice(
+                        pyramid.getHighestHighUnscaled(range[0], range[1]));
+            }
+        }
+
+        if (!Double.isNaN(low)) {
+            double padding = Math.max((high - low) * PRICE_PADDING,
+                    Math.abs(high) * 1.0e-6 + 1.0e-9);
+            priceLow = low - padding;
+            priceHigh = high + padding;
+        }
+
+        drawGridAndAxes(gc, plotWidth, plotHeight);
+
+        gc.save();
+        gc.beginPath();
+        gc.rect(0, 0, plotWidth, plotHeight);
+        gc.clip();
+
+        if (decimated) {
+            drawColumns(gc);
+        }
+        else {
+            drawBars(gc);
+        }
+
+        gc.restore();
+
+        updateOverlays();
+
+        notifyViewportListeners();
+    }
+
+    /**
+     * Lines the overlay canvases up with the view, drawing any that
+     * are out of date.
+     */
+    private void updateOverlays() {
+        double plotWidth = getPlotWidth();
+        double plotHeight = getPlotHeight();
+
+        overlayClip.setWidth(plotWidth);
+        overlayClip.setHeight(plotHeight);
+        overlayPane.setVisible(true);
+
+        long now = System.nanoTime();
+        boolean settling = false;
+        for (OverlayLayer layer : overlayLayers) {
+            settling |= layer.update(priceBarSeries, firstBar, barsPerPixel,
+                    plotWidth, plotHeight, now);
+        }
+        overlaysSettling = settling;
+    }
+
+    /**
+     * Returns the bars at least partly in view, as [from, to).
+     */
+    private int[] getVisibleBarRange() {
+        int numBars = priceBarSeries.size();
+        int from = (int) Math.floor(firstBar);
+        int to = (int) Math.ceil(firstBar + getPlotWidth() * barsPerPixel);
+        return new int[] { Math.max(0, from), Math.min(numBars, to) };
+    }
+
+    /**
+     * Draws one line per pixel column, all in one path.
+     */
+    private void drawColumns(GraphicsContext gc) {
+        gc.setStroke(BAR_COLOR);
+        gc.setLineWidth(1.0);
+        gc.beginPath();
+
+        int width = columns.getWidth();
+        for (int c = 0; c < width; c++) {
+            if (!columns.hasBars(c)) {
+                continue;
+            }
+            double x = c + 0.5;
+            double yHigh = priceToY(columns.getHigh(c));
+            double yLow = priceToY(columns.getLow(c));
+
+            // Make sure even a flat column shows up.
+            if (yLow - yHigh < 1.0) {
+                yLow = yHigh + 1.0;
+            }
+            gc.moveTo(x, yHigh);
+            gc.lineTo(x, yLow);
+        }
+
+        gc.stroke();
+    }
+
+    /**
+     * Draws each bar in view as an OHLC bar, with rising and falling
+     * bars in two paths.
+     */
+    private void drawBars(GraphicsContext gc) {
+        int[] range = getVisibleBarRange();
+        double barWidth = 1.0 / barsPerPixel;
+        boolean ticks = barWidth >= MIN_TICKED_BAR_WIDTH;
+        double tickLength = Math.floor(barWidth * 0.4);
+
+        gc.setLineWidth(1.0);
+
+        for (int pass = 0; pass < 2; pass++) {
+            boolean up = (pass == 0);
+            gc.setStroke(up ? UP_BAR_COLOR : DOWN_BAR_COLOR);
+            gc.beginPath();
+
+            for (int i = range[0]; i < range[1]; i++) {
+                long open = priceBarSeries.getOpenPriceUnscaled(i);
+                long close = priceBarSeries.getClosePriceUnscaled(i);
+                if ((close >= open) != up) {
+                    continue;
+                }
+
+                double x = Math.floor(barToX(i + 0.5)) + 0.5;
+                gc.moveTo(x, priceToY(priceBarSeries.getHighPrice(i)));
+                gc.lineTo(x, priceToY(priceBarSeries.getLowPrice(i)));
+
+                if (ticks) {
+                    double yOpen = Math.floor(priceToY(priceBarSeries.toPrice(open))) + 0.5;
+                    double yClose = Math.floor(priceToY(priceBarSeries.toPrice(close))) + 0.5;
+                    gc.moveTo(x - tickLength, yOpen);
+                    gc.lineTo(x, yOpen);
+                    gc.moveTo(x, yClose);
+                    gc.lineTo(x + tickLength, yClose);
+                }
+            }
+
+            gc.stroke();
+        }
+    }
+
+    private void drawGridAndAxes(GraphicsContext gc, double plotWidth, double plotHeight) {
+        gc.setLineWidth(1.0);
+        gc.setFont(Font.font(11));
+
+        // Price grid lines and labels.
+        double step = getNicePriceStep((priceHigh - priceLow) / 6.0);
+        int decimals = Math.max(0, (int) -Math.floor(Math.log10(step)));
+
+        gc.setStroke(GRID_COLOR);
+        gc.setFill(AXIS_TEXT_COLOR);
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.CENTER);
+
+        gc.beginPath();
+        for (double price = Math.ceil(priceLow / step) * step;
+             price <= priceHigh; price += step) {
+            double y = Math.floor(priceToY(price)) + 0.5;
+            gc.moveTo(0, y);
+            gc.lineTo(plotWidth, y);
+            gc.fillText(String.format("%." + decimals + "f", price),
+                    plotWidth + 6, y);
+        }
+
+        // Time grid lines and labels.
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.TOP);
+
+        int numBars = priceBarSeries.size();
+        for (double x = TIME_LABEL_SPACING / 2; x < plotWidth; x += TIME_LABEL_SPACING) {
+            int bar = (int) Math.floor(xToBar(x));
+            if (bar < 0 || bar >= numBars) {
+                continue;
+            }
+            double gx = Math.floor(x) + 0.5;
+            gc.moveTo(gx, 0);
+            gc.lineTo(gx, plotHeight);
+            gc.fillText(toDateString(priceBarSeries.getTimestampJd(bar)),
+                    x, plotHeight + 4);
+        }
+        gc.stroke();
+
+        // Border of the plot area.
+        gc.setStroke(AXIS_TEXT_COLOR);
+        gc.strokeRect(0.5, 0.5, plotWidth - 1, plotHeight - 1);
+    }
+
+    /**
+     * Rounds a price step up to 1, 2 or 5 times a power of ten.
+     */
+    static double getNicePriceStep(double roughStep) {
+        if (!(roughStep > 0)) {
+            return 1.0;
+        }
+        double magnitude = Math.pow(10, Math.floor(Math.log10(roughStep)));
+        double fraction = roughStep / magnitude;
+        if (fraction <= 1.0) {
+            return magnitude;
+        }
+        else if (fraction <= 2.0) {
+            return 2.0 * magnitude;
+        }
+        else if (fraction <= 5.0) {
+            return 5.0 * magnitude;
+        }
+        return 10.0 * magnitude;
+    }
+
+    /**
+     * Formats a Julian Day as a date in UT.
+     */
+    static String toDateString(double jd) {
+        // JD 2440587.5 is 1970-01-01 00:00 UT.
+        long epochDay = (long) Math.floor(jd - 2440587.5);
+        return LocalDate.ofEpochDay(epochDay).toString();
+    }
+
+    private void notifyViewportListeners() {
+        for (Runnable listener : viewportListeners) {
+            listener.run();
+        }
+    }
+}
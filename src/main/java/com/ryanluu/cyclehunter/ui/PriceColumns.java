@@ -0,0 +1,142 @@
+package com.ryanluu.cyclehunter.ui;
+
+import com.ryanluu.cyclehunter.model.PriceBarPyramid;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+
+/**
+ * Price bars reduced to one column per pixel for drawing: for each
+ * pixel column of the chart, the open of the first bar, the highest
+ * high, the lowest low and the close of the last bar that fall in it.
+ *
+ * Drawing one line per pixel column instead of one shape per bar keeps
+ * the cost of a frame proportional to the width of the chart, however
+ * many bars are visible, and the per-column high and low keep every
+ * spike visible, which plain subsampling would not.
+ *
+ * The high and low of each column come from the series' pyramid
+ * (see PriceBarPyramid), so filling the columns looks at a few nodes
+ * per column, however many bars each column covers.
+ *
+ * The arrays are reused from frame to frame, and only grow when the
+ * chart gets wider.
+ */
+class PriceColumns {
+
+    private int width;
+
+    private double[] open = new double[0];
+    private double[] high = new double[0];
+    private double[] low = new double[0];
+    private double[] close = new double[0];
+
+    /**
+     * Lowest low and highest high over all columns.
+     * NaN if no column has any bars.
+     */
+    private double minLow;
+    private double maxHigh;
+
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns true if any bars fall in the given column.
+     */
+    boolean hasBars(int column) {
+        return !Double.isNaN(high[column]);
+    }
+
+    double getOpen(int column) {
+        return open[column];
+    }
+
+    double getHigh(int column) {
+        return high[column];
+    }
+
+    double getLow(int column) {
+        return low[column];
+    }
+
+    double getClose(int column) {
+        return close[column];
+    }
+
+    double getMinLow() {
+        return minLow;
+    }
+
+    double getMaxHigh() {
+        return maxHigh;
+    }
+
+    private void setWidth(int width) {
+        this.width = width;
+        if (open.length < width) {
+            open = new double[width];
+            high = new double[width];
+            low = new double[width];
+            close = new double[width];
+        }
+    }
+
+    /**
+     * Fills the columns from a price bar series.  Column c covers the
+     * bars from firstBar + c * barsPerPixel (inclusive) up to
+     * firstBar + (c + 1) * barsPerPixel (exclusive).
+     *
+     * @param series Price bars.
+     * @param firstBar Bar index, possibly fractional, at the left edge
+     *                 of column 0.
+     * @param barsPerPixel Number of bars per pixel column.
+     * @param width Number of columns.
+     */
+    void fill(PriceBarSeries series, double firstBar, double barsPerPixel, int width) {
+        setWidth(width);
+
+        PriceBarPyramid pyramid = series.getPyramid();
+        int numBars = series.size();
+        long rangeLow = Long.MAX_VALUE;
+        long rangeHigh = Long.MIN_VALUE;
+
+        int from = (int) Math.floor(firstBar);
+
+        for (int c = 0; c < width; c++) {
+            int to = (int) Math.floor(firstBar + (c + 1) * barsPerPixel);
+
+            int start = Math.max(from, 0);
+            int end = Math.min(to, numBars);
+
+            if (start >= end) {
+                open[c] = high[c] = low[c] = close[c] = Double.NaN;
+            }
+            else {
+                long h = pyramid.getHighestHighUnscaled(start, end);
+                long l = pyramid.getLowestLowUnscaled(start, end);
+
+                open[c] = series.toPrice(series.getOpenPriceUnscaled(start));
+                high[c] = series.toPrice(h);
+                low[c] = series.toPrice(l);
+                close[c] = series.toPrice(series.getClosePriceUnscaled(end - 1));
+
+                if (h > rangeHigh) {
+                    rangeHigh = h;
+                }
+                if (l < rangeLow) {
+                    rangeLow = l;
+                }
+            }
+
+            from = to;
+        }
+
+        if (rangeHigh == Long.MIN_VALUE) {
+            minLow = maxHigh = Double.NaN;
+        }
+        else {
+            minLow = series.toPrice(rangeLow);
+            maxHigh = series.toPrice(rangeHigh);
+        }
+    }
+}
@@ -14,13 +14,16 @@ import javafx.scene.text.Text;
 import javafx.scene.paint.Color;
 
 import javafx.stage.FileChooser;
+import javafx.util.StringConverter;
 import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Created by rluu on 11/9/14.
@@ -30,6 +33,61 @@ public class SettingsPane extends Pane {
 
     private CycleHunterSettings settings;
 
+    /**
+     * Called with the absolute path of a price bar CSV file
+     * whenever the user picks a new one.
+     */
+    private Consumer<String> onCsvFileSelected = null;
+
+    /**
+     * Called with the settings after the user presses Apply and the
+     * values in the widgets have been written into the settings.
+     */
+    private Consumer<CycleHunterSettings> onSettingsApplied = null;
+
+    /**
+     * Each of these copies the value of one widget into the settings.
+     * They are run when the user presses Apply, so that edits are not
+     * seen by the rest of the application until then.
+     */
+    private final List<Runnable> widgetWriters = new ArrayList<>();
+
+    /**
+     * Style of the Apply button when the widgets have been edited
+     * since the last Apply.
+     */
+    private static final String STALE_APPLY_BUTTON_STYLE = "-fx-base: #ffcc66;";
+
+    private Button applyButton;
+
+    /**
+     * Layout holding the rows of the custom lookback multiples,
+     * and the number of rows in it.
+     */
+    private GridPane customLookbackMultiplesGridPane;
+    private int customLookbackMultiplesRowCount = 0;
+
+    /**
+     * Called when the user asks for a sweep of lookback multiples.
+     */
+    private SweepRequestHandler onSweepRequested = null;
+
+    /**
+     * Called when the user asks for a spectral analysis of the prices.
+     */
+    private Runnable onSpectrumRequested = null;
+
+    /**
+     * Callback for a request to sweep a range of lookback multiples
+     * for a planet (see MultipleSweep).
+     */
+    public interface SweepRequestHandler {
+        void sweep(PlanetSelection planetSelection,
+                   BigDecimal min,
+                   BigDecimal max,
+                   BigDecimal step);
+    }
+
     public SettingsPane() {
         // Just create our own CycleHunterSettings object that is generic.
         // We won't do much until it is set again.
@@ -47,7 +105,8 @@ public class SettingsPane extends Pane {
         Label label = new Label("Settings");
         //title.setFont(Font.font("Arial", FontWeight.BOLD, 14));
 
-        Button applyButton = new Button("Apply");
+        applyButton = new Button("Apply");
+        applyButton.setOnAction(e -> applyCycleHunterSettings(settings));
 
         HBox settingsTitleHBox = new HBox();
         settingsTitleHBox.getChildren().add(label);
@@ -58,6 +117,8 @@ public class SettingsPane extends Pane {
         TitledPane planetsTitledPane = createPlanetsTitledPane();
         TitledPane integerLookbackMultiplesTitledPane = createIntegerLookBackMultiplesTitledPane();
         TitledPane geometricLookbackMultiplesTitledPane = createGeometricLookBackMultiplesTitledPane();
+        TitledPane sweepTitledPane = createSweepTitledPane();
+        TitledPane spectrumTitledPane = createSpectrumTitledPane();
 
 
         Accordion accordian = new Accordion();
@@ -65,6 +126,8 @@ public class SettingsPane extends Pane {
         accordian.getPanes().add(planetsTitledPane);
         accordian.getPanes().add(integerLookbackMultiplesTitledPane);
         accordian.getPanes().add(geometricLookbackMultiplesTitledPane);
+        accordian.getPanes().add(sweepTitledPane);
+        accordian.getPanes().add(spectrumTitledPane);
 
         VBox mainLayout = new VBox();
         mainLayout.getChildren().add(settingsTitleHBox);
@@ -76,10 +139,88 @@ public class SettingsPane extends Pane {
     public void applyCycleHunterSettings(CycleHunterSettings s) {
         settings = s;
 
-        // TODO: Make the settings object consistent with the settings in the widgets.
+        // Make the settings object consistent with the settings in the widgets.
+        for (Runnable writer : widgetWriters) {
+            writer.run();
+        }
+
+        if (applyButton != null) {
+            applyButton.setStyle("");
+        }
+
+        // Then notify the parent that new settings have been set,
+        // so that everything else can be redrawn.
+        if (onSettingsApplied != null) {
+            onSettingsApplied.accept(settings);
+        }
+    }
 
-        // TODO:  then notify the parent that new settings have been set, so that everything else can be redrawn.
+    /**
+     * Sets the callback that is invoked when the user presses Apply.
+     * The callback should work out what changed itself
+     * (see LookbackRecomputer), since only the changed overlays
+     * need to be recomputed.
+     *
+     * @param onSettingsApplied Callback that is given the settings.
+     */
+    public void setOnSettingsApplied(Consumer<CycleHunterSettings> onSettingsApplied) {
+        this.onSettingsApplied = onSettingsApplied;
+    }
 
+    /**
+     * Sets the callback that is invoked when the user asks for
+     * a sweep of lookback multiples.
+     *
+     * @param onSweepRequested Callback that is given the planet and
+     *                         the range of multiples.
+     */
+    public void setOnSweepRequested(SweepRequestHandler onSweepRequested) {
+        this.onSweepRequested = onSweepRequested;
+    }
+
+    /**
+     * Sets the callback that is invoked when the user asks for
+     * a spectral analysis of the price bars.
+     *
+     * @param onSpectrumRequested Callback to run.
+     */
+    public void setOnSpectrumRequested(Runnable onSpectrumRequested) {
+        this.onSpectrumRequested = onSpectrumRequested;
+    }
+
+    /**
+     * Sets the callback that is invoked when the user picks
+     * a new price bar CSV file.
+     *
+     * @param onCsvFileSelected Callback that is given the absolute path
+     *                          of the selected file.
+     */
+    public void setOnCsvFileSelected(Consumer<String> onCsvFileSelected) {
+        this.onCsvFileSelected = onCsvFileSelected;
+    }
+
+    /**
+     * Method that is called whenever the user picks a price bar CSV file.
+     * The filename is recorded in the settings and handed to the
+     * onCsvFileSelected callback, which does the actual loading.
+     *
+     * @param filename Path of the CSV file.
+     */
+    private void handleCsvFileSelected(String filename) {
+        if (filename == null || filename.trim().isEmpty()) {
+            return;
+        }
+
+        String newFilename = new File(filename.trim()).getAbsolutePath();
+        logger.debug("CSV file selected: " + newFilename);
+
+        settings.setLastOpenedCsvFilename(newFilename);
+
+        if (onCsvFileSelected != null) {
+            onCsvFileSelected.accept(newFilename);
+        }
+
+        handleSettingsChanged();
     }
 
     /**
@@ -90,7 +231,9 @@ public class SettingsPane extends Pane {
 
         // Make the Apply button an color that shows
         // that the application state is stale, and a refresh is needed.
-        // TODO:  add implementation here.
+        if (applyButton != null) {
+            applyButton.setStyle(STALE_APPLY_BUTTON_STYLE);
+        }
     }
 
     private TitledPane createFileTitledPane() {
@@ -107,7 +250,7 @@ public class SettingsPane extends Pane {
 
         TextField textField = new TextField(oldFilename);
         textField.setOnAction(e -> {
-            handleSettingsChanged();
+            handleCsvFileSelected(textField.getText());
         });
 
         Button button = new Button("Browse");
@@ -117,9 +260,9 @@ public class SettingsPane extends Pane {
             File file = fileChooser.showOpenDialog(null);
             if (file != null) {
                 String newFilename = file.getAbsolutePath();
-                if (!newFilename.equals(oldFilename)) {
+                if (!newFilename.equals(settings.getLastOpenedCsvFilename())) {
                     textField.setText(newFilename);
-                    handleSettingsChanged();
+                    handleCsvFileSelected(newFilename);
                 }
             }
         });
@@ -155,6 +298,7 @@ public class SettingsPane extends Pane {
             rb.setToggleGroup(group);
             rb.setSelected(enabled);
             rb.setOnAction(e -> handleSettingsChanged());
+            widgetWriters.add(() -> ps.setEnabled(rb.isSelected()));
 
             // TODO: Here, maybe set an image for each planet?
 
@@ -175,43 +319,75 @@ public class SettingsPane extends Pane {
                 settings.getCustomLookbackMultiplesList();
 
         // This is the layout that all the entries will go into.
-        GridPane gridPane = new GridPane();
-        gridPane.setHgap(10);
-        int rowIndex = 0;
+        customLookbackMultiplesGridPane = new GridPane();
+        customLookbackMultiplesGridPane.setHgap(10);
+        customLookbackMultiplesRowCount = 0;
 
         // Create entries for each row within the layout.
         for (LookbackMultiple lm : customLookbackMultiplesList) {
-            Boolean enabled = lm.getEnabled();
-
-            //CheckBox cb = new CheckBox(lm.getName());
-            //cb.setTooltip(new Tooltip(lm.getName()));
-            CheckBox cb = new CheckBox();
-            cb.setSelected(enabled);
-            cb.setOnAction(e -> handleSettingsChanged());
-
-            NumberTextField ntf = new NumberTextField();
-            ntf.setMinValue(new BigDecimal("1"));
-            ntf.setMaxWidth(70);
-            ntf.setNumber(lm.getLookbackMultiple());
-            ntf.numberProperty().addListener(listener -> handleSettingsChanged());
-
-            ColorPicker cp = new ColorPicker(Color.DARKGRAY);
-            cp.setOnAction(e -> handleSettingsChanged());
-
-            gridPane.add(cb, 0, rowIndex);
-            gridPane.add(ntf, 1, rowIndex);
-            gridPane.add(cp, 2, rowIndex);
-
-            rowIndex += 1;
+            addCustomLookbackMultipleRow(lm);
         }
 
         // Return value to be sent back.
         TitledPane titledPane =
-                new TitledPane("Lookback multiples", gridPane);
+                new TitledPane("Lookback multiples", customLookbackMultiplesGridPane);
 
         return titledPane;
     }
 
+    /**
+     * Adds a LookbackMultiple to the custom multiples in the settings,
+     * and a row for it in the widgets.  Like any other edit, it takes
+     * effect when the user presses Apply.
+     *
+     * @param lm Lookback multiple to add.
+     */
+    public void addCustomLookbackMultiple(LookbackMultiple lm) {
+        settings.getCustomLookbackMultiplesList().add(lm);
+        if (customLookbackMultiplesGridPane != null) {
+            addCustomLookbackMultipleRow(lm);
+        }
+        handleSettingsChanged();
+    }
+
+    /**
+     * Adds the widgets for one custom LookbackMultiple.
+     */
+    private void addCustomLookbackMultipleRow(LookbackMultiple lm) {
+        Boolean enabled = lm.getEnabled();
+
+        //CheckBox cb = new CheckBox(lm.getName());
+        //cb.setTooltip(new Tooltip(lm.getName()));
+        CheckBox cb = new CheckBox();
+        cb.setSelected(enabled);
+        cb.setOnAction(e -> handleSettingsChanged());
+
+        // Multiples below 1 can come from a sweep.
+        NumberTextField ntf = new NumberTextField();
+        ntf.setMinValue(BigDecimal.ONE.min(lm.getLookbackMultiple()));
+        ntf.setMaxWidth(70);
+        ntf.setNumber(lm.getLookbackMultiple());
+        ntf.numberProperty().addListener(listener -> handleSettingsChanged());
+
+        ColorPicker cp = new ColorPicker(lm.getColor());
+        cp.setOnAction(e -> handleSettingsChanged());
+
+        widgetWriters.add(() -> {
+            lm.setEnabled(cb.isSelected());
+            if (ntf.getNumber() != null) {
+                lm.setLookbackMultiple(ntf.getNumber());
+            }
+            lm.setColor(cp.getValue());
+        });
+
+        int rowIndex = customLookbackMultiplesRowCount;
+        customLookbackMultiplesGridPane.add(cb, 0, rowIndex);
+        customLookbackMultiplesGridPane.add(ntf, 1, rowIndex);
+        customLookbackMultiplesGridPane.add(cp, 2, rowIndex);
+
+        customLookbackMultiplesRowCount += 1;
+    }
+
     private TitledPane createGeometricLookBackMultiplesTitledPane() {
 
         // Get the list of all supported non-customizable LookbacMultiples,
@@ -239,9 +415,14 @@ public class SettingsPane extends Pane {
             cb.setSelected(enabled);
             cb.setOnAction(e -> handleSettingsChanged());
 
-            ColorPicker cp = new ColorPicker(Color.DARKGRAY);
+            ColorPicker cp = new ColorPicker(lm.getColor());
             cp.setOnAction(e -> handleSettingsChanged());
 
+            widgetWriters.add(() -> {
+                lm.setEnabled(cb.isSelected());
+                lm.setColor(cp.getValue());
+            });
+
             gridPane.add(cb, 0, rowIndex);
             gridPane.add(cp, 1, rowIndex);
 
@@ -254,4 +435,91 @@ public class SettingsPane extends Pane {
 
         return titledPane;
     }
+
+    private TitledPane createSweepTitledPane() {
+
+        // Planets to choose from, shown by their display names.
+        ComboBox<PlanetSelection> planetComboBox = new ComboBox<>();
+        planetComboBox.getItems().addAll(settings.getPlanetSelectionList());
+        planetComboBox.setConverter(new StringConverter<PlanetSelection>() {
+            @Override
+            public String toString(PlanetSelection ps) {
+                return (ps == null) ? "" : ps.getDisplayName();
+            }
+
+            @Override
+            public PlanetSelection fromString(String string) {
+                return null;
+            }
+        });
+        if (!planetComboBox.getItems().isEmpty()) {
+            planetComboBox.getSelectionModel().select(0);
+        }
+
+        NumberTextField minField = new NumberTextField(new BigDecimal("0.5"));
+        minField.setMinValue(new BigDecimal("0.001"));
+        minField.setMaxWidth(70);
+
+        NumberTextField maxField = new NumberTextField(new BigDecimal("20"));
+        maxField.setMinValue(new BigDecimal("0.001"));
+        maxField.setMaxWidth(70);
+
+        NumberTextField stepField = new NumberTextField(new BigDecimal("0.001"));
+        stepField.setMinValue(new BigDecimal("0.001"));
+        stepField.setMaxWidth(70);
+
+        Button sweepButton = new Button("Sweep");
+        sweepButton.setOnAction(e -> {
+            PlanetSelection ps = planetComboBox.getValue();
+            BigDecimal min = minField.getNumber();
+            BigDecimal max = maxField.getNumber();
+            BigDecimal step = stepField.getNumber();
+            if (ps != null && min != null && max != null && step != null &&
+                    max.compareTo(min) >= 0 && onSweepRequested != null) {
+                onSweepRequested.sweep(ps, min, max, step);
+            }
+        });
+
+        // This is the layout that all the entries will go into.
+        GridPane gridPane = new GridPane();
+        gridPane.setHgap(10);
+        gridPane.add(new Label("Planet"), 0, 0);
+        gridPane.add(planetComboBox, 1, 0);
+        gridPane.add(new Label("From"), 0, 1);
+        gridPane.add(minField, 1, 1);
+        gridPane.add(new Label("To"), 0, 2);
+        gridPane.add(maxField, 1, 2);
+        gridPane.add(new Label("Step"), 0, 3);
+        gridPane.add(stepField, 1, 3);
+        gridPane.add(sweepButton, 1, 4);
+
+        // Return value to be sent back.
+        TitledPane titledPane =
+                new TitledPane("Lookback multiple sweep", gridPane);
+
+        return titledPane;
+    }
+
+    private TitledPane createSpectrumTitledPane() {
+
+        Label label = new Label("Find the strongest cycles in the close\n" +
+                "prices, and the planetary periods near them.");
+
+        Button analyzeButton = new Button("Analyze");
+        analyzeButton.setOnAction(e -> {
+            if (onSpectrumRequested != null) {
+                onSpectrumRequested.run();
+            }
+        });
+
+        VBox vbox = new VBox(10);
+        vbox.getChildren().add(label);
+        vbox.getChildren().add(analyzeButton);
+
+        // Return value to be sent back.
+        TitledPane titledPane =
+                new TitledPane("Spectral analysis", vbox);
+
+        return titledPane;
+    }
 }
@@ -0,0 +1,204 @@
+package com.ryanluu.cyclehunter.ui;
+
+import com.ryanluu.cyclehunter.engine.SweepCurve;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Plot of a SweepCurve: return correlation against lookback multiple.
+ * Moving the mouse over the plot marks the nearest multiple, and
+ * clicking calls the onMultipleSelected callback with its index in
+ * the curve.
+ */
+public class SweepChart extends Pane {
+
+    private static final double MARGIN_LEFT = 50;
+    private static final double MARGIN_RIGHT = 10;
+    private static final double MARGIN_TOP = 24;
+    private static final double MARGIN_BOTTOM = 24;
+
+    private static final Color CURVE_COLOR = Color.rgb(0, 80, 200);
+    private static final Color BEST_COLOR = Color.rgb(200, 0, 0);
+    private static final Color HOVER_COLOR = Color.rgb(0, 150, 0);
+    private static final Color AXIS_COLOR = Color.rgb(80, 80, 80);
+    private static final Color GRID_COLOR = Color.rgb(230, 230, 230);
+
+    private final Canvas canvas = new Canvas();
+
+    private final SweepCurve curve;
+
+    private IntConsumer onMultipleSelected = null;
+
+    /**
+     * Index of the multiple under the mouse, or -1.
+     */
+    private int hoverIndex = -1;
+
+    private double minMultiple;
+    private double maxMultiple;
+
+    public SweepChart(SweepCurve curve) {
+        this.curve = curve;
+
+        if (curve.size() > 0) {
+            minMultiple = curve.getMultiple(0);
+            maxMultiple = curve.getMultiple(curve.size() - 1);
+        }
+        if (!(maxMultiple > minMultiple)) {
+            maxMultiple = minMultiple + 1.0;
+        }
+
+        getChildren().add(canvas);
+        canvas.widthProperty().bind(widthProperty());
+        canvas.heightProperty().bind(heightProperty());
+        canvas.widthProperty().addListener(o -> draw());
+        canvas.heightProperty().addListener(o -> draw());
+
+        canvas.setOnMouseMoved(e -> {
+            int index = curve.nearestIndex(xToMultiple(e.getX()));
+            if (index != hoverIndex) {
+                hoverIndex = index;
+                draw();
+            }
+        });
+        canvas.setOnMouseExited(e -> {
+            hoverIndex = -1;
+            draw();
+        });
+        canvas.setOnMouseClicked(e -> {
+            int index = curve.nearestIndex(xToMultiple(e.getX()));
+            if (index >= 0 && onMultipleSelected != null) {
+                onMultipleSelected.accept(index);
+            }
+        });
+    }
+
+    public SweepCurve getCurve() {
+        return curve;
+    }
+
+    /**
+     * Sets the callback that is called with the index (in the curve)
+     * of the multiple the user clicks on.
+     */
+    public void setOnMultipleSelected(IntConsumer onMultipleSelected) {
+        this.onMultipleSelected = onMultipleSelected;
+    }
+
+    private double getPlotWidth() {
+        return Math.max(1, canvas.getWidth() - MARGIN_LEFT - MARGIN_RIGHT);
+    }
+
+    private double getPlotHeight() {
+        return Math.max(1, canvas.getHeight() - MARGIN_TOP - MARGIN_BOTTOM);
+    }
+
+    private double multipleToX(double multiple) {
+        return MARGIN_LEFT + (multiple - minMultiple) / (maxMultiple - minMultiple) * getPlotWidth();
+    }
+
+    private double xToMultiple(double x) {
+        return minMultiple + (x - MARGIN_LEFT) / getPlotWidth() * (maxMultiple - minMultiple);
+    }
+
+    /**
+     * Correlation runs from -1.0 at the bottom to 1.0 at the top.
+     */
+    private double correlationToY(double correlation) {
+        return MARGIN_TOP + (1.0 - correlation) / 2.0 * getPlotHeight();
+    }
+
+    private void draw() {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, width, height);
+        if (width < MARGIN_LEFT + MARGIN_RIGHT + 1 || height < MARGIN_TOP + MARGIN_BOTTOM + 1) {
+            return;
+        }
+
+        gc.setFont(Font.font(11));
+        gc.setLineWidth(1.0);
+
+        // Correlation grid.
+        gc.setStroke(GRID_COLOR);
+        gc.setFill(AXIS_COLOR);
+        gc.setTextAlign(TextAlignment.RIGHT);
+        gc.setTextBaseline(VPos.CENTER);
+        for (int i = -4; i <= 4; i++) {
+            double correlation = i / 4.0;
+            double y = Math.floor(correlationToY(correlation)) + 0.5;
+            gc.strokeLine(MARGIN_LEFT, y, MARGIN_LEFT + getPlotWidth(), y);
+            gc.fillText(String.format("%.2f", correlation), MARGIN_LEFT - 6, y);
+        }
+
+        // Multiple axis labels.
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.TOP);
+        double step = PriceChart.getNicePriceStep((maxMultiple - minMultiple) / 8.0);
+        for (double m = Math.ceil(minMultiple / step) * step; m <= maxMultiple; m += step) {
+            double x = Math.floor(multipleToX(m)) + 0.5;
+            gc.strokeLine(x, MARGIN_TOP, x, MARGIN_TOP + getPlotHeight());
+            gc.fillText(String.format("%.3f", m), x, MARGIN_TOP + getPlotHeight() + 4);
+        }
+
+        // The curve.  Points without a correlation break the line.
+        gc.setStroke(CURVE_COLOR);
+        gc.beginPath();
+        boolean penDown = false;
+        for (int i = 0; i < curve.size(); i++) {
+            double correlation = curve.getCorrelation(i);
+            if (Double.isNaN(correlation)) {
+                penDown = false;
+                continue;
+            }
+            double x = multipleToX(curve.getMultiple(i));
+            double y = correlationToY(correlation);
+            if (penDown) {
+                gc.lineTo(x, y);
+            }
+            else {
+                gc.moveTo(x, y);
+                penDown = true;
+            }
+        }
+        gc.stroke();
+
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.TOP);
+        gc.setFill(AXIS_COLOR);
+        gc.fillText(curve.getPlanetSelection().getDisplayName() +
+                ": return correlation by lookback multiple.  Click to add a multiple.",
+                MARGIN_LEFT, 4);
+
+        markPoint(gc, curve.getBestIndex(), BEST_COLOR);
+        markPoint(gc, hoverIndex, HOVER_COLOR);
+    }
+
+    private void markPoint(GraphicsContext gc, int index, Color color) {
+        if (index < 0 || Double.isNaN(curve.getCorrelation(index))) {
+            return;
+        }
+        double x = multipleToX(curve.getMultiple(index));
+        double y = correlationToY(curve.getCorrelation(index));
+
+        gc.setStroke(color);
+        gc.strokeOval(x - 4, y - 4, 8, 8);
+
+        gc.setFill(color);
+        gc.setTextAlign(x > canvas.getWidth() / 2 ? TextAlignment.RIGHT : TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.BOTTOM);
+        gc.fillText(String.format(" %s  (%.3f) ",
+                curve.getMultipleDecimal(index).toPlainString(),
+                curve.getCorrelation(index)), x, y - 4);
+    }
+}
@@ -0,0 +1,142 @@
+package com.ryanluu.cyclehunter;
+
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import javafx.scene.paint.Color;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for BatchRunner.
+ */
+public class BatchRunnerTest
+    extends TestCase
+{
+    public BatchRunnerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BatchRunnerTest.class );
+    }
+
+    /**
+     * Settings with only the CalendarDay body, which needs no
+     * ephemeris files, and a one year lookback.
+     */
+    private static CycleHunterSettings createSettings()
+    {
+        CycleHunterSettings settings = new CycleHunterSettings();
+        List<PlanetSelection> planets = new ArrayList<>();
+        planets.add(new PlanetSelection("CalendarDay",
+                PlanetSelection.Centricity.GEOCENTRIC, true));
+        settings.setPlanetSelectionList(planets);
+        List<LookbackMultiple> multiples = new ArrayList<>();
+        multiples.add(new LookbackMultiple("1 year", BigDecimal.ONE, Color.RED, true));
+        settings.setCustomLookbackMultiplesList(multiples);
+        settings.setFixedLookbackMultiplesList(new ArrayList<>());
+        return settings;
+    }
+
+    /**
+     * Writes a bar for every day from 2015-01-01, each closing
+     * at 100 plus its index.
+     */
+    private static Path writeDailyCsv(Path directory, int numBars) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        LocalDate date = LocalDate.of(2015, 1, 1);
+        for (int i = 0; i < numBars; i++) {
+            String close = (100 + i) + ".00";
+            sb.append(String.format("%02d/%02d/%04d,%s,%s,%s,%s,1000,0\r\n",
+                    date.getMonthValue(), date.getDayOfMonth(), date.getYear(),
+                    close, close, close, close));
+            date = date.plusDays(1);
+        }
+        Path path = directory.resolve("ES.csv");
+        Files.write(path, sb.toString().getBytes(StandardCharsets.US_ASCII));
+        return path;
+    }
+
+    private static void deleteRecursively(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testWritesOverlaysScanAndSummary() throws IOException
+    {
+        Path directory = Files.createTempDirectory("batchRunner");
+        try {
+            Path csv = writeDailyCsv(directory, 800);
+            Path missing = directory.resolve("missing.csv");
+            Path out = directory.resolve("out");
+
+            BatchRunner runner = new BatchRunner(createSettings(), out);
+            runner.setNumThreads(2);
+            List<BatchRunner.FileResult> results =
+                    runner.run(Arrays.asList(csv, missing));
+
+            assertEquals(2, results.size());
+            assertNull(results.get(0).getFailure());
+            assertEquals(800, results.get(0).getNumBars());
+            assertNotNull(results.get(0).getBestScore());
+            assertNotNull(results.get(1).getFailure());
+
+            List<String> overlays = Files.readAllLines(
+                    out.resolve("ES" + BatchRunner.OVERLAYS_FILE_SUFFIX));
+            assertEquals(801, overlays.size());
+            assertTrue(overlays.get(0).endsWith(",\"G.CalendarDay 1 year\""));
+
+            // Nothing to look back to in the first year.
+            assertTrue(overlays.get(1 + 9).endsWith(",109.00,"));
+
+            // 2016-01-10 looks back to 2015-01-10.
+            assertTrue(overlays.get(1 + 374).endsWith(",474.00,109.00"));
+
+            List<String> scan = Files.readAllLines(
+                    out.resolve("ES" + BatchRunner.SCAN_FILE_SUFFIX));
+            assertEquals(2, scan.size());
+
+            List<String> summary = Files.readAllLines(
+                    out.resolve(BatchRunner.SUMMARY_FILENAME));
+            assertEquals(3, summary.size());
+            assertTrue(summary.get(1).contains(",G.CalendarDay,\"1 year\","));
+            assertTrue(summary.get(2).contains("missing"));
+        }
+        finally {
+            deleteRecursively(directory.toFile());
+        }
+    }
+
+    public void testAppendPrice()
+    {
+        StringBuilder sb = new StringBuilder();
+        BatchRunner.appendPrice(sb, 183025L, 2);
+        sb.append(' ');
+        BatchRunner.appendPrice(sb, -5L, 3);
+        sb.append(' ');
+        BatchRunner.appendPrice(sb, 42L, 0);
+        assertEquals("1830.25 -0.005 42", sb.toString());
+    }
+}
@@ -0,0 +1,125 @@
+package com.ryanluu.cyclehunter;
+
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTable;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableService;
+import com.ryanluu.cyclehunter.ephemeris.PositionSampler;
+import com.ryanluu.cyclehunter.ephemeris.SyntheticBodies;
+import com.ryanluu.cyclehunter.ephemeris.SyntheticBody;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+/**
+ * Unit tests for Ephemeris.
+ */
+public class EphemerisTest
+    extends TestCase
+{
+    private static final PositionSampler UNIFORM_BODY = (jd, out) -> {
+        out[0] = EphemerisTable.wrap(0.5 * (jd - 2451545.0));
+        out[1] = 0.5;
+    };
+
+    private EphemerisTableService savedService;
+
+    public EphemerisTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( EphemerisTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        savedService = Ephemeris.getTableService();
+        Ephemeris.setTableService(new EphemerisTableService(null) {
+            @Override
+            protected PositionSampler createSampler(int planetId,
+                                                    PlanetSelection.Centricity centricity) {
+                return UNIFORM_BODY;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        Ephemeris.setTableService(savedService);
+    }
+
+    public void testJulianDay()
+    {
+        assertEquals(2451545.0, Ephemeris.julianDay(2000, 1, 1, 12.0), 0.0);
+        assertEquals(2456972.5, Ephemeris.julianDay(2014, 11, 11, 0.0), 0.0);
+    }
+
+    public void testBatchLongitudesMatchTable()
+    {
+        // Enough unsorted times to take the parallel path.
+        int n = Ephemeris.PARALLEL_THRESHOLD + 1000;
+        double[] jd = new double[n];
+        Random random = new Random(7);
+        for (int i = 0; i < n; i++) {
+            jd[i] = 2440000.0 + random.nextDouble() * 20000.0;
+        }
+
+        double[] longitude = new double[n];
+        double[] speed = new double[n];
+        Ephemeris.calculateLongitudes(new PlanetSelection("Mars",
+                PlanetSelection.Centricity.GEOCENTRIC, true),
+                jd, longitude, speed);
+
+        for (int i = 0; i < n; i += 97) {
+            double expected = EphemerisTable.wrap(0.5 * (jd[i] - 2451545.0));
+            double difference = Math.abs(longitude[i] - expected);
+            assertTrue(Math.min(difference, 360.0 - difference) < 1.0e-6);
+            assertEquals(0.5, speed[i], 1.0e-9);
+        }
+    }
+
+    public void testSyntheticBodyLongitudes()
+    {
+        double[] jd = new double[200];
+        for (int i = 0; i < jd.length; i++) {
+            jd[i] = 2451545.0 + i * 3.7;
+        }
+
+        for (String name : new String[] {SyntheticBodies.CALENDAR_DAY,
+                                         SyntheticBodies.ASCENDANT}) {
+            SyntheticBody body = SyntheticBodies.DEFAULT.get(name);
+            double[] longitude = new double[jd.length];
+            double[] speed = new double[jd.length];
+            Ephemeris.calculateLongitudes(new PlanetSelection(name,
+                    PlanetSelection.Centricity.GEOCENTRIC, true),
+                    jd, longitude, speed);
+
+            for (int i = 0; i < jd.length; i++) {
+                double expected = EphemerisTable.wrap(body.getUnwrappedLongitude(jd[i]));
+                assertEquals(name, expected, longitude[i], 1.0e-9);
+                assertTrue(name, speed[i] > 0.0);
+            }
+            assertEquals(name, body.getAverageSpeed(), speed[0],
+                    0.5 * body.getAverageSpeed());
+        }
+    }
+
+    public void testUnknownPlanetNameIsRejected()
+    {
+        double[] jd = {2451545.0};
+        try {
+            Ephemeris.calculateLongitudes(new PlanetSelection("Vulcan",
+                    PlanetSelection.Centricity.GEOCENTRIC, true),
+                    jd, new double[1], null);
+            fail("Expected an IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Vulcan"));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.ryanluu.cyclehunter;
+
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTable;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableService;
+import com.ryanluu.cyclehunter.ephemeris.PlanetaryEventIndex;
+import com.ryanluu.cyclehunter.ephemeris.PositionSampler;
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for Workspace.
+ */
+public class WorkspaceTest
+    extends TestCase
+{
+    private static final double T0 = 2451545.0;
+
+    private static final PositionSampler STEADY_BODY = (jd, out) -> {
+        out[0] = EphemerisTable.wrap(0.083 * (jd - T0));
+        out[1] = 0.083;
+    };
+
+    public WorkspaceTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( WorkspaceTest.class );
+    }
+
+    private static CycleHunterSettings createSettings()
+    {
+        CycleHunterSettings settings = new CycleHunterSettings();
+        List<PlanetSelection> planets = new ArrayList<>();
+        planets.add(new PlanetSelection("Jupiter",
+                PlanetSelection.Centricity.GEOCENTRIC, true));
+        settings.setPlanetSelectionList(planets);
+        return settings;
+    }
+
+    private static PriceBarSeries createDailySeries(double firstJd, int numBars)
+    {
+        PriceBarSeries series = new PriceBarSeries();
+        for (int i = 0; i < numBars; i++) {
+            series.append(firstJd + i, 10000, 10000, 10000, 10000, 0, 0);
+        }
+        return series;
+    }
+
+    public void testInstrumentsSharePlanetData()
+    {
+        Workspace workspace = new Workspace(createSettings(),
+                new EphemerisTableService(null) {
+                    @Override
+                    protected PositionSampler createSampler(int planetId,
+                                                            PlanetSelection.Centricity centricity) {
+                        return STEADY_BODY;
+                    }
+                });
+        Workspace.Instrument a = workspace.add("A", null,
+                createDailySeries(T0, 1000));
+        Workspace.Instrument b = workspace.add("B", null,
+                createDailySeries(T0 + 200, 1000));
+
+        assertSame(workspace.getEngine(), a.getRecomputer().getEngine());
+        assertSame(workspace.getEngine(), b.getRecomputer().getEngine());
+        assertSame(workspace.getEngine(), workspace.getScanner().getEngine());
+        assertEquals(Arrays.asList("A", "B"), workspace.getSymbols());
+        assertEquals(T0, workspace.getFirstJd(), 0.0);
+        assertEquals(T0 + 1199, workspace.getLastJd(), 0.0);
+
+        // Adding a symbol again replaces it.
+        Workspace.Instrument a2 = workspace.add("A", null,
+                createDailySeries(T0 + 100, 10));
+        assertEquals(2, workspace.size());
+        assertSame(a2, workspace.getInstrument("A"));
+        assertEquals(T0 + 100, workspace.getFirstJd(), 0.0);
+
+        assertSame(b, workspace.remove("B"));
+        assertEquals(T0 + 109, workspace.getLastJd(), 0.0);
+        assertNull(workspace.getInstrument("B"));
+    }
+
+    public void testEventIndexIsBuiltOutsideTheWorkspaceLock() throws Exception
+    {
+        final CountDownLatch sampling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Workspace workspace = new Workspace(createSettings(),
+                new EphemerisTableService(null) {
+                    @Override
+                    protected PositionSampler createSampler(int planetId,
+                                                            PlanetSelection.Centricity centricity) {
+                        return (jd, out) -> {
+                            // Hold up the first sample until released.
+                            if (sampling.getCount() > 0) {
+                                sampling.countDown();
+                                try {
+                                    release.await(10, TimeUnit.SECONDS);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                            STEADY_BODY.sample(jd, out);
+                        };
+                    }
+                });
+        workspace.add("A", null, createDailySeries(T0, 1000));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<PlanetaryEventIndex> index = executor.submit(workspace::getEventIndex);
+            assertTrue(sampling.await(5, TimeUnit.SECONDS));
+
+            // The workspace can be used while the index is being built.
+            Future<List<String>> symbols = executor.submit(workspace::getSymbols);
+            assertEquals(Arrays.asList("A"), symbols.get(5, TimeUnit.SECONDS));
+            assertFalse(index.isDone());
+
+            release.countDown();
+            PlanetaryEventIndex built = index.get(5, TimeUnit.SECONDS);
+            assertNotNull(built);
+            assertTrue(built.getStartJd() <= T0);
+            assertTrue(built.getEndJd() >= T0 + 999);
+
+            // Nothing has changed, so it is not built again.
+            assertSame(built, workspace.getEventIndex());
+        }
+        finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.ryanluu.cyclehunter.data;
+
+import com.ryanluu.cyclehunter.model.ColumnStorage;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Unit tests for PriceBarCache.
+ */
+public class PriceBarCacheTest
+    extends TestCase
+{
+    private Path tempDir;
+
+    public PriceBarCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PriceBarCacheTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        tempDir = Files.createTempDirectory("priceBarCacheTest");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        deleteRecursively(tempDir.toFile());
+    }
+
+    private static void deleteRecursively(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private Path writeCsv(String name, int numBars) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numBars; i++) {
+            sb.append(String.format("2014-02-%02d,%d.5,%d.75,%d.25,%d.5,%d,%d%n",
+                    1 + i % 28, i, i, i, i, 10 * i, 20 * i));
+        }
+        Path path = tempDir.resolve(name);
+        Files.write(path, sb.toString().getBytes(StandardCharsets.US_ASCII));
+        return path;
+    }
+
+    private static void assertSameBars(PriceBarSeries expected, PriceBarSeries actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getPriceScale(), actual.getPriceScale());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getTimestampJd(i), actual.getTimestampJd(i), 0.0);
+            assertEquals(expected.getOpenPriceUnscaled(i), actual.getOpenPriceUnscaled(i));
+            assertEquals(expected.getHighPriceUnscaled(i), actual.getHighPriceUnscaled(i));
+            assertEquals(expected.getLowPriceUnscaled(i), actual.getLowPriceUnscaled(i));
+            assertEquals(expected.getClosePriceUnscaled(i), actual.getClosePriceUnscaled(i));
+            assertEquals(expected.getVolume(i), actual.getVolume(i));
+            assertEquals(expected.getOpenInterest(i), actual.getOpenInterest(i));
+        }
+    }
+
+    public void testSecondLoadComesFromCache() throws IOException
+    {
+        Path csv = writeCsv("a.csv", 28);
+        PriceBarCache cache = new PriceBarCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+
+        PriceBarSeries parsed = cache.loadOrParse(csv, new PriceBarCsvLoader(), ProgressListener.NONE);
+        Path cacheFile = cache.getCacheFile(csv.toRealPath());
+        assertTrue(Files.isRegularFile(cacheFile));
+
+        // Break the CSV parser path: if the series comes back, it came from the cache.
+        PriceBarCsvLoader failingLoader = new PriceBarCsvLoader() {
+            @Override
+            public PriceBarSeries load(Path path, ProgressListener progressListener) {
+                throw new AssertionError("Should have been loaded from the cache.");
+            }
+        };
+        PriceBarSeries cached = cache.loadOrParse(csv, failingLoader, ProgressListener.NONE);
+        assertSameBars(parsed, cached);
+    }
+
+    public void testColumnsAreWrittenAndReadInSegments() throws IOException
+    {
+        // 100 bars in segments of 7 values, the last one partial.
+        Path csv = writeCsv("segmented.csv", 100);
+        PriceBarCache cache = new PriceBarCache(tempDir.resolve("cache"), Long.MAX_VALUE, 7);
+
+        PriceBarSeries parsed = cache.loadOrParse(csv, new PriceBarCsvLoader(), ProgressListener.NONE);
+        Path cacheFile = cache.getCacheFile(csv.toRealPath());
+        assertTrue(Files.isRegularFile(cacheFile));
+
+        PriceBarCache.SourceInfo source = PriceBarCache.SourceInfo.of(csv.toRealPath());
+        assertSameBars(parsed, cache.read(cacheFile, source));
+
+        // A cache with another segment size reads the same file.
+        PriceBarCache other = new PriceBarCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        assertSameBars(parsed, other.read(cacheFile, source));
+        assertSameBars(parsed, cache.read(cacheFile, source, ColumnStorage.OFF_HEAP));
+    }
+
+    public void testFailureToWriteCacheIsNotFatal() throws IOException
+    {
+        Path csv = writeCsv("b.csv", 28);
+
+        // The cache directory cannot be created where a file is.
+        Path notADirectory = tempDir.resolve("file");
+        Files.write(notADirectory, new byte[1]);
+        PriceBarCache cache = new PriceBarCache(notADirectory.resolve("cache"), Long.MAX_VALUE);
+
+        PriceBarSeries series = cache.loadOrParse(csv, new PriceBarCsvLoader(), ProgressListener.NONE);
+        assertEquals(28, series.size());
+    }
+
+    public void testOffHeapLoadMapsCacheFile() throws IOException
+    {
+        Path csv = writeCsv("c.csv", 28);
+        PriceBarCache cache = new PriceBarCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        PriceBarCsvLoader loader = new PriceBarCsvLoader();
+        loader.setColumnStorage(ColumnStorage.OFF_HEAP);
+
+        PriceBarSeries parsed = cache.loadOrParse(csv, loader, ProgressListener.NONE);
+        assertSame(ColumnStorage.OFF_HEAP, parsed.getStorage());
+        assertFalse(parsed.isReadOnly());
+
+        PriceBarSeries mapped = cache.loadOrParse(csv, loader, ProgressListener.NONE);
+        assertSame(ColumnStorage.OFF_HEAP, mapped.getStorage());
+        assertTrue(mapped.isReadOnly());
+        assertSameBars(parsed, mapped);
+
+        // Changing a mapped series copies it, and leaves the file alone.
+        mapped.setVolume(0, 99);
+        mapped.append(mapped.getLastTimestampJd() + 1, 1, 2, 0, 1, 5, 6);
+        assertFalse(mapped.isReadOnly());
+        assertEquals(99, mapped.getVolume(0));
+        assertEquals(29, mapped.size());
+
+        PriceBarSeries again = cache.loadOrParse(csv, loader, ProgressListener.NONE);
+        assertSameBars(parsed, again);
+    }
+
+    public void testStaleCacheIsRebuilt() throws IOException
+    {
+        Path csv = writeCsv("b.csv", 10);
+        PriceBarCache cache = new PriceBarCache(tempDir.resolve("cache"), Long.MAX_VALUE);
+        cache.loadOrParse(csv, new PriceBarCsvLoader(), ProgressListener.NONE);
+
+        writeCsv("b.csv", 12);
+        Files.setLastModifiedTime(csv, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+        PriceBarSeries series = cache.loadOrParse(csv, new PriceBarCsvLoader(), ProgressListener.NONE);
+        assertEquals(12, series.size());
+    }
+
+    public void testLeastRecentlyUsedFilesAreDeleted() throws IOException
+    {
+        Path first = writeCsv("c1.csv", 100);
+        Path second = writeCsv("c2.csv", 100);
+
+        // Room for roughly one cache file.
+        PriceBarCache cache = new PriceBarCache(tempDir.resolve("cache"), 100 * 56 + 1024);
+        cache.loadOrParse(first, new PriceBarCsvLoader(), ProgressListener.NONE);
+        Path firstCacheFile = cache.getCacheFile(first.toRealPath());
+        Files.setLastModifiedTime(firstCacheFile, FileTime.fromMillis(1000));
+
+        cache.loadOrParse(second, new PriceBarCsvLoader(), ProgressListener.NONE);
+
+        assertFalse(Files.exists(firstCacheFile));
+        assertTrue(Files.exists(cache.getCacheFile(second.toRealPath())));
+    }
+}
@@ -0,0 +1,194 @@
+package com.ryanluu.cyclehunter.data;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for PriceBarCsvLoader and PriceBarCsvParser.
+ */
+public class PriceBarCsvLoaderTest
+    extends TestCase
+{
+    public PriceBarCsvLoaderTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PriceBarCsvLoaderTest.class );
+    }
+
+    private static Path writeTempFile(String contents) throws IOException
+    {
+        File file = File.createTempFile("priceBars", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+        return file.toPath();
+    }
+
+    public void testDailyFileWithHeader() throws IOException
+    {
+        Path path = writeTempFile(
+                "\"Date\",\"Open\",\"High\",\"Low\",\"Close\",\"Volume\",\"OpenInt\"\r\n" +
+                "01/02/2014,1830.25,1835.50,1820.00,1831.75,100000,250000\r\n" +
+                "01/03/2014,1831.75,1840,1829.25,1838.5,90000,251000\r\n");
+
+        PriceBarSeries series = new PriceBarCsvLoader().load(path, ProgressListener.NONE);
+
+        assertEquals(2, series.size());
+        assertEquals(2, series.getPriceScale());
+        assertEquals(Ephemeris.julianDay(2014, 1, 2, 0.0), series.getTimestampJd(0), 0.0);
+        assertEquals(183025L, series.getOpenPriceUnscaled(0));
+        assertEquals(184000L, series.getHighPriceUnscaled(1));
+        assertEquals(183850L, series.getClosePriceUnscaled(1));
+        assertEquals(90000L, series.getVolume(1));
+        assertEquals(251000L, series.getOpenInterest(1));
+    }
+
+    public void testIntradayFormats() throws IOException
+    {
+        Path path = writeTempFile(
+                "2014-01-02 09:30,10.125,10.5,10.0,10.25,1200\n" +
+                "20140102,09:31:30,10.25,10.5,10.0,10.375\n" +
+                "garbage,line\n" +
+                "2014-01-02T09:33,10.375,10.5,10.25,10.5,1300,7\n");
+
+        PriceBarCsvLoader loader = new PriceBarCsvLoader();
+        PriceBarSeries series = loader.load(path, ProgressListener.NONE);
+
+        assertEquals(3, series.size());
+        assertEquals(3, series.getPriceScale());
+
+        double midnight = Ephemeris.julianDay(2014, 1, 2, 0.0);
+        assertEquals(midnight + 9.5 / 24.0, series.getTimestampJd(0), 1e-9);
+        assertEquals(midnight + (9 * 3600 + 31 * 60 + 30) / 86400.0,
+                series.getTimestampJd(1), 1e-9);
+        assertEquals(10375L, series.getClosePriceUnscaled(1));
+        assertEquals(0L, series.getVolume(1));
+        assertEquals(7L, series.getOpenInterest(2));
+    }
+
+    public void testFixedPriceScaleRounds() throws IOException
+    {
+        Path path = writeTempFile("2014-01-02,1.23456,1.3,1.2,-1.23444\n");
+
+        PriceBarCsvLoader loader = new PriceBarCsvLoader();
+        loader.setPriceScale(4);
+        PriceBarSeries series = loader.load(path, ProgressListener.NONE);
+
+        assertEquals(1, series.size());
+        assertEquals(12346L, series.getOpenPriceUnscaled(0));
+        assertEquals(13000L, series.getHighPriceUnscaled(0));
+        assertEquals(-12344L, series.getClosePriceUnscaled(0));
+    }
+
+    public void testJulianDay()
+    {
+        // J2000.0 epoch is 2000-01-01 12:00 UT.
+        assertEquals(2451545.0, Ephemeris.julianDay(2000, 1, 1, 12.0), 0.0);
+        assertEquals(2440587.5, Ephemeris.julianDay(1970, 1, 1, 0.0), 0.0);
+    }
+
+    public void testChunkedParseMatchesSingleThreaded() throws IOException
+    {
+        StringBuilder sb = new StringBuilder("Date,Open,High,Low,Close,Volume,OpenInt\n");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(String.format("2014-01-%02d %02d:%02d,%d.25,%d.5,%d,%d.75,%d,%d%n",
+                    1 + i / 100, (i / 60) % 24, i % 60, i, i + 1, i - 1, i, i, 2 * i));
+        }
+        Path path = writeTempFile(sb.toString());
+
+        PriceBarCsvLoader loader = new PriceBarCsvLoader(1);
+        PriceBarSeries expected = loader.load(path, ProgressListener.NONE);
+        assertEquals(1000, expected.size());
+
+        try (FileChannel channel = FileChannel.open(path)) {
+            long[] boundaries = PriceBarCsvLoader.findChunkBoundaries(channel, 7);
+            assertEquals(0L, boundaries[0]);
+            assertEquals(channel.size(), boundaries[boundaries.length - 1]);
+
+            int numLines = 0;
+            for (int i = 0; i + 1 < boundaries.length; i++) {
+                numLines += PriceBarCsvLoader.countLines(channel,
+                        boundaries[i], boundaries[i + 1]);
+            }
+            assertEquals(1001, numLines);
+
+            // Small chunks, so that there are more of them than can be
+            // parsed ahead, and progress is seen as they are appended.
+            final List<Long> progress = new ArrayList<>();
+            List<PriceBarCsvParser> parsers = new ArrayList<>();
+            PriceBarSeries merged = loader.parseInParallel(channel, 2, 3, 1000,
+                    (workDone, totalWork) -> progress.add(workDone), parsers);
+
+            assertTrue(parsers.size() > 6);
+            assertEquals(parsers.size(), progress.size());
+            for (int i = 1; i < progress.size(); i++) {
+                assertTrue(progress.get(i) > progress.get(i - 1));
+            }
+            assertEquals(channel.size(), (long) progress.get(progress.size() - 1));
+
+            assertEquals(expected.size(), merged.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getTimestampJd(i), merged.getTimestampJd(i), 0.0);
+                assertEquals(expected.getClosePriceUnscaled(i), merged.getClosePriceUnscaled(i));
+            }
+        }
+    }
+
+    public void testCountLines() throws IOException
+    {
+        Path path = writeTempFile("a\nb\n\nc");
+        try (FileChannel channel = FileChannel.open(path)) {
+            assertEquals(4, PriceBarCsvLoader.countLines(channel, 0, 6));
+            assertEquals(3, PriceBarCsvLoader.countLines(channel, 0, 5));
+            assertEquals(1, PriceBarCsvLoader.countLines(channel, 2, 4));
+        }
+    }
+
+    public void testPriceScaleIgnoresVolumeAndOpenInterest()
+    {
+        assertEquals(2, detectPriceScale(
+                "Date,Open,High,Low,Close,Volume,OpenInt\n" +
+                "2014-01-02,1.25,1.5,1,1.75,100.12345,20.5555\n"));
+        assertEquals(3, detectPriceScale(
+                "2014-01-02,09:30,1.25,1.5,1,1.755,100.12345\n" +
+                "2014-01-02,09:31:00.5,1.25,1.5,1,1.75,20.5555,3.14159\n"));
+        assertEquals(4, detectPriceScale(
+                "2014-01-02 09:30,1.2555,1.5,1,1.75,100.12345\n"));
+    }
+
+    private static int detectPriceScale(String text)
+    {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        return PriceBarCsvParser.detectPriceScale(buf, 0, buf.limit());
+    }
+
+    public void testOutOfOrderBarsAreSorted() throws IOException
+    {
+        Path path = writeTempFile(
+                "2014-01-03,3,3,3,3\n" +
+                "2014-01-01,1,1,1,1\n" +
+                "2014-01-02,2,2,2,2\n");
+
+        PriceBarSeries series = new PriceBarCsvLoader().load(path, ProgressListener.NONE);
+
+        assertEquals(0, series.countTimestampInversions());
+        assertEquals(1L, series.getClosePriceUnscaled(0));
+        assertEquals(3L, series.getClosePriceUnscaled(2));
+    }
+}
@@ -0,0 +1,114 @@
+package com.ryanluu.cyclehunter.data;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Unit tests for PriceBarCsvTailer.
+ */
+public class PriceBarCsvTailerTest
+    extends TestCase
+{
+    public PriceBarCsvTailerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PriceBarCsvTailerTest.class );
+    }
+
+    private static Path writeTempFile(String contents) throws IOException
+    {
+        File file = File.createTempFile("priceBars", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+        return file.toPath();
+    }
+
+    private static void append(Path path, String contents) throws IOException
+    {
+        Files.write(path, contents.getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+    }
+
+    public void testReadsOnlyCompleteAppendedLines() throws IOException
+    {
+        Path path = writeTempFile(
+                "Date,Open,High,Low,Close\r\n" +
+                "01/02/2014,10.00,11.00,9.00,10.50\r\n");
+        PriceBarSeries series = new PriceBarCsvLoader().load(path, ProgressListener.NONE);
+        long loadedLength = Files.size(path);
+
+        PriceBarCsvTailer tailer = new PriceBarCsvTailer(path,
+                series.getPriceScale(), loadedLength, series.getLastTimestampJd());
+        assertEquals(0, tailer.poll().size());
+
+        // The second line is still being written.
+        append(path, "01/03/2014,10.50,12.00,10.00,11.75\r\n01/06/20");
+        PriceBarSeries bars = tailer.poll();
+        assertEquals(1, bars.size());
+        assertEquals(Ephemeris.julianDay(2014, 1, 3, 0.0), bars.getTimestampJd(0), 0.0);
+        assertEquals(1175L, bars.getClosePriceUnscaled(0));
+
+        append(path, "14,11.75,12.25,11.50,12.00\r\n");
+        bars = tailer.poll();
+        assertEquals(1, bars.size());
+        assertEquals(Ephemeris.julianDay(2014, 1, 6, 0.0), bars.getTimestampJd(0), 0.0);
+        assertEquals(Files.size(path), tailer.getOffset());
+    }
+
+    public void testDropsBarsAlreadyLoaded() throws IOException
+    {
+        Path path = writeTempFile(
+                "01/02/2014,10.00,11.00,9.00,10.50\n" +
+                "01/03/2014,10.50,12.00,10.00,11.75\n");
+
+        // Starting in the middle of the second line reads all of it,
+        // and its bar is dropped for not being later than the last.
+        PriceBarCsvTailer tailer = new PriceBarCsvTailer(path, 2, 40,
+                Ephemeris.julianDay(2014, 1, 3, 0.0));
+        append(path, "01/06/2014,11.75,12.25,11.50,12.00\n");
+
+        PriceBarSeries bars = tailer.poll();
+        assertEquals(1, bars.size());
+        assertEquals(Ephemeris.julianDay(2014, 1, 6, 0.0), bars.getTimestampJd(0), 0.0);
+        assertEquals(1, tailer.getDroppedBarCount());
+    }
+
+    public void testRewrittenFile() throws IOException
+    {
+        Path path = writeTempFile("01/02/2014,10.00,11.00,9.00,10.50\n");
+        PriceBarCsvTailer tailer = new PriceBarCsvTailer(path, 2,
+                Files.size(path), Double.NaN);
+
+        Files.write(path, "0\n".getBytes(StandardCharsets.US_ASCII));
+        assertNull(tailer.poll());
+    }
+
+    public void testSkipsMalformedAppendedLines() throws IOException
+    {
+        Path path = writeTempFile("01/02/2014,10.00,11.00,9.00,10.50\n");
+        PriceBarCsvTailer tailer = new PriceBarCsvTailer(path, 2,
+                Files.size(path), Ephemeris.julianDay(2014, 1, 2, 0.0));
+
+        append(path, "01/03/2014,10.50,garbage\n" +
+                "01/06/2014,11.75,12.25,11.50,12.00\n");
+        PriceBarSeries bars = tailer.poll();
+        assertEquals(1, bars.size());
+        assertEquals(Ephemeris.julianDay(2014, 1, 6, 0.0), bars.getTimestampJd(0), 0.0);
+        assertEquals(Files.size(path), tailer.getOffset());
+        assertEquals(0, tailer.poll().size());
+    }
+}
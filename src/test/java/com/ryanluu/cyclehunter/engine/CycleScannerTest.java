@@ -0,0 +1,89 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import javafx.scene.paint.Color;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for CycleScanner.
+ */
+public class CycleScannerTest
+    extends TestCase
+{
+    private static final double T0 = 2451545.0;
+
+    public CycleScannerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CycleScannerTest.class );
+    }
+
+    private static LookbackMultiple multiple(String value)
+    {
+        return new LookbackMultiple(value, new BigDecimal(value), Color.RED, true);
+    }
+
+    /**
+     * Daily closes that depend only on where the test body
+     * (see LookbackEngineTest) is, plus a little noise.  So the price
+     * repeats itself every full cycle of the body.
+     */
+    static PriceBarSeries createCyclicSeries(int numBars)
+    {
+        PriceBarSeries series = new PriceBarSeries(2, numBars);
+        Random random = new Random(14);
+        for (int i = 0; i < numBars; i++) {
+            double jd = T0 + i;
+            double radians = Math.toRadians(LookbackEngineTest.exactUnwrapped(jd));
+            double price = 100.0 * (1.0 + 0.3 * Math.sin(3.0 * radians)) +
+                    0.001 * random.nextGaussian();
+            long close = series.toUnscaledPrice(price);
+            series.append(jd, close, close, close, close, 0, 0);
+        }
+        return series;
+    }
+
+    public void testFullCycleRanksFirst()
+    {
+        PriceBarSeries series = createCyclicSeries(8000);
+        List<PlanetSelection> planets = Arrays.asList(
+                new PlanetSelection("Jupiter", PlanetSelection.Centricity.GEOCENTRIC, true),
+                new PlanetSelection("Saturn", PlanetSelection.Centricity.HELIOCENTRIC, true));
+        List<LookbackMultiple> multiples = Arrays.asList(
+                multiple("0.37"), multiple("1"), multiple("0.61"), multiple("0"));
+
+        CycleScanner scanner = new CycleScanner(LookbackEngineTest.createEngine());
+        List<CycleScore> scores = scanner.scan(series, planets, multiples, null);
+
+        // The zero multiple is skipped.
+        assertEquals(6, scores.size());
+
+        // Both planets are the same test body, so both full cycle
+        // lookbacks fit almost perfectly, and nothing else does.
+        for (int r = 0; r < 2; r++) {
+            CycleScore score = scores.get(r);
+            assertEquals("1", score.getLookbackMultiple().getName());
+            assertTrue(score.toString(), score.getCorrelation() > 0.9);
+            assertTrue(score.toString(), score.getHitRateLift() > 2.0);
+        }
+        for (int r = 2; r < scores.size(); r++) {
+            assertTrue(scores.get(r).toString(), scores.get(r).getCorrelation() < 0.9);
+        }
+
+        String table = CycleScanner.formatTable(scores, 3);
+        assertEquals(4, table.split("\n").length);
+    }
+}
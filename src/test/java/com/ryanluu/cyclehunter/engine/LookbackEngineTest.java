@@ -0,0 +1,239 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTable;
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableService;
+import com.ryanluu.cyclehunter.ephemeris.PositionSampler;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import javafx.scene.paint.Color;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for LookbackEngine.
+ */
+public class LookbackEngineTest
+    extends TestCase
+{
+    private static final double T0 = 2451545.0;
+
+    /**
+     * Analytic body with a 3600 day cycle that goes retrograde once
+     * a year.  Its retrograde loops are a few degrees long.
+     */
+    static double exactUnwrapped(double jd)
+    {
+        double t = jd - T0;
+        return 0.1 * t + 6.0 * Math.sin(2.0 * Math.PI / 365.25 * t);
+    }
+
+    static final PositionSampler RETROGRADING_BODY = (jd, out) -> {
+        double t = jd - T0;
+        double w = 2.0 * Math.PI / 365.25;
+        out[0] = EphemerisTable.wrap(exactUnwrapped(jd));
+        out[1] = 0.1 + 6.0 * w * Math.cos(w * t);
+    };
+
+    public LookbackEngineTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LookbackEngineTest.class );
+    }
+
+    static LookbackEngine createEngine()
+    {
+        EphemerisTableService service = new EphemerisTableService(null) {
+            @Override
+            protected PositionSampler createSampler(int planetId,
+                                                    PlanetSelection.Centricity centricity) {
+                return RETROGRADING_BODY;
+            }
+        };
+        return new LookbackEngine(service);
+    }
+
+    static PriceBarSeries createDailySeries(double firstJd, int numBars)
+    {
+        PriceBarSeries series = new PriceBarSeries();
+        for (int i = 0; i < numBars; i++) {
+            series.append(firstJd + i, 10000, 10000, 10000, 10000, 0, 0);
+        }
+        return series;
+    }
+
+    private static LookbackMultiple multiple(String value)
+    {
+        return new LookbackMultiple(value, new BigDecimal(value), Color.RED, true);
+    }
+
+    public void testLookbackTimes()
+    {
+        PriceBarSeries series = createDailySeries(T0, 7300);
+        PlanetSelection planet = new PlanetSelection("Jupiter",
+                PlanetSelection.Centricity.GEOCENTRIC, true);
+
+        // 0.01 cycles is shorter than a retrograde loop,
+        // which takes the slower path.
+        List<LookbackMultiple> multiples = Arrays.asList(
+                multiple("1"), multiple("0.5"), multiple("0.01"));
+
+        LookbackEngine engine = createEngine();
+        engine.setChunkSize(1000);
+        List<LookbackResult> results = engine.compute(series, planet, multiples);
+        assertEquals(3, results.size());
+
+        for (LookbackResult result : results) {
+            double degrees = result.getLookbackDegrees();
+            for (int i = 0; i < series.size(); i += 7) {
+                double t = series.getTimestampJd(i);
+                double lookbackJd = result.getLookbackJd(i);
+                double y = exactUnwrapped(t) - degrees;
+
+                assertTrue(lookbackJd < t);
+                assertEquals(y, exactUnwrapped(lookbackJd), 1.0e-3);
+
+                // It is the latest time the body was that far back.
+                if (i % 91 == 0) {
+                    for (double s = lookbackJd + 0.5; s < t; s += 0.5) {
+                        assertTrue(exactUnwrapped(s) > y - 1.0e-3);
+                    }
+                }
+
+                int barIndex = result.getLookbackBarIndex(i);
+                if (lookbackJd < T0) {
+                    assertEquals(-1, barIndex);
+                }
+                else {
+                    assertEquals(series.nearestIndex(lookbackJd), barIndex);
+                }
+            }
+        }
+
+        // A full cycle is about 3600 days, so roughly half the
+        // bars can look back that far within the series.
+        int mapped = results.get(0).getMappedBarCount();
+        assertTrue(mapped > 3000 && mapped < 4000);
+    }
+
+    public void testCalendarDayLooksBackWholeYears()
+    {
+        // 2000-01-01 00:00 UT onwards, daily.
+        PriceBarSeries series = createDailySeries(T0 - 0.5, 1500);
+        PlanetSelection calendarDay = new PlanetSelection("CalendarDay",
+                PlanetSelection.Centricity.GEOCENTRIC, true);
+
+        LookbackResult result = createEngine().compute(series, calendarDay,
+                multiple("1"));
+
+        // 2000 is a leap year, so the first 366 bars have nothing to
+        // look back to, and every bar after maps to the same date a
+        // year earlier, which is 366 bars back until 2000-02-29 has
+        // been passed.
+        for (int i = 0; i < series.size(); i++) {
+            int expected = (i < 366) ? -1 :
+                    (i < 366 + 59) ? i - 366 : i - 365;
+            assertEquals(expected, result.getLookbackBarIndex(i));
+        }
+    }
+
+    public void testChunkingAndParallelismDoNotChangeResults()
+    {
+        PriceBarSeries series = createDailySeries(T0, 5000);
+        PlanetSelection planet = new PlanetSelection("Saturn",
+                PlanetSelection.Centricity.HELIOCENTRIC, true);
+        LookbackMultiple lookbackMultiple = multiple("0.75");
+
+        LookbackEngine engine = createEngine();
+        engine.setParallel(false);
+        engine.setChunkSize(Integer.MAX_VALUE);
+        LookbackResult expected = engine.compute(series, planet, lookbackMultiple);
+
+        engine.setParallel(true);
+        engine.setChunkSize(333);
+        LookbackResult actual = engine.compute(series, planet, lookbackMultiple);
+
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(expected.getLookbackJd(i), actual.getLookbackJd(i), 1.0e-9);
+            assertEquals(expected.getLookbackBarIndex(i), actual.getLookbackBarIndex(i));
+        }
+    }
+
+    public void testLookbackTimesCacheIsSharedBySameTimestamps()
+    {
+        PlanetSelection planet = new PlanetSelection("Mars",
+                PlanetSelection.Centricity.GEOCENTRIC, true);
+        LookbackMultiple lookbackMultiple = multiple("0.5");
+
+        LookbackEngine engine = createEngine();
+        LookbackTimesCache cache = new LookbackTimesCache();
+        engine.setLookbackTimesCache(cache);
+
+        // Same timestamps, different prices.
+        PriceBarSeries first = createDailySeries(T0, 2000);
+        PriceBarSeries second = new PriceBarSeries();
+        for (int i = 0; i < first.size(); i++) {
+            second.append(first.getTimestampJd(i), 500, 500, 500, 500, 0, 0);
+        }
+        LookbackResult expected = engine.compute(first, planet, lookbackMultiple);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.size());
+
+        LookbackResult actual = engine.compute(second, planet, lookbackMultiple);
+        assertEquals(1, cache.getHitCount());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(expected.getLookbackJd(i), actual.getLookbackJd(i), 0.0);
+            assertEquals(expected.getLookbackBarIndex(i), actual.getLookbackBarIndex(i));
+        }
+
+        // Other timestamps are not taken from the cache.
+        engine.compute(createDailySeries(T0 + 1, 2000), planet, lookbackMultiple);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.size());
+    }
+
+    public void testExtendMatchesComputingEverything()
+    {
+        PlanetSelection planet = new PlanetSelection("Jupiter",
+                PlanetSelection.Centricity.GEOCENTRIC, true);
+        List<LookbackMultiple> multiples = Arrays.asList(
+                multiple("1"), multiple("0.01"));
+        LookbackEngine engine = createEngine();
+
+        PriceBarSeries series = createDailySeries(T0, 4000);
+        List<LookbackResult> results = engine.computeAll(series, planet, multiples);
+
+        // Append a few bars at a time, as a live file would.
+        List<LookbackResult> previous = results;
+        for (int n = 1; n <= 3; n++) {
+            double lastJd = series.getLastTimestampJd();
+            for (int i = 1; i <= n; i++) {
+                series.append(lastJd + i, 10000, 10000, 10000, 10000, 0, 0);
+            }
+            previous = engine.extend(series, previous);
+        }
+        assertEquals(4006, previous.get(0).size());
+
+        // The earlier results still see only their own bars.
+        assertEquals(4000, results.get(0).size());
+
+        List<LookbackResult> expected = engine.computeAll(series, planet, multiples);
+        for (int m = 0; m < multiples.size(); m++) {
+            for (int i = 0; i < series.size(); i++) {
+                assertEquals(expected.get(m).getLookbackJd(i),
+                        previous.get(m).getLookbackJd(i), 1.0e-9);
+                assertEquals(expected.get(m).getLookbackBarIndex(i),
+                        previous.get(m).getLookbackBarIndex(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.ephemeris.EphemerisTableService;
+import com.ryanluu.cyclehunter.ephemeris.PositionSampler;
+import com.ryanluu.cyclehunter.model.CycleHunterSettings;
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import javafx.scene.paint.Color;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for LookbackRecomputer.
+ */
+public class LookbackRecomputerTest
+    extends TestCase
+{
+    public LookbackRecomputerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LookbackRecomputerTest.class );
+    }
+
+    private static CycleHunterSettings createSettings()
+    {
+        CycleHunterSettings settings = new CycleHunterSettings();
+
+        List<PlanetSelection> planets = new ArrayList<>();
+        planets.add(new PlanetSelection("Jupiter",
+                PlanetSelection.Centricity.GEOCENTRIC, true));
+        planets.add(new PlanetSelection("Saturn",
+                PlanetSelection.Centricity.GEOCENTRIC, false));
+        settings.setPlanetSelectionList(planets);
+
+        List<LookbackMultiple> custom = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            custom.add(new LookbackMultiple(String.valueOf(i),
+                    new BigDecimal(i), Color.GRAY, true));
+        }
+        settings.setCustomLookbackMultiplesList(custom);
+
+        List<LookbackMultiple> fixed = new ArrayList<>();
+        fixed.add(new LookbackMultiple("two", new BigDecimal("2.000"),
+                Color.GRAY, true));
+        settings.setFixedLookbackMultiplesList(fixed);
+
+        return settings;
+    }
+
+    public void testOnlyChangedOverlaysAreComputed()
+    {
+        CycleHunterSettings settings = createSettings();
+        LookbackRecomputer recomputer =
+                new LookbackRecomputer(LookbackEngineTest.createEngine());
+        recomputer.setPriceBarSeries(
+                LookbackEngineTest.createDailySeries(2451545.0, 3000));
+
+        // The fixed 2.000 multiple shares its result with the custom 2.
+        OverlayDiff diff = recomputer.apply(settings);
+        assertEquals(4, diff.getAdded().size());
+        assertEquals(3, recomputer.getComputeCount());
+        for (OverlaySpec spec : recomputer.getOverlaySpecs()) {
+            assertNotNull(recomputer.getResult(spec));
+        }
+
+        // A color change is only a repaint.
+        settings.getCustomLookbackMultiplesList().get(0).setColor(Color.RED);
+        diff = recomputer.apply(settings);
+        assertTrue(diff.isRepaintOnly());
+        assertEquals(1, diff.getRecolored().size());
+        assertEquals(3, recomputer.getComputeCount());
+
+        // Unchecking and rechecking a multiple needs no computation.
+        settings.getCustomLookbackMultiplesList().get(2).setEnabled(false);
+        diff = recomputer.apply(settings);
+        assertEquals(1, diff.getRemoved().size());
+        settings.getCustomLookbackMultiplesList().get(2).setEnabled(true);
+        diff = recomputer.apply(settings);
+        assertEquals(1, diff.getAdded().size());
+        assertEquals(3, recomputer.getComputeCount());
+
+        // Changing a number computes just that one.
+        settings.getCustomLookbackMultiplesList().get(0).setLookbackMultiple(
+                new BigDecimal("1.5"));
+        diff = recomputer.apply(settings);
+        assertEquals(1, diff.getChanged().size());
+        assertEquals(3, diff.getUnchanged().size());
+        assertEquals(4, recomputer.getComputeCount());
+
+        // Switching planets computes every overlay for the new planet.
+        settings.getPlanetSelectionList().get(0).setEnabled(false);
+        settings.getPlanetSelectionList().get(1).setEnabled(true);
+        diff = recomputer.apply(settings);
+        assertEquals(4, diff.getRemoved().size());
+        assertEquals(4, diff.getAdded().size());
+        assertEquals(7, recomputer.getComputeCount());
+    }
+
+    public void testAppendedBarsReuseTheTablesFromApply()
+    {
+        final AtomicInteger samples = new AtomicInteger();
+        EphemerisTableService service = new EphemerisTableService(null) {
+            @Override
+            protected PositionSampler createSampler(int planetId,
+                                                    PlanetSelection.Centricity centricity) {
+                return (jd, out) -> {
+                    samples.incrementAndGet();
+                    LookbackEngineTest.RETROGRADING_BODY.sample(jd, out);
+                };
+            }
+        };
+        LookbackEngine engine = new LookbackEngine(service);
+        LookbackRecomputer recomputer = new LookbackRecomputer(engine);
+        PriceBarSeries series = LookbackEngineTest.createDailySeries(2451545.0, 3000);
+        recomputer.setPriceBarSeries(series);
+        CycleHunterSettings settings = createSettings();
+        recomputer.apply(settings);
+
+        // Bars the tables already reach are extended without sampling.
+        int before = samples.get();
+        appendDays(series, 10);
+        assertEquals(10, recomputer.appendBars());
+        assertTrue(recomputer.isUpToDate());
+        assertEquals(before, samples.get());
+        for (OverlaySpec spec : recomputer.getOverlaySpecs()) {
+            assertEquals(series.size(), recomputer.getResult(spec).size());
+        }
+
+        // Bars past the tables are left for the next apply().
+        appendDays(series, (int) LookbackEngine.EXTEND_AHEAD_DAYS);
+        assertEquals(0, recomputer.appendBars());
+        assertFalse(recomputer.isUpToDate());
+        assertEquals(before, samples.get());
+
+        recomputer.apply(recomputer.getOverlaySpecs());
+        assertTrue(recomputer.isUpToDate());
+        List<LookbackResult> expected = engine.computeAll(series,
+                new PlanetSelection("Jupiter", PlanetSelection.Centricity.GEOCENTRIC, true),
+                settings.getCustomLookbackMultiplesList());
+        for (LookbackResult result : expected) {
+            LookbackResult actual = null;
+            for (OverlaySpec spec : recomputer.getOverlaySpecs()) {
+                if (spec.getKey().getMultiple().compareTo(
+                        result.getLookbackMultiple().getLookbackMultiple()) == 0) {
+                    actual = recomputer.getResult(spec);
+                }
+            }
+            assertNotNull(actual);
+            assertEquals(series.size(), actual.size());
+            for (int i = 0; i < series.size(); i++) {
+                assertEquals(result.getLookbackJd(i), actual.getLookbackJd(i), 1.0e-9);
+                assertEquals(result.getLookbackBarIndex(i), actual.getLookbackBarIndex(i));
+            }
+        }
+    }
+
+    private static void appendDays(PriceBarSeries series, int numDays)
+    {
+        double lastJd = series.getLastTimestampJd();
+        for (int i = 1; i <= numDays; i++) {
+            series.append(lastJd + i, 10000, 10000, 10000, 10000, 0, 0);
+        }
+    }
+}
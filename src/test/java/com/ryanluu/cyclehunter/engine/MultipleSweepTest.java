@@ -0,0 +1,80 @@
+package com.ryanluu.cyclehunter.engine;
+
+import com.ryanluu.cyclehunter.model.LookbackMultiple;
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import javafx.scene.paint.Color;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Unit tests for MultipleSweep.
+ */
+public class MultipleSweepTest
+    extends TestCase
+{
+    public MultipleSweepTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MultipleSweepTest.class );
+    }
+
+    public void testSweepFindsFullCycleWithoutEvaluatingEveryStep()
+    {
+        PriceBarSeries series = CycleScannerTest.createCyclicSeries(8000);
+        PlanetSelection planet = new PlanetSelection("Jupiter",
+                PlanetSelection.Centricity.GEOCENTRIC, true);
+
+        MultipleSweep sweep = new MultipleSweep(LookbackEngineTest.createEngine());
+        SweepCurve curve = sweep.sweep(series, planet, new BigDecimal("0.8"),
+                new BigDecimal("1.2"), new BigDecimal("0.001"), null);
+
+        // The price repeats every full cycle of the test body.
+        int best = curve.getBestIndex();
+        assertEquals(1.0, curve.getMultiple(best), 0.0015);
+        assertTrue(curve.getCorrelation(best) > 0.9);
+
+        // Far fewer than the 401 multiples in the range were needed.
+        assertTrue("evaluated: " + curve.size(), curve.size() < 200);
+
+        // Multiples are in order, and on the grid.
+        for (int i = 1; i < curve.size(); i++) {
+            assertTrue(curve.getMultipleDecimal(i).compareTo(curve.getMultipleDecimal(i - 1)) > 0);
+            assertEquals(3, curve.getMultipleDecimal(i).scale());
+        }
+
+        LookbackMultiple lm = curve.createLookbackMultiple(best, Color.BLUE);
+        assertEquals(curve.getMultipleDecimal(best).stripTrailingZeros(),
+                lm.getLookbackMultiple());
+        assertTrue(lm.getEnabled());
+    }
+
+    public void testPeaksAreOnlyComparedWithNeighboursOnTheGrid()
+    {
+        // Two runs of a grid with a stride of 1, and a gap between them.
+        double[] correlations = { 0.1, 0.2, 0.3, 0.9, 0.5, 0.4 };
+        long[] indexes = { 10, 11, 12, 20, 21, 22 };
+        Map<Long, CycleScore> scores = new TreeMap<>();
+        for (int i = 0; i < indexes.length; i++) {
+            scores.put(indexes[i], new CycleScore(null, null,
+                    correlations[i], 100, 0.0, 0.0, 0));
+        }
+
+        List<Long> peaks = new MultipleSweep(null).findPeaks(scores, 1);
+
+        // 12 is the highest of its run, though lower than 20 after the gap.
+        assertEquals(2, peaks.size());
+        assertEquals(Long.valueOf(20), peaks.get(0));
+        assertEquals(Long.valueOf(12), peaks.get(1));
+    }
+}
@@ -0,0 +1,135 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Unit tests for EphemerisTableCache.
+ */
+public class EphemerisTableCacheTest
+    extends TestCase
+{
+    private Path cacheDirectory;
+
+    public EphemerisTableCacheTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( EphemerisTableCacheTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        cacheDirectory = Files.createTempDirectory("ephemerisCacheTest");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        File[] files = cacheDirectory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        Files.deleteIfExists(cacheDirectory);
+    }
+
+    public void testSaveAndLoad()
+    {
+        EphemerisTable table = EphemerisTable.build(
+                EphemerisTableTest.RETROGRADING_BODY, 5,
+                PlanetSelection.Centricity.HELIOCENTRIC,
+                2451545.0, 2451545.0 + 1000.0, 2.0);
+
+        EphemerisTableCache cache = new EphemerisTableCache(cacheDirectory);
+        cache.save(table);
+
+        EphemerisTable loaded =
+                cache.load(5, PlanetSelection.Centricity.HELIOCENTRIC,
+                        PositionSampler.Method.DIRECT, 1.0e-4);
+        assertNotNull(loaded);
+        assertEquals(5, loaded.getPlanetId());
+        assertEquals(PlanetSelection.Centricity.HELIOCENTRIC, loaded.getCentricity());
+        assertEquals(table.getStartJd(), loaded.getStartJd(), 0.0);
+        assertEquals(table.getNumSamples(), loaded.getNumSamples());
+        for (int i = 0; i < table.getNumSamples(); i++) {
+            assertEquals(table.getSampleLongitude(i), loaded.getSampleLongitude(i), 0.0);
+            assertEquals(table.getSampleSpeed(i), loaded.getSampleSpeed(i), 0.0);
+        }
+
+        assertEquals(PositionSampler.Method.DIRECT, loaded.getSamplingMethod());
+
+        // Other keys, other sampling methods, and tolerances tighter
+        // than the table's error, do not match.
+        assertNull(cache.load(5, PlanetSelection.Centricity.GEOCENTRIC,
+                PositionSampler.Method.DIRECT, 1.0e-4));
+        assertNull(cache.load(6, PlanetSelection.Centricity.HELIOCENTRIC,
+                PositionSampler.Method.DIRECT, 1.0e-4));
+        assertNull(cache.load(5, PlanetSelection.Centricity.HELIOCENTRIC,
+                PositionSampler.Method.BARYCENTRIC, 1.0e-4));
+        assertNull(cache.load(5, PlanetSelection.Centricity.HELIOCENTRIC,
+                PositionSampler.Method.DIRECT,
+                table.getMaxErrorDegrees() / 2.0));
+    }
+
+    public void testServiceReusesAndExtendsCachedTable()
+    {
+        final int[] samples = new int[1];
+        EphemerisTableService service = new EphemerisTableService(null) {
+            @Override
+            protected PositionSampler createSampler(int planetId,
+                                                    PlanetSelection.Centricity centricity) {
+                return (jd, out) -> {
+                    samples[0]++;
+                    EphemerisTableTest.RETROGRADING_BODY.sample(jd, out);
+                };
+            }
+        };
+        service.setTableCache(new EphemerisTableCache(cacheDirectory));
+        service.getTable(9, PlanetSelection.Centricity.GEOCENTRIC,
+                2451545.0, 2451545.0 + 1000.0);
+        assertTrue(samples[0] > 0);
+
+        // A new service, as in a new session, reads the table back
+        // without calculating anything.
+        samples[0] = 0;
+        EphemerisTableService nextSession = new EphemerisTableService(null) {
+            @Override
+            protected PositionSampler createSampler(int planetId,
+                                                    PlanetSelection.Centricity centricity) {
+                return (jd, out) -> {
+                    samples[0]++;
+                    EphemerisTableTest.RETROGRADING_BODY.sample(jd, out);
+                };
+            }
+        };
+        nextSession.setTableCache(new EphemerisTableCache(cacheDirectory));
+        nextSession.getTable(9, PlanetSelection.Centricity.GEOCENTRIC,
+                2451545.0, 2451545.0 + 1000.0);
+        assertEquals(0, samples[0]);
+
+        // Asking for a later range only calculates the new dates,
+        // and the extended table is what gets cached.
+        EphemerisTable extended = nextSession.getTable(9,
+                PlanetSelection.Centricity.GEOCENTRIC,
+                2451545.0, 2451545.0 + 2000.0);
+        assertTrue(samples[0] > 0);
+        assertTrue(samples[0] < 2000);
+
+        EphemerisTable reloaded = new EphemerisTableCache(cacheDirectory)
+                .load(9, PlanetSelection.Centricity.GEOCENTRIC,
+                        PositionSampler.Method.DIRECT, 1.0e-4);
+        assertEquals(extended.getEndJd(), reloaded.getEndJd(), 0.0);
+    }
+}
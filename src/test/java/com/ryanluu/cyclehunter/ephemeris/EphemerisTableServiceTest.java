@@ -0,0 +1,72 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for EphemerisTableService.
+ */
+public class EphemerisTableServiceTest
+    extends TestCase
+{
+    public EphemerisTableServiceTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( EphemerisTableServiceTest.class );
+    }
+
+    public void testGetTablesBuildsEachPlanetOnce()
+    {
+        final Map<String, AtomicInteger> samplersCreated = new ConcurrentHashMap<>();
+        EphemerisTableService service = new EphemerisTableService(null) {
+            @Override
+            protected PositionSampler createSampler(int planetId,
+                                                    PlanetSelection.Centricity centricity) {
+                samplersCreated.computeIfAbsent(planetId + "/" + centricity,
+                        k -> new AtomicInteger()).incrementAndGet();
+                return EphemerisTableTest.RETROGRADING_BODY;
+            }
+        };
+
+        PlanetSelection.Centricity geo = PlanetSelection.Centricity.GEOCENTRIC;
+        PlanetSelection.Centricity helio = PlanetSelection.Centricity.HELIOCENTRIC;
+        List<PlanetSelection> planets = Arrays.asList(
+                new PlanetSelection("CalendarDay", geo, true),
+                new PlanetSelection("Mars", geo, true),
+                new PlanetSelection("Mars", geo, false),
+                new PlanetSelection("Mars", helio, true),
+                new PlanetSelection("Jupiter", geo, true));
+
+        Map<PlanetSelection, EphemerisTable> tables =
+                service.getTables(planets, 2451545.0, 2451545.0 + 3650.0);
+
+        // CalendarDay has no planet ID.
+        assertEquals(4, tables.size());
+        assertFalse(tables.containsKey(planets.get(0)));
+        assertSame(tables.get(planets.get(1)), tables.get(planets.get(2)));
+        assertEquals(helio, tables.get(planets.get(3)).getCentricity());
+
+        // Mars geocentric was asked for twice but built once.
+        assertEquals(3, samplersCreated.size());
+        for (AtomicInteger count : samplersCreated.values()) {
+            assertEquals(1, count.get());
+        }
+
+        // Already covered, so nothing more is built.
+        assertSame(tables.get(planets.get(4)), service.getTable(planets.get(4),
+                2451545.0 + 100.0, 2451545.0 + 200.0));
+        assertEquals(3, samplersCreated.size());
+    }
+}
@@ -0,0 +1,158 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for EphemerisTable.
+ */
+public class EphemerisTableTest
+    extends TestCase
+{
+    /**
+     * Analytic body that moves forwards on average but goes
+     * retrograde once a year, like a geocentric outer planet.
+     */
+    static final PositionSampler RETROGRADING_BODY = (jd, out) -> {
+        double t = jd - 2451545.0;
+        double w = 2.0 * Math.PI / 365.25;
+        double lon = 0.1 * t + 6.0 * Math.sin(w * t);
+        out[0] = EphemerisTable.wrap(lon);
+        out[1] = 0.1 + 6.0 * w * Math.cos(w * t);
+    };
+
+    static double exactUnwrapped(double jd)
+    {
+        double t = jd - 2451545.0;
+        return 0.1 * t + 6.0 * Math.sin(2.0 * Math.PI / 365.25 * t);
+    }
+
+    public EphemerisTableTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( EphemerisTableTest.class );
+    }
+
+    private static EphemerisTable buildTable(double startJd, double endJd)
+    {
+        return EphemerisTable.build(RETROGRADING_BODY, 0,
+                PlanetSelection.Centricity.GEOCENTRIC, startJd, endJd, 2.0);
+    }
+
+    public void testInterpolationWithinMeasuredError()
+    {
+        EphemerisTable table = buildTable(2451545.0, 2451545.0 + 3650.0);
+
+        assertTrue(table.getMaxErrorDegrees() < 1.0e-4);
+
+        // The unwrapped value may differ from the analytic one by a
+        // whole number of turns, depending on where unwrapping started.
+        double offset = table.getUnwrappedLongitude(2451545.0) - exactUnwrapped(2451545.0);
+        for (double jd = 2451545.0; jd < 2451545.0 + 3650.0; jd += 0.37) {
+            double expected = exactUnwrapped(jd) + offset;
+            assertEquals(expected, table.getUnwrappedLongitude(jd), 2.0e-4);
+            assertEquals(EphemerisTable.wrap(expected), table.getLongitude(jd), 2.0e-4);
+        }
+    }
+
+    public void testSpeed()
+    {
+        EphemerisTable table = buildTable(2451545.0, 2451545.0 + 400.0);
+        double[] out = new double[2];
+        for (double jd = 2451545.0; jd < 2451545.0 + 400.0; jd += 1.3) {
+            RETROGRADING_BODY.sample(jd, out);
+            assertEquals(out[1], table.getSpeed(jd), 1.0e-4);
+        }
+    }
+
+    public void testExtendKeepsExistingValues()
+    {
+        EphemerisTable table = buildTable(2452000.0, 2452100.0);
+        EphemerisTable extended = table.extendTo(RETROGRADING_BODY, 2451000.0, 2453000.0);
+
+        assertTrue(extended.covers(2451000.0, 2453000.0));
+        for (double jd = 2452000.0; jd < 2452100.0; jd += 0.5) {
+            assertEquals(table.getUnwrappedLongitude(jd),
+                    extended.getUnwrappedLongitude(jd), 1.0e-9);
+        }
+
+        // Continuous across the old boundaries.
+        double before = extended.getUnwrappedLongitude(table.getStartJd() - 0.01);
+        double after = extended.getUnwrappedLongitude(table.getStartJd() + 0.01);
+        assertEquals(before, after, 0.01);
+
+        assertSame(extended, extended.extendTo(RETROGRADING_BODY, 2452000.0, 2452001.0));
+    }
+
+    public void testBatchMatchesSingleLookups()
+    {
+        EphemerisTable table = buildTable(2451545.0, 2451545.0 + 1000.0);
+        double[] jd = new double[500];
+        for (int i = 0; i < jd.length; i++) {
+            jd[i] = 2451545.0 + i * 1.91;
+        }
+        double[] out = new double[jd.length];
+        table.fillUnwrappedLongitudes(jd, 0, jd.length, out);
+        for (int i = 0; i < jd.length; i++) {
+            assertEquals(table.getUnwrappedLongitude(jd[i]), out[i], 1.0e-9);
+        }
+    }
+
+    public void testParallelSamplingMatchesSerial()
+    {
+        PositionSampler threadSafe = new PositionSampler() {
+            @Override
+            public void sample(double jd, double[] out) {
+                RETROGRADING_BODY.sample(jd, out);
+            }
+
+            @Override
+            public boolean isThreadSafe() {
+                return true;
+            }
+        };
+
+        // Enough samples to take the parallel path, for both the
+        // build and the extension on each side.
+        double days = 2.0 * EphemerisTable.PARALLEL_THRESHOLD * 3;
+        EphemerisTable serial = EphemerisTable.build(RETROGRADING_BODY, 0,
+                PlanetSelection.Centricity.GEOCENTRIC, 2451545.0 - days, 2451545.0 + days, 2.0);
+        EphemerisTable parallel = EphemerisTable.build(threadSafe, 0,
+                PlanetSelection.Centricity.GEOCENTRIC, 2451545.0 - days / 3, 2451545.0 + days / 3, 2.0)
+                .extendTo(threadSafe, 2451545.0 - days, 2451545.0 + days);
+
+        assertEquals(serial.getStartJd(), parallel.getStartJd(), 0.0);
+        assertEquals(serial.getMaxErrorDegrees(), parallel.getMaxErrorDegrees(), 1.0e-12);
+        int shift = (int) Math.round((parallel.getSampleLongitude(0) - serial.getSampleLongitude(0)) / 360.0);
+        for (int i = 0; i < serial.getNumSamples(); i++) {
+            assertEquals(serial.getSampleLongitude(i) + 360.0 * shift,
+                    parallel.getSampleLongitude(i), 1.0e-9);
+            assertEquals(serial.getSampleSpeed(i), parallel.getSampleSpeed(i), 0.0);
+        }
+    }
+
+    public void testErrorIsMeasuredInEveryInterval()
+    {
+        // A body that jumps by 0.01 degrees halfway through the third
+        // interval (start aligned to the 2 day step), and nowhere else.
+        final double glitchJd = 2451546.0 + 2.5 * 2.0;
+        PositionSampler glitchy = (jd, out) -> {
+            RETROGRADING_BODY.sample(jd, out);
+            if (Math.abs(jd - glitchJd) < 1.0e-6) {
+                out[0] = EphemerisTable.wrap(out[0] + 0.01);
+            }
+        };
+
+        EphemerisTable table = EphemerisTable.build(glitchy, 0,
+                PlanetSelection.Centricity.GEOCENTRIC, 2451546.0, 2451546.0 + 100.0, 2.0);
+        assertEquals(2451546.0, table.getStartJd(), 0.0);
+        assertTrue("error: " + table.getMaxErrorDegrees(),
+                table.getMaxErrorDegrees() > 0.009);
+    }
+}
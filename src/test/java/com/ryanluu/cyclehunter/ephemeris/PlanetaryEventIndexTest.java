@@ -0,0 +1,147 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import swisseph.SweConst;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for PlanetaryEventIndex.
+ */
+public class PlanetaryEventIndexTest
+    extends TestCase
+{
+    private static final double T0 = 2451545.0;
+
+    /**
+     * Analytic body that moves one degree a day from 0 degrees at T0.
+     */
+    private static final PositionSampler STEADY_BODY = (jd, out) -> {
+        out[0] = EphemerisTable.wrap(jd - T0);
+        out[1] = 1.0;
+    };
+
+    private static final PlanetSelection SUN = new PlanetSelection("Sun",
+            PlanetSelection.Centricity.GEOCENTRIC, true);
+    private static final PlanetSelection MARS = new PlanetSelection("Mars",
+            PlanetSelection.Centricity.GEOCENTRIC, false);
+
+    public PlanetaryEventIndexTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PlanetaryEventIndexTest.class );
+    }
+
+    private static PlanetaryEventIndex buildIndex()
+    {
+        EphemerisTableService service = new EphemerisTableService(null) {
+            @Override
+            protected PositionSampler createSampler(int planetId,
+                                                    PlanetSelection.Centricity centricity) {
+                return (planetId == SweConst.SE_SUN) ?
+                        STEADY_BODY : EphemerisTableTest.RETROGRADING_BODY;
+            }
+        };
+
+        // CalendarDay has no planet ID, so it is left out.
+        return PlanetaryEventIndex.build(service, Arrays.asList(SUN, MARS,
+                new PlanetSelection("CalendarDay", PlanetSelection.Centricity.GEOCENTRIC, true)),
+                T0, T0 + 3650.0);
+    }
+
+    private static double exactSeparation(double jd)
+    {
+        return (jd - T0) - EphemerisTableTest.exactUnwrapped(jd);
+    }
+
+    public void testIngresses()
+    {
+        PlanetaryEventIndex index = buildIndex();
+        assertEquals(2, index.getBodies().size());
+
+        EventSeries ingresses = index.getIngresses(SUN);
+        assertEquals(3650 / 30, ingresses.size());
+        for (int i = 0; i < ingresses.size(); i++) {
+            assertEquals(T0 + 30.0 * (i + 1), ingresses.getJd(i), 1.0e-6);
+            assertEquals(30.0 * ((i + 1) % 12), ingresses.getValue(i), 0.0);
+            assertFalse(ingresses.isReverse(i));
+        }
+
+        // Last crossing of 0 Aries before day 1000 was on day 720.
+        assertEquals(T0 + 720.0, index.getLastIngressJd(SUN, 0.0, T0 + 1000.0), 1.0e-6);
+        assertTrue(Double.isNaN(index.getLastIngressJd(SUN, 0.0, T0 + 100.0)));
+    }
+
+    public void testStations()
+    {
+        PlanetaryEventIndex index = buildIndex();
+        EventSeries stations = index.getStations(MARS);
+
+        // Retrograde once a year: two stations a year, alternating.
+        assertTrue(stations.size() >= 19 && stations.size() <= 21);
+        double[] out = new double[2];
+        for (int i = 0; i < stations.size(); i++) {
+            EphemerisTableTest.RETROGRADING_BODY.sample(stations.getJd(i), out);
+            assertEquals(0.0, out[1], 1.0e-6);
+            if (i > 0) {
+                assertTrue(stations.isReverse(i) != stations.isReverse(i - 1));
+            }
+        }
+
+        double jd = T0 + 2000.0;
+        double last = index.getLastStationJd(MARS, jd);
+        assertTrue(last < jd);
+        assertEquals(stations.floorIndex(jd), stations.ceilingIndex(last));
+    }
+
+    public void testAspectsAndOrbs()
+    {
+        PlanetaryEventIndex index = buildIndex();
+
+        EventSeries squares = index.getAspects(SUN, MARS, 90.0);
+        assertTrue(squares.size() > 10);
+        for (int i = 0; i < squares.size(); i++) {
+            double separation = exactSeparation(squares.getJd(i));
+            assertEquals(0.0, EphemerisTable.normalizeDelta(
+                    separation - squares.getValue(i)), 1.0e-4);
+            assertTrue(squares.getValue(i) == 90.0 || squares.getValue(i) == 270.0);
+        }
+
+        // Every exact aspect is inside an orb window, and the edges of
+        // the windows are an orb away from the aspect.
+        OrbWindows windows = index.getOrbWindows(SUN, MARS, 90.0);
+        for (int i = 0; i < squares.size(); i++) {
+            assertTrue(windows.contains(squares.getJd(i)));
+        }
+        for (int i = 0; i < windows.size(); i++) {
+            assertTrue(windows.getEndJd(i) > windows.getStartJd(i));
+            if (i > 0) {
+                assertTrue(windows.getStartJd(i) > windows.getEndJd(i - 1));
+            }
+            for (double edge : new double[] { windows.getStartJd(i), windows.getEndJd(i) }) {
+                if (edge > T0 && edge < T0 + 3650.0) {
+                    double distance = EphemerisTable.normalizeDelta(
+                            exactSeparation(edge) - windows.getSeparation(i));
+                    assertEquals(index.getOrbDegrees(), Math.abs(distance), 1.0e-4);
+                }
+            }
+        }
+        double between = (windows.getEndJd(0) + windows.getStartJd(1)) / 2.0;
+        assertFalse(windows.contains(between));
+
+        try {
+            index.getAspects(SUN, MARS, 45.0);
+            fail("45 degree aspects were not indexed.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
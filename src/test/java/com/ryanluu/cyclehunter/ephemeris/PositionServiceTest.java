@@ -0,0 +1,181 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.model.PlanetSelection;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import swisseph.SweConst;
+
+/**
+ * Unit tests for PositionService.
+ */
+public class PositionServiceTest
+    extends TestCase
+{
+    /**
+     * Circular, coplanar orbits around the barycenter: the Sun wobbling
+     * on a small circle, the Earth and Mars on their own.
+     */
+    static final PositionService.StateSource CIRCULAR_ORBITS =
+            (bodyId, jd, out) -> {
+                double radius;
+                double periodDays;
+                switch (bodyId) {
+                    case SweConst.SE_SUN:
+                        radius = 0.005;
+                        periodDays = 4332.6;
+                        break;
+                    case SweConst.SE_EARTH:
+                        radius = 1.0;
+                        periodDays = 365.256;
+                        break;
+                    case SweConst.SE_MARS:
+                        radius = 1.524;
+                        periodDays = 686.98;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("No orbit for " + bodyId);
+                }
+                double omega = 2.0 * Math.PI / periodDays;
+                double angle = omega * (jd - 2451545.0);
+                out[0] = radius * Math.cos(angle);
+                out[1] = radius * Math.sin(angle);
+                out[2] = 0.0;
+                out[3] = -radius * omega * Math.sin(angle);
+                out[4] = radius * omega * Math.cos(angle);
+                out[5] = 0.0;
+            };
+
+    private static final PlanetSelection.Centricity GEO =
+            PlanetSelection.Centricity.GEOCENTRIC;
+    private static final PlanetSelection.Centricity HELIO =
+            PlanetSelection.Centricity.HELIOCENTRIC;
+
+    public PositionServiceTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PositionServiceTest.class );
+    }
+
+    public void testCentricitiesShareStates()
+    {
+        PositionService service = new PositionService(CIRCULAR_ORBITS);
+        int n = 1000;
+        double startJd = 2451545.0;
+        double[] geoLongitude = new double[n];
+        double[] geoSpeed = new double[n];
+        double[] helioLongitude = new double[n];
+        double[] helioSpeed = new double[n];
+
+        service.sampleGrid(SweConst.SE_MARS, GEO, startJd, 1.0, 0, n,
+                geoLongitude, geoSpeed);
+        long statesAfterGeo = service.getNumStatesCalculated();
+
+        // Mars, the Earth and the Sun, rounded up to whole chunks.
+        assertTrue(statesAfterGeo >= 3 * n);
+        assertTrue(statesAfterGeo <= 3 * (n + 2 * PositionService.CHUNK_SIZE));
+
+        service.sampleGrid(SweConst.SE_MARS, HELIO, startJd, 1.0, 0, n,
+                helioLongitude, helioSpeed);
+        assertEquals(statesAfterGeo, service.getNumStatesCalculated());
+
+        // Positions agree with the geometry to within the light-time
+        // and aberration corrections.
+        double[] mars = new double[6];
+        double[] earth = new double[6];
+        double[] sun = new double[6];
+        for (int i = 0; i < n; i += 37) {
+            double jd = startJd + i;
+            CIRCULAR_ORBITS.sampleState(SweConst.SE_MARS, jd, mars);
+            CIRCULAR_ORBITS.sampleState(SweConst.SE_EARTH, jd, earth);
+            CIRCULAR_ORBITS.sampleState(SweConst.SE_SUN, jd, sun);
+
+            double geo = Math.toDegrees(Math.atan2(mars[1] - earth[1], mars[0] - earth[0]));
+            double helio = Math.toDegrees(Math.atan2(mars[1] - sun[1], mars[0] - sun[0]));
+            assertEquals(0.0, EphemerisTable.normalizeDelta(geoLongitude[i] - geo), 0.02);
+            assertEquals(0.0, EphemerisTable.normalizeDelta(helioLongitude[i] - helio), 0.02);
+            assertEquals(360.0 / 686.98, helioSpeed[i], 0.01);
+        }
+    }
+
+    public void testSunAndEarthUseSharedStates()
+    {
+        PositionService service = new PositionService(CIRCULAR_ORBITS);
+        int n = 500;
+        double startJd = 2451545.0 + 10000.0;
+        double[] longitude = new double[n];
+        double[] speed = new double[n];
+        double[] sunLongitude = new double[n];
+        double[] earthLongitude = new double[n];
+
+        service.sampleGrid(SweConst.SE_MARS, GEO, startJd, 1.0, 0, n,
+                longitude, speed);
+        long states = service.getNumStatesCalculated();
+
+        service.sampleGrid(SweConst.SE_SUN, GEO, startJd, 1.0, 0, n,
+                sunLongitude, speed);
+        service.sampleGrid(SweConst.SE_EARTH, HELIO, startJd, 1.0, 0, n,
+                earthLongitude, speed);
+        assertEquals(states, service.getNumStatesCalculated());
+
+        for (int i = 0; i < n; i++) {
+            assertEquals(180.0, Math.abs(EphemerisTable.normalizeDelta(
+                    sunLongitude[i] - earthLongitude[i])), 0.02);
+        }
+
+        assertFalse(PositionService.supports(SweConst.SE_SUN, HELIO));
+        assertFalse(PositionService.supports(SweConst.SE_EARTH, GEO));
+        assertFalse(PositionService.supports(SweConst.SE_TRUE_NODE, GEO));
+    }
+
+    public void testGridMatchesSingleSamples()
+    {
+        PositionService service = new PositionService(CIRCULAR_ORBITS);
+        int n = 300;
+        double startJd = 2451545.0 + 0.5;
+        double[] longitude = new double[n];
+        double[] speed = new double[n];
+
+        // Sample part of a grid, then all of it.
+        service.sampleGrid(SweConst.SE_MARS, GEO, startJd, 2.0, 100, 200,
+                longitude, speed);
+        service.sampleGrid(SweConst.SE_MARS, GEO, startJd, 2.0, 0, n,
+                longitude, speed);
+
+        double[] out = new double[2];
+        for (int i = 0; i < n; i++) {
+            service.sample(SweConst.SE_MARS, GEO, startJd + 2.0 * i, out);
+            assertEquals(out[0], longitude[i], 1.0e-7);
+            assertEquals(out[1], speed[i], 1.0e-7);
+        }
+    }
+
+    public void testLightNearTheSunIsDeflected()
+    {
+        // A distant body 1 degree from the Sun, with nothing moving,
+        // so only the deflection changes its position.  It is pushed
+        // away from the Sun by 2 G M / c^2 / r * cot(E / 2), 0.467".
+        double elongation = Math.toRadians(1.0);
+        double distance = 1.0e6;
+        double[] sun = new double[6];
+        double[] earth = { 1.0, 0.0, 0.0, 0.0, 0.0, 0.0 };
+        double[] body = {
+                1.0 - distance * Math.cos(elongation),
+                distance * Math.sin(elongation),
+                0.0, 0.0, 0.0, 0.0 };
+
+        double[] out = new double[2];
+        PositionService.toLongitude(body, 0, earth, 0, sun, 0, true, out, 0, 1);
+
+        double expected = Math.toDegrees(1.9741257e-8 / Math.tan(elongation / 2.0));
+        assertEquals(-expected, out[0] - 179.0, expected * 0.005);
+
+        // Without the Sun's state there is no deflection.
+        PositionService.toLongitude(body, 0, earth, 0, null, 0, true, out, 0, 1);
+        assertEquals(179.0, out[0], 1.0e-9);
+    }
+}
@@ -0,0 +1,106 @@
+package com.ryanluu.cyclehunter.ephemeris;
+
+import com.ryanluu.cyclehunter.Ephemeris;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for the synthetic bodies.
+ */
+public class SyntheticBodiesTest
+    extends TestCase
+{
+    public SyntheticBodiesTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SyntheticBodiesTest.class );
+    }
+
+    public void testCalendarDay()
+    {
+        CalendarDayBody body = SyntheticBodies.DEFAULT.getCalendarDay();
+
+        // Midnight on January 1st is a whole number of cycles.
+        assertEquals(360.0 * 2024,
+                body.getUnwrappedLongitude(Ephemeris.julianDay(2024, 1, 1, 0.0)), 1.0e-9);
+
+        // One cycle back is the same date and time a year earlier,
+        // across a leap day.
+        double t = Ephemeris.julianDay(2024, 3, 15, 12.0);
+        double[] jd = { t };
+        double[] longitude = new double[1];
+        double[] lookback = new double[1];
+        body.fillUnwrappedLongitudes(jd, 0, 1, longitude);
+        body.fillLookbackJds(jd, longitude, 360.0, 0, 1, lookback);
+        assertEquals(Ephemeris.julianDay(2023, 3, 15, 12.0), lookback[0], 1.0e-6);
+
+        // 184 day slots back from July 2nd 12:00 (183.5 days into the
+        // year) is the last day slot of the year before.
+        t = Ephemeris.julianDay(2024, 7, 2, 12.0);
+        double slots = body.getJdForUnwrappedLongitude(body.getUnwrappedLongitude(t) - 184.0 * 360.0 / 366.0);
+        assertEquals(Ephemeris.julianDay(2023, 12, 31, 12.0), slots, 1.0e-6);
+
+        // February 29th looks back to March 1st.
+        t = Ephemeris.julianDay(2024, 2, 29, 6.0);
+        double back = body.getJdForUnwrappedLongitude(body.getUnwrappedLongitude(t) - 360.0);
+        assertEquals(Ephemeris.julianDay(2023, 3, 1, 0.0), back, 1.0e-6);
+
+        for (double s = 2415020.5; s < 2488070.5; s += 97.3) {
+            assertEquals(s, body.getJdForUnwrappedLongitude(body.getUnwrappedLongitude(s)), 1.0e-6);
+        }
+    }
+
+    public void testAscendantMatchesHorizon()
+    {
+        double latitude = 40.7128;
+        AscendantBody body = new AscendantBody(latitude, -74.0060);
+        double phi = Math.toRadians(latitude);
+        double eps = Math.toRadians(23.4392911);
+
+        for (double t = 2451545.0; t < 2451545.0 + 3.0; t += 0.0371) {
+            double ascendant = EphemerisTable.wrap(body.getUnwrappedLongitude(t));
+            double ramc = Math.toRadians(body.getUnwrappedRamc(t));
+
+            // The Ascendant is on the horizon, in the east.
+            double l = Math.toRadians(ascendant);
+            double alpha = Math.atan2(Math.sin(l) * Math.cos(eps), Math.cos(l));
+            double delta = Math.asin(Math.sin(eps) * Math.sin(l));
+            double hourAngle = ramc - alpha;
+            double sinAltitude = Math.sin(phi) * Math.sin(delta) +
+                    Math.cos(phi) * Math.cos(delta) * Math.cos(hourAngle);
+            assertEquals(0.0, sinAltitude, 1.0e-9);
+            assertTrue(Math.sin(hourAngle) < 0.0);
+        }
+    }
+
+    public void testAscendantInverse()
+    {
+        AscendantBody body = new AscendantBody(51.5, 0.0);
+
+        double previous = Double.NEGATIVE_INFINITY;
+        for (double t = 2451545.0; t < 2451545.0 + 2.0; t += 0.001) {
+            double u = body.getUnwrappedLongitude(t);
+            assertTrue(u > previous);
+            previous = u;
+            assertEquals(t, body.getJdForUnwrappedLongitude(u), 1.0e-8);
+        }
+
+        // A whole cycle back is one sidereal day back.
+        double t = 2460000.3;
+        double back = body.getJdForUnwrappedLongitude(body.getUnwrappedLongitude(t) - 360.0);
+        assertEquals(360.0 / AscendantBody.SIDEREAL_DEGREES_PER_DAY, t - back, 1.0e-6);
+
+        try {
+            new AscendantBody(70.0, 0.0);
+            fail("Latitude beyond the polar circle was accepted.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
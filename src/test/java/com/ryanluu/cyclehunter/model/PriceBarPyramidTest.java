@@ -0,0 +1,123 @@
+package com.ryanluu.cyclehunter.model;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+/**
+ * Unit tests for PriceBarPyramid.
+ */
+public class PriceBarPyramidTest
+    extends TestCase
+{
+    public PriceBarPyramidTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PriceBarPyramidTest.class );
+    }
+
+    private static void appendRandomBars(PriceBarSeries series, Random random, int numBars)
+    {
+        for (int i = 0; i < numBars; i++) {
+            long open = 10000 + random.nextInt(1000);
+            long close = 10000 + random.nextInt(1000);
+            long high = Math.max(open, close) + random.nextInt(100);
+            long low = Math.min(open, close) - random.nextInt(100);
+            series.append(2451545.0 + series.size(), open, high, low, close,
+                    random.nextInt(5000), random.nextInt(100));
+        }
+    }
+
+    private static void assertRangesMatchBruteForce(PriceBarSeries series,
+                                                    PriceBarPyramid pyramid,
+                                                    Random random)
+    {
+        int n = series.size();
+        for (int trial = 0; trial < 500; trial++) {
+            int from = random.nextInt(n + 1);
+            int to = from + random.nextInt(n - from + 1);
+
+            long high = Long.MIN_VALUE;
+            long low = Long.MAX_VALUE;
+            long volume = 0;
+            for (int i = from; i < to; i++) {
+                high = Math.max(high, series.getHighPriceUnscaled(i));
+                low = Math.min(low, series.getLowPriceUnscaled(i));
+                volume += series.getVolume(i);
+            }
+
+            String range = "[" + from + ", " + to + ")";
+            assertEquals(range, high, pyramid.getHighestHighUnscaled(from, to));
+            assertEquals(range, low, pyramid.getLowestLowUnscaled(from, to));
+            assertEquals(range, volume, pyramid.getTotalVolume(from, to));
+        }
+    }
+
+    public void testRangeQueriesAfterBuildAndAppend()
+    {
+        Random random = new Random(12);
+        PriceBarSeries series = new PriceBarSeries(2);
+        appendRandomBars(series, random, 3917);
+
+        PriceBarPyramid pyramid = series.getPyramid();
+        assertRangesMatchBruteForce(series, pyramid, random);
+
+        // Append in small pieces, so that partial nodes get completed.
+        for (int i = 0; i < 20; i++) {
+            appendRandomBars(series, random, 1 + random.nextInt(40));
+            assertSame(pyramid, series.getPyramid());
+        }
+        assertRangesMatchBruteForce(series, pyramid, random);
+
+        // Top level node covers bars [0, 3125).
+        int top = pyramid.getNumLevels() - 1;
+        assertEquals(5, top);
+        assertEquals(series.getOpenPriceUnscaled(0), pyramid.getOpenPriceUnscaled(top, 0));
+        assertEquals(series.getClosePriceUnscaled(3124), pyramid.getClosePriceUnscaled(top, 0));
+        assertEquals(series.getOpenInterest(3124), pyramid.getOpenInterest(top, 0));
+        assertEquals(pyramid.getHighestHighUnscaled(0, 3125),
+                pyramid.getHighPriceUnscaled(top, 0));
+    }
+
+    public void testChangingBarsDiscardsPyramid()
+    {
+        Random random = new Random(13);
+        PriceBarSeries series = new PriceBarSeries(2);
+        appendRandomBars(series, random, 100);
+
+        PriceBarPyramid pyramid = series.getPyramid();
+        series.setHighPriceUnscaled(42, 1000000);
+
+        assertNotSame(pyramid, series.getPyramid());
+        assertEquals(1000000, series.getPyramid().getHighestHighUnscaled(0, 100));
+    }
+
+    public void testMemoryOverhead()
+    {
+        PriceBarSeries series = new PriceBarSeries(2, 100000);
+        appendRandomBars(series, new Random(14), 100000);
+
+        double overhead = (double) series.getPyramid().getMemoryUsageBytes() /
+                series.getMemoryUsageBytes();
+        assertTrue("overhead: " + overhead, overhead < 0.25);
+    }
+
+    public void testCoarsestLevel()
+    {
+        PriceBarSeries series = new PriceBarSeries(2);
+        appendRandomBars(series, new Random(15), 1000);
+        PriceBarPyramid pyramid = series.getPyramid();
+
+        assertEquals(0, pyramid.getCoarsestLevel(0.5));
+        assertEquals(0, pyramid.getCoarsestLevel(4.9));
+        assertEquals(1, pyramid.getCoarsestLevel(5.0));
+        assertEquals(2, pyramid.getCoarsestLevel(124.0));
+        assertEquals(4, pyramid.getCoarsestLevel(1.0e9));
+    }
+}
@@ -0,0 +1,155 @@
+package com.ryanluu.cyclehunter.model;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.math.BigDecimal;
+
+/**
+ * Unit tests for PriceBarSeries and PriceBarCursor.
+ */
+public class PriceBarSeriesTest
+    extends TestCase
+{
+    public PriceBarSeriesTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PriceBarSeriesTest.class );
+    }
+
+    private static PriceBarSeries createSeries(int numBars)
+    {
+        PriceBarSeries series = new PriceBarSeries(2, 1);
+        for (int i = 0; i < numBars; i++) {
+            series.append(2451545.0 + i,
+                    10000 + i, 10100 + i, 9900 + i, 10050 + i,
+                    1000 + i, 500 + i);
+        }
+        return series;
+    }
+
+    public void testAppendGrowsAndKeepsValues()
+    {
+        PriceBarSeries series = createSeries(5000);
+
+        assertEquals(5000, series.size());
+        assertEquals(2451545.0 + 4999, series.getTimestampJd(4999), 0.0);
+        assertEquals(10050 + 4999, series.getClosePriceUnscaled(4999));
+        assertEquals(100.50, series.getClosePrice(0), 1e-12);
+        assertEquals(new BigDecimal("100.50"),
+                series.toPriceDecimal(series.getClosePriceUnscaled(0)));
+    }
+
+    public void testFixedPointConversionIsExact()
+    {
+        PriceBarSeries series = new PriceBarSeries(4);
+
+        assertEquals(12342500L, series.toUnscaledPrice(new BigDecimal("1234.25")));
+        assertEquals(12342501L, series.toUnscaledPrice(new BigDecimal("1234.25005")));
+        assertEquals(new BigDecimal("1234.2500"), series.toPriceDecimal(12342500L));
+
+        try {
+            series.toUnscaledPrice(new BigDecimal("1e20"));
+            fail("Expected ArithmeticException for a price that does not fit.");
+        }
+        catch (ArithmeticException e) {
+            // Expected.
+        }
+    }
+
+    public void testFloorAndNearestIndex()
+    {
+        PriceBarSeries series = createSeries(10);
+
+        assertEquals(-1, series.floorIndex(2451544.0));
+        assertEquals(0, series.floorIndex(2451545.0));
+        assertEquals(3, series.floorIndex(2451548.4));
+        assertEquals(9, series.floorIndex(2451600.0));
+
+        assertEquals(0, series.nearestIndex(2451500.0));
+        assertEquals(3, series.nearestIndex(2451548.4));
+        assertEquals(4, series.nearestIndex(2451548.6));
+        assertEquals(9, series.nearestIndex(2451600.0));
+    }
+
+    public void testCursorMatchesPriceBar()
+    {
+        PriceBarSeries series = createSeries(3);
+        PriceBarCursor cursor = series.cursor();
+
+        int count = 0;
+        while (cursor.next()) {
+            PriceBar copy = series.toPriceBar(cursor.getIndex());
+            assertEquals(copy.getTimestampJd(), cursor.getTimestampJd());
+            assertEquals(copy.getOpenPrice(), cursor.getOpenPrice());
+            assertEquals(copy.getHighPrice(), cursor.getHighPrice());
+            assertEquals(copy.getLowPrice(), cursor.getLowPrice());
+            assertEquals(copy.getClosePrice(), cursor.getClosePrice());
+            assertEquals(copy.getVolume(), cursor.getVolume());
+            assertEquals(copy, cursor.toPriceBar());
+            count++;
+        }
+        assertEquals(3, count);
+
+        // The cursor reads what is in the series now.
+        series.setClosePriceUnscaled(1, 4213);
+        assertEquals(new BigDecimal("42.13"), cursor.moveTo(1).getClosePrice());
+    }
+
+    public void testAppendAll()
+    {
+        PriceBarSeries a = createSeries(3);
+        PriceBarSeries b = createSeries(4);
+        a.appendAll(b);
+
+        assertEquals(7, a.size());
+        assertEquals(b.getTimestampJd(3), a.getTimestampJd(6), 0.0);
+
+        try {
+            a.appendAll(new PriceBarSeries(3));
+            fail("Expected IllegalArgumentException for mismatched price scale.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    public void testOffHeapSeriesMatchesHeapSeries()
+    {
+        PriceBarSeries heap = createSeries(3000);
+        PriceBarSeries offHeap = new PriceBarSeries(2, 1, ColumnStorage.OFF_HEAP);
+        offHeap.appendAll(createSeries(1000));
+        for (int i = 1000; i < 3000; i++) {
+            offHeap.append(heap.getTimestampJd(i),
+                    heap.getOpenPriceUnscaled(i), heap.getHighPriceUnscaled(i),
+                    heap.getLowPriceUnscaled(i), heap.getClosePriceUnscaled(i),
+                    heap.getVolume(i), heap.getOpenInterest(i));
+        }
+        offHeap.trimToSize();
+
+        assertSame(ColumnStorage.OFF_HEAP, offHeap.getStorage());
+        assertEquals(heap.size(), offHeap.size());
+        for (int i = 0; i < heap.size(); i++) {
+            assertEquals(heap.getTimestampJd(i), offHeap.getTimestampJd(i), 0.0);
+            assertEquals(heap.getHighPriceUnscaled(i), offHeap.getHighPriceUnscaled(i));
+            assertEquals(heap.getClosePriceUnscaled(i), offHeap.getClosePriceUnscaled(i));
+            assertEquals(heap.getOpenInterest(i), offHeap.getOpenInterest(i));
+        }
+        assertEquals(heap.floorIndex(2451545.0 + 1234.5), offHeap.floorIndex(2451545.0 + 1234.5));
+        assertEquals(heap.getPyramid().getHighestHighUnscaled(17, 2890),
+                offHeap.getPyramid().getHighestHighUnscaled(17, 2890));
+
+        double[] timestamps = offHeap.toTimestampArray();
+        assertEquals(heap.getLastTimestampJd(), timestamps[timestamps.length - 1], 0.0);
+
+        offHeap.setTimestampJd(0, 2451545.0 + 5000);
+        offHeap.sortByTimestamp();
+        assertEquals(2451545.0 + 5000, offHeap.getLastTimestampJd(), 0.0);
+        assertEquals(10050, offHeap.getClosePriceUnscaled(offHeap.size() - 1));
+    }
+}
@@ -0,0 +1,71 @@
+package com.ryanluu.cyclehunter.spectral;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+/**
+ * Unit tests for FftPlan.
+ */
+public class FftPlanTest
+    extends TestCase
+{
+    public FftPlanTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( FftPlanTest.class );
+    }
+
+    public void testPowerSpectrumMatchesDirectTransform()
+    {
+        Random random = new Random(7);
+        for (int size : new int[] { 4, 8, 64, 256 }) {
+            double[] signal = new double[size];
+            for (int i = 0; i < size; i++) {
+                signal[i] = random.nextGaussian();
+            }
+
+            FftPlan plan = new FftPlan(size);
+            double[] power = new double[size / 2 + 1];
+
+            // Twice, to check that the plan can be reused.
+            for (int run = 0; run < 2; run++) {
+                plan.powerSpectrum(signal, power);
+
+                for (int k = 0; k <= size / 2; k++) {
+                    double re = 0.0;
+                    double im = 0.0;
+                    for (int i = 0; i < size; i++) {
+                        double angle = -2.0 * Math.PI * k * i / size;
+                        re += signal[i] * Math.cos(angle);
+                        im += signal[i] * Math.sin(angle);
+                    }
+                    assertEquals("size " + size + ", k " + k,
+                            re * re + im * im, power[k], 1e-9 * size);
+                }
+            }
+        }
+    }
+
+    public void testNextPowerOfTwo()
+    {
+        assertEquals(4, FftPlan.nextPowerOfTwo(1));
+        assertEquals(4, FftPlan.nextPowerOfTwo(4));
+        assertEquals(8, FftPlan.nextPowerOfTwo(5));
+        assertEquals(1 << 20, FftPlan.nextPowerOfTwo((1 << 20) - 3));
+
+        try {
+            new FftPlan(12);
+            fail("12 is not a power of two.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ryanluu.cyclehunter.spectral;
+
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for SpectralAnalyzer.
+ */
+public class SpectralAnalyzerTest
+    extends TestCase
+{
+    public SpectralAnalyzerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SpectralAnalyzerTest.class );
+    }
+
+    /**
+     * Creates 30 years of weekday bars whose log price rises steadily,
+     * with a Jupiter synodic cycle and a weaker lunation cycle on top.
+     */
+    private static PriceBarSeries createSeries() {
+        PriceBarSeries rv = new PriceBarSeries();
+
+        double startJd = 2440000.5;
+        for (int day = 0; day < 30 * 365; day++) {
+            if (day % 7 == 5 || day % 7 == 6) {
+                continue;
+            }
+            double logPrice = Math.log(100.0) + 0.0001 * day +
+                    0.10 * Math.sin(2.0 * Math.PI * day / 398.88) +
+                    0.03 * Math.sin(2.0 * Math.PI * day / 29.530589);
+            long price = rv.toUnscaledPrice(Math.exp(logPrice));
+            rv.append(startJd + day, price, price, price, price, 0, 0);
+        }
+
+        return rv;
+    }
+
+    public void testFindsPlanetaryCycles()
+    {
+        SpectralAnalyzer analyzer = new SpectralAnalyzer();
+        PriceBarSeries series = createSeries();
+
+        SpectralAnalysis analysis = analyzer.analyze(series, null);
+        assertTrue(analysis.isLogPrices());
+
+        // Weekends are filled in: one sample per day.
+        assertEquals(1.0, analysis.getSampleStepDays(), 1e-9);
+        assertEquals(16384, analysis.getFftSize());
+
+        SpectralPeak first = analysis.getPeaks().get(0);
+        assertEquals(398.88, first.getPeriodDays(), 4.0);
+        assertEquals("Jupiter", first.getMatches().get(0).getPlanetaryPeriod().getPlanetName());
+        assertEquals(PlanetaryPeriod.Kind.SYNODIC,
+                first.getMatches().get(0).getPlanetaryPeriod().getKind());
+
+        SpectralPeak second = analysis.getPeaks().get(1);
+        assertEquals(29.53, second.getPeriodDays(), 0.1);
+        assertEquals("Moon", second.getMatches().get(0).getPlanetaryPeriod().getPlanetName());
+
+        // A second run reuses the arrays and gives the same answer.
+        SpectralAnalysis again = analyzer.analyze(series, null);
+        assertEquals(first.getPeriodDays(), again.getPeaks().get(0).getPeriodDays(), 0.0);
+    }
+
+    public void testCapsNumberOfSamples()
+    {
+        SpectralAnalyzer analyzer = new SpectralAnalyzer();
+        analyzer.setMaxSamples(1000);
+
+        SpectralAnalysis analysis = analyzer.analyze(createSeries(), null);
+        assertTrue(analysis.getNumSamples() <= 1000);
+        assertEquals(1024, analysis.getFftSize());
+        assertEquals(398.88, analysis.getPeaks().get(0).getPeriodDays(), 8.0);
+    }
+}
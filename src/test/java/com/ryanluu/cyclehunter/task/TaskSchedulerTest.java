@@ -0,0 +1,175 @@
+package com.ryanluu.cyclehunter.task;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for TaskScheduler.
+ */
+public class TaskSchedulerTest
+    extends TestCase
+{
+    /**
+     * Stands in for the JavaFX Application Thread.
+     */
+    private ExecutorService publishThread;
+
+    private TaskScheduler scheduler;
+
+    public TaskSchedulerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TaskSchedulerTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        publishThread = Executors.newSingleThreadExecutor();
+        scheduler = new TaskScheduler(2, publishThread);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        scheduler.shutdown();
+        publishThread.shutdownNow();
+    }
+
+    private void onPublishThread(Runnable runnable) throws Exception
+    {
+        publishThread.submit(runnable).get();
+    }
+
+    public void testSupersededJobIsInterruptedAndNotDelivered() throws Exception
+    {
+        final List<String> delivered = new CopyOnWriteArrayList<>();
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch firstInterrupted = new CountDownLatch(1);
+        final CountDownLatch secondDelivered = new CountDownLatch(1);
+
+        onPublishThread(() -> scheduler.<String>submit("key", job -> {
+            firstStarted.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                firstInterrupted.countDown();
+            }
+            return "first";
+        }, delivered::add));
+
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+
+        onPublishThread(() -> scheduler.<String>submit("key", job -> "second",
+                result -> {
+                    delivered.add(result);
+                    secondDelivered.countDown();
+                }));
+
+        assertTrue(firstInterrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(secondDelivered.await(5, TimeUnit.SECONDS));
+
+        // Let anything else queued be published.
+        onPublishThread(() -> { });
+        assertEquals(1, delivered.size());
+        assertEquals("second", delivered.get(0));
+    }
+
+    public void testDelayedJobsAreCoalesced() throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Integer> delivered = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            final int value = i;
+            onPublishThread(() -> scheduler.<Integer>submit("recompute", 200,
+                    job -> {
+                        runs.incrementAndGet();
+                        return value;
+                    },
+                    result -> {
+                        delivered.add(result);
+                        done.countDown();
+                    }));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        onPublishThread(() -> { });
+        assertEquals(1, runs.get());
+        assertEquals(1, delivered.size());
+        assertEquals(Integer.valueOf(4), delivered.get(0));
+    }
+
+    public void testJobThatThrowsAnErrorIsNoLongerBusy() throws Exception
+    {
+        final CountDownLatch failed = new CountDownLatch(1);
+        final List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+        onPublishThread(() -> scheduler.<String>submit("key", job -> {
+            throw new AssertionError("Broken.");
+        }, result -> fail("Should not succeed.")).setOnFailed(t -> {
+            failures.add(t);
+            failed.countDown();
+        }));
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        final boolean[] busy = { true };
+        onPublishThread(() -> busy[0] = scheduler.isBusy("key"));
+        assertFalse(busy[0]);
+        assertTrue(failures.get(0) instanceof AssertionError);
+    }
+
+    public void testCancelledKeyIsBusyUntilItsWorkStops() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch idle = new CountDownLatch(1);
+        scheduler.setOnIdle(key -> idle.countDown());
+
+        // Work that does not stop as soon as it is interrupted.
+        onPublishThread(() -> scheduler.<String>submit("key", job -> {
+            started.countDown();
+            boolean done = false;
+            while (!done) {
+                try {
+                    done = release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Carry on until released.
+                }
+            }
+            return "result";
+        }, result -> fail("A cancelled job should not be delivered.")));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final boolean[] busy = { false };
+        onPublishThread(() -> {
+            scheduler.cancel("key");
+            busy[0] = scheduler.isBusy("key");
+        });
+        assertTrue(busy[0]);
+
+        // Let the publishing of the cancel run while the work still does.
+        onPublishThread(() -> busy[0] = scheduler.isBusy("key"));
+        assertTrue(busy[0]);
+        assertEquals(1, idle.getCount());
+
+        release.countDown();
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+        onPublishThread(() -> busy[0] = scheduler.isBusy("key"));
+        assertFalse(busy[0]);
+    }
+}
@@ -0,0 +1,172 @@
+package com.ryanluu.cyclehunter.ui;
+
+import com.ryanluu.cyclehunter.engine.LookbackResult;
+import com.ryanluu.cyclehunter.model.PriceBarPyramid;
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+/**
+ * Unit tests for OverlayColumns.
+ */
+public class OverlayColumnsTest
+    extends TestCase
+{
+    /**
+     * Not a whole number of nodes at any level above the series, so
+     * the last bars are only in the series.
+     */
+    private static final int NUM_BARS = 10007;
+
+    public OverlayColumnsTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( OverlayColumnsTest.class );
+    }
+
+    private static PriceBarSeries createRandomSeries(int numBars)
+    {
+        PriceBarSeries series = new PriceBarSeries(2, numBars);
+        Random random = new Random(11);
+        long price = 10000;
+        for (int i = 0; i < numBars; i++) {
+            long open = price;
+            long close = Math.max(100, open + random.nextInt(201) - 100);
+            long high = Math.max(open, close) + random.nextInt(50);
+            long low = Math.min(open, close) - random.nextInt(50);
+            series.append(2451545.0 + i, open, high, low, close, 0, 0);
+            price = close;
+        }
+        return series;
+    }
+
+    /**
+     * Creates a result that looks back about 300 bars, jittering back
+     * and forth, with no bar to look back to for the first bars and for
+     * a stretch in the middle, and looking back to the last bars of the
+     * series from the bars at the end.
+     */
+    private static LookbackResult createResult(int numBars)
+    {
+        Random random = new Random(17);
+        double[] lookbackJd = new double[numBars];
+        int[] lookbackBarIndex = new int[numBars];
+        for (int i = 0; i < numBars; i++) {
+            int j = i - 300 + random.nextInt(41) - 20;
+            if (i >= 5000 && i < 5100) {
+                j = -1;
+            }
+            else if (i >= numBars - 100) {
+                j = i - random.nextInt(3);
+            }
+            lookbackBarIndex[i] = Math.max(-1, j);
+            lookbackJd[i] = (j < 0 ? Double.NaN : 2451545.0 + j);
+        }
+        return new LookbackResult(null, null, 0.0, lookbackJd, lookbackBarIndex);
+    }
+
+    private static void assertColumnsMatchBruteForce(PriceBarSeries series,
+                                                     LookbackResult result,
+                                                     double firstBar,
+                                                     double barsPerPixel,
+                                                     int width)
+    {
+        OverlayColumns columns = new OverlayColumns();
+        columns.fill(series, result, firstBar, barsPerPixel, width);
+        assertEquals(width, columns.getWidth());
+
+        long minLow = Long.MAX_VALUE;
+        long maxHigh = Long.MIN_VALUE;
+        int emptyColumns = 0;
+
+        for (int c = 0; c < width; c++) {
+            int from = Math.max(0, (int) Math.floor(firstBar + c * barsPerPixel));
+            int to = Math.min(series.size(),
+                    (int) Math.floor(firstBar + (c + 1) * barsPerPixel));
+
+            int firstJ = -1;
+            int lastJ = -1;
+            int minJ = Integer.MAX_VALUE;
+            int maxJ = -1;
+            for (int i = from; i < to; i++) {
+                int j = result.getLookbackBarIndex(i);
+                if (j >= 0) {
+                    if (firstJ < 0) {
+                        firstJ = j;
+                    }
+                    lastJ = j;
+                    minJ = Math.min(minJ, j);
+                    maxJ = Math.max(maxJ, j);
+                }
+            }
+
+            if (firstJ < 0) {
+                assertFalse("column " + c, columns.hasBars(c));
+                emptyColumns++;
+                continue;
+            }
+
+            long low = Long.MAX_VALUE;
+            long high = Long.MIN_VALUE;
+            for (int j = minJ; j <= maxJ; j++) {
+                low = Math.min(low, series.getLowPriceUnscaled(j));
+                high = Math.max(high, series.getHighPriceUnscaled(j));
+            }
+
+            assertTrue("column " + c, columns.hasBars(c));
+            assertEquals("column " + c, series.getClosePriceUnscaled(firstJ), columns.getFirst(c));
+            assertEquals("column " + c, series.getClosePriceUnscaled(lastJ), columns.getLast(c));
+            assertEquals("column " + c, low, columns.getLow(c));
+            assertEquals("column " + c, high, columns.getHigh(c));
+
+            minLow = Math.min(minLow, low);
+            maxHigh = Math.max(maxHigh, high);
+        }
+
+        assertTrue(emptyColumns < width);
+        assertEquals(minLow, columns.getMinLow());
+        assertEquals(maxHigh, columns.getMaxHigh());
+    }
+
+    public void testColumnsMatchBruteForce()
+    {
+        PriceBarSeries series = createRandomSeries(NUM_BARS);
+        LookbackResult result = createResult(NUM_BARS);
+
+        // Whole view, from before the first bar to past the last.
+        assertColumnsMatchBruteForce(series, result, -123.4, 13.7, 800);
+        assertColumnsMatchBruteForce(series, result, 17.5, 173.3, 60);
+
+        // Around the gap in the middle.
+        assertColumnsMatchBruteForce(series, result, 4900.25, 2.5, 120);
+
+        // The last bars, past the last complete node of every level.
+        int lastNode = series.getPyramid().getLevelSize(1) *
+                PriceBarPyramid.getBarsPerNode(1);
+        assertTrue(lastNode < NUM_BARS);
+        assertColumnsMatchBruteForce(series, result, NUM_BARS - 150.6, 1.3, 150);
+    }
+
+    public void testEmptyView()
+    {
+        PriceBarSeries series = createRandomSeries(1000);
+        LookbackResult result = createResult(1000);
+        OverlayColumns columns = new OverlayColumns();
+
+        // Only bars with nothing to look back to.
+        columns.fill(series, result, 0.0, 2.0, 100);
+        assertFalse(columns.hasBars(0));
+        assertTrue(columns.getMinLow() > columns.getMaxHigh());
+
+        columns.fill(series, result, 5000.0, 2.0, 50);
+        assertFalse(columns.hasBars(0));
+        assertTrue(columns.getMinLow() > columns.getMaxHigh());
+    }
+}
@@ -0,0 +1,96 @@
+package com.ryanluu.cyclehunter.ui;
+
+import com.ryanluu.cyclehunter.model.PriceBarSeries;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+/**
+ * Unit tests for PriceColumns.
+ */
+public class PriceColumnsTest
+    extends TestCase
+{
+    public PriceColumnsTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PriceColumnsTest.class );
+    }
+
+    private static PriceBarSeries createRandomSeries(int numBars)
+    {
+        PriceBarSeries series = new PriceBarSeries(2, numBars);
+        Random random = new Random(11);
+        long price = 10000;
+        for (int i = 0; i < numBars; i++) {
+            long open = price;
+            long close = Math.max(100, open + random.nextInt(201) - 100);
+            long high = Math.max(open, close) + random.nextInt(50);
+            long low = Math.min(open, close) - random.nextInt(50);
+            series.append(2451545.0 + i, open, high, low, close, 0, 0);
+            price = close;
+        }
+        return series;
+    }
+
+    public void testColumnsMatchBruteForce()
+    {
+        PriceBarSeries series = createRandomSeries(10000);
+        PriceColumns columns = new PriceColumns();
+
+        double firstBar = -123.4;
+        double barsPerPixel = 13.7;
+        int width = 800;
+        columns.fill(series, firstBar, barsPerPixel, width);
+
+        double minLow = Double.MAX_VALUE;
+        double maxHigh = -Double.MAX_VALUE;
+
+        for (int c = 0; c < width; c++) {
+            int from = Math.max(0, (int) Math.floor(firstBar + c * barsPerPixel));
+            int to = Math.min(series.size(),
+                    (int) Math.floor(firstBar + (c + 1) * barsPerPixel));
+
+            if (from >= to) {
+                assertFalse("column " + c, columns.hasBars(c));
+                continue;
+            }
+
+            double high = -Double.MAX_VALUE;
+            double low = Double.MAX_VALUE;
+            for (int i = from; i < to; i++) {
+                high = Math.max(high, series.getHighPrice(i));
+                low = Math.min(low, series.getLowPrice(i));
+            }
+
+            assertTrue("column " + c, columns.hasBars(c));
+            assertEquals(series.getOpenPrice(from), columns.getOpen(c), 0.0);
+            assertEquals(high, columns.getHigh(c), 0.0);
+            assertEquals(low, columns.getLow(c), 0.0);
+            assertEquals(series.getClosePrice(to - 1), columns.getClose(c), 0.0);
+
+            minLow = Math.min(minLow, low);
+            maxHigh = Math.max(maxHigh, high);
+        }
+
+        assertEquals(minLow, columns.getMinLow(), 0.0);
+        assertEquals(maxHigh, columns.getMaxHigh(), 0.0);
+    }
+
+    public void testEmptyView()
+    {
+        PriceBarSeries series = createRandomSeries(100);
+        PriceColumns columns = new PriceColumns();
+
+        columns.fill(series, 500.0, 2.0, 50);
+
+        assertTrue(Double.isNaN(columns.getMinLow()));
+        assertFalse(columns.hasBars(0));
+    }
+}